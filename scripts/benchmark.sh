@@ -0,0 +1,92 @@
+#!/usr/bin/env bash
+
+# Compares time-to-first-frame and steady-state resident memory between the
+# JVM build and the native build. Requires Linux (for /proc) and a display.
+#
+# Build both variants first:
+#
+#   gradle clean build nativeImage
+#
+# Usage:
+#
+#   scripts/benchmark.sh [runs] [settle-seconds]
+
+set -euo pipefail
+
+readonly ROOT="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." && pwd)"
+readonly JAR="${ROOT}/build/libs/kmcaster.jar"
+readonly NATIVE="${ROOT}/build/native/kmcaster"
+readonly RUNS="${1:-5}"
+readonly SETTLE="${2:-10}"
+
+# Launches the given command, waits for the startup timings that are logged
+# once the frame is shown, then samples the resident set size after the
+# process has settled. Writes "milliseconds kibibytes" to standard output.
+measure() {
+  local log
+  log="$(mktemp)"
+
+  local started
+  started="$(date +%s%N)"
+
+  "$@" --verbose 2> "${log}" &
+  local pid=$!
+
+  until grep -q "Startup:" "${log}"; do
+    if ! kill -0 "${pid}" 2> /dev/null; then
+      echo "Exited before showing the frame:" >&2
+      cat "${log}" >&2
+      rm -f "${log}"
+      return 1
+    fi
+
+    sleep 0.01
+  done
+
+  local shown=$(( ($(date +%s%N) - started) / 1000000 ))
+
+  sleep "${SETTLE}"
+
+  local rss
+  rss="$(awk '/^VmRSS:/ { print $2 }' "/proc/${pid}/status")"
+
+  kill "${pid}"
+  wait "${pid}" 2> /dev/null || true
+  rm -f "${log}"
+
+  echo "${shown} ${rss}"
+}
+
+# Writes the median of the numbers read from standard input.
+median() {
+  sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'
+}
+
+# Runs the given command several times and reports the median results.
+benchmark() {
+  local name="$1"
+  shift
+
+  local results=""
+
+  for (( i = 0; i < RUNS; i++ )); do
+    results+="$(measure "$@")"$'\n'
+  done
+
+  local ms kib
+  ms="$(echo -n "${results}" | cut -d' ' -f1 | median)"
+  kib="$(echo -n "${results}" | cut -d' ' -f2 | median)"
+
+  printf "%-8s first frame %6d ms   RSS %7d KiB\n" "${name}" "${ms}" "${kib}"
+}
+
+for artifact in "${JAR}" "${NATIVE}"; do
+  if [[ ! -e "${artifact}" ]]; then
+    echo "Missing ${artifact}; run: gradle clean build nativeImage" >&2
+    exit 1
+  fi
+done
+
+echo "Median of ${RUNS} runs, RSS sampled after ${SETTLE} s"
+benchmark "JVM" java -jar "${JAR}"
+benchmark "Native" "${NATIVE}"
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import com.kitfox.svg.SVGDiagram;
+import com.kitfox.svg.SVGUniverse;
+import com.whitemagicsoftware.kmcaster.ui.ResourceWalker;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rasterizes every bundled SVG image at several sizes both directly and by
+ * replaying its {@link CompiledDiagram}, then checks that the images match
+ * within a small tolerance. The compiled form is checked as recorded, after
+ * a round trip through its binary format, and as read from the disk cache;
+ * the wrapped form, used for diagrams that cannot be recorded, is also
+ * checked, and the diagrams that need it are listed. Then times loading
+ * and rasterizing the diagrams both ways, checking that reading a compiled
+ * diagram is faster than parsing its document and that replaying it is no
+ * slower than rendering the document.
+ * Exits with a non-zero status when a check fails.
+ */
+public final class CompiledDiagramCheck {
+  private static final int[] HEIGHTS = {50, 100, 173, 400};
+
+  /**
+   * Largest difference allowed in any colour or alpha channel, caused by
+   * anti-aliasing the recorded shapes slightly differently.
+   */
+  private static final int MAX_CHANNEL_DIFF = 32;
+
+  /**
+   * Channel difference above which a pixel counts as different.
+   */
+  private static final int PIXEL_DIFF = 2;
+
+  /**
+   * Largest fraction of different pixels allowed.
+   */
+  private static final double MAX_DIFFERENT = 0.0001;
+
+  /**
+   * Number of timed rounds, after one untimed round to warm up.
+   */
+  private static final int ROUNDS = 4;
+
+  /**
+   * Smallest ratio of parsing time to reading time allowed. Reading the
+   * bundled diagrams is about five times faster once warm.
+   */
+  private static final double MIN_LOAD_SPEEDUP = 2.5;
+
+  /**
+   * Smallest ratio of rendering time to replaying time allowed. Both are
+   * dominated by filling anti-aliased shapes, which replaying cannot avoid;
+   * it saves only walking the element tree, so it is about 1.1 to 1.4
+   * times faster once warm.
+   */
+  private static final double MIN_REPLAY_SPEEDUP = 1.0;
+
+  private final SvgRasterizer mRasterizer = new SvgRasterizer();
+
+  /**
+   * Locations, documents, and compiled forms of the recordable diagrams.
+   */
+  private final List<URL> mUrls = new ArrayList<>();
+  private final List<SVGDiagram> mDiagrams = new ArrayList<>();
+  private final List<CompiledDiagram> mCompiled = new ArrayList<>();
+  private final List<byte[]> mBytes = new ArrayList<>();
+
+  /**
+   * Diagrams that cannot be recorded, with the reason.
+   */
+  private final List<String> mFallbacks = new ArrayList<>();
+
+  private long mPixels;
+  private long mDifferent;
+  private int mMaxDiff;
+
+  public static void main( final String[] args ) throws Exception {
+    final var urls = new ArrayList<URL>();
+
+    new ResourceWalker( "glob:**.svg" ).walk(
+      "/images", path -> {
+        try {
+          urls.add( path.toUri().toURL() );
+        } catch( final Exception ex ) {
+          throw new IllegalStateException( ex );
+        }
+      } );
+
+    expect( !urls.isEmpty(), "bundled images found" );
+
+    final var check = new CompiledDiagramCheck();
+
+    for( final var url : urls ) {
+      check.check( url );
+    }
+
+    check.report( urls.size() );
+    check.time();
+  }
+
+  private void check( final URL url ) throws Exception {
+    final var diagram = mRasterizer.loadDiagram( url );
+    final var cached = mRasterizer.compile( url );
+    final var wrapped = CompiledDiagram.wrap( diagram );
+    final CompiledDiagram recorded;
+
+    try {
+      recorded = CompiledDiagram.compile( diagram );
+    } catch( final UnsupportedOperationException ex ) {
+      mFallbacks.add( url + ": " + ex.getMessage() );
+
+      for( final var height : HEIGHTS ) {
+        final var scale = mRasterizer.calculateScale(
+          diagram, new Dimension( height * 10, height ) );
+        final var expected = mRasterizer.rasterize( diagram, scale );
+
+        compare( expected, cached.rasterize( scale ) );
+        compare( expected, wrapped.rasterize( scale ) );
+      }
+
+      return;
+    }
+
+    final var bytes = new ByteArrayOutputStream();
+
+    recorded.write( bytes );
+
+    final var read = CompiledDiagram.read(
+      new ByteArrayInputStream( bytes.toByteArray() ) );
+
+    mUrls.add( url );
+    mDiagrams.add( diagram );
+    mCompiled.add( read );
+    mBytes.add( bytes.toByteArray() );
+
+    try {
+      wrapped.write( new ByteArrayOutputStream() );
+      expect( false, "wrapped diagram cannot be written" );
+    } catch( final IOException ignored ) {
+    }
+
+    for( final var height : HEIGHTS ) {
+      final var scale = mRasterizer.calculateScale(
+        diagram, new Dimension( height * 10, height ) );
+
+      final var expected = mRasterizer.rasterize( diagram, scale );
+
+      compare( expected, recorded.rasterize( scale ) );
+      compare( expected, read.rasterize( scale ) );
+      compare( expected, cached.rasterize( scale ) );
+      compare( expected, wrapped.rasterize( scale ) );
+    }
+  }
+
+  private void compare(
+    final BufferedImage expected, final BufferedImage actual ) {
+    expect( expected.getWidth() == actual.getWidth() &&
+              expected.getHeight() == actual.getHeight(), "same size" );
+
+    for( int y = 0; y < expected.getHeight(); y++ ) {
+      for( int x = 0; x < expected.getWidth(); x++ ) {
+        final var p = expected.getRGB( x, y );
+        final var q = actual.getRGB( x, y );
+        var diff = 0;
+
+        for( int shift = 0; shift < 32; shift += 8 ) {
+          diff = Math.max(
+            diff, Math.abs( ((p >>> shift) & 0xFF) - ((q >>> shift) & 0xFF) ) );
+        }
+
+        mMaxDiff = Math.max( mMaxDiff, diff );
+        mDifferent += diff > PIXEL_DIFF ? 1 : 0;
+        mPixels++;
+      }
+    }
+  }
+
+  private void report( final int diagrams ) {
+    final var fraction = (double) mDifferent / mPixels;
+
+    System.out.printf(
+      "%d diagrams at %d sizes: max channel difference %d, %,d of %,d " +
+        "pixels differ%n",
+      diagrams, HEIGHTS.length, mMaxDiff, mDifferent, mPixels );
+    System.out.printf(
+      "%d diagrams rendered directly%n", mFallbacks.size() );
+
+    for( final var fallback : mFallbacks ) {
+      System.out.printf( "  %s%n", fallback );
+    }
+
+    expect( mMaxDiff <= MAX_CHANNEL_DIFF,
+            "channel difference at most " + MAX_CHANNEL_DIFF );
+    expect( fraction <= MAX_DIFFERENT,
+            "different pixels at most " + MAX_DIFFERENT );
+  }
+
+  /**
+   * Times parsing each recordable document against reading its compiled
+   * form, and rendering each document against replaying its compiled form.
+   */
+  private void time() throws Exception {
+    var parse = 0L;
+    var read = 0L;
+    var render = 0L;
+    var replay = 0L;
+
+    for( int round = 0; round <= ROUNDS; round++ ) {
+      final var timed = round > 0 ? 1 : 0;
+      final var universe = new SVGUniverse();
+      final var started = System.nanoTime();
+
+      for( final var url : mUrls ) {
+        universe.getDiagram( universe.loadSVG( url ) );
+      }
+
+      final var parsed = System.nanoTime();
+
+      for( final var bytes : mBytes ) {
+        CompiledDiagram.read( new ByteArrayInputStream( bytes ) );
+      }
+
+      parse += timed * (parsed - started);
+      read += timed * (System.nanoTime() - parsed);
+
+      for( int i = 0; i < mDiagrams.size(); i++ ) {
+        final var diagram = mDiagrams.get( i );
+        final var compiled = mCompiled.get( i );
+
+        for( final var height : HEIGHTS ) {
+          final var scale = mRasterizer.calculateScale(
+            diagram, new Dimension( height * 10, height ) );
+          final var before = System.nanoTime();
+
+          mRasterizer.rasterize( diagram, scale );
+
+          final var middle = System.nanoTime();
+
+          compiled.rasterize( scale );
+
+          render += timed * (middle - before);
+          replay += timed * (System.nanoTime() - middle);
+        }
+      }
+    }
+
+    final var loadSpeedup = (double) parse / read;
+    final var replaySpeedup = (double) render / replay;
+
+    System.out.printf(
+      "Over %d rounds: parse %d ms, read %d ms (%.1fx); " +
+        "render %d ms, replay %d ms (%.2fx)%n",
+      ROUNDS, parse / 1_000_000, read / 1_000_000, loadSpeedup,
+      render / 1_000_000, replay / 1_000_000, replaySpeedup );
+
+    expect( loadSpeedup >= MIN_LOAD_SPEEDUP,
+            "reading at least " + MIN_LOAD_SPEEDUP + "x faster than parsing" );
+    expect( replaySpeedup >= MIN_REPLAY_SPEEDUP,
+            "replaying at least " + MIN_REPLAY_SPEEDUP + "x as fast as " +
+              "rendering" );
+  }
+
+  private static void expect( final boolean condition, final String what ) {
+    if( !condition ) {
+      throw new AssertionError( what );
+    }
+  }
+}
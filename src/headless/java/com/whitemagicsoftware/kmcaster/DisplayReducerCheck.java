@@ -0,0 +1,251 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import static com.whitemagicsoftware.kmcaster.HardwareState.SWITCH_PRESSED;
+import static com.whitemagicsoftware.kmcaster.HardwareState.SWITCH_RELEASED;
+import static com.whitemagicsoftware.kmcaster.HardwareSwitch.*;
+import static com.whitemagicsoftware.kmcaster.LabelConfig.*;
+
+/**
+ * Runs key and mouse event sequences through a {@link DisplayReducer}
+ * without a display, checks the resulting {@link DisplayState} snapshots,
+ * then measures the time taken to reduce a typing workload. Exits with a
+ * non-zero status when a check fails.
+ */
+public final class DisplayReducerCheck {
+  private static final int KEY_COUNT = 9;
+  private static final int BENCHMARK_EVENTS = 10_000_000;
+
+  private DisplayReducer mReducer = new DisplayReducer( KEY_COUNT );
+
+  public static void main( final String[] args ) {
+    final var check = new DisplayReducerCheck();
+
+    check.run( "regular key", check::checkRegularKey );
+    check.run( "split label", check::checkSplitLabel );
+    check.run( "consecutive presses", check::checkConsecutive );
+    check.run( "auto-repeat tally", check::checkRepeat );
+    check.run( "modifiers", check::checkModifiers );
+    check.run( "unchanged snapshot", check::checkUnchanged );
+    check.run( "mouse chord", check::checkMouseChord );
+    check.run( "mouse extra label", check::checkMouseExtra );
+
+    benchmark();
+  }
+
+  private void run( final String name, final Runnable check ) {
+    mReducer = new DisplayReducer( KEY_COUNT );
+    check.run();
+    System.out.printf( "pass: %s%n", name );
+  }
+
+  private void checkRegularKey() {
+    var state = press( KEY_REGULAR, "a" );
+
+    expect( state.isPressed( KEY_REGULAR ), "key pressed" );
+    expect( "a", state.getLabel( LABEL_REGULAR ) );
+    expect( null, state.getLabel( LABEL_REGULAR_COUNTER ) );
+
+    state = release( KEY_REGULAR );
+
+    expect( !state.isPressed( KEY_REGULAR ), "key released" );
+    expect( null, state.getLabel( LABEL_REGULAR ) );
+    expect( DisplayState.RELEASED.equals( state ), "nothing shown" );
+  }
+
+  private void checkSplitLabel() {
+    final var state = press( KEY_REGULAR, "Num 5" );
+
+    expect( null, state.getLabel( LABEL_REGULAR ) );
+    expect( "Num", state.getLabel( LABEL_REGULAR_NUM_SUPERSCRIPT ) );
+    expect( "5", state.getLabel( LABEL_REGULAR_NUM_MAIN ) );
+
+    // A single-part label hides both parts of the previous label.
+    final var next = press( KEY_REGULAR, "b" );
+
+    expect( "b", next.getLabel( LABEL_REGULAR ) );
+    expect( null, next.getLabel( LABEL_REGULAR_NUM_SUPERSCRIPT ) );
+    expect( null, next.getLabel( LABEL_REGULAR_NUM_MAIN ) );
+  }
+
+  private void checkConsecutive() {
+    DisplayState state = null;
+
+    for( int i = 1; i <= KEY_COUNT + 2; i++ ) {
+      state = press( KEY_REGULAR, "x" );
+      release( KEY_REGULAR );
+
+      if( i == 3 ) {
+        expect( "×3", state.getLabel( LABEL_REGULAR_COUNTER ) );
+      }
+    }
+
+    expect( KEY_COUNT + "+", state.getLabel( LABEL_REGULAR_COUNTER ) );
+
+    // A different key restarts the tally.
+    state = press( KEY_REGULAR, "y" );
+    expect( null, state.getLabel( LABEL_REGULAR_COUNTER ) );
+  }
+
+  private void checkRepeat() {
+    press( KEY_REGULAR, "↓" );
+
+    var state = mReducer.repeat( "↓", 3 );
+    expect( "×4", state.getLabel( LABEL_REGULAR_COUNTER ) );
+    expect( state.isPressed( KEY_REGULAR ), "held while repeating" );
+
+    state = mReducer.repeat( "↓", 2 );
+    expect( "×6", state.getLabel( LABEL_REGULAR_COUNTER ) );
+
+    // A new press starts counting repeats from zero.
+    release( KEY_REGULAR );
+    press( KEY_REGULAR, "↓" );
+    state = mReducer.repeat( "↓", 1 );
+    expect( "×2", state.getLabel( LABEL_REGULAR_COUNTER ) );
+  }
+
+  private void checkModifiers() {
+    press( KEY_CTRL, "" );
+    var state = press( KEY_SHIFT, "" );
+
+    expect( state.isPressed( KEY_CTRL ), "ctrl pressed" );
+    expect( state.isPressed( KEY_SHIFT ), "shift pressed" );
+    expect( "Ctrl", state.getLabel( LABEL_CTRL ) );
+    expect( "Shift", state.getLabel( LABEL_SHIFT ) );
+
+    state = press( KEY_REGULAR, "t" );
+    expect( state.isPressed( KEY_CTRL ), "ctrl held during chord" );
+    expect( "t", state.getLabel( LABEL_REGULAR ) );
+
+    state = release( KEY_CTRL );
+    expect( !state.isPressed( KEY_CTRL ), "ctrl released" );
+    expect( state.isPressed( KEY_SHIFT ), "shift still held" );
+  }
+
+  private void checkUnchanged() {
+    final var first = press( KEY_ALT, "" );
+    final var second = press( KEY_ALT, "" );
+
+    expect( first == second, "snapshot reused when nothing changes" );
+    expect( first == mReducer.getState(), "current snapshot" );
+  }
+
+  private void checkMouseChord() {
+    press( MOUSE_LEFT, "" );
+    var state = press( MOUSE_RIGHT, "" );
+
+    final var chord =
+      DisplayState.mask( MOUSE_LEFT ) | DisplayState.mask( MOUSE_RIGHT );
+    expect( state.getMouseMask() == chord, "both buttons shown" );
+
+    // Releases are delayed: the held set changes immediately, the display
+    // changes once the release is applied.
+    mReducer.release( MOUSE_LEFT );
+    expect( state == mReducer.getState(), "display unchanged" );
+
+    state = release( MOUSE_LEFT );
+    expect( state.getMouseMask() == DisplayState.mask( MOUSE_RIGHT ),
+            "right button still shown" );
+
+    mReducer.release( MOUSE_RIGHT );
+    state = release( MOUSE_RIGHT );
+    expect( state.getMouseMask() == 0, "no buttons shown" );
+  }
+
+  private void checkMouseExtra() {
+    var state = press( MOUSE_EXTRA, "4" );
+    expect( "4", state.getLabel( LABEL_MOUSE_EXTRA ) );
+
+    mReducer.release( MOUSE_EXTRA );
+    state = release( MOUSE_EXTRA );
+    expect( null, state.getLabel( LABEL_MOUSE_EXTRA ) );
+  }
+
+  /**
+   * Reduces a workload of typed keys, some chorded with Shift, and reports
+   * the mean time per event.
+   */
+  private static void benchmark() {
+    final var keys = "the quick brown fox jumps over the lazy dog".split( "" );
+    final var events = new HardwareSwitchState[ keys.length * 2 + 2 ];
+    var i = 0;
+
+    events[ i++ ] = new HardwareSwitchState( KEY_SHIFT, SWITCH_PRESSED );
+    events[ i++ ] = new HardwareSwitchState( KEY_SHIFT, SWITCH_RELEASED );
+
+    for( final var key : keys ) {
+      events[ i++ ] = new HardwareSwitchState(
+        KEY_REGULAR, SWITCH_PRESSED, key );
+      events[ i++ ] = new HardwareSwitchState(
+        KEY_REGULAR, SWITCH_RELEASED, key );
+    }
+
+    final var reducer = new DisplayReducer( KEY_COUNT );
+    var hash = 0;
+
+    // Warm up, then measure.
+    for( int round = 0; round < 2; round++ ) {
+      final var started = System.nanoTime();
+
+      for( int n = 0; n < BENCHMARK_EVENTS; n++ ) {
+        hash += reducer.apply( events[ n % events.length ] ).hashCode();
+      }
+
+      final var elapsed = System.nanoTime() - started;
+
+      if( round == 1 ) {
+        System.out.printf(
+          "benchmark: %,d events in %d ms, %.1f ns per event (%d)%n",
+          BENCHMARK_EVENTS, elapsed / 1_000_000,
+          (double) elapsed / BENCHMARK_EVENTS, hash & 1 );
+      }
+    }
+  }
+
+  private DisplayState press( final HardwareSwitch hwSwitch, final String v ) {
+    return mReducer.apply( new HardwareSwitchState(
+      hwSwitch, SWITCH_PRESSED, v ) );
+  }
+
+  private DisplayState release( final HardwareSwitch hwSwitch ) {
+    return mReducer.apply( new HardwareSwitchState(
+      hwSwitch, SWITCH_RELEASED ) );
+  }
+
+  private static void expect( final String expected, final String actual ) {
+    expect( expected == null ? actual == null : expected.equals( actual ),
+            "expected " + expected + " but was " + actual );
+  }
+
+  private static void expect( final boolean condition, final String what ) {
+    if( !condition ) {
+      throw new AssertionError( what );
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import com.whitemagicsoftware.kmcaster.analytics.JournalWriter;
+import com.whitemagicsoftware.kmcaster.analytics.NgramRecorder;
+import com.whitemagicsoftware.kmcaster.ui.BatchingRepaintManager;
+import com.whitemagicsoftware.kmcaster.ui.FramePacer;
+import com.whitemagicsoftware.kmcaster.ui.SpeedMeter;
+import com.whitemagicsoftware.kmcaster.util.IdleMonitor;
+import com.whitemagicsoftware.kmcaster.util.Parkable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static com.whitemagicsoftware.kmcaster.HardwareSwitch.KEY_REGULAR;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Runs a burst of typing through the event handler and the components that
+ * work in the background, including the render thread's {@link FramePacer},
+ * then lets the release timers expire so that the handler parks the
+ * application. Samples the CPU time of the whole process over an idle
+ * minute, then checks that the next key press wakes the render thread.
+ * Also checks that an {@link IdleMonitor} parks and wakes its work once per
+ * transition. Exits with a non-zero status when a check fails.
+ */
+public final class IdleCheck {
+  private static final int PRESSES = 200;
+  private static final long PRESS_MS = 5;
+
+  /**
+   * Longer than the speed meter's window, after which its timer stops.
+   */
+  private static final long SETTLE_MS = 6_000;
+  private static final long IDLE_MS = 60_000;
+
+  /**
+   * Longest time for the render thread to end once parked, or to render a
+   * frame once woken.
+   */
+  private static final long RENDER_MS = 1_000;
+
+  /**
+   * CPU time allowed for the whole process during the idle window, under
+   * half a percent of one core. This includes the JVM's own housekeeping
+   * threads; an otherwise empty JVM uses about 40 ms of CPU per minute.
+   */
+  private static final long MAX_IDLE_NANOS = 250_000_000;
+
+  /**
+   * Prefixes of the application, Swing event, and Swing timer threads.
+   */
+  private static final String[] THREADS = {
+    "kmcaster-", "AWT-EventQueue-", "TimerQueue"
+  };
+
+  public static void main( final String[] args ) throws Exception {
+    checkMonitor();
+    checkIdle();
+  }
+
+  private static void checkMonitor() throws Exception {
+    final var counts = new int[ 2 ];
+    final var monitor = new IdleMonitor();
+
+    SwingUtilities.invokeAndWait( () -> {
+      monitor.add( new Parkable() {
+        @Override
+        public void park() {
+          counts[ 0 ]++;
+        }
+
+        @Override
+        public void wake() {
+          counts[ 1 ]++;
+        }
+      } );
+
+      monitor.wake();
+      monitor.park();
+      monitor.park();
+      monitor.wake();
+      monitor.wake();
+    } );
+
+    expect( counts[ 0 ] == 1 && counts[ 1 ] == 1, "park and wake once" );
+    System.out.println( "pass: idle monitor" );
+  }
+
+  private static void checkIdle() throws Exception {
+    final var dir = Files.createTempDirectory( "kmcaster-idle" );
+    final var theme = Files.createDirectories( dir.resolve( "theme" ) );
+    final var ngrams = new NgramRecorder( dir.resolve( "ngrams.bin" ) );
+    final var journal = new JournalWriter( dir.resolve( "journal" ) );
+    final var meter = new SpeedMeter[ 1 ];
+    final var handler = new EventHandler[ 1 ];
+    final var frames = new AtomicInteger();
+    final var pacer = new FramePacer( frames::incrementAndGet, 60 );
+    final var settings = new Settings();
+    final var images = HardwareImages.create(
+      settings, ForkJoinPool.commonPool() ).get();
+
+    new ThemeWatcher( theme, paths -> {}, tint -> {} ).start();
+    SwingUtilities.invokeAndWait( () -> {
+      meter[ 0 ] = new SpeedMeter(
+        new Font( Font.SANS_SERIF, Font.BOLD, 12 ), new JPanel() );
+      handler[ 0 ] = new EventHandler(
+        images, settings, BatchingRepaintManager.install() );
+      handler[ 0 ].addParkable( pacer );
+    } );
+
+    for( int i = 0; i < PRESSES; i++ ) {
+      final var key = String.valueOf( (char) ('a' + i % 26) );
+
+      type( key, handler[ 0 ], ngrams );
+      journal.pressed( i, key, 0 );
+      journal.released( i );
+      meter[ 0 ].keyPressed();
+      pacer.requestFrame();
+      Thread.sleep( PRESS_MS );
+    }
+
+    Files.writeString( theme.resolve( "key.svg" ), "<svg/>" );
+    Thread.sleep( SETTLE_MS );
+
+    expect( frames.get() > 0, "frames rendered" );
+    expect( await( () -> !pacer.isRunning() ), "render thread parked" );
+    System.out.println( "pass: render thread parked" );
+
+    final var before = sample();
+    final var beforeCpu = getProcessCpuTime();
+    Thread.sleep( IDLE_MS );
+    final var afterCpu = getProcessCpuTime();
+    final var after = sample();
+
+    var total = 0L;
+
+    for( final var entry : after.entrySet() ) {
+      final var used = entry.getValue() - before.getOrDefault(
+        entry.getKey(), entry.getValue() );
+
+      System.out.printf( "%s: %d us%n", entry.getKey(),
+                         NANOSECONDS.toMicros( used ) );
+      total += used;
+    }
+
+    final var process = afterCpu - beforeCpu;
+
+    System.out.printf(
+      "Idle for %d ms using %d us CPU in watched threads, %d us in process%n",
+      IDLE_MS, NANOSECONDS.toMicros( total ), NANOSECONDS.toMicros( process ) );
+    expect( after.keySet().stream().anyMatch(
+      t -> t.startsWith( "kmcaster-ngrams" ) ), "recorder thread running" );
+    expect( after.keySet().stream().noneMatch(
+      t -> t.startsWith( FramePacer.THREAD_NAME ) ), "no render thread" );
+    expect( process <= MAX_IDLE_NANOS,
+            "idle process CPU at most " + MAX_IDLE_NANOS + " ns" );
+    System.out.println( "pass: idle CPU" );
+
+    final var rendered = frames.get();
+    final var name = KEY_REGULAR.toString();
+
+    handler[ 0 ].propertyChange(
+      new PropertyChangeEvent( name, name, "", "a" ) );
+    expect( await( pacer::isRunning ), "render thread woken by input" );
+    pacer.requestFrame();
+    expect( await( () -> frames.get() > rendered ), "render after waking" );
+    handler[ 0 ].propertyChange(
+      new PropertyChangeEvent( name, name, "a", "" ) );
+    Thread.sleep( settings.getDelayKeyRegular() );
+    expect( await( () -> !pacer.isRunning() ), "render thread parked again" );
+    System.out.println( "pass: render thread resumed" );
+  }
+
+  /**
+   * Presses and releases the given key, sending both events to each
+   * listener the way the keyboard hook does.
+   */
+  private static void type(
+    final String key, final PropertyChangeListener... listeners ) {
+    final var name = KEY_REGULAR.toString();
+    final var pressed = new PropertyChangeEvent( name, name, "", key );
+    final var released = new PropertyChangeEvent( name, name, key, "" );
+
+    for( final var listener : listeners ) {
+      listener.propertyChange( pressed );
+      listener.propertyChange( released );
+    }
+  }
+
+  /**
+   * Waits for the given condition to hold, up to {@link #RENDER_MS}.
+   *
+   * @return {@code true} if the condition held in time.
+   */
+  private static boolean await( final BooleanSupplier test )
+    throws InterruptedException {
+    final var deadline = System.nanoTime() + MILLISECONDS.toNanos( RENDER_MS );
+
+    while( !test.getAsBoolean() ) {
+      if( System.nanoTime() > deadline ) {
+        return false;
+      }
+
+      Thread.sleep( 10 );
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the CPU time used so far by the whole process.
+   */
+  private static long getProcessCpuTime() {
+    final var bean = ManagementFactory.getOperatingSystemMXBean();
+
+    expect( bean instanceof com.sun.management.OperatingSystemMXBean,
+            "process CPU time supported" );
+
+    return ((com.sun.management.OperatingSystemMXBean) bean)
+      .getProcessCpuTime();
+  }
+
+  /**
+   * Returns the CPU time used so far by each watched thread.
+   */
+  private static Map<String, Long> sample() {
+    final var bean = ManagementFactory.getThreadMXBean();
+    final var times = new HashMap<String, Long>();
+
+    expect( bean.isThreadCpuTimeSupported(), "thread CPU time supported" );
+
+    for( final var thread : Thread.getAllStackTraces().keySet() ) {
+      final var name = thread.getName();
+
+      for( final var prefix : THREADS ) {
+        if( name.startsWith( prefix ) ) {
+          final var time = bean.getThreadCpuTime( thread.getId() );
+
+          if( time >= 0 ) {
+            times.put( name + "#" + thread.getId(), time );
+          }
+        }
+      }
+    }
+
+    return times;
+  }
+
+  private static void expect( final boolean condition, final String what ) {
+    if( !condition ) {
+      throw new AssertionError( what );
+    }
+  }
+}
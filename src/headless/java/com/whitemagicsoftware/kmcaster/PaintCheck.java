@@ -0,0 +1,211 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Map;
+
+import static com.whitemagicsoftware.kmcaster.SvgRasterizer.*;
+import static com.whitemagicsoftware.kmcaster.ui.ImageTinter.*;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * Measures the time to paint a rasterized key the way
+ * {@link HardwareComponent} does, as rasterized and after conversion to
+ * the screen's preferred format, using both the quality and the blitting
+ * rendering hints. Checks that the conversion paints the same pixels and
+ * that the converted image, blitted, is the fastest to paint. Also checks
+ * that a mask, once tinted into a premultiplied image, paints as fast as a
+ * converted image, and reports how long tinting takes.
+ * Exits with a non-zero status when a check fails.
+ */
+public final class PaintCheck {
+  private static final String KEY = "/images/key/up/medium.svg";
+  private static final int HEIGHT = 100;
+  private static final int PAINTS = 20_000;
+
+  /**
+   * Largest ratio of painting a tinted premultiplied image to painting a
+   * converted image, allowing for timing noise.
+   */
+  private static final double TINTED_RATIO = 2.0;
+
+  public static void main( final String[] args ) {
+    final var rasterizer = new SvgRasterizer();
+    final var diagram = rasterizer.compile( KEY );
+    final var source = diagram.rasterize(
+      rasterizer.calculateScale( diagram, new Dimension( HEIGHT * 10,
+                                                         HEIGHT ) ) );
+    final var compatible = toCompatibleImage( source );
+    final var orange = palette( Color.ORANGE );
+    final var mask = tint( toMask( source, palette( Color.BLUE ) ), orange );
+    final var colours = colours( orange );
+    final var tinted = new BufferedImage(
+      source.getWidth(), source.getHeight(), TYPE_INT_ARGB_PRE );
+
+    tint( mask, colours, tinted );
+    final var w = source.getWidth();
+    final var h = source.getHeight();
+
+    expect( compatible != source, "image converted" );
+    expect( Arrays.equals( paint( source ), paint( compatible ) ),
+            "converted image paints the same pixels" );
+    System.out.printf( "pass: %dx%d key converted%n", w, h );
+
+    expect( difference( paint( mask ), paint( tinted ) ) <= 1,
+            "tinted image paints the same pixels as the tinted mask" );
+    System.out.println( "pass: tinted mask converted" );
+
+    final var abgrQuality = time( source, RENDERING_HINTS );
+    final var abgrBlit = time( source, BLIT_HINTS );
+    final var preQuality = time( compatible, RENDERING_HINTS );
+    final var preBlit = time( compatible, BLIT_HINTS );
+    final var maskBlit = time( mask, BLIT_HINTS );
+    final var tintedBlit = time( tinted, BLIT_HINTS );
+    final var tinting = timeTint( mask, colours, tinted );
+
+    System.out.printf(
+      "benchmark: %,d paints per image, us per paint%n" +
+        "  rasterized, quality hints: %6.1f%n" +
+        "  rasterized, blit hints:    %6.1f%n" +
+        "  compatible, quality hints: %6.1f%n" +
+        "  compatible, blit hints:    %6.1f%n" +
+        "  tinted mask, blit hints:   %6.1f%n" +
+        "  tinted, blit hints:        %6.1f%n" +
+        "  tinting the mask:          %6.1f%n",
+      PAINTS, abgrQuality, abgrBlit, preQuality, preBlit, maskBlit,
+      tintedBlit, tinting );
+
+    expect( preBlit < abgrQuality && preBlit < abgrBlit,
+            "compatible image paints faster than the rasterized image" );
+    expect( tintedBlit < preBlit * TINTED_RATIO,
+            "tinted image paints as fast as the compatible image" );
+    expect( tintedBlit < maskBlit,
+            "tinted image paints faster than the tinted mask" );
+    System.out.println( "pass: tinted image paint time" );
+  }
+
+  /**
+   * Paints an image into a new destination in the screen's usual format.
+   *
+   * @return The destination's pixels.
+   */
+  private static int[] paint( final BufferedImage image ) {
+    final var w = image.getWidth();
+    final var h = image.getHeight();
+    final var dst = new BufferedImage( w, h, TYPE_INT_ARGB_PRE );
+    final var g = dst.createGraphics();
+
+    g.setRenderingHints( BLIT_HINTS );
+    g.setComposite( AlphaComposite.Src );
+    g.drawImage( image, 0, 0, null );
+    g.dispose();
+
+    return dst.getRGB( 0, 0, w, h, null, 0, w );
+  }
+
+  /**
+   * Returns the largest difference between any channel of two images'
+   * pixels, which allows for rounding while premultiplying.
+   */
+  private static int difference( final int[] a, final int[] b ) {
+    var max = 0;
+
+    for( int i = 0; i < a.length; i++ ) {
+      for( int shift = 0; shift < 32; shift += 8 ) {
+        max = Math.max( max, Math.abs(
+          ((a[ i ] >>> shift) & 0xFF) - ((b[ i ] >>> shift) & 0xFF) ) );
+      }
+    }
+
+    return max;
+  }
+
+  /**
+   * Tints a mask repeatedly, after warming up, as when a component shows
+   * another mask.
+   *
+   * @return The mean time per tint, in microseconds.
+   */
+  private static double timeTint(
+    final BufferedImage mask, final int[] colours,
+    final BufferedImage target ) {
+    final var count = PAINTS / 10;
+    var elapsed = 0L;
+
+    for( int round = 0; round < 2; round++ ) {
+      final var started = System.nanoTime();
+
+      for( int i = 0; i < count; i++ ) {
+        tint( mask, colours, target );
+      }
+
+      elapsed = System.nanoTime() - started;
+    }
+
+    return elapsed / 1_000.0 / count;
+  }
+
+  /**
+   * Paints an image repeatedly, after warming up.
+   *
+   * @return The mean time per paint, in microseconds.
+   */
+  private static double time(
+    final BufferedImage image, final Map<Object, Object> hints ) {
+    final var dst = new BufferedImage(
+      image.getWidth(), image.getHeight(), TYPE_INT_ARGB_PRE );
+    final var g = dst.createGraphics();
+    var elapsed = 0L;
+
+    g.setRenderingHints( hints );
+    g.setComposite( AlphaComposite.Src );
+
+    for( int round = 0; round < 2; round++ ) {
+      final var started = System.nanoTime();
+
+      for( int i = 0; i < PAINTS; i++ ) {
+        g.drawImage( image, 0, 0, null );
+      }
+
+      elapsed = System.nanoTime() - started;
+    }
+
+    g.dispose();
+
+    return elapsed / 1_000.0 / PAINTS;
+  }
+
+  private static void expect( final boolean condition, final String what ) {
+    if( !condition ) {
+      throw new AssertionError( what );
+    }
+  }
+}
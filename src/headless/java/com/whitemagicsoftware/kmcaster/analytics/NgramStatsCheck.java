@@ -0,0 +1,392 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.whitemagicsoftware.kmcaster.analytics.Journal.*;
+import static com.whitemagicsoftware.kmcaster.keymap.KeyNames.ALT;
+import static com.whitemagicsoftware.kmcaster.keymap.KeyNames.CTRL;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Counts the n-grams of recorded keystrokes both in {@link NgramStats} and
+ * exactly, in a map, then checks the estimates against the exact counts and
+ * compares the time taken by each. Keystrokes are read from the journals
+ * given as arguments; without arguments, the application's sources are
+ * typed, skipping indentation. Also checks that statistics recorded with
+ * other key labels are moved aside rather than overwritten. Exits with a
+ * non-zero status when a check fails.
+ */
+public final class NgramStatsCheck {
+  /**
+   * Marks the end of a sequence of consecutive keystrokes.
+   */
+  private static final int BREAK = -1;
+
+  /**
+   * Keys pressed after a longer pause do not continue the sequence, as
+   * when recording.
+   */
+  private static final long PAUSE_MICROS = SECONDS.toMicros( 2 );
+
+  /**
+   * Overcount that the sketch may exceed, as a fraction of all n-grams,
+   * and the largest fraction of n-grams allowed to exceed it.
+   */
+  private static final double MAX_OVERCOUNT = 0.00017;
+  private static final double MAX_EXCEEDING = 0.02;
+
+  private static final int TOP = 20;
+
+  private final String[] mLabels = KeyIds.createLabels();
+  private final Map<String, Integer> mIds = KeyIds.createIndex( mLabels );
+
+  /**
+   * Key identifiers in the order typed, with breaks between sequences.
+   */
+  private int[] mKeys = new int[ 1 << 16 ];
+  private int mLength;
+
+  public static void main( final String[] args )
+    throws IOException, InterruptedException {
+    final var check = new NgramStatsCheck();
+
+    if( args.length == 0 ) {
+      check.type( Path.of( "src", "main", "java" ) );
+    }
+    else {
+      for( final var arg : args ) {
+        check.replay( Path.of( arg ) );
+      }
+    }
+
+    check.run();
+    check.checkLabels();
+  }
+
+  /**
+   * Types the text of every Java source file in a directory.
+   */
+  private void type( final Path dir ) throws IOException {
+    final var enter = id( "Enter ⏎" );
+    final var space = id( "Space" );
+
+    try( final var files = Files.walk( dir ) ) {
+      for( final var file : files.filter( p -> p.toString().endsWith(
+        ".java" ) ).sorted().collect( Collectors.toList() ) ) {
+        var indent = true;
+
+        for( final var c : Files.readString( file, UTF_8 ).toCharArray() ) {
+          if( c == '\n' ) {
+            append( enter );
+            indent = true;
+          }
+          else if( c == ' ' || c == '\t' ) {
+            if( !indent ) {
+              append( space );
+            }
+          }
+          else if( c != '\r' ) {
+            append( mIds.getOrDefault( String.valueOf( c ), KeyIds.OTHER ) );
+            indent = false;
+          }
+        }
+
+        append( BREAK );
+      }
+    }
+  }
+
+  /**
+   * Reads the key presses of a recorded journal, breaking sequences as
+   * {@link NgramRecorder} does.
+   */
+  private void replay( final Path path ) throws IOException {
+    final var journal = Journal.open( path );
+    final var labels = journal.getLabels();
+    final var records = journal.getRecords();
+    final var buffer = journal.map( 0, (int) records );
+    var previous = 0L;
+    var held = BREAK;
+
+    for( int r = 0; r < records; r++ ) {
+      final var at = r * RECORD_BYTES;
+      final var id = buffer.getShort( at + OFFSET_ID ) & 0xFFFF;
+      final var label = id < labels.length ? labels[ id ] : KeyIds.OTHER_LABEL;
+      final var key = mIds.getOrDefault( label, KeyIds.OTHER );
+
+      if( buffer.get( at + OFFSET_TYPE ) != PRESS ) {
+        held = held == key ? BREAK : held;
+        continue;
+      }
+
+      // Auto-repeats are not counted.
+      if( key == held ) {
+        continue;
+      }
+
+      final var time = buffer.getLong( at + OFFSET_TIME );
+
+      if( (buffer.get( at + OFFSET_MASK ) & (CTRL | ALT)) != 0 ||
+        time - previous > PAUSE_MICROS ) {
+        append( BREAK );
+      }
+
+      append( key );
+      previous = time;
+      held = key;
+    }
+
+    append( BREAK );
+  }
+
+  /**
+   * Writes statistics using labels that lack the last current label, then
+   * checks that they are not converted and that recording moves them aside.
+   */
+  private void checkLabels() throws IOException, InterruptedException {
+    final var dir = Files.createTempDirectory( "kmcaster-ngrams" );
+    final var path = dir.resolve( "ngrams.bin" );
+    final var backup = dir.resolve( "ngrams.bin.bak" );
+    final var stats = new NgramStats(
+      Arrays.copyOf( mLabels, mLabels.length - 1 ) );
+
+    stats.add( new int[]{id( "a" ), id( "b" )}, 2 );
+    stats.write( path );
+
+    final var written = Files.readAllBytes( path );
+
+    expect( NgramStats.read( path, true ) == null, "other labels refused" );
+    expect( NgramStats.read( path, false ) != null, "other labels queried" );
+
+    new NgramRecorder( path );
+
+    for( int i = 0; i < 200 && !Files.exists( backup ); i++ ) {
+      Thread.sleep( 10 );
+    }
+
+    expect( Files.exists( backup ) && !Files.exists( path ),
+            "statistics moved aside" );
+    expect( Arrays.equals( written, Files.readAllBytes( backup ) ),
+            "backup unchanged" );
+    System.out.println( "pass: statistics with other labels backed up" );
+  }
+
+  private void run() {
+    expect( mLength > 1_000, "enough keystrokes: " + mLength );
+
+    // Warm up, then measure.
+    timeExact();
+    timeStats();
+
+    final var exactNanos = System.nanoTime();
+    final var exact = timeExact();
+    final var statsNanos = System.nanoTime();
+    final var stats = timeStats();
+    final var finished = System.nanoTime();
+
+    System.out.printf(
+      "%,d keystrokes, %,d distinct n-grams: exact %.1f ns, " +
+        "sketch %.1f ns per keystroke%n",
+      mLength, exact.size(),
+      (double) (statsNanos - exactNanos) / mLength,
+      (double) (finished - statsNanos) / mLength );
+
+    checkEstimates( stats, exact );
+
+    for( int n = NgramStats.MIN_LENGTH; n <= NgramStats.MAX_LENGTH; n++ ) {
+      checkTop( stats, exact, n );
+    }
+  }
+
+  /**
+   * Checks that no n-gram is undercounted and few are overcounted by more
+   * than the sketch's bound.
+   */
+  private void checkEstimates(
+    final NgramStats stats, final Map<Long, long[]> exact ) {
+    final var limit = MAX_OVERCOUNT * stats.getTotal();
+    var exceeding = 0;
+    var overcount = 0L;
+
+    for( final var entry : exact.entrySet() ) {
+      final var count = entry.getValue()[ 0 ];
+      final var estimate = stats.estimate( decode( entry.getKey() ) );
+
+      expect( estimate >= count, "estimate " + estimate + " of " +
+        toText( entry.getKey() ) + " below its count " + count );
+
+      overcount += estimate - count;
+      exceeding += estimate - count > limit ? 1 : 0;
+    }
+
+    System.out.printf(
+      "pass: no undercounts; mean overcount %.2f, %d of %,d over %.1f%n",
+      (double) overcount / exact.size(), exceeding, exact.size(), limit );
+
+    expect( exceeding <= MAX_EXCEEDING * exact.size(),
+            "overcounts within the sketch's bound" );
+  }
+
+  /**
+   * Checks that every n-gram frequent enough to be guaranteed a counter is
+   * listed, and reports how many of the most frequent are listed in order.
+   */
+  private void checkTop(
+    final NgramStats stats, final Map<Long, long[]> exact, final int n ) {
+    final var listed = stats.top( n, Integer.MAX_VALUE );
+    final var texts = new HashSet<String>();
+
+    listed.forEach( entry -> texts.add( entry.getText() ) );
+
+    final var threshold = stats.getTotal( n ) / listed.size();
+    final var ranked = exact.entrySet().stream()
+      .filter( entry -> decode( entry.getKey() ).length == n )
+      .sorted( ( a, b ) -> Long.compare( b.getValue()[ 0 ],
+                                         a.getValue()[ 0 ] ) )
+      .collect( Collectors.toList() );
+    var matched = 0;
+
+    for( int i = 0; i < ranked.size(); i++ ) {
+      final var entry = ranked.get( i );
+      final var text = toText( entry.getKey() );
+
+      if( entry.getValue()[ 0 ] > threshold ) {
+        expect( texts.contains( text ), text + " is listed" );
+      }
+
+      if( i < TOP && i < listed.size() &&
+        listed.get( i ).getText().equals( text ) ) {
+        matched++;
+      }
+    }
+
+    System.out.printf(
+      "pass: %d-key sequences over %,d listed; top %d matched %d%n",
+      n, threshold, TOP, matched );
+  }
+
+  private Map<Long, long[]> timeExact() {
+    final var exact = new HashMap<Long, long[]>();
+    final var window = new int[ NgramStats.MAX_LENGTH ];
+    var length = 0;
+
+    for( int i = 0; i < mLength; i++ ) {
+      final var id = mKeys[ i ];
+
+      if( id == BREAK ) {
+        length = 0;
+        continue;
+      }
+
+      System.arraycopy( window, 1, window, 0, window.length - 1 );
+      window[ window.length - 1 ] = id;
+      length = Math.min( length + 1, window.length );
+
+      for( int n = NgramStats.MIN_LENGTH; n <= length; n++ ) {
+        exact.computeIfAbsent(
+          NgramStats.encode( window, window.length - n, n ),
+          key -> new long[ 1 ] )[ 0 ]++;
+      }
+    }
+
+    return exact;
+  }
+
+  private NgramStats timeStats() {
+    final var stats = new NgramStats();
+    final var window = new int[ NgramStats.MAX_LENGTH ];
+    var length = 0;
+
+    for( int i = 0; i < mLength; i++ ) {
+      final var id = mKeys[ i ];
+
+      if( id == BREAK ) {
+        length = 0;
+        continue;
+      }
+
+      System.arraycopy( window, 1, window, 0, window.length - 1 );
+      window[ window.length - 1 ] = id;
+      length = Math.min( length + 1, window.length );
+      stats.add( window, length );
+    }
+
+    return stats;
+  }
+
+  private void append( final int id ) {
+    if( mLength == mKeys.length ) {
+      mKeys = Arrays.copyOf( mKeys, mLength * 2 );
+    }
+
+    mKeys[ mLength++ ] = id;
+  }
+
+  private int id( final String label ) {
+    final var id = mIds.get( label );
+
+    expect( id != null, "label " + label );
+
+    return id;
+  }
+
+  /**
+   * Unpacks a key into identifiers, reversing {@link NgramStats#encode}.
+   */
+  private static int[] decode( final long key ) {
+    final var ids = new int[ (int) (key >>> 48) ];
+
+    for( int i = 0; i < ids.length; i++ ) {
+      ids[ i ] = (int) (key >>> (16 * i)) & 0xFFFF;
+    }
+
+    return ids;
+  }
+
+  private String toText( final long key ) {
+    return Arrays.stream( decode( key ) )
+      .mapToObj( id -> mLabels[ id ] )
+      .collect( Collectors.joining( " " ) );
+  }
+
+  private static void expect( final boolean condition, final String what ) {
+    if( !condition ) {
+      throw new AssertionError( what );
+    }
+  }
+}
@@ -0,0 +1,605 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import com.kitfox.svg.SVGDiagram;
+import com.kitfox.svg.SVGException;
+import com.whitemagicsoftware.kmcaster.ui.DimensionTuple;
+
+import java.awt.*;
+import java.awt.MultipleGradientPaint.ColorSpaceType;
+import java.awt.MultipleGradientPaint.CycleMethod;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.whitemagicsoftware.kmcaster.SvgRasterizer.RENDERING_HINTS;
+import static com.whitemagicsoftware.kmcaster.exceptions.Rethrowable.rethrow;
+import static java.awt.image.BufferedImage.TYPE_4BYTE_ABGR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+
+/**
+ * Responsible for replaying the Java2D operations that render a vector
+ * graphic. A diagram is compiled once by recording what
+ * {@link SVGDiagram#render(Graphics2D)} draws; afterwards, rasterizing at
+ * any size replays a flat list of fills and images without walking the
+ * SVG element tree. Compiled diagrams can be written to and read from a
+ * compact binary stream, which {@link SvgRasterizer} caches on disk.
+ */
+public final class CompiledDiagram {
+  /**
+   * Identifies the binary format ("KMDL").
+   */
+  private static final int MAGIC = 0x4B4D444C;
+
+  /**
+   * Increment when recording or the format changes, so that diagrams cached
+   * by earlier versions are compiled again.
+   */
+  private static final int VERSION = 2;
+
+  private static final byte OP_FILL = 1;
+  private static final byte OP_IMAGE = 2;
+
+  private static final byte PAINT_COLOR = 1;
+  private static final byte PAINT_LINEAR = 2;
+  private static final byte PAINT_RADIAL = 3;
+
+  /**
+   * Number of coordinates for each {@link PathIterator} segment type.
+   */
+  private static final int[] SEGMENT_COORDS = {2, 2, 4, 6, 0};
+
+  private final float mWidth;
+  private final float mHeight;
+  private final List<Operation> mOperations;
+
+  CompiledDiagram(
+    final float width, final float height, final List<Operation> ops ) {
+    mWidth = width;
+    mHeight = height;
+    mOperations = ops;
+  }
+
+  /**
+   * Records the operations that render the given diagram.
+   *
+   * @param diagram The diagram to compile.
+   * @return The diagram's operations, ready to replay at any size.
+   * @throws SVGException Could not render the diagram.
+   */
+  public static CompiledDiagram compile( final SVGDiagram diagram )
+    throws SVGException {
+    final var ops = new ArrayList<Operation>();
+    final var recorder = new DiagramRecorder( ops );
+
+    recorder.setRenderingHints( RENDERING_HINTS );
+    diagram.render( recorder );
+    recorder.dispose();
+    ops.trimToSize();
+
+    return new CompiledDiagram( diagram.getWidth(), diagram.getHeight(), ops );
+  }
+
+  /**
+   * Wraps a diagram that cannot be compiled, such as one whose rendering
+   * copies areas or draws in XOR mode. Rasterizing renders the diagram
+   * itself, and the result cannot be written.
+   *
+   * @param diagram The diagram to render each time it is rasterized.
+   * @return The diagram as a single operation.
+   */
+  public static CompiledDiagram wrap( final SVGDiagram diagram ) {
+    return new CompiledDiagram(
+      diagram.getWidth(), diagram.getHeight(),
+      List.of( new RenderOperation( diagram ) ) );
+  }
+
+  /**
+   * Replays the operations onto a new image at the given scale, producing
+   * the same output as {@link SvgRasterizer#rasterize}.
+   *
+   * @param tuple The source and destination image dimensions.
+   * @return The rasterized image.
+   */
+  public BufferedImage rasterize( final DimensionTuple tuple ) {
+    final var scaled = tuple.getValue();
+    final var image = new BufferedImage(
+      (int) scaled.getWidth(), (int) scaled.getHeight(), TYPE_4BYTE_ABGR );
+    final var graphics = image.createGraphics();
+    graphics.setRenderingHints( RENDERING_HINTS );
+
+    final var base = AffineTransform.getScaleInstance(
+      tuple.getWidthRatio(), tuple.getHeightRatio() );
+
+    for( final var op : mOperations ) {
+      op.replay( graphics, base );
+    }
+
+    graphics.dispose();
+
+    return image;
+  }
+
+  public float getWidth() {
+    return mWidth;
+  }
+
+  public float getHeight() {
+    return mHeight;
+  }
+
+  /**
+   * Writes the operations in a binary format.
+   *
+   * @param out The stream to write to, which is not closed.
+   * @throws IOException Could not write, or an operation uses a paint or
+   *                     composite that cannot be written.
+   */
+  public void write( final OutputStream out ) throws IOException {
+    final var data = new DataOutputStream( new BufferedOutputStream( out ) );
+
+    data.writeInt( MAGIC );
+    data.writeInt( VERSION );
+    data.writeFloat( mWidth );
+    data.writeFloat( mHeight );
+    data.writeInt( mOperations.size() );
+
+    for( final var op : mOperations ) {
+      op.write( data );
+    }
+
+    data.flush();
+  }
+
+  /**
+   * Reads operations written by {@link #write(OutputStream)}.
+   *
+   * @param in The stream to read from, which is not closed.
+   * @return The compiled diagram.
+   * @throws IOException Could not read, or the data is not a diagram.
+   */
+  public static CompiledDiagram read( final InputStream in )
+    throws IOException {
+    final var data = new DataInputStream( new BufferedInputStream( in ) );
+
+    if( data.readInt() != MAGIC || data.readInt() != VERSION ) {
+      throw new IOException( "Unsupported compiled diagram format" );
+    }
+
+    final var width = data.readFloat();
+    final var height = data.readFloat();
+    final var count = data.readInt();
+    final var ops = new ArrayList<Operation>( count );
+
+    for( var i = 0; i < count; i++ ) {
+      final var type = data.readByte();
+      final var transform = readTransform( data );
+      final var clip = data.readBoolean() ? readPath( data ) : null;
+      final var composite = readComposite( data );
+
+      ops.add( switch( type ) {
+        case OP_FILL -> new FillOperation(
+          transform, clip, composite, readPaint( data ), readPath( data ) );
+        case OP_IMAGE -> new ImageOperation(
+          transform, clip, composite, readImage( data ) );
+        default -> throw new IOException( "Unknown operation " + type );
+      } );
+    }
+
+    return new CompiledDiagram( width, height, ops );
+  }
+
+  /**
+   * A drawing operation with the graphics state at the time it was
+   * recorded. The clip is in the recording's device space.
+   */
+  abstract static class Operation {
+    private final AffineTransform mTransform;
+    private final Shape mClip;
+    private final AlphaComposite mComposite;
+
+    Operation(
+      final AffineTransform transform,
+      final Shape clip,
+      final AlphaComposite composite ) {
+      mTransform = transform;
+      mClip = clip;
+      mComposite = composite;
+    }
+
+    void replay( final Graphics2D g, final AffineTransform base ) {
+      g.setTransform( base );
+      g.setClip( mClip );
+      g.transform( mTransform );
+      g.setComposite( mComposite );
+      draw( g );
+    }
+
+    void write( final DataOutputStream out ) throws IOException {
+      out.writeByte( getType() );
+      writeTransform( out, mTransform );
+      out.writeBoolean( mClip != null );
+
+      if( mClip != null ) {
+        writePath( out, mClip );
+      }
+
+      out.writeByte( mComposite.getRule() );
+      out.writeFloat( mComposite.getAlpha() );
+    }
+
+    abstract byte getType();
+
+    abstract void draw( Graphics2D g );
+  }
+
+  /**
+   * Fills a shape, in user space, with a paint.
+   */
+  static final class FillOperation extends Operation {
+    private final Paint mPaint;
+    private final Shape mShape;
+
+    FillOperation(
+      final AffineTransform transform,
+      final Shape clip,
+      final AlphaComposite composite,
+      final Paint paint,
+      final Shape shape ) {
+      super( transform, clip, composite );
+      mPaint = paint;
+      mShape = shape;
+    }
+
+    @Override
+    byte getType() {
+      return OP_FILL;
+    }
+
+    @Override
+    void draw( final Graphics2D g ) {
+      g.setPaint( mPaint );
+      g.fill( mShape );
+    }
+
+    @Override
+    void write( final DataOutputStream out ) throws IOException {
+      super.write( out );
+      writePaint( out, mPaint );
+      writePath( out, mShape );
+    }
+  }
+
+  /**
+   * Draws an image at the user space origin.
+   */
+  static final class ImageOperation extends Operation {
+    private final BufferedImage mImage;
+
+    ImageOperation(
+      final AffineTransform transform,
+      final Shape clip,
+      final AlphaComposite composite,
+      final BufferedImage image ) {
+      super( transform, clip, composite );
+      mImage = image;
+    }
+
+    @Override
+    byte getType() {
+      return OP_IMAGE;
+    }
+
+    @Override
+    void draw( final Graphics2D g ) {
+      g.drawImage( mImage, 0, 0, null );
+    }
+
+    @Override
+    void write( final DataOutputStream out ) throws IOException {
+      super.write( out );
+      writeImage( out, mImage );
+    }
+  }
+
+  /**
+   * Renders an SVG diagram at the user space origin, for diagrams that
+   * could not be recorded.
+   */
+  static final class RenderOperation extends Operation {
+    private final SVGDiagram mDiagram;
+
+    RenderOperation( final SVGDiagram diagram ) {
+      super( new AffineTransform(), null, AlphaComposite.SrcOver );
+      mDiagram = diagram;
+    }
+
+    /**
+     * Never written, so there is no type for reading it back.
+     */
+    @Override
+    byte getType() {
+      return 0;
+    }
+
+    @Override
+    void draw( final Graphics2D g ) {
+      // Rendering is not thread-safe for the same diagram.
+      synchronized( mDiagram ) {
+        try {
+          mDiagram.render( g );
+        } catch( final SVGException ex ) {
+          rethrow( ex );
+        }
+      }
+    }
+
+    @Override
+    void write( final DataOutputStream out ) throws IOException {
+      throw new IOException( "Diagram was not compiled" );
+    }
+  }
+
+  private static void writeTransform(
+    final DataOutputStream out, final AffineTransform transform )
+    throws IOException {
+    final var matrix = new double[ 6 ];
+    transform.getMatrix( matrix );
+
+    for( final var value : matrix ) {
+      out.writeDouble( value );
+    }
+  }
+
+  private static AffineTransform readTransform( final DataInputStream in )
+    throws IOException {
+    final var matrix = new double[ 6 ];
+
+    for( var i = 0; i < matrix.length; i++ ) {
+      matrix[ i ] = in.readDouble();
+    }
+
+    return new AffineTransform( matrix );
+  }
+
+  private static void writePath( final DataOutputStream out, final Shape s )
+    throws IOException {
+    final var segments = new ByteArrayOutputStream();
+    final var data = new DataOutputStream( segments );
+    final var coords = new float[ 6 ];
+    final var it = s.getPathIterator( null );
+    var count = 0;
+
+    out.writeByte( it.getWindingRule() );
+
+    for( ; !it.isDone(); it.next(), count++ ) {
+      final var type = it.currentSegment( coords );
+      data.writeByte( type );
+
+      for( var i = 0; i < SEGMENT_COORDS[ type ]; i++ ) {
+        data.writeFloat( coords[ i ] );
+      }
+    }
+
+    out.writeInt( count );
+    segments.writeTo( out );
+  }
+
+  private static Path2D readPath( final DataInputStream in )
+    throws IOException {
+    final var path = new Path2D.Float( in.readByte() );
+    final var count = in.readInt();
+    final var c = new float[ 6 ];
+
+    for( var i = 0; i < count; i++ ) {
+      final var type = in.readByte();
+
+      for( var j = 0; j < SEGMENT_COORDS[ type ]; j++ ) {
+        c[ j ] = in.readFloat();
+      }
+
+      switch( type ) {
+        case PathIterator.SEG_MOVETO -> path.moveTo( c[ 0 ], c[ 1 ] );
+        case PathIterator.SEG_LINETO -> path.lineTo( c[ 0 ], c[ 1 ] );
+        case PathIterator.SEG_QUADTO -> path.quadTo( c[ 0 ], c[ 1 ], c[ 2 ],
+                                                     c[ 3 ] );
+        case PathIterator.SEG_CUBICTO -> path.curveTo( c[ 0 ], c[ 1 ], c[ 2 ],
+                                                       c[ 3 ], c[ 4 ], c[ 5 ] );
+        default -> path.closePath();
+      }
+    }
+
+    return path;
+  }
+
+  private static AlphaComposite readComposite( final DataInputStream in )
+    throws IOException {
+    final var rule = in.readByte();
+    final var alpha = in.readFloat();
+
+    return AlphaComposite.getInstance( rule, alpha );
+  }
+
+  private static void writePaint( final DataOutputStream out, final Paint p )
+    throws IOException {
+    if( p instanceof Color ) {
+      out.writeByte( PAINT_COLOR );
+      out.writeInt( ((Color) p).getRGB() );
+    }
+    else if( p instanceof LinearGradientPaint ) {
+      final var paint = (LinearGradientPaint) p;
+
+      out.writeByte( PAINT_LINEAR );
+      writePoint( out, paint.getStartPoint() );
+      writePoint( out, paint.getEndPoint() );
+      writeGradient( out, paint );
+    }
+    else if( p instanceof RadialGradientPaint ) {
+      final var paint = (RadialGradientPaint) p;
+
+      out.writeByte( PAINT_RADIAL );
+      writePoint( out, paint.getCenterPoint() );
+      out.writeFloat( paint.getRadius() );
+      writePoint( out, paint.getFocusPoint() );
+      writeGradient( out, paint );
+    }
+    else {
+      throw new IOException( "Unsupported paint " + p.getClass() );
+    }
+  }
+
+  private static Paint readPaint( final DataInputStream in )
+    throws IOException {
+    final var type = in.readByte();
+
+    switch( type ) {
+      case PAINT_COLOR:
+        return new Color( in.readInt(), true );
+
+      case PAINT_LINEAR: {
+        final var start = readPoint( in );
+        final var end = readPoint( in );
+        final var fractions = readFractions( in );
+        final var colours = readColours( in, fractions.length );
+
+        return new LinearGradientPaint(
+          start, end, fractions, colours,
+          CycleMethod.values()[ in.readByte() ],
+          ColorSpaceType.values()[ in.readByte() ],
+          readTransform( in ) );
+      }
+
+      case PAINT_RADIAL: {
+        final var centre = readPoint( in );
+        final var radius = in.readFloat();
+        final var focus = readPoint( in );
+        final var fractions = readFractions( in );
+        final var colours = readColours( in, fractions.length );
+
+        return new RadialGradientPaint(
+          centre, radius, focus, fractions, colours,
+          CycleMethod.values()[ in.readByte() ],
+          ColorSpaceType.values()[ in.readByte() ],
+          readTransform( in ) );
+      }
+
+      default:
+        throw new IOException( "Unknown paint " + type );
+    }
+  }
+
+  private static void writeGradient(
+    final DataOutputStream out, final MultipleGradientPaint paint )
+    throws IOException {
+    final var fractions = paint.getFractions();
+    final var colours = paint.getColors();
+
+    out.writeInt( fractions.length );
+
+    for( final var fraction : fractions ) {
+      out.writeFloat( fraction );
+    }
+
+    for( final var colour : colours ) {
+      out.writeInt( colour.getRGB() );
+    }
+
+    out.writeByte( paint.getCycleMethod().ordinal() );
+    out.writeByte( paint.getColorSpace().ordinal() );
+    writeTransform( out, paint.getTransform() );
+  }
+
+  private static float[] readFractions( final DataInputStream in )
+    throws IOException {
+    final var fractions = new float[ in.readInt() ];
+
+    for( var i = 0; i < fractions.length; i++ ) {
+      fractions[ i ] = in.readFloat();
+    }
+
+    return fractions;
+  }
+
+  private static Color[] readColours(
+    final DataInputStream in, final int count ) throws IOException {
+    final var colours = new Color[ count ];
+
+    for( var i = 0; i < count; i++ ) {
+      colours[ i ] = new Color( in.readInt(), true );
+    }
+
+    return colours;
+  }
+
+  private static void writePoint(
+    final DataOutputStream out, final Point2D point ) throws IOException {
+    out.writeDouble( point.getX() );
+    out.writeDouble( point.getY() );
+  }
+
+  private static Point2D readPoint( final DataInputStream in )
+    throws IOException {
+    return new Point2D.Double( in.readDouble(), in.readDouble() );
+  }
+
+  private static void writeImage(
+    final DataOutputStream out, final BufferedImage image )
+    throws IOException {
+    final var w = image.getWidth();
+    final var h = image.getHeight();
+
+    out.writeInt( w );
+    out.writeInt( h );
+
+    for( final var pixel : image.getRGB( 0, 0, w, h, null, 0, w ) ) {
+      out.writeInt( pixel );
+    }
+  }
+
+  private static BufferedImage readImage( final DataInputStream in )
+    throws IOException {
+    final var w = in.readInt();
+    final var h = in.readInt();
+    final var pixels = new int[ w * h ];
+
+    for( var i = 0; i < pixels.length; i++ ) {
+      pixels[ i ] = in.readInt();
+    }
+
+    final var image = new BufferedImage( w, h, TYPE_INT_ARGB );
+    image.setRGB( 0, 0, w, h, pixels, 0, w );
+
+    return image;
+  }
+}
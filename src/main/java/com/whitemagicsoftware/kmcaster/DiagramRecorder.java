@@ -0,0 +1,606 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import com.whitemagicsoftware.kmcaster.CompiledDiagram.FillOperation;
+import com.whitemagicsoftware.kmcaster.CompiledDiagram.ImageOperation;
+import com.whitemagicsoftware.kmcaster.CompiledDiagram.Operation;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.List;
+import java.util.Map;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+
+/**
+ * Responsible for recording drawing operations rather than rasterizing
+ * them. Strokes, text, and primitive shapes are recorded as filled outlines
+ * and images are copied, so that replaying needs only fills and images.
+ * The recorder's device space is the diagram's user space.
+ */
+final class DiagramRecorder extends Graphics2D {
+  /**
+   * Provides a device configuration and font metrics.
+   */
+  private static final Graphics2D SCRATCH =
+    new BufferedImage( 1, 1, TYPE_INT_ARGB ).createGraphics();
+
+  /**
+   * Shared by every graphics context created from the same recorder.
+   */
+  private final List<Operation> mOperations;
+
+  private AffineTransform mTransform = new AffineTransform();
+
+  /**
+   * Clipping area in device space, {@code null} means unclipped.
+   */
+  private Shape mClip;
+
+  private Paint mPaint = Color.BLACK;
+  private Color mBackground = Color.BLACK;
+  private AlphaComposite mComposite = AlphaComposite.SrcOver;
+  private Stroke mStroke = new BasicStroke();
+  private Font mFont = SCRATCH.getFont();
+  private final RenderingHints mHints = new RenderingHints( null );
+
+  DiagramRecorder( final List<Operation> operations ) {
+    mOperations = operations;
+  }
+
+  private DiagramRecorder( final DiagramRecorder source ) {
+    mOperations = source.mOperations;
+    mTransform = new AffineTransform( source.mTransform );
+    mClip = source.mClip;
+    mPaint = source.mPaint;
+    mBackground = source.mBackground;
+    mComposite = source.mComposite;
+    mStroke = source.mStroke;
+    mFont = source.mFont;
+    mHints.putAll( source.mHints );
+  }
+
+  @Override
+  public Graphics create() {
+    return new DiagramRecorder( this );
+  }
+
+  @Override
+  public void dispose() {
+  }
+
+  @Override
+  public void fill( final Shape s ) {
+    mOperations.add( new FillOperation(
+      transform(), mClip, mComposite, mPaint, new Path2D.Float( s ) ) );
+  }
+
+  @Override
+  public void draw( final Shape s ) {
+    fill( mStroke.createStrokedShape( s ) );
+  }
+
+  @Override
+  public boolean drawImage(
+    final Image img, final AffineTransform xform, final ImageObserver obs ) {
+    final var w = img.getWidth( obs );
+    final var h = img.getHeight( obs );
+
+    if( w <= 0 || h <= 0 ) {
+      return false;
+    }
+
+    final var copy = new BufferedImage( w, h, TYPE_INT_ARGB );
+    final var g = copy.createGraphics();
+    g.setComposite( AlphaComposite.Src );
+    g.drawImage( img, 0, 0, null );
+    g.dispose();
+
+    final var transform = transform();
+
+    if( xform != null ) {
+      transform.concatenate( xform );
+    }
+
+    mOperations.add(
+      new ImageOperation( transform, mClip, mComposite, copy ) );
+
+    return true;
+  }
+
+  @Override
+  public boolean drawImage(
+    final Image img, final int x, final int y, final ImageObserver obs ) {
+    return drawImage( img, AffineTransform.getTranslateInstance( x, y ), obs );
+  }
+
+  @Override
+  public boolean drawImage(
+    final Image img, final int x, final int y, final int width,
+    final int height, final ImageObserver obs ) {
+    final var w = img.getWidth( obs );
+    final var h = img.getHeight( obs );
+
+    if( w <= 0 || h <= 0 ) {
+      return false;
+    }
+
+    final var xform = AffineTransform.getTranslateInstance( x, y );
+    xform.scale( (double) width / w, (double) height / h );
+
+    return drawImage( img, xform, obs );
+  }
+
+  @Override
+  public boolean drawImage(
+    final Image img, final int x, final int y, final Color bgcolor,
+    final ImageObserver obs ) {
+    fillBackground( bgcolor, x, y, img.getWidth( obs ), img.getHeight( obs ) );
+    return drawImage( img, x, y, obs );
+  }
+
+  @Override
+  public boolean drawImage(
+    final Image img, final int x, final int y, final int width,
+    final int height, final Color bgcolor, final ImageObserver obs ) {
+    fillBackground( bgcolor, x, y, width, height );
+    return drawImage( img, x, y, width, height, obs );
+  }
+
+  @Override
+  public boolean drawImage(
+    final Image img,
+    final int dx1, final int dy1, final int dx2, final int dy2,
+    final int sx1, final int sy1, final int sx2, final int sy2,
+    final ImageObserver obs ) {
+    final var sw = sx2 - sx1;
+    final var sh = sy2 - sy1;
+
+    if( sw == 0 || sh == 0 ) {
+      return false;
+    }
+
+    final var region = new BufferedImage(
+      Math.abs( sw ), Math.abs( sh ), TYPE_INT_ARGB );
+    final var g = region.createGraphics();
+    g.setComposite( AlphaComposite.Src );
+    g.drawImage( img, 0, 0, region.getWidth(), region.getHeight(),
+                 sx1, sy1, sx2, sy2, obs );
+    g.dispose();
+
+    return drawImage(
+      region, dx1, dy1, dx2 - dx1, dy2 - dy1, obs );
+  }
+
+  @Override
+  public boolean drawImage(
+    final Image img,
+    final int dx1, final int dy1, final int dx2, final int dy2,
+    final int sx1, final int sy1, final int sx2, final int sy2,
+    final Color bgcolor, final ImageObserver obs ) {
+    fillBackground( bgcolor, dx1, dy1, dx2 - dx1, dy2 - dy1 );
+    return drawImage( img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, obs );
+  }
+
+  @Override
+  public void drawImage(
+    final BufferedImage img, final BufferedImageOp op,
+    final int x, final int y ) {
+    drawImage( op == null ? img : op.filter( img, null ), x, y, null );
+  }
+
+  @Override
+  public void drawRenderedImage(
+    final RenderedImage img, final AffineTransform xform ) {
+    if( !(img instanceof BufferedImage) ) {
+      throw new UnsupportedOperationException( "RenderedImage" );
+    }
+
+    drawImage( (BufferedImage) img, xform, null );
+  }
+
+  @Override
+  public void drawRenderableImage(
+    final RenderableImage img, final AffineTransform xform ) {
+    drawRenderedImage( img.createDefaultRendering(), xform );
+  }
+
+  @Override
+  public void drawString( final String str, final int x, final int y ) {
+    drawString( str, (float) x, (float) y );
+  }
+
+  @Override
+  public void drawString( final String str, final float x, final float y ) {
+    drawGlyphVector(
+      mFont.createGlyphVector( getFontRenderContext(), str ), x, y );
+  }
+
+  @Override
+  public void drawString(
+    final AttributedCharacterIterator iterator, final int x, final int y ) {
+    drawString( iterator, (float) x, (float) y );
+  }
+
+  @Override
+  public void drawString(
+    final AttributedCharacterIterator iterator, final float x,
+    final float y ) {
+    final var layout = new TextLayout( iterator, getFontRenderContext() );
+    fill( layout.getOutline( AffineTransform.getTranslateInstance( x, y ) ) );
+  }
+
+  @Override
+  public void drawGlyphVector(
+    final GlyphVector g, final float x, final float y ) {
+    fill( g.getOutline( x, y ) );
+  }
+
+  @Override
+  public void drawLine(
+    final int x1, final int y1, final int x2, final int y2 ) {
+    draw( new Line2D.Float( x1, y1, x2, y2 ) );
+  }
+
+  @Override
+  public void fillRect( final int x, final int y, final int w, final int h ) {
+    fill( new Rectangle( x, y, w, h ) );
+  }
+
+  @Override
+  public void clearRect( final int x, final int y, final int w, final int h ) {
+    // Clearing replaces the pixels, regardless of the current composite.
+    final var composite = mComposite;
+    mComposite = AlphaComposite.Src;
+    fillBackground( mBackground, x, y, w, h );
+    mComposite = composite;
+  }
+
+  @Override
+  public void drawRoundRect(
+    final int x, final int y, final int w, final int h,
+    final int arcWidth, final int arcHeight ) {
+    draw( new RoundRectangle2D.Float( x, y, w, h, arcWidth, arcHeight ) );
+  }
+
+  @Override
+  public void fillRoundRect(
+    final int x, final int y, final int w, final int h,
+    final int arcWidth, final int arcHeight ) {
+    fill( new RoundRectangle2D.Float( x, y, w, h, arcWidth, arcHeight ) );
+  }
+
+  @Override
+  public void drawOval( final int x, final int y, final int w, final int h ) {
+    draw( new Ellipse2D.Float( x, y, w, h ) );
+  }
+
+  @Override
+  public void fillOval( final int x, final int y, final int w, final int h ) {
+    fill( new Ellipse2D.Float( x, y, w, h ) );
+  }
+
+  @Override
+  public void drawArc(
+    final int x, final int y, final int w, final int h,
+    final int startAngle, final int arcAngle ) {
+    draw( new Arc2D.Float( x, y, w, h, startAngle, arcAngle, Arc2D.OPEN ) );
+  }
+
+  @Override
+  public void fillArc(
+    final int x, final int y, final int w, final int h,
+    final int startAngle, final int arcAngle ) {
+    fill( new Arc2D.Float( x, y, w, h, startAngle, arcAngle, Arc2D.PIE ) );
+  }
+
+  @Override
+  public void drawPolyline(
+    final int[] xPoints, final int[] yPoints, final int nPoints ) {
+    final var path = new Path2D.Float();
+
+    for( var i = 0; i < nPoints; i++ ) {
+      if( i == 0 ) {
+        path.moveTo( xPoints[ i ], yPoints[ i ] );
+      }
+      else {
+        path.lineTo( xPoints[ i ], yPoints[ i ] );
+      }
+    }
+
+    draw( path );
+  }
+
+  @Override
+  public void drawPolygon(
+    final int[] xPoints, final int[] yPoints, final int nPoints ) {
+    draw( new Polygon( xPoints, yPoints, nPoints ) );
+  }
+
+  @Override
+  public void fillPolygon(
+    final int[] xPoints, final int[] yPoints, final int nPoints ) {
+    fill( new Polygon( xPoints, yPoints, nPoints ) );
+  }
+
+  @Override
+  public void copyArea(
+    final int x, final int y, final int w, final int h,
+    final int dx, final int dy ) {
+    throw new UnsupportedOperationException( "copyArea" );
+  }
+
+  @Override
+  public boolean hit(
+    final Rectangle rect, final Shape s, final boolean onStroke ) {
+    final var shape = onStroke ? mStroke.createStrokedShape( s ) : s;
+    return mTransform.createTransformedShape( shape ).intersects( rect );
+  }
+
+  @Override
+  public GraphicsConfiguration getDeviceConfiguration() {
+    return SCRATCH.getDeviceConfiguration();
+  }
+
+  @Override
+  public FontRenderContext getFontRenderContext() {
+    return new FontRenderContext( mTransform, true, true );
+  }
+
+  @Override
+  public FontMetrics getFontMetrics( final Font f ) {
+    return SCRATCH.getFontMetrics( f );
+  }
+
+  @Override
+  public Font getFont() {
+    return mFont;
+  }
+
+  @Override
+  public void setFont( final Font font ) {
+    if( font != null ) {
+      mFont = font;
+    }
+  }
+
+  @Override
+  public Color getColor() {
+    return mPaint instanceof Color ? (Color) mPaint : null;
+  }
+
+  @Override
+  public void setColor( final Color c ) {
+    if( c != null ) {
+      mPaint = c;
+    }
+  }
+
+  @Override
+  public Paint getPaint() {
+    return mPaint;
+  }
+
+  @Override
+  public void setPaint( final Paint paint ) {
+    if( paint != null ) {
+      mPaint = paint;
+    }
+  }
+
+  @Override
+  public void setPaintMode() {
+    mComposite = AlphaComposite.SrcOver;
+  }
+
+  @Override
+  public void setXORMode( final Color c ) {
+    throw new UnsupportedOperationException( "XOR mode" );
+  }
+
+  @Override
+  public Composite getComposite() {
+    return mComposite;
+  }
+
+  @Override
+  public void setComposite( final Composite comp ) {
+    if( !(comp instanceof AlphaComposite) ) {
+      throw new UnsupportedOperationException( String.valueOf( comp ) );
+    }
+
+    mComposite = (AlphaComposite) comp;
+  }
+
+  @Override
+  public Color getBackground() {
+    return mBackground;
+  }
+
+  @Override
+  public void setBackground( final Color color ) {
+    mBackground = color;
+  }
+
+  @Override
+  public Stroke getStroke() {
+    return mStroke;
+  }
+
+  @Override
+  public void setStroke( final Stroke s ) {
+    mStroke = s;
+  }
+
+  @Override
+  public Object getRenderingHint( final RenderingHints.Key hintKey ) {
+    return mHints.get( hintKey );
+  }
+
+  @Override
+  public void setRenderingHint(
+    final RenderingHints.Key hintKey, final Object hintValue ) {
+    mHints.put( hintKey, hintValue );
+  }
+
+  @Override
+  public void setRenderingHints( final Map<?, ?> hints ) {
+    mHints.clear();
+    mHints.putAll( hints );
+  }
+
+  @Override
+  public void addRenderingHints( final Map<?, ?> hints ) {
+    mHints.putAll( hints );
+  }
+
+  @Override
+  public RenderingHints getRenderingHints() {
+    return (RenderingHints) mHints.clone();
+  }
+
+  @Override
+  public void translate( final int x, final int y ) {
+    mTransform.translate( x, y );
+  }
+
+  @Override
+  public void translate( final double tx, final double ty ) {
+    mTransform.translate( tx, ty );
+  }
+
+  @Override
+  public void rotate( final double theta ) {
+    mTransform.rotate( theta );
+  }
+
+  @Override
+  public void rotate( final double theta, final double x, final double y ) {
+    mTransform.rotate( theta, x, y );
+  }
+
+  @Override
+  public void scale( final double sx, final double sy ) {
+    mTransform.scale( sx, sy );
+  }
+
+  @Override
+  public void shear( final double shx, final double shy ) {
+    mTransform.shear( shx, shy );
+  }
+
+  @Override
+  public void transform( final AffineTransform tx ) {
+    mTransform.concatenate( tx );
+  }
+
+  @Override
+  public void setTransform( final AffineTransform tx ) {
+    mTransform = new AffineTransform( tx );
+  }
+
+  @Override
+  public AffineTransform getTransform() {
+    return new AffineTransform( mTransform );
+  }
+
+  @Override
+  public Shape getClip() {
+    if( mClip == null ) {
+      return null;
+    }
+
+    try {
+      return mTransform.createInverse().createTransformedShape( mClip );
+    } catch( final NoninvertibleTransformException e ) {
+      return null;
+    }
+  }
+
+  @Override
+  public Rectangle getClipBounds() {
+    final var clip = getClip();
+    return clip == null ? null : clip.getBounds();
+  }
+
+  @Override
+  public void setClip( final Shape clip ) {
+    mClip = clip == null ? null : mTransform.createTransformedShape( clip );
+  }
+
+  @Override
+  public void setClip( final int x, final int y, final int w, final int h ) {
+    setClip( new Rectangle( x, y, w, h ) );
+  }
+
+  @Override
+  public void clip( final Shape s ) {
+    final var clip = mTransform.createTransformedShape( s );
+
+    if( mClip == null ) {
+      mClip = clip;
+    }
+    else {
+      final var area = new Area( mClip );
+      area.intersect( new Area( clip ) );
+      mClip = area;
+    }
+  }
+
+  @Override
+  public void clipRect( final int x, final int y, final int w, final int h ) {
+    clip( new Rectangle( x, y, w, h ) );
+  }
+
+  /**
+   * Copies the current transform for an operation to keep.
+   */
+  private AffineTransform transform() {
+    return new AffineTransform( mTransform );
+  }
+
+  private void fillBackground(
+    final Color color, final int x, final int y, final int w, final int h ) {
+    if( color != null ) {
+      final var paint = mPaint;
+      mPaint = color;
+      fillRect( x, y, w, h );
+      mPaint = paint;
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import com.whitemagicsoftware.kmcaster.util.ConsecutiveEventCounter;
+
+import static com.whitemagicsoftware.kmcaster.HardwareState.SWITCH_PRESSED;
+import static com.whitemagicsoftware.kmcaster.HardwareSwitch.KEY_REGULAR;
+import static com.whitemagicsoftware.kmcaster.HardwareSwitch.MOUSE_EXTRA;
+import static com.whitemagicsoftware.kmcaster.LabelConfig.*;
+
+/**
+ * Responsible for turning hardware switch state changes into snapshots of
+ * what the overlay should display. This class has no dependencies on Swing,
+ * so it can be exercised without a display. A new {@link DisplayState} is
+ * only allocated when the displayed content changes.
+ */
+public final class DisplayReducer {
+  /**
+   * Bits for all mouse buttons and scroll directions.
+   */
+  private static final int MOUSE_MASK =
+    DisplayState.mask( HardwareSwitch.mouseSwitches() );
+
+  /**
+   * Bitmask of mouse actions that are held, which may differ from the
+   * displayed mouse actions until a delayed release is applied.
+   */
+  private int mMouseHeld;
+
+  /**
+   * Tracks consecutive presses of the same regular key.
+   */
+  private final ConsecutiveEventCounter<String> mKeyCounter;
+
+  /**
+   * Number of auto-repeats of the held regular key.
+   */
+  private int mRepeats;
+
+  /**
+   * Scratch area for computing the next snapshot's labels.
+   */
+  private final String[] mLabels = new String[ LabelConfig.size() ];
+
+  /**
+   * Bitmask of pressed switches for computing the next snapshot.
+   */
+  private int mPressed;
+
+  /**
+   * Most recently computed snapshot.
+   */
+  private DisplayState mState = DisplayState.RELEASED;
+
+  /**
+   * Creates a reducer that counts consecutive key presses up to the given
+   * limit.
+   *
+   * @param keyCount The maximum consecutive key presses to tally.
+   */
+  public DisplayReducer( final int keyCount ) {
+    mKeyCounter = new ConsecutiveEventCounter<>( keyCount );
+  }
+
+  /**
+   * Applies a hardware switch state change that must be reflected on the
+   * display.
+   *
+   * @param state The switch that has changed and its new state.
+   * @return The snapshot to display, which is the same instance as the
+   * previous snapshot if nothing visible has changed.
+   */
+  public DisplayState apply( final HardwareSwitchState state ) {
+    assert state != null;
+
+    final var hwSwitch = state.getHardwareSwitch();
+    final var pressed = state.getHardwareState() == SWITCH_PRESSED;
+
+    if( hwSwitch.isKeyboard() ) {
+      applyKeyboard( state, hwSwitch, pressed );
+    }
+    else {
+      applyMouse( state, hwSwitch, pressed );
+    }
+
+    return commit();
+  }
+
+  /**
+   * Tallies auto-repeats of the held regular key. The key is shown held,
+   * with the number of times it has registered in place of the consecutive
+   * press counter.
+   *
+   * @param value   The held key's value.
+   * @param repeats Number of auto-repeats since the previous call.
+   * @return The snapshot to display.
+   */
+  public DisplayState repeat( final String value, final int repeats ) {
+    assert value != null;
+
+    mRepeats += repeats;
+    mKeyCounter.reset();
+
+    setPressed( KEY_REGULAR, true );
+    setKeyLabels( value );
+    setLabel( LABEL_REGULAR_COUNTER, "×" + (mRepeats + 1) );
+
+    return commit();
+  }
+
+  /**
+   * Stops tracking a mouse action without changing the display. The display
+   * is updated when the delayed release is applied.
+   *
+   * @param hwSwitch The mouse action that is no longer held.
+   */
+  public void release( final HardwareSwitch hwSwitch ) {
+    mMouseHeld &= ~DisplayState.mask( hwSwitch );
+  }
+
+  /**
+   * Returns the most recently computed snapshot.
+   *
+   * @return The current display state.
+   */
+  public DisplayState getState() {
+    return mState;
+  }
+
+  private void applyKeyboard(
+    final HardwareSwitchState state,
+    final HardwareSwitch hwSwitch,
+    final boolean pressed ) {
+    setPressed( hwSwitch, pressed );
+
+    if( state.isModifier() ) {
+      setLabel( LabelConfig.valueFrom( hwSwitch ), state.getValue() );
+      mKeyCounter.reset();
+    }
+    else {
+      final var keyValue = pressed ? state.getValue() : null;
+
+      // Hide any previously displayed labels.
+      setKeyLabels( keyValue );
+      setLabel( LABEL_REGULAR_COUNTER, null );
+
+      if( pressed ) {
+        mRepeats = 0;
+
+        // Track the consecutive key presses for this value.
+        if( mKeyCounter.apply( keyValue ) ) {
+          setLabel( LABEL_REGULAR_COUNTER, mKeyCounter.toString() );
+        }
+      }
+    }
+  }
+
+  /**
+   * Shows the given regular key value, hiding any previously displayed
+   * value.
+   *
+   * @param keyValue The key's value, or {@code null} to hide the labels.
+   */
+  private void setKeyLabels( final String keyValue ) {
+    setLabel( LABEL_REGULAR, null );
+    setLabel( LABEL_REGULAR_NUM_MAIN, null );
+    setLabel( LABEL_REGULAR_NUM_SUPERSCRIPT, null );
+
+    if( keyValue == null ) {
+      return;
+    }
+
+    // Determine whether there are separate parts for the key label.
+    final var index = keyValue.indexOf( ' ' );
+
+    // If there's a space in the name, the text before the space is
+    // positioned in the upper-left while the text afterwards takes up
+    // the remainder. This is used for number pad keys, backspace, enter,
+    // tab, and a few others.
+    if( index > 0 ) {
+      setLabel(
+        LABEL_REGULAR_NUM_SUPERSCRIPT, keyValue.substring( 0, index ) );
+      setLabel( LABEL_REGULAR_NUM_MAIN, keyValue.substring( index + 1 ) );
+    }
+    else {
+      setLabel( LABEL_REGULAR, keyValue );
+    }
+  }
+
+  private void applyMouse(
+    final HardwareSwitchState state,
+    final HardwareSwitch hwSwitch,
+    final boolean pressed ) {
+    if( pressed ) {
+      mMouseHeld |= DisplayState.mask( hwSwitch );
+    }
+
+    if( hwSwitch == MOUSE_EXTRA ) {
+      setLabel( LABEL_MOUSE_EXTRA, pressed ? state.getValue() : null );
+    }
+
+    // The displayed mouse actions become the held actions so that the
+    // snapshot reflects every button in a chord.
+    mPressed = (mPressed & ~MOUSE_MASK) | mMouseHeld;
+  }
+
+  private void setPressed( final HardwareSwitch hwSwitch, final boolean on ) {
+    final var mask = DisplayState.mask( hwSwitch );
+    mPressed = on ? mPressed | mask : mPressed & ~mask;
+  }
+
+  private void setLabel( final LabelConfig config, final String text ) {
+    mLabels[ config.ordinal() ] = text;
+  }
+
+  /**
+   * Creates a new snapshot if the scratch values differ from the current
+   * snapshot.
+   *
+   * @return The current snapshot.
+   */
+  private DisplayState commit() {
+    if( !mState.matches( mPressed, mLabels ) ) {
+      mState = new DisplayState( mPressed, mLabels.clone() );
+    }
+
+    return mState;
+  }
+}
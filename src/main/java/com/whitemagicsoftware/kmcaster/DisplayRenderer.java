@@ -0,0 +1,230 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import com.whitemagicsoftware.kmcaster.ui.AutofitLabel;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Map;
+
+import static com.whitemagicsoftware.kmcaster.HardwareState.SWITCH_PRESSED;
+import static com.whitemagicsoftware.kmcaster.HardwareState.SWITCH_RELEASED;
+import static com.whitemagicsoftware.kmcaster.HardwareSwitch.*;
+import static com.whitemagicsoftware.kmcaster.LabelConfig.*;
+import static com.whitemagicsoftware.kmcaster.ui.Constants.COLOUR_KEY_DN;
+import static com.whitemagicsoftware.kmcaster.ui.Constants.COLOUR_KEY_UP;
+
+/**
+ * Responsible for applying a {@link DisplayState} to the Swing components.
+ * Successive snapshots are compared so that only components whose content
+ * has changed are touched. This must be used from Swing's event dispatch
+ * thread.
+ */
+public final class DisplayRenderer {
+  /**
+   * Maps key pressed states to key cap title colours.
+   */
+  private static final Map<HardwareState, Color> KEY_COLOURS = Map.of(
+    SWITCH_PRESSED, COLOUR_KEY_DN,
+    SWITCH_RELEASED, COLOUR_KEY_UP
+  );
+
+  /**
+   * The superscript must be scaled before the main label because the main
+   * label is shifted down by the superscript's height.
+   */
+  private static final LabelConfig[] RENDER_ORDER = {
+    LABEL_SHIFT,
+    LABEL_CTRL,
+    LABEL_ALT,
+    LABEL_REGULAR,
+    LABEL_REGULAR_NUM_SUPERSCRIPT,
+    LABEL_REGULAR_NUM_MAIN,
+    LABEL_REGULAR_COUNTER,
+    LABEL_MOUSE_EXTRA
+  };
+
+  private final HardwareImages mHardwareImages;
+  private final AutofitLabel[] mLabels;
+
+  /**
+   * Text that each label was most recently scaled to fit, which avoids
+   * recomputing fonts when a label is shown again with the same text.
+   */
+  private final String[] mFitted = new String[ LabelConfig.size() ];
+
+  /**
+   * Most recently rendered snapshot, {@code null} forces a full render.
+   */
+  private DisplayState mPrevious;
+
+  /**
+   * Creates a renderer for the given components.
+   *
+   * @param hardwareImages The components that show switch states.
+   * @param labels         The labels indexed by {@link LabelConfig} ordinal.
+   */
+  public DisplayRenderer(
+    final HardwareImages hardwareImages, final AutofitLabel[] labels ) {
+    assert hardwareImages != null;
+    assert labels != null;
+
+    mHardwareImages = hardwareImages;
+    mLabels = labels;
+  }
+
+  /**
+   * Updates the components that differ between the previously rendered
+   * snapshot and the given snapshot.
+   *
+   * @param next The snapshot to display.
+   */
+  public void render( final DisplayState next ) {
+    assert next != null;
+
+    final var prev = mPrevious;
+
+    if( prev == next ) {
+      return;
+    }
+
+    for( final var key : keyboardSwitches() ) {
+      if( prev == null || prev.isPressed( key ) != next.isPressed( key ) ) {
+        mHardwareImages.get( key ).setState(
+          new HardwareSwitchState( key, next.getHardwareState( key ) ) );
+      }
+    }
+
+    final var mouseMask = next.getMouseMask();
+
+    // All held mouse buttons are drawn using a single composite image.
+    if( prev == null || prev.getMouseMask() != mouseMask ) {
+      mHardwareImages.get( MOUSE_EXTRA ).setImage(
+        mHardwareImages.getMouseImage( mouseMask ) );
+    }
+
+    for( final var config : RENDER_ORDER ) {
+      render( prev, next, config );
+    }
+
+    mPrevious = next;
+  }
+
+  /**
+   * Fits every label to its parent's current size, such as after zooming,
+   * then renders the current snapshot again. Hidden labels are fitted when
+   * they are next shown.
+   */
+  public void refit() {
+    for( final var label : mLabels ) {
+      label.invalidateBounds();
+    }
+
+    Arrays.fill( mFitted, null );
+
+    final var state = mPrevious;
+
+    if( state != null ) {
+      mPrevious = null;
+      render( state );
+    }
+  }
+
+  /**
+   * Adds the text of every visible label, in its current font and colour,
+   * to the labels' glyph atlas.
+   */
+  public void preshape() {
+    for( final var label : mLabels ) {
+      if( label.isVisible() ) {
+        label.preshape();
+      }
+    }
+  }
+
+  private void render(
+    final DisplayState prev,
+    final DisplayState next,
+    final LabelConfig config ) {
+    final var label = getLabel( config );
+    final var text = next.getLabel( config );
+    final var visible = text != null;
+
+    if( visible ) {
+      config.getHardwareSwitch().ifPresent(
+        s -> {
+          if( s.isKeyboard() ) {
+            final var hwState = next.getHardwareState( s );
+            label.setForeground( KEY_COLOURS.get( hwState ) );
+          }
+        }
+      );
+
+      if( !text.equals( mFitted[ config.ordinal() ] ) ) {
+        label.setText( text );
+        fit( config, label );
+        mFitted[ config.ordinal() ] = text;
+      }
+    }
+
+    if( prev == null || prev.isVisible( config ) != visible ) {
+      label.setVisible( visible );
+    }
+  }
+
+  /**
+   * Scales the given label to fit its container.
+   *
+   * @param config Determines the label's scale relative to its container.
+   * @param label  The label to scale.
+   */
+  private void fit( final LabelConfig config, final AutofitLabel label ) {
+    switch( config ) {
+      // Label for "Num", "Back", "Tab", and other dual-labelled keys.
+      case LABEL_REGULAR_NUM_SUPERSCRIPT -> label.transform( .6f );
+
+      // Label for number pad keys or icon glyphs.
+      case LABEL_REGULAR_NUM_MAIN -> {
+        label.transform( .8f );
+
+        // Shift the main label down away from the superscript.
+        final var sup = getLabel( LABEL_REGULAR_NUM_SUPERSCRIPT );
+        final var mainLoc = label.getLocation();
+        label.setLocation( mainLoc.x, mainLoc.y + (sup.getHeight() / 2) );
+      }
+
+      case LABEL_REGULAR_COUNTER -> label.transform( .25f );
+      default -> label.transform();
+    }
+  }
+
+  private AutofitLabel getLabel( final LabelConfig config ) {
+    return mLabels[ config.ordinal() ];
+  }
+}
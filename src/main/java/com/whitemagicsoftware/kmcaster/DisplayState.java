@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import java.util.Arrays;
+
+/**
+ * Responsible for describing what the overlay should display at a moment in
+ * time: which switches appear pressed and the text of every visible label.
+ * Instances are immutable so that successive snapshots can be compared to
+ * determine what has changed.
+ */
+public final class DisplayState {
+  /**
+   * Indicates that all switches are released and all labels are hidden.
+   */
+  static final DisplayState RELEASED =
+    new DisplayState( 0, new String[ LabelConfig.size() ] );
+
+  /**
+   * Bits for all mouse buttons and scroll directions.
+   */
+  private static final int MOUSE_MASK = mask( HardwareSwitch.mouseSwitches() );
+
+  /**
+   * Bitmask of {@link HardwareSwitch} ordinals that are drawn pressed.
+   */
+  private final int mPressed;
+
+  /**
+   * Label text indexed by {@link LabelConfig} ordinal, {@code null} entries
+   * are hidden labels.
+   */
+  private final String[] mLabels;
+
+  /**
+   * Creates a new snapshot; the label array is not copied, so callers must
+   * not retain a reference to it.
+   *
+   * @param pressed Bitmask of pressed switch ordinals.
+   * @param labels  Label text, or {@code null} for hidden labels.
+   */
+  DisplayState( final int pressed, final String[] labels ) {
+    assert labels != null;
+    assert labels.length == LabelConfig.size();
+
+    mPressed = pressed;
+    mLabels = labels;
+  }
+
+  /**
+   * Answers whether the given switch should be drawn pressed.
+   *
+   * @param hwSwitch The switch to look up.
+   * @return {@code true} if the switch is pressed in this snapshot.
+   */
+  public boolean isPressed( final HardwareSwitch hwSwitch ) {
+    return (mPressed & mask( hwSwitch )) != 0;
+  }
+
+  /**
+   * Returns the state of the given switch suitable for selecting its image.
+   *
+   * @param hwSwitch The switch to look up.
+   * @return Pressed or released, depending on this snapshot.
+   */
+  public HardwareState getHardwareState( final HardwareSwitch hwSwitch ) {
+    return isPressed( hwSwitch )
+      ? HardwareState.SWITCH_PRESSED
+      : HardwareState.SWITCH_RELEASED;
+  }
+
+  /**
+   * Returns the mouse buttons and scroll directions that are held.
+   *
+   * @return Bitmask of held mouse {@link HardwareSwitch} ordinals, zero if
+   * the mouse is released.
+   */
+  public int getMouseMask() {
+    return mPressed & MOUSE_MASK;
+  }
+
+  /**
+   * Returns the text for the given label.
+   *
+   * @param config The label to look up.
+   * @return The label's text, or {@code null} if the label is hidden.
+   */
+  public String getLabel( final LabelConfig config ) {
+    return mLabels[ config.ordinal() ];
+  }
+
+  /**
+   * Answers whether the given label is shown.
+   *
+   * @param config The label to look up.
+   * @return {@code true} when the label has text to display.
+   */
+  public boolean isVisible( final LabelConfig config ) {
+    return getLabel( config ) != null;
+  }
+
+  /**
+   * Answers whether this snapshot has the same contents as the given values,
+   * which avoids allocating a new snapshot when nothing has changed.
+   *
+   * @param pressed Bitmask of pressed switch ordinals.
+   * @param labels  Label text, or {@code null} for hidden labels.
+   * @return {@code true} when all values match this snapshot.
+   */
+  boolean matches( final int pressed, final String[] labels ) {
+    return mPressed == pressed && Arrays.equals( mLabels, labels );
+  }
+
+  /**
+   * Returns the bit that represents the given switch.
+   *
+   * @param hwSwitch The switch to convert to a bitmask.
+   * @return A bitmask with a single bit set.
+   */
+  static int mask( final HardwareSwitch hwSwitch ) {
+    return 1 << hwSwitch.ordinal();
+  }
+
+  /**
+   * Returns the bits that represent all the given switches.
+   *
+   * @param hwSwitches The switches to convert to a bitmask.
+   * @return A bitmask with one bit set per switch.
+   */
+  static int mask( final HardwareSwitch[] hwSwitches ) {
+    int mask = 0;
+
+    for( final var hwSwitch : hwSwitches ) {
+      mask |= mask( hwSwitch );
+    }
+
+    return mask;
+  }
+
+  @Override
+  public boolean equals( final Object o ) {
+    if( this == o ) {
+      return true;
+    }
+    if( o == null || getClass() != o.getClass() ) {
+      return false;
+    }
+
+    final DisplayState that = (DisplayState) o;
+
+    return matches( that.mPressed, that.mLabels );
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * mPressed + Arrays.hashCode( mLabels );
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{" +
+      "mPressed=" + Integer.toBinaryString( mPressed ) +
+      ", mLabels=" + Arrays.toString( mLabels ) +
+      '}';
+  }
+}
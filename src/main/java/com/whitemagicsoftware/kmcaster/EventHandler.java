@@ -27,58 +27,149 @@
  */
 package com.whitemagicsoftware.kmcaster;
 
+import com.whitemagicsoftware.kmcaster.analytics.KeyCounters;
+import com.whitemagicsoftware.kmcaster.keymap.ChordRecognizer;
+import com.whitemagicsoftware.kmcaster.keymap.KeyNames;
+import com.whitemagicsoftware.kmcaster.listeners.KeyChangeEvent;
+import com.whitemagicsoftware.kmcaster.listeners.KeyboardListener;
+import com.whitemagicsoftware.kmcaster.ui.ActionCaption;
 import com.whitemagicsoftware.kmcaster.ui.AutofitLabel;
+import com.whitemagicsoftware.kmcaster.ui.BatchingRepaintManager;
+import com.whitemagicsoftware.kmcaster.ui.GlyphAtlas;
+import com.whitemagicsoftware.kmcaster.ui.HistoryStrip;
 import com.whitemagicsoftware.kmcaster.ui.ResetTimer;
-import com.whitemagicsoftware.kmcaster.util.ConsecutiveEventCounter;
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+import com.whitemagicsoftware.kmcaster.util.IdleMonitor;
+import com.whitemagicsoftware.kmcaster.util.LatencyRecorder;
+import com.whitemagicsoftware.kmcaster.util.Parkable;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.Deque;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.whitemagicsoftware.kmcaster.HardwareState.*;
 import static com.whitemagicsoftware.kmcaster.HardwareSwitch.*;
-import static com.whitemagicsoftware.kmcaster.LabelConfig.*;
-import static com.whitemagicsoftware.kmcaster.ui.Constants.*;
-import static java.awt.Toolkit.getDefaultToolkit;
-import static javax.swing.RepaintManager.currentManager;
+import static com.whitemagicsoftware.kmcaster.ui.Constants.COLOUR_KEY_DN;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static javax.swing.SwingUtilities.invokeLater;
 
 /**
  * Responsible for controlling the application state between the events
- * and the view.
+ * and the view. State changes are reduced into a {@link DisplayState} by
+ * a {@link DisplayReducer}, which a {@link DisplayRenderer} applies to the
+ * user interface. All component changes for an event are repainted together.
+ * <p>
+ * Once the last pending release timer fires, the application is parked: no
+ * timers run and no repaints are requested until the next input event.
+ * </p>
  */
 public final class EventHandler implements PropertyChangeListener {
+  /**
+   * Representative events that exercise every label and component during
+   * warm-up: modifiers, single and split key labels, repeated keys for the
+   * counter, mouse chords, an extra mouse button, and scrolling.
+   */
+  private static final HardwareSwitchState[] WARM_UP_STATES = {
+    new HardwareSwitchState( KEY_SHIFT, SWITCH_PRESSED ),
+    new HardwareSwitchState( KEY_CTRL, SWITCH_PRESSED ),
+    new HardwareSwitchState( KEY_ALT, SWITCH_PRESSED ),
+    new HardwareSwitchState( KEY_REGULAR, SWITCH_PRESSED, "A" ),
+    new HardwareSwitchState( KEY_REGULAR, SWITCH_RELEASED, "A" ),
+    new HardwareSwitchState( KEY_REGULAR, SWITCH_PRESSED, "A" ),
+    new HardwareSwitchState( KEY_REGULAR, SWITCH_PRESSED, "Num 5" ),
+    new HardwareSwitchState( KEY_REGULAR, SWITCH_PRESSED, "Back ⌫" ),
+    new HardwareSwitchState( KEY_REGULAR, SWITCH_PRESSED, "→" ),
+    new HardwareSwitchState( KEY_REGULAR, SWITCH_RELEASED, "→" ),
+    new HardwareSwitchState( KEY_ALT, SWITCH_RELEASED ),
+    new HardwareSwitchState( KEY_CTRL, SWITCH_RELEASED ),
+    new HardwareSwitchState( KEY_SHIFT, SWITCH_RELEASED ),
+    new HardwareSwitchState( MOUSE_LEFT, SWITCH_PRESSED ),
+    new HardwareSwitchState( MOUSE_RIGHT, SWITCH_PRESSED ),
+    new HardwareSwitchState( MOUSE_EXTRA, SWITCH_PRESSED, "4" ),
+    new HardwareSwitchState( MOUSE_EXTRA, SWITCH_RELEASED ),
+    new HardwareSwitchState( MOUSE_SCROLL_U, SWITCH_PRESSED ),
+  };
+
+  /**
+   * Number of passes over {@link #WARM_UP_STATES} during warm-up. The first
+   * pass derives fonts and fills caches; the second runs the warmed path.
+   */
+  private static final int WARM_UP_ROUNDS = 2;
 
   /**
-   * Maps key pressed states to key cap title colours.
+   * Number of events after launch whose latency is measured.
    */
-  private static final Map<HardwareState, Color> KEY_COLOURS = Map.of(
-    SWITCH_PRESSED, COLOUR_KEY_DN,
-    SWITCH_RELEASED, COLOUR_KEY_UP
-  );
+  private static final int LATENCY_SAMPLES = 100;
 
   /**
-   * This is used to temporarily set the mouse to the released state.
+   * Milliseconds without a refit before the glyph atlas is refilled.
    */
-  public static final HardwareSwitchState MOUSE_RELEASED =
-    new HardwareSwitchState( MOUSE_EXTRA, SWITCH_RELEASED );
+  private static final int PRESHAPE_DELAY = 400;
 
-  private final HardwareImages mHardwareImages;
-  private final AutofitLabel[] mLabels = new AutofitLabel[ LabelConfig.size() ];
   private final Map<HardwareSwitch, ResetTimer> mTimers = new HashMap<>();
-  private final Deque<HardwareSwitch> mMouseActions = new LinkedList<>();
-  private final ConsecutiveEventCounter<String> mKeyCounter;
+
+  /**
+   * Delays refilling the glyph atlas until the labels stop being refitted.
+   */
+  private final ResetTimer mPreshapeTimer = new ResetTimer( PRESHAPE_DELAY );
+  private final DisplayReducer mReducer;
+  private final DisplayRenderer mRenderer;
+  private final BatchingRepaintManager mRepaints;
+  private final IdleMonitor mIdle = new IdleMonitor();
+  private final GlyphAtlas mGlyphAtlas = new GlyphAtlas();
+  private final int mKeyCount;
+
+  /**
+   * Auto-repeats received from the hook thread but not yet displayed.
+   */
+  private final AtomicInteger mRepeats = new AtomicInteger();
+
+  /**
+   * Value of the most recently auto-repeated key.
+   */
+  private volatile String mRepeatValue = "";
+
+  /**
+   * Shows recent keystrokes, {@code null} unless requested by the user.
+   */
+  private HistoryStrip mHistory;
+
+  /**
+   * Recognises bound chords, {@code null} unless a keymap was given.
+   */
+  private ChordRecognizer mChords;
+
+  /**
+   * Shows the actions of recognised chords.
+   */
+  private ActionCaption mCaption;
+
+  /**
+   * Counts key presses across sessions, {@code null} unless requested.
+   */
+  private KeyCounters mCounters;
+  private final LatencyRecorder mLatency =
+    new LatencyRecorder( LATENCY_SAMPLES );
+
+  /**
+   * Paint passes counted when the previous event was rendered.
+   */
+  private long mPaints;
 
   public EventHandler(
-    final HardwareImages hardwareImages, final Settings userSettings ) {
-    mHardwareImages = hardwareImages;
-    mKeyCounter = new ConsecutiveEventCounter<>( userSettings.getKeyCount() );
+    final HardwareImages hardwareImages,
+    final Settings userSettings,
+    final BatchingRepaintManager repaints ) {
+    assert repaints != null;
+
+    mRepaints = repaints;
 
-    final var keyColour = KEY_COLOURS.get( SWITCH_PRESSED );
+    final var labels = new AutofitLabel[ LabelConfig.size() ];
     final var font = userSettings.createFont();
 
     for( final var config : LabelConfig.values() ) {
@@ -86,18 +177,23 @@ public final class EventHandler implements PropertyChangeListener {
 
       label.setVerticalAlignment( config.getVerticalAlign() );
       label.setHorizontalAlignment( config.getHorizontalAlign() );
-      label.setForeground( keyColour );
+      label.setForeground( COLOUR_KEY_DN );
+      label.setGlyphAtlas( mGlyphAtlas );
 
-      mLabels[ config.ordinal() ] = label;
+      labels[ config.ordinal() ] = label;
 
       final var hwSwitch = config.getHardwareSwitch();
 
       hwSwitch.ifPresentOrElse(
-        s -> mHardwareImages.get( s ).add( label ),
-        () -> mHardwareImages.get( KEY_REGULAR ).add( label )
+        s -> hardwareImages.get( s ).add( label ),
+        () -> hardwareImages.get( KEY_REGULAR ).add( label )
       );
     }
 
+    mKeyCount = userSettings.getKeyCount();
+    mReducer = new DisplayReducer( mKeyCount );
+    mRenderer = new DisplayRenderer( hardwareImages, labels );
+
     putTimers( modifierSwitches(), userSettings.getDelayKeyModifier() );
     putTimers( regularSwitches(), userSettings.getDelayKeyRegular() );
     putTimers( mouseSwitches(), userSettings.getDelayMouseButton() );
@@ -112,13 +208,76 @@ public final class EventHandler implements PropertyChangeListener {
    */
   @Override
   public void propertyChange( final PropertyChangeEvent e ) {
-    invokeLater(
-      () -> {
+    if( isRepeat( e ) ) {
+      mRepeatValue = e.getNewValue().toString();
+
+      // Repeats that arrive before the previous ones are displayed are
+      // combined, so a held key updates the display once per paint pass.
+      if( mRepeats.getAndIncrement() == 0 ) {
+        invokeLater( this::repeat );
+      }
+    }
+    else if( Diagnostics.isEnabled() && !mLatency.isFull() ) {
+      final var received = System.nanoTime();
+
+      // Swing queues its paint pass while the update runs, so a task queued
+      // afterwards runs once the event has been painted.
+      invokeLater( () -> {
         update( e );
+        invokeLater( () -> mLatency.record( System.nanoTime() - received ) );
+      } );
+    }
+    else {
+      invokeLater( () -> update( e ) );
+    }
+  }
+
+  /**
+   * Runs representative events through the reducer, the renderer, and an
+   * offscreen paint so that the code paths, derived fonts, and glyph caches
+   * are warm before the first real event arrives. The events are repeated
+   * for a fixed number of rounds, stopping early if the time budget is
+   * spent, after which the display is reset to its released state. This
+   * must be invoked from Swing's event dispatch thread after the frame is
+   * laid out and before it is shown.
+   *
+   * @param root   The container to paint offscreen.
+   * @param budget Maximum milliseconds to spend, zero disables warm-up.
+   */
+  public void warmUp( final Container root, final long budget ) {
+    final var width = root.getWidth();
+    final var height = root.getHeight();
+
+    if( budget <= 0 || width <= 0 || height <= 0 ) {
+      return;
+    }
 
-        // Prevent collapsing multiple paint events.
-        getDefaultToolkit().sync();
+    final var started = System.nanoTime();
+    final var deadline = started + MILLISECONDS.toNanos( budget );
+    final var reducer = new DisplayReducer( 2 );
+    final var image = SvgRasterizer.toCompatibleImage(
+      new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB_PRE ) );
+    final var graphics = image.createGraphics();
+    var rounds = 0;
+
+    try {
+      do {
+        for( final var state : WARM_UP_STATES ) {
+          mRepaints.batch( () -> mRenderer.render( reducer.apply( state ) ) );
+          root.paint( graphics );
+        }
+
+        rounds++;
       }
+      while( rounds < WARM_UP_ROUNDS && System.nanoTime() < deadline );
+    } finally {
+      graphics.dispose();
+      mRepaints.batch( () -> mRenderer.render( DisplayState.RELEASED ) );
+    }
+
+    Diagnostics.log(
+      "Warm-up ran %d rounds in %d ms",
+      rounds, NANOSECONDS.toMillis( System.nanoTime() - started )
     );
   }
 
@@ -137,6 +296,11 @@ public final class EventHandler implements PropertyChangeListener {
 
     final var hwSwitch = HardwareSwitch.valueFrom( switchName );
     final var hwState = HardwareState.valueFrom( newValue );
+    final var modifiers = e instanceof KeyChangeEvent
+      ? ((KeyChangeEvent) e).getModifiers()
+      : 0;
+
+    mIdle.wake();
 
     final var switchState = new HardwareSwitchState(
       hwSwitch, hwState, switchValue );
@@ -145,165 +309,259 @@ public final class EventHandler implements PropertyChangeListener {
     final var timer = getTimer( hwSwitch );
     timer.stop();
 
-    if( hwSwitch.isKeyboard() ) {
-      if( hwState == SWITCH_RELEASED ) {
-        timer.addActionListener(
-          ( event ) -> updateKeyboardLabel( switchState )
-        );
-      }
-      else {
-        updateKeyboardLabel( switchState );
+    if( hwState == SWITCH_RELEASED ) {
+      if( hwSwitch.isMouse() ) {
+        mReducer.release( hwSwitch );
       }
+
+      timer.addActionListener( ( event ) -> {
+        render( switchState, modifiers );
+        parkIfIdle();
+      } );
     }
     else {
-      if( hwState == SWITCH_RELEASED ) {
-        mMouseActions.remove( hwSwitch );
+      render( switchState, modifiers );
+
+      // There are no "stop scrolling" events, so clear the scroll indicator
+      // after a few moments of inactivity.
+      if( hwSwitch.isScroll() ) {
         timer.addActionListener(
-          ( event ) -> updateMouseStatus( switchState )
+          ( action ) -> {
+            final var source = e.getSource();
+            final var name = e.getPropertyName();
+            final var event = new PropertyChangeEvent(
+              source, name, true, false );
+
+            update( event );
+          }
         );
       }
-      else {
-        mMouseActions.add( hwSwitch );
-        updateMouseStatus( switchState );
-
-        // There are no "stop scrolling" events, so clear the scroll indicator
-        // after a few moments of inactivity.
-        if( hwSwitch.isScroll() ) {
-          timer.addActionListener(
-            ( action ) -> {
-              final var source = e.getSource();
-              final var name = e.getPropertyName();
-              final var event = new PropertyChangeEvent(
-                source, name, true, false );
-
-              update( event );
-            }
-          );
-        }
-      }
     }
   }
 
-  private void updateSwitchState( final HardwareSwitchState switchState ) {
-    getHardwareComponent( switchState ).setState( switchState );
+  /**
+   * Shows the held key with its tally of auto-repeats. The key's pending
+   * release, if any, is cancelled because the key is still held. This must
+   * be invoked from Swing's event dispatch thread.
+   */
+  private void repeat() {
+    final var repeats = mRepeats.getAndSet( 0 );
+    final var value = mRepeatValue;
+
+    mIdle.wake();
+    getTimer( KEY_REGULAR ).stop();
+    mRepaints.batch(
+      () -> mRenderer.render( mReducer.repeat( value, repeats ) ) );
   }
 
   /**
-   * Changes the text on labels when the state of a key changes.
+   * Answers whether the given event is an auto-repeat of the held regular
+   * key, which is sent with equal old and new values.
    *
-   * @param state The key that has changed.
+   * @param e The event from a keyboard or mouse listener.
+   * @return {@code true} if the event is an auto-repeat.
    */
-  private synchronized void updateKeyboardLabel(
-    final HardwareSwitchState state ) {
-    updateSwitchState( state );
-    final var hwState = state.getHardwareState();
+  private static boolean isRepeat( final PropertyChangeEvent e ) {
+    final var n = e.getNewValue();
 
-    if( state.isModifier() ) {
-      updateLabel( state );
+    return KEY_REGULAR.toString().equals( e.getPropertyName() ) &&
+      n != null && !n.toString().isEmpty() && n.equals( e.getOldValue() );
+  }
 
-      mKeyCounter.reset();
+  /**
+   * Adds each regular key press, with its held modifiers, to the given
+   * strip of recent keystrokes.
+   *
+   * @param history The strip to update, or {@code null} for no history.
+   */
+  public void setHistory( final HistoryStrip history ) {
+    mHistory = history;
+  }
+
+  /**
+   * Recognises chords from the given key bindings, showing the bound action
+   * whenever a chord is completed.
+   *
+   * @param chords  Follows keystrokes through the key bindings.
+   * @param caption Shows the actions of completed chords.
+   */
+  public void setChords(
+    final ChordRecognizer chords, final ActionCaption caption ) {
+    assert chords != null;
+    assert caption != null;
+
+    mChords = chords;
+    mCaption = caption;
+  }
+
+  /**
+   * Stops the given background work while no input is being displayed.
+   *
+   * @param parkable The work to stop once every release timer has fired,
+   *                 and to resume on the next input event.
+   */
+  public void addParkable( final Parkable parkable ) {
+    mIdle.add( parkable );
+  }
+
+  /**
+   * Counts each regular key press, with its held modifiers.
+   *
+   * @param counters The counters to increment, or {@code null} for none.
+   */
+  public void setCounters( final KeyCounters counters ) {
+    mCounters = counters;
+  }
+
+  /**
+   * Adds a regular key press to the keystroke history, the chord
+   * recognizer, and the key counters, if any are in use.
+   *
+   * @param state     The switch that has changed.
+   * @param modifiers The modifiers held when the switch changed, which
+   *                  may differ from those displayed.
+   */
+  private void record( final HardwareSwitchState state, final int modifiers ) {
+    if( state.getHardwareSwitch() != KEY_REGULAR ||
+      state.getHardwareState() != SWITCH_PRESSED ) {
+      return;
     }
-    else {
-      // Hide any previously displayed labels.
-      getLabel( LABEL_REGULAR ).setVisible( false );
-
-      final var main = getLabel( LABEL_REGULAR_NUM_MAIN );
-      final var sup = getLabel( LABEL_REGULAR_NUM_SUPERSCRIPT );
-      final var tally = getLabel( LABEL_REGULAR_COUNTER );
-
-      main.setVisible( false );
-      sup.setVisible( false );
-      tally.setVisible( false );
-
-      if( hwState == SWITCH_PRESSED ) {
-        final var keyValue = state.getValue();
-
-        // Determine whether there are separate parts for the key label.
-        final var index = keyValue.indexOf( ' ' );
-
-        // If there's a space in the name, the text before the space is
-        // positioned in the upper-left while the text afterwards takes up
-        // the remainder. This is used for number pad keys, backspace, enter,
-        // tab, and a few others.
-        if( index > 0 ) {
-          // Label for "Num", "Back", "Tab", and other dual-labelled keys.
-          sup.setText( keyValue.substring( 0, index ) );
-          sup.transform( .6f );
-
-          // Label for number pad keys or icon glyphs.
-          main.setText( keyValue.substring( index + 1 ) );
-          main.transform( .8f );
-
-          // Shift the main label down away from the superscript.
-          final var mainLoc = main.getLocation();
-          main.setLocation( mainLoc.x, mainLoc.y + (sup.getHeight() / 2) );
-
-          main.setVisible( true );
-          sup.setVisible( true );
-        }
-        else {
-          updateLabel( state );
-        }
 
-        // Track the consecutive key presses for this value.
-        if( mKeyCounter.apply( keyValue ) ) {
-          tally.setText( mKeyCounter.toString() );
-          tally.transform( .25f );
-          tally.setVisible( true );
-        }
+    final var counters = mCounters;
+
+    if( counters != null ) {
+      counters.increment( modifiers, state.getValue() );
+    }
+
+    final var chords = mChords;
+
+    if( chords != null ) {
+      final var action =
+        chords.apply( modifiers, state.getValue(), System.nanoTime() );
+
+      if( action != null ) {
+        mCaption.setAction( action );
       }
     }
+
+    final var history = mHistory;
+
+    if( history != null ) {
+      history.push( KeyNames.toChord( modifiers, state.getValue() ) );
+    }
   }
 
-  private void updateMouseStatus( final HardwareSwitchState switchState ) {
-    final var hwSwitch = switchState.getHardwareSwitch();
-    final var hwState = switchState.getHardwareState();
+  /**
+   * Fits the labels to their components after the components are resized.
+   * This must be invoked from Swing's event dispatch thread.
+   */
+  public void refit() {
+    mRepaints.batch( mRenderer::refit );
 
-    if( hwSwitch == MOUSE_EXTRA ) {
-      final var config = LabelConfig.valueFrom( hwSwitch );
-      final var button = getLabel( config );
+    // Text is shaped on demand until zooming settles, then the atlas is
+    // refilled once for the final size.
+    mPreshapeTimer.addActionListener( event -> preshape() );
+  }
+
+  /**
+   * Renders every known label into the glyph atlas at the labels' current
+   * sizes: the modifiers in both states, the regular keys, and each
+   * consecutive key press tally. The labels are fitted by running the
+   * events through a throwaway reducer, after which the current snapshot
+   * is rendered again. This must be invoked from Swing's event dispatch
+   * thread after the frame is laid out.
+   */
+  public void preshape() {
+    final var reducer = new DisplayReducer( mKeyCount );
+    final var atlas = mGlyphAtlas;
+    final var started = System.nanoTime();
 
-      if( hwState == SWITCH_PRESSED ) {
-        button.setText( switchState.getValue() );
-        button.transform();
-        button.setVisible( true );
+    mRepaints.batch( () -> {
+      atlas.clear();
+
+      for( final var modifier : modifierSwitches() ) {
+        preshape( reducer, modifier, SWITCH_PRESSED, "" );
+        preshape( reducer, modifier, SWITCH_RELEASED, "" );
       }
-      else {
-        button.setVisible( false );
+
+      for( final var label : KeyboardListener.regularLabels() ) {
+        preshape( reducer, KEY_REGULAR, SWITCH_PRESSED, label );
       }
-    }
 
-    final var component = getHardwareComponent( MOUSE_RELEASED );
-    final var repaintManager = currentManager( component );
+      // Pressing the same key repeatedly shows every tally up to the limit.
+      for( int i = 0; i < mKeyCount; i++ ) {
+        preshape( reducer, KEY_REGULAR, SWITCH_PRESSED, "a" );
+      }
 
-    component.setState( new HardwareSwitchState( hwSwitch, SWITCH_RELEASED ) );
-    repaintManager.paintDirtyRegions();
+      mRenderer.render( mReducer.getState() );
+    } );
 
-    for( final var action : mMouseActions ) {
-      component.setState( new HardwareSwitchState( action, SWITCH_PRESSED ) );
-      repaintManager.paintDirtyRegions();
+    if( Diagnostics.isEnabled() ) {
+      atlas.report();
+      Diagnostics.log( "Pre-shaped labels in %d ms",
+                       NANOSECONDS.toMillis( System.nanoTime() - started ) );
     }
   }
 
+  private void preshape(
+    final DisplayReducer reducer,
+    final HardwareSwitch hwSwitch,
+    final HardwareState hwState,
+    final String value ) {
+    final var state = new HardwareSwitchState( hwSwitch, hwState, value );
+
+    mRenderer.render( reducer.apply( state ) );
+    mRenderer.preshape();
+  }
+
   /**
-   * Changes the text label and colour for the given state.
+   * Reduces the given state change into a snapshot and displays it. The
+   * component changes are made in a single repaint transaction.
    *
-   * @param state The state of the hardware switch to look up.
+   * @param state     The switch that has changed.
+   * @param modifiers The modifiers held when the switch changed.
    */
-  private void updateLabel( final HardwareSwitchState state ) {
-    final var container = getHardwareComponent( state );
-    final var label = (AutofitLabel) container.getComponent( 0 );
-
-    label.setVisible( false );
-    label.setForeground( KEY_COLOURS.get( state.getHardwareState() ) );
-    label.setText( state.getValue() );
-    label.transform();
-    label.setVisible( true );
+  private void render(
+    final HardwareSwitchState state, final int modifiers ) {
+    final var repaints = mRepaints;
+    final var requested = repaints.getRequested();
+    final var issued = repaints.getIssued();
+
+    repaints.batch( () -> {
+      final var display = mReducer.apply( state );
+
+      mRenderer.render( display );
+      record( state, modifiers );
+    } );
+
+    if( Diagnostics.isEnabled() ) {
+      final var paints = repaints.getPaints();
+
+      Diagnostics.log(
+        "%s %s: repaints requested %d, issued %d; paint passes %d",
+        state.getHardwareSwitch(),
+        state.getHardwareState(),
+        repaints.getRequested() - requested,
+        repaints.getIssued() - issued,
+        paints - mPaints
+      );
+
+      mPaints = paints;
+    }
   }
 
-  private HardwareComponent<HardwareSwitchState, Image> getHardwareComponent(
-    final HardwareSwitchState state ) {
-    return mHardwareImages.get( state.getHardwareSwitch() );
+  /**
+   * Parks the application when no release timers remain pending. This is
+   * called after a timer has fired, so the firing timer is not running.
+   */
+  private void parkIfIdle() {
+    for( final var timer : mTimers.values() ) {
+      if( timer.isRunning() ) {
+        return;
+      }
+    }
+
+    mIdle.park();
   }
 
   private void putTimers( final HardwareSwitch[] hwSwitches, final int delay ) {
@@ -312,10 +570,6 @@ public final class EventHandler implements PropertyChangeListener {
     }
   }
 
-  private AutofitLabel getLabel( final LabelConfig config ) {
-    return mLabels[ config.ordinal() ];
-  }
-
   private ResetTimer getTimer( final HardwareSwitch hwSwitch ) {
     return mTimers.get( hwSwitch );
   }
@@ -31,8 +31,12 @@ import javax.swing.*;
 import java.awt.*;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
-import static com.whitemagicsoftware.kmcaster.SvgRasterizer.RENDERING_HINTS;
+import static com.whitemagicsoftware.kmcaster.SvgRasterizer.BLIT_HINTS;
+import static java.awt.RenderingHints.KEY_INTERPOLATION;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
 
 /**
  * Responsible for drawing an image based on a state; the state can be
@@ -46,17 +50,29 @@ public final class HardwareComponent
   private final Map<S, I> mStateImages = new HashMap<>();
 
   /**
-   * State that corresponds with the {@link Image} to paint.
+   * State that corresponds with the {@link Image} to paint, {@code null} when
+   * the image was set directly.
    */
   private S mState;
 
+  /**
+   * The {@link Image} to paint.
+   */
+  private I mImage;
+
   /**
    * Available space on the image for drawing.
    */
-  private final Insets mInsets;
+  private Insets mInsets;
 
   private Dimension mPreferredSize;
 
+  /**
+   * Converts the active image into the image that is drawn, such as by
+   * tinting a mask.
+   */
+  private final UnaryOperator<Image> mPainter;
+
   /**
    * Constructs a new {@link HardwareComponent} without an initial state. The
    * initial state must be set by calling {@link #setState(S)}
@@ -67,9 +83,24 @@ public final class HardwareComponent
    *               what we'd expected to see visually for key cap text.
    */
   public HardwareComponent( final Insets insets ) {
+    this( insets, UnaryOperator.identity() );
+  }
+
+  /**
+   * Constructs a new {@link HardwareComponent} that draws each image as
+   * converted by the given function when painted.
+   *
+   * @param insets  The padding to use around the component.
+   * @param painter Returns the image to draw for the active image; called
+   *                on every paint, so it should cache its results.
+   */
+  public HardwareComponent(
+    final Insets insets, final UnaryOperator<Image> painter ) {
     assert insets != null;
+    assert painter != null;
 
     mInsets = insets;
+    mPainter = painter;
     setOpaque( true );
   }
 
@@ -86,14 +117,28 @@ public final class HardwareComponent
   }
 
   /**
-   * Draws the current status of the hardware switch for this widget.
+   * Draws the current status of the hardware switch for this widget. The
+   * image is normally copied at its natural size, so fast blitting hints are
+   * used. While the component is resized ahead of its images, the image is
+   * stretched to fit using bilinear interpolation.
    */
   @Override
   protected void paintComponent( final Graphics g ) {
+    final var image = mPainter.apply( getActiveImage() );
+    final var w = getWidth();
+    final var h = getHeight();
     final var g2 = (Graphics2D) g.create();
-    g2.setRenderingHints( RENDERING_HINTS );
+    g2.setRenderingHints( BLIT_HINTS );
     g2.setComposite( AlphaComposite.Src );
-    g2.drawImage( getActiveImage(), 0, 0, this );
+
+    if( image.getWidth( null ) == w && image.getHeight( null ) == h ) {
+      g2.drawImage( image, 0, 0, this );
+    }
+    else {
+      g2.setRenderingHint( KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR );
+      g2.drawImage( image, 0, 0, w, h, this );
+    }
+
     g2.dispose();
   }
 
@@ -109,6 +154,7 @@ public final class HardwareComponent
 
     // Change the state variable directly, no need to issue a repaint request.
     mState = hwSwitch;
+    mImage = image;
   }
 
   /**
@@ -122,10 +168,76 @@ public final class HardwareComponent
 
     if( !state.equals( mState ) ) {
       mState = state;
-      repaint();
+      show( getStateImages().get( state ) );
     }
   }
 
+  /**
+   * Repaints this component using an image that is not associated with a
+   * registered state, such as a composite of several states. Afterwards,
+   * {@link #getState()} returns {@code null} until a state is set.
+   *
+   * @param image The new image to paint.
+   */
+  public void setImage( final I image ) {
+    assert image != null;
+
+    mState = null;
+    show( image );
+  }
+
+  /**
+   * Replaces the image for every state with the image for that state from
+   * the given function, such as after re-rasterizing at another size, then
+   * repaints. An image set directly is kept until the next image is set.
+   *
+   * @param images Provides the replacement image for each state.
+   */
+  public void replaceStateImages( final Function<S, I> images ) {
+    getStateImages().replaceAll( ( state, image ) -> images.apply( state ) );
+
+    final var state = mState;
+
+    if( state != null ) {
+      show( getStateImages().get( state ) );
+    }
+  }
+
+  /**
+   * Changes the component's size and safe drawing area. Images that do not
+   * match the new size are drawn scaled until they are replaced.
+   *
+   * @param size   The new preferred size.
+   * @param insets The new padding around the safe drawing area.
+   */
+  public void resize( final Dimension size, final Insets insets ) {
+    assert size != null;
+    assert insets != null;
+
+    mPreferredSize = new Dimension( size );
+    mInsets = insets;
+    revalidate();
+    repaint();
+  }
+
+  /**
+   * Scales the component's size and safe drawing area by the given ratio.
+   *
+   * @param ratio The amount to scale by, such as 1.1 to grow by 10%.
+   * @see #resize(Dimension, Insets)
+   */
+  public void scale( final double ratio ) {
+    final var size = getPreferredSize();
+    final var insets = getInsets();
+
+    resize(
+      new Dimension( scale( size.width, ratio ), scale( size.height, ratio ) ),
+      new Insets(
+        scale( insets.top, ratio ), scale( insets.left, ratio ),
+        scale( insets.bottom, ratio ), scale( insets.right, ratio ) )
+    );
+  }
+
   public S getState() {
     return mState;
   }
@@ -139,8 +251,19 @@ public final class HardwareComponent
     );
   }
 
+  private static int scale( final int value, final double ratio ) {
+    return (int) Math.round( value * ratio );
+  }
+
+  private void show( final I image ) {
+    if( image != mImage ) {
+      mImage = image;
+      repaint();
+    }
+  }
+
   private I getActiveImage() {
-    return getStateImages().get( getState() );
+    return mImage;
   }
 
   private Map<S, I> getStateImages() {
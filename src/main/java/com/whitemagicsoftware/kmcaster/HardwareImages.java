@@ -28,23 +28,59 @@
 package com.whitemagicsoftware.kmcaster;
 
 import com.whitemagicsoftware.kmcaster.ui.DimensionTuple;
+import com.whitemagicsoftware.kmcaster.ui.ImageTinter;
 import com.whitemagicsoftware.kmcaster.ui.PaddedInsets;
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
 import com.whitemagicsoftware.kmcaster.util.Pair;
 
+import javax.swing.*;
 import java.awt.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 import static com.whitemagicsoftware.kmcaster.HardwareState.SWITCH_PRESSED;
 import static com.whitemagicsoftware.kmcaster.HardwareState.SWITCH_RELEASED;
 import static com.whitemagicsoftware.kmcaster.HardwareSwitch.*;
+import static com.whitemagicsoftware.kmcaster.SvgRasterizer.toCompatibleImage;
 import static com.whitemagicsoftware.kmcaster.exceptions.Rethrowable.rethrow;
+import static com.whitemagicsoftware.kmcaster.ui.ImageTinter.*;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
 import static java.lang.String.format;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.runAsync;
 
 /**
  * Responsible for loading vector graphics representations of application
  * images. The images provide an on-screen interface that indicate to the user
  * what key or mouse events have been triggered.
+ * <p>
+ * When the user provides a tint, images are stored as two bytes per pixel
+ * masks that can be re-coloured without being re-rasterized. Indexed images
+ * are slow to draw, so each component keeps only the image it is showing,
+ * tinted into a premultiplied image, and re-colours that image in place
+ * when it shows another mask or the tint changes. Otherwise, images are
+ * converted to the screen's preferred format.
+ * </p>
+ * <p>
+ * Use {@link #create(Settings, Executor)} to rasterize the images in
+ * parallel without occupying Swing's event dispatch thread. The images can
+ * be rasterized at another size in the same way and swapped in afterwards,
+ * which allows zooming while the overlay is shown.
+ * </p>
+ * <p>
+ * SVG files in the user's theme directory, if any, override the bundled
+ * images. The theme directory mirrors the bundled {@code images} directory,
+ * for example {@code key/up/short.svg}.
+ * </p>
  */
 public final class HardwareImages {
   private final static String DIR_IMAGES = "/images";
@@ -79,27 +115,66 @@ public final class HardwareImages {
 
   private final static SvgRasterizer sRasterizer = new SvgRasterizer();
 
-  private final Dimension mAppDimensions;
+  private Dimension mAppDimensions;
 
   private final Map
       <HardwareSwitch, HardwareComponent<HardwareSwitchState, Image>>
       mSwitches = new HashMap<>();
 
-  public HardwareImages( final Settings userSettings ) {
+  /**
+   * Provides the mouse image for any combination of held mouse actions.
+   */
+  private MouseChordImages mMouseChords;
+
+  /**
+   * Colours the image masks, {@code null} to keep full-colour images.
+   */
+  private IndexColorModel mPalette;
+
+  /**
+   * Premultiplied colours of every palette index, {@code null} to keep
+   * full-colour images.
+   */
+  private int[] mColours;
+
+  /**
+   * Images that were rasterized ahead of time, keyed by resource path.
+   */
+  private Map<String, Pair<BufferedImage, DimensionTuple>> mRasterized;
+
+  /**
+   * Directory of SVG files that override the bundled images, or
+   * {@code null} to use only the bundled images.
+   */
+  private final Path mTheme;
+
+  /**
+   * Creates the components from images rasterized by {@link #create}. This
+   * must be called from Swing's event dispatch thread.
+   */
+  private HardwareImages(
+      final Settings userSettings,
+      final IndexColorModel palette,
+      final Map<String, Pair<BufferedImage, DimensionTuple>> rasterized ) {
     mAppDimensions = userSettings.createAppDimensions();
+    mPalette = palette;
+    mColours = palette == null ? null : colours( palette );
+    mRasterized = rasterized;
+    mTheme = userSettings.getThemeDir().orElse( null );
 
     final var mouseReleased = mouseImage( "0" );
     final var mouseScale = mouseReleased.getValue();
     final var mouseStates =
         createHardwareComponent( MOUSE_EXTRA, mouseScale );
 
+    mMouseChords = new MouseChordImages( mouseReleased.getKey() );
+    mouseStates.put(
+        state( MOUSE_EXTRA, SWITCH_RELEASED ), mouseReleased.getKey() );
+
     for( final var hwSwitch : mouseSwitches() ) {
-      final var stateOn = state( hwSwitch, SWITCH_PRESSED );
-      final var stateOff = state( hwSwitch, SWITCH_RELEASED );
       final var imageDn = mouseImage( hwSwitch.toString() );
 
-      mouseStates.put( stateOn, imageDn.getKey() );
-      mouseStates.put( stateOff, mouseReleased.getKey() );
+      mMouseChords.putLayer( hwSwitch, imageDn.getKey() );
       mSwitches.put( hwSwitch, mouseStates );
     }
 
@@ -117,6 +192,188 @@ public final class HardwareImages {
     }
   }
 
+  /**
+   * Rasterizes every image concurrently using the given executor, then
+   * creates the components on Swing's event dispatch thread.
+   *
+   * @param userSettings Provides the application dimensions and tint.
+   * @param executor     Runs the rasterization tasks.
+   * @return The images, completed on the event dispatch thread.
+   */
+  public static CompletableFuture<HardwareImages> create(
+      final Settings userSettings, final Executor executor ) {
+    final var palette = createPalette( userSettings );
+    final var theme = userSettings.getThemeDir().orElse( null );
+
+    return rasterizeAll(
+        imagePaths(), userSettings.createAppDimensions(), palette, theme,
+        executor
+    ).thenApplyAsync(
+        rasters -> new HardwareImages( userSettings, palette, rasters ),
+        SwingUtilities::invokeLater
+    );
+  }
+
+  /**
+   * Rasterizes every image concurrently to fit the given dimensions. The
+   * result can be passed to {@link #resize(Dimension, Map)}. This must be
+   * called from Swing's event dispatch thread.
+   *
+   * @param dimensions The application dimensions to fit.
+   * @param executor   Runs the rasterization tasks.
+   * @return The images keyed by resource path.
+   */
+  public CompletableFuture<Map<String, Pair<BufferedImage, DimensionTuple>>>
+  rasterize( final Dimension dimensions, final Executor executor ) {
+    return rasterizeAll(
+        imagePaths(), dimensions, mPalette, mTheme, executor );
+  }
+
+  /**
+   * Discards the compiled forms of the given images so that they are read
+   * from the theme directory again when next rasterized.
+   *
+   * @param paths Resource paths of the images that changed.
+   */
+  public void invalidate( final Set<String> paths ) {
+    if( mTheme == null ) {
+      return;
+    }
+
+    for( final var path : paths ) {
+      try {
+        sRasterizer.invalidate( themeUrl( path, mTheme ) );
+      } catch( final Exception ex ) {
+        rethrow( ex );
+      }
+    }
+  }
+
+  /**
+   * Re-rasterizes only the given images at the current size, after their
+   * theme files have changed. The result, which includes the unchanged
+   * images, can be passed to {@link #resize(Dimension, Map)}. This must be
+   * called from Swing's event dispatch thread while the current images
+   * match the current dimensions.
+   *
+   * @param paths    Resource paths of the images that changed.
+   * @param executor Runs the rasterization tasks.
+   * @return All images keyed by resource path.
+   */
+  public CompletableFuture<Map<String, Pair<BufferedImage, DimensionTuple>>>
+  reload( final Set<String> paths, final Executor executor ) {
+    final var base = mRasterized;
+    final var changed = new LinkedHashSet<>( paths );
+    changed.retainAll( imagePaths() );
+
+    invalidate( changed );
+
+    return rasterizeAll(
+        changed, mAppDimensions, mPalette, mTheme, executor
+    ).thenApply( rasters -> {
+      final var merged = new ConcurrentHashMap<>( base );
+      merged.putAll( rasters );
+      return merged;
+    } );
+  }
+
+  /**
+   * Resizes every component without re-rasterizing its images, which are
+   * drawn scaled until {@link #resize(Dimension, Map)} is called. This must
+   * be called from Swing's event dispatch thread.
+   *
+   * @param dimensions The new application dimensions.
+   */
+  public void scale( final Dimension dimensions ) {
+    final var ratio = dimensions.getHeight() / mAppDimensions.getHeight();
+
+    for( final var component : new HashSet<>( mSwitches.values() ) ) {
+      component.scale( ratio );
+    }
+
+    mAppDimensions = dimensions;
+  }
+
+  /**
+   * Swaps in images that were rasterized for the given dimensions, then
+   * resizes every component to fit its new images. This must be called from
+   * Swing's event dispatch thread.
+   *
+   * @param dimensions The application dimensions that the images fit.
+   * @param rasters    The images keyed by resource path.
+   */
+  public void resize(
+      final Dimension dimensions,
+      final Map<String, Pair<BufferedImage, DimensionTuple>> rasters ) {
+    mAppDimensions = dimensions;
+    mRasterized = rasters;
+
+    final var mouseReleased = mouseImage( "0" );
+    final var chords = new MouseChordImages( mouseReleased.getKey() );
+
+    for( final var hwSwitch : mouseSwitches() ) {
+      chords.putLayer( hwSwitch, mouseImage( hwSwitch.toString() ).getKey() );
+    }
+
+    mMouseChords = chords;
+    resize( MOUSE_EXTRA, mouseReleased, state -> mouseReleased.getKey() );
+
+    for( final var key : keyboardSwitches() ) {
+      final var prefix = FILE_NAME_PREFIXES.get( key );
+      final var imageDn = keyDnImage( prefix );
+      final var imageUp = keyUpImage( prefix );
+
+      resize( key, imageDn, state -> state.getHardwareState() == SWITCH_PRESSED
+          ? imageDn.getKey()
+          : imageUp.getKey() );
+    }
+  }
+
+  /**
+   * Returns the images that were most recently rasterized ahead of time.
+   *
+   * @return The images keyed by resource path, possibly empty.
+   */
+  public Map<String, Pair<BufferedImage, DimensionTuple>> getRasters() {
+    return mRasterized;
+  }
+
+  private void resize(
+      final HardwareSwitch hwSwitch,
+      final Pair<BufferedImage, DimensionTuple> image,
+      final Function<HardwareSwitchState, Image> images ) {
+    final var component = get( hwSwitch );
+    final var size = new Dimension(
+        image.getKey().getWidth(), image.getKey().getHeight() );
+
+    component.resize(
+        size, createInsets( hwSwitch ).scale( image.getValue() ) );
+    component.replaceStateImages( images );
+  }
+
+  /**
+   * Re-colours all images without re-rasterizing them, such as when the
+   * theme directory's tint file changes. The images being shown are tinted
+   * using the new colour when they are next painted. This has no effect unless a tint was
+   * provided when the images were created, because full-colour images cannot
+   * be re-coloured. This must be called from Swing's event dispatch thread.
+   *
+   * @param tint The new colour for all key and mouse images.
+   */
+  public void setTint( final Color tint ) {
+    if( mPalette == null ) {
+      Diagnostics.log( "Ignored tint %s, start with --tint to enable", tint );
+    }
+    else {
+      mPalette = palette( tint );
+      mColours = colours( mPalette );
+
+      for( final var component : new HashSet<>( mSwitches.values() ) ) {
+        component.repaint();
+      }
+    }
+  }
+
   private PaddedInsets createInsets( final HardwareSwitch hwSwitch ) {
     return new PaddedInsets( SWITCH_INSETS.get( hwSwitch ) );
   }
@@ -127,7 +384,7 @@ public final class HardwareImages {
     final var insets = createInsets( hwSwitch );
     final var scaledInsets = insets.scale( scale );
 
-    return new HardwareComponent<>( scaledInsets );
+    return new HardwareComponent<>( scaledInsets, new Tinted() );
   }
 
   public HardwareComponent<HardwareSwitchState, Image> get(
@@ -135,39 +392,155 @@ public final class HardwareImages {
     return mSwitches.get( hwSwitch );
   }
 
+  /**
+   * Returns the mouse image that shows all the held mouse actions.
+   *
+   * @param mask Bitmask of held {@link HardwareSwitch} ordinals.
+   * @return The mouse image for the given combination of mouse actions.
+   */
+  public Image getMouseImage( final int mask ) {
+    return mMouseChords.get( mask );
+  }
+
   private HardwareSwitchState state(
       final HardwareSwitch name, final HardwareState state ) {
     return new HardwareSwitchState( name, state );
   }
 
-  private Pair<Image, DimensionTuple> mouseImage( final String prefix ) {
-    return createImage( format( "%s/%s", DIR_IMAGES_MOUSE, prefix ) );
+  private Pair<BufferedImage, DimensionTuple> mouseImage(
+      final String prefix ) {
+    return createImage( mousePath( prefix ) );
   }
 
-  private Pair<Image, DimensionTuple> keyImage(
+  private Pair<BufferedImage, DimensionTuple> keyImage(
       final String state, final String prefix ) {
-    return createImage(
-        format( "%s/%s/%s", DIR_IMAGES_KEYBOARD, state, prefix )
-    );
+    return createImage( keyPath( state, prefix ) );
   }
 
-  private Pair<Image, DimensionTuple> keyUpImage( final String prefix ) {
+  private Pair<BufferedImage, DimensionTuple> keyUpImage(
+      final String prefix ) {
     return keyImage( "up", prefix );
   }
 
-  private Pair<Image, DimensionTuple> keyDnImage( final String prefix ) {
+  private Pair<BufferedImage, DimensionTuple> keyDnImage(
+      final String prefix ) {
     return keyImage( "dn", prefix );
   }
 
-  private Pair<Image, DimensionTuple> createImage( final String path ) {
+  private Pair<BufferedImage, DimensionTuple> createImage( final String path ) {
+    return mRasterized.computeIfAbsent(
+        path, p -> rasterize( p, getAppDimensions(), mPalette, mTheme ) );
+  }
+
+  private static CompletableFuture<Map<String, Pair<BufferedImage,
+      DimensionTuple>>> rasterizeAll(
+      final Set<String> paths,
+      final Dimension dimensions,
+      final IndexColorModel palette,
+      final Path theme,
+      final Executor executor ) {
+    final var rasterized =
+        new ConcurrentHashMap<String, Pair<BufferedImage, DimensionTuple>>();
+    final var tasks = paths
+        .stream()
+        .map( path -> runAsync(
+            () -> rasterized.put(
+                path, rasterize( path, dimensions, palette, theme ) ),
+            executor ) )
+        .toArray( CompletableFuture[]::new );
+
+    return allOf( tasks ).thenApply( v -> rasterized );
+  }
+
+  /**
+   * Returns the paths of every image that the constructor loads.
+   *
+   * @return Resource paths without the file name extension.
+   */
+  private static Set<String> imagePaths() {
+    final var paths = new LinkedHashSet<String>();
+
+    paths.add( mousePath( "0" ) );
+
+    for( final var hwSwitch : mouseSwitches() ) {
+      paths.add( mousePath( hwSwitch.toString() ) );
+    }
+
+    for( final var key : keyboardSwitches() ) {
+      final var prefix = FILE_NAME_PREFIXES.get( key );
+
+      paths.add( keyPath( "dn", prefix ) );
+      paths.add( keyPath( "up", prefix ) );
+    }
+
+    return paths;
+  }
+
+  /**
+   * Returns the location in the theme directory that overrides the given
+   * image, whether or not the file exists.
+   *
+   * @param path  Resource path without the file name extension.
+   * @param theme Directory of overriding SVG files, or {@code null}.
+   * @return The theme file's location, or {@code null} without a theme.
+   * @throws java.net.MalformedURLException Could not convert the path.
+   */
+  private static URL themeUrl( final String path, final Path theme )
+      throws java.net.MalformedURLException {
+    if( theme == null ) {
+      return null;
+    }
+
+    final var relative = path.substring( DIR_IMAGES.length() + 1 );
+
+    return theme.resolve( relative + ".svg" ).toUri().toURL();
+  }
+
+  private static String mousePath( final String prefix ) {
+    return format( "%s/%s", DIR_IMAGES_MOUSE, prefix );
+  }
+
+  private static String keyPath( final String state, final String prefix ) {
+    return format( "%s/%s/%s", DIR_IMAGES_KEYBOARD, state, prefix );
+  }
+
+  private static IndexColorModel createPalette( final Settings userSettings ) {
+    return userSettings.getTint()
+        .map( ImageTinter::palette )
+        .orElse( null );
+  }
+
+  /**
+   * Rasterizes the vector graphic at the given path to fit the given
+   * dimensions by replaying its compiled operations, so that only the first
+   * rasterization of each graphic walks the SVG element tree. This may be
+   * called from any thread.
+   *
+   * @param path       Resource path without the file name extension.
+   * @param dimensions The application dimensions to fit.
+   * @param palette    Colours the image mask, {@code null} for full colour.
+   * @param theme      Directory of overriding SVG files, or {@code null}.
+   * @return The image and its scale.
+   */
+  private static Pair<BufferedImage, DimensionTuple> rasterize(
+      final String path,
+      final Dimension dimensions,
+      final IndexColorModel palette,
+      final Path theme ) {
     final var resource = format( "%s.svg", path );
 
     try {
-      final var d = sRasterizer.loadDiagram( resource );
-      final var scale = sRasterizer.calculateScale( d, getAppDimensions() );
-      final var image = sRasterizer.rasterize( d, getAppDimensions() );
+      final var url = themeUrl( path, theme );
+      final var d = url != null && Files.isRegularFile( Path.of( url.toURI() ) )
+          ? sRasterizer.compile( url )
+          : sRasterizer.compile( resource );
+      final var scale = sRasterizer.calculateScale( d, dimensions );
+      final var image = d.rasterize( scale );
 
-      return new Pair<>( image, scale );
+      return new Pair<>(
+          palette == null
+              ? toCompatibleImage( image )
+              : toMask( image, palette ), scale );
     } catch( final Exception ex ) {
       rethrow( ex );
     }
@@ -179,4 +552,44 @@ public final class HardwareImages {
   private Dimension getAppDimensions() {
     return mAppDimensions;
   }
+
+  /**
+   * Holds the one tinted image that a component is showing. Masks are
+   * tinted using the current colours, re-using the previous image's pixels
+   * when the size matches, so that only the images on screen are kept in
+   * full colour. This is called from Swing's event dispatch thread.
+   */
+  private final class Tinted implements UnaryOperator<Image> {
+    private Image mMask;
+    private int[] mTint;
+    private BufferedImage mImage;
+
+    @Override
+    public Image apply( final Image image ) {
+      final var colours = mColours;
+
+      if( colours == null || !isMask( image ) ) {
+        return image;
+      }
+
+      if( image != mMask || colours != mTint ) {
+        final var mask = (BufferedImage) image;
+        final var w = mask.getWidth();
+        final var h = mask.getHeight();
+        var tinted = mImage;
+
+        if( tinted == null ||
+            tinted.getWidth() != w || tinted.getHeight() != h ) {
+          tinted = new BufferedImage( w, h, TYPE_INT_ARGB_PRE );
+        }
+
+        tint( mask, colours, tinted );
+        mMask = image;
+        mTint = colours;
+        mImage = tinted;
+      }
+
+      return mImage;
+    }
+  }
 }
@@ -29,25 +29,43 @@ package com.whitemagicsoftware.kmcaster;
 
 import com.github.kwhat.jnativehook.GlobalScreen;
 import com.github.kwhat.jnativehook.NativeHookException;
+import com.whitemagicsoftware.kmcaster.analytics.JournalWriter;
+import com.whitemagicsoftware.kmcaster.analytics.KeyCounters;
+import com.whitemagicsoftware.kmcaster.analytics.NgramRecorder;
+import com.whitemagicsoftware.kmcaster.keymap.ChordRecognizer;
+import com.whitemagicsoftware.kmcaster.keymap.Keymap;
 import com.whitemagicsoftware.kmcaster.listeners.FrameDragListener;
+import com.whitemagicsoftware.kmcaster.listeners.HookSubscriptions;
 import com.whitemagicsoftware.kmcaster.listeners.KeyboardListener;
 import com.whitemagicsoftware.kmcaster.listeners.MouseListener;
+import com.whitemagicsoftware.kmcaster.ui.ActionCaption;
+import com.whitemagicsoftware.kmcaster.ui.ActiveRenderer;
+import com.whitemagicsoftware.kmcaster.ui.BatchingRepaintManager;
+import com.whitemagicsoftware.kmcaster.ui.HistoryStrip;
+import com.whitemagicsoftware.kmcaster.ui.SpeedMeter;
 import com.whitemagicsoftware.kmcaster.ui.TranslucentPanel;
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+import com.whitemagicsoftware.kmcaster.util.PhaseTimer;
 import picocli.CommandLine;
 import picocli.CommandLine.Help.Ansi.Style;
 
 import javax.swing.*;
 import java.awt.*;
 import java.beans.PropertyChangeListener;
-import java.io.IOException;
-import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 import static com.github.kwhat.jnativehook.GlobalScreen.*;
+import static com.whitemagicsoftware.kmcaster.listeners.HookSubscriptions.Hook.*;
+import static com.whitemagicsoftware.kmcaster.exceptions.Rethrowable.rethrow;
 import static com.whitemagicsoftware.kmcaster.ui.FontLoader.initFonts;
 import static java.lang.Integer.valueOf;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.logging.Level.OFF;
 import static java.util.logging.Logger.getLogger;
-import static javax.swing.SwingUtilities.invokeLater;
 import static picocli.CommandLine.Help.ColorScheme;
 
 /**
@@ -70,6 +88,41 @@ import static picocli.CommandLine.Help.ColorScheme;
 public final class KmCaster extends JFrame {
   private final Settings mUserSettings = new Settings( this );
 
+  /**
+   * Attaches native listeners only for the features that are enabled.
+   */
+  private final HookSubscriptions mHooks = new HookSubscriptions();
+
+  /**
+   * Records when each startup phase completes, relative to launch.
+   */
+  private final PhaseTimer mStartup = new PhaseTimer();
+
+  /**
+   * Completes when the application fonts are registered.
+   */
+  private CompletableFuture<Void> mFonts;
+
+  /**
+   * Completes when the native hook is registered.
+   */
+  private CompletableFuture<Void> mNativeHook;
+
+  /**
+   * Shows mouse buttons and scrolling, hidden unless enabled.
+   */
+  private Component mMouse;
+
+  /**
+   * Whether scrolling is shown whenever the mouse is enabled.
+   */
+  private boolean mScroll;
+
+  /**
+   * Shows the typing speed, {@code null} unless requested by the user.
+   */
+  private SpeedMeter mSpeedMeter;
+
   /**
    * Constructs a window with the class name for its frame title.
    */
@@ -77,16 +130,69 @@ public final class KmCaster extends JFrame {
     super( KmCaster.class.getSimpleName() );
   }
 
-  public void init() {
-    final var hardwareImages = new HardwareImages( mUserSettings );
-    final var eventHandler = new EventHandler( hardwareImages, mUserSettings );
+  /**
+   * Rasterizes the images in parallel, then shows the frame as soon as the
+   * images and fonts are ready. The native hook may still be registering
+   * when the frame is shown. This is called after the command-line
+   * arguments are parsed and may be called from any thread.
+   */
+  public void start() {
+    final var startup = mStartup;
+    final var images = startup.track( "images", HardwareImages.create(
+      getUserSettings(), ForkJoinPool.commonPool() ) );
+    final var shown = images.thenAcceptBothAsync(
+      mFonts, ( hardwareImages, v ) -> init( hardwareImages ),
+      SwingUtilities::invokeLater
+    );
+
+    shown.exceptionally( KmCaster::fail );
+    allOf( shown, mNativeHook ).thenRun( () -> startup.log( "Startup" ) );
+  }
+
+  private void init( final HardwareImages hardwareImages ) {
+    final var repaints = BatchingRepaintManager.install();
+    final var eventHandler =
+      new EventHandler( hardwareImages, mUserSettings, repaints );
 
     initWindowFrame();
     initWindowContents( hardwareImages );
+    initHistory( hardwareImages, eventHandler );
+    initChords( hardwareImages, eventHandler );
+    initKeyCounts( eventHandler );
     pack();
     setResizable( false );
+    eventHandler.preshape();
+    eventHandler.warmUp( getRootPane(), getUserSettings().getWarmUp() );
     initListeners( eventHandler );
+
+    final var zoom = createZoomController(
+      hardwareImages, repaints, eventHandler );
+    initZoomListener( zoom );
+    initThemeWatcher( hardwareImages, zoom );
     setVisible( true );
+    initActiveRenderer( repaints, eventHandler );
+    mStartup.mark( "frame shown" );
+  }
+
+  /**
+   * Hands painting over to a render thread, if requested by the user.
+   *
+   * @param repaints     Notified that frames are painted by the active
+   *                     renderer.
+   * @param eventHandler Ends the render thread while idle.
+   */
+  private void initActiveRenderer(
+    final BatchingRepaintManager repaints, final EventHandler eventHandler ) {
+    final var settings = getUserSettings();
+
+    if( settings.isActiveRendering() ) {
+      final var renderer = new ActiveRenderer( this, settings.getFrameRate() );
+
+      if( renderer.start() ) {
+        repaints.setActiveRenderer( renderer );
+        eventHandler.addParkable( renderer );
+      }
+    }
   }
 
   private void initWindowFrame() {
@@ -112,18 +218,163 @@ public final class KmCaster extends JFrame {
       // a direct visual representation.
       if( component != null ) {
         panel.add( component );
+
+        // The mouse is hidden, rather than omitted, so that it can be shown
+        // when enabled later.
+        if( hwSwitch.isMouse() ) {
+          mMouse = component;
+        }
       }
     }
 
+    final var settings = getUserSettings();
+
+    // The speed meter is the same size as the regular key, beside it.
+    if( settings.isTypingSpeedEnabled() ) {
+      final var key = hardwareImages.get( HardwareSwitch.KEY_REGULAR );
+
+      mSpeedMeter = new SpeedMeter( settings.createFont(), key );
+      panel.add( mSpeedMeter );
+    }
+
     getContentPane().add( panel );
   }
 
+  /**
+   * Shows a strip of recent keystrokes below the keys, if requested by the
+   * user. The strip is half the height of the keys.
+   *
+   * @param hardwareImages Provides the key size.
+   * @param eventHandler   Adds keystrokes to the strip.
+   */
+  private void initHistory(
+    final HardwareImages hardwareImages, final EventHandler eventHandler ) {
+    final var settings = getUserSettings();
+    final var capacity = settings.getHistory();
+
+    if( capacity > 0 ) {
+      final var history = new HistoryStrip(
+        capacity,
+        settings.createFont(),
+        hardwareImages.get( HardwareSwitch.KEY_REGULAR ) );
+
+      getContentPane().add( history, BorderLayout.SOUTH );
+      eventHandler.setHistory( history );
+    }
+  }
+
+  /**
+   * Shows the actions of chords typed from the user's keymap, if given. The
+   * keymap is loaded in the background; chords are recognised once it has
+   * loaded.
+   *
+   * @param hardwareImages Provides the key size.
+   * @param eventHandler   Passes keystrokes to the chord recognizer.
+   */
+  private void initChords(
+    final HardwareImages hardwareImages, final EventHandler eventHandler ) {
+    final var settings = getUserSettings();
+
+    settings.getKeymap().ifPresent( path -> {
+      final var chords = new ChordRecognizer( settings.getChordTimeout() );
+      final var caption = new ActionCaption(
+        settings.createFont(),
+        hardwareImages.get( HardwareSwitch.KEY_REGULAR ) );
+
+      getContentPane().add( caption, BorderLayout.NORTH );
+      eventHandler.setChords( chords, caption );
+
+      CompletableFuture.supplyAsync( () -> {
+        final var started = System.nanoTime();
+
+        try {
+          final var bindings = Keymap.load( path );
+
+          Diagnostics.log(
+            "Loaded %d key bindings in %d ms", bindings.size(),
+            NANOSECONDS.toMillis( System.nanoTime() - started ) );
+
+          return bindings;
+        } catch( final Exception ex ) {
+          rethrow( ex );
+          return null;
+        }
+      } ).thenAccept( chords::setBindings ).exceptionally( ex -> {
+        ex.printStackTrace();
+        return null;
+      } );
+    } );
+  }
+
+  /**
+   * Counts key presses into the user's counter file, if given.
+   *
+   * @param eventHandler Passes keystrokes to the counters.
+   */
+  private void initKeyCounts( final EventHandler eventHandler ) {
+    getUserSettings().getKeyCounts().ifPresent( path -> {
+      try {
+        eventHandler.setCounters( KeyCounters.open( path ) );
+      } catch( final Exception ex ) {
+        ex.printStackTrace();
+      }
+    } );
+  }
+
   private void initListeners( final EventHandler eventHandler ) {
     initWindowDragListener( this );
     initMouseListener( eventHandler );
     initKeyboardListener( eventHandler );
   }
 
+  /**
+   * Zooms the overlay when the mouse wheel is turned over the frame while
+   * the control key is held.
+   */
+  private ZoomController createZoomController(
+    final HardwareImages hardwareImages,
+    final BatchingRepaintManager repaints,
+    final EventHandler eventHandler ) {
+    return new ZoomController(
+      getUserSettings(), hardwareImages, repaints,
+      () -> {
+        pack();
+        eventHandler.refit();
+      },
+      ForkJoinPool.commonPool()
+    );
+  }
+
+  private void initZoomListener( final ZoomController zoom ) {
+    addMouseWheelListener( e -> {
+      if( e.isControlDown() ) {
+        zoom.zoomBy( -e.getWheelRotation() );
+      }
+    } );
+  }
+
+  /**
+   * Reloads images when files in the user's theme directory change, if a
+   * theme directory was given, and re-colours them when its tint changes.
+   *
+   * @param hardwareImages Re-colours the images without re-rasterizing.
+   * @param zoom           Re-rasterizes the changed images at the current
+   *                       height.
+   */
+  private void initThemeWatcher(
+    final HardwareImages hardwareImages, final ZoomController zoom ) {
+    getUserSettings().getThemeDir().ifPresent( dir -> {
+      try {
+        new ThemeWatcher( dir, zoom::reload, tint -> {
+          hardwareImages.setTint( tint );
+          repaint();
+        } ).start();
+      } catch( final Exception ex ) {
+        ex.printStackTrace();
+      }
+    } );
+  }
+
   private void initWindowDragListener( final JFrame listener ) {
     final var frameDragListener = new FrameDragListener( listener );
     addMouseListener( frameDragListener );
@@ -132,17 +383,63 @@ public final class KmCaster extends JFrame {
 
   private void initMouseListener( final PropertyChangeListener listener ) {
     final MouseListener mouseListener = new MouseListener();
-    addNativeMouseListener( mouseListener );
-    addNativeMouseMotionListener( mouseListener );
-    addNativeMouseWheelListener( mouseListener );
     mouseListener.addPropertyChangeListener( listener );
+
+    mHooks.register( MOUSE_BUTTON, mouseListener );
+    mHooks.register( MOUSE_WHEEL, mouseListener );
+    setScrollEnabled( getUserSettings().isScrollEnabled() );
+    setMouseEnabled( getUserSettings().isMouseEnabled() );
   }
 
   private void initKeyboardListener( final PropertyChangeListener listener ) {
     final KeyboardListener keyboardListener = new KeyboardListener();
-    addNativeKeyListener( keyboardListener );
     keyboardListener.addPropertyChangeListener( listener );
+    getUserSettings().getNgrams().ifPresent(
+      path -> keyboardListener.addPropertyChangeListener(
+        new NgramRecorder( path ) ) );
+    getUserSettings().getJournal().ifPresent(
+      dir -> keyboardListener.setJournal( new JournalWriter( dir ) ) );
+
+    final var meter = mSpeedMeter;
+
+    if( meter != null ) {
+      keyboardListener.setPressListener( meter::keyPressed );
+    }
     keyboardListener.initModifiers();
+
+    mHooks.register( KEYBOARD, keyboardListener );
+    mHooks.subscribe( KEYBOARD );
+  }
+
+  /**
+   * Shows or hides the mouse, and starts or stops receiving its native
+   * events. Must be called on the event dispatch thread.
+   *
+   * @param enabled {@code true} to show mouse button presses.
+   */
+  public void setMouseEnabled( final boolean enabled ) {
+    mHooks.setSubscribed( MOUSE_BUTTON, enabled );
+    mHooks.setSubscribed( MOUSE_WHEEL, enabled && mScroll );
+
+    final var mouse = mMouse;
+
+    if( mouse != null && mouse.isVisible() != enabled ) {
+      mouse.setVisible( enabled );
+      pack();
+    }
+  }
+
+  /**
+   * Starts or stops receiving native mouse wheel events. Scrolling is drawn
+   * on the mouse, so its events are only received while the mouse is
+   * enabled. Must be called on the event dispatch thread.
+   *
+   * @param enabled {@code true} to show mouse scrolling.
+   */
+  public void setScrollEnabled( final boolean enabled ) {
+    mScroll = enabled;
+    mHooks.setSubscribed(
+      MOUSE_WHEEL, enabled && mHooks.isSubscribed( MOUSE_BUTTON ) );
   }
 
   @SuppressWarnings( "PointlessArithmeticExpression" )
@@ -197,31 +494,79 @@ public final class KmCaster extends JFrame {
   }
 
   /**
-   * Main entry point.
+   * Registers the application fonts with the graphics environment.
+   */
+  private static void loadFonts() {
+    try {
+      initFonts();
+    } catch( final Exception e ) {
+      rethrow( e );
+    }
+  }
+
+  /**
+   * Registers the native hook, blocking until the hook's thread is running
+   * or has failed to start.
+   */
+  private static void loadNativeHook() {
+    try {
+      disableNativeHookLogger();
+      registerNativeHook();
+    } catch( final NativeHookException e ) {
+      rethrow( e );
+    }
+  }
+
+  /**
+   * Terminates the application because a startup phase failed.
    *
-   * @param args Unused.
+   * @param t The reason the phase failed.
+   * @return Does not return.
    */
-  public static void main( final String[] args )
-    throws NativeHookException, IOException, URISyntaxException {
-    initFonts();
-    disableNativeHookLogger();
-    registerNativeHook();
+  private static Void fail( final Throwable t ) {
+    final var cause =
+      t instanceof CompletionException && t.getCause() != null
+        ? t.getCause()
+        : t;
+
+    cause.printStackTrace();
+    System.exit( 1 );
+    return null;
+  }
 
-    while( !isNativeHookRegistered() ) {
-      Thread.yield();
+  /**
+   * Main entry point. Subcommands run without creating the application's
+   * frame, so they work without a display, and exit once they have run.
+   * Otherwise, fonts and the native hook are loaded while the application's
+   * settings are applied; images are rasterized once the arguments are
+   * known.
+   *
+   * @param args Command-line arguments.
+   */
+  public static void main( final String[] args ) {
+    if( Settings.isSubcommand( args ) ) {
+      System.exit( createParser( new Settings() ).execute( args ) );
     }
 
     final var kc = new KmCaster();
-    final var parser = new CommandLine( kc.getUserSettings() );
-    parser.setColorScheme( createColourScheme() );
+    final var startup = kc.mStartup;
 
-    invokeLater( () -> {
-      final var exitCode = parser.execute( args );
-      final var parseResult = parser.getParseResult();
+    kc.mFonts = startup.track( "fonts", runAsync( KmCaster::loadFonts ) );
+    kc.mNativeHook = startup.track(
+      "native hook", runAsync( KmCaster::loadNativeHook ) );
+    kc.mNativeHook.exceptionally( KmCaster::fail );
 
-      if( parseResult.isUsageHelpRequested() ) {
-        System.exit( exitCode );
-      }
-    } );
+    final var parser = createParser( kc.getUserSettings() );
+    final var exitCode = parser.execute( args );
+
+    if( parser.getParseResult().isUsageHelpRequested() ) {
+      System.exit( exitCode );
+    }
+  }
+
+  private static CommandLine createParser( final Settings settings ) {
+    final var parser = new CommandLine( settings );
+    parser.setColorScheme( createColourScheme() );
+    return parser;
   }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Responsible for providing a single image that shows any combination of
+ * held mouse buttons and scroll directions. Each button's pressed image is
+ * reduced to a layer of the pixels that differ from the released image.
+ * Composites are created from those layers the first time a combination is
+ * displayed, then cached so that subsequent chords need only one paint.
+ * <p>
+ * Images that use an {@link IndexColorModel} are composited using their
+ * palette indexes, so the composites are masks that can be tinted like
+ * their layers.
+ * </p>
+ */
+public final class MouseChordImages {
+  /**
+   * Pixels that distinguish a pressed mouse action from the released mouse.
+   */
+  private static final class Layer {
+    private final int[] mIndexes;
+    private final int[] mPixels;
+
+    private Layer( final int[] indexes, final int[] pixels ) {
+      mIndexes = indexes;
+      mPixels = pixels;
+    }
+
+    private void applyTo( final int[] pixels ) {
+      final var indexes = mIndexes;
+
+      for( int i = 0; i < indexes.length; i++ ) {
+        pixels[ indexes[ i ] ] = mPixels[ i ];
+      }
+    }
+  }
+
+  private final int mWidth;
+  private final int mHeight;
+  private final int[] mReleased;
+
+  /**
+   * Composites are created using the released image's pixel format.
+   */
+  private final ColorModel mColorModel;
+
+  private final Map<HardwareSwitch, Layer> mLayers =
+    new EnumMap<>( HardwareSwitch.class );
+
+  /**
+   * Composite images keyed by the bitmask of held mouse actions.
+   */
+  private final Map<Integer, Image> mComposites = new HashMap<>();
+
+  /**
+   * Creates a composite image cache using the given image for the mouse when
+   * no buttons are held.
+   *
+   * @param released The image of the mouse without any buttons held.
+   */
+  public MouseChordImages( final BufferedImage released ) {
+    mWidth = released.getWidth();
+    mHeight = released.getHeight();
+    mReleased = pixels( released );
+    mColorModel = released.getColorModel();
+    mComposites.put( 0, released );
+  }
+
+  /**
+   * Extracts the pixels that differ from the released image and keeps them
+   * as the layer for the given mouse action. The given image is not retained.
+   *
+   * @param hwSwitch The mouse action shown by the image.
+   * @param pressed  The mouse image with only the given action highlighted,
+   *                 having the same dimensions as the released image.
+   */
+  public void putLayer(
+    final HardwareSwitch hwSwitch, final BufferedImage pressed ) {
+    assert hwSwitch.isMouse();
+    assert pressed.getWidth() == mWidth && pressed.getHeight() == mHeight;
+
+    final var released = mReleased;
+    final var pixels = pixels( pressed );
+    int count = 0;
+
+    for( int i = 0; i < pixels.length; i++ ) {
+      if( pixels[ i ] != released[ i ] ) {
+        count++;
+      }
+    }
+
+    final var indexes = new int[ count ];
+    final var values = new int[ count ];
+
+    for( int i = 0, j = 0; i < pixels.length; i++ ) {
+      if( pixels[ i ] != released[ i ] ) {
+        indexes[ j ] = i;
+        values[ j++ ] = pixels[ i ];
+      }
+    }
+
+    mLayers.put( hwSwitch, new Layer( indexes, values ) );
+    mComposites.put( DisplayState.mask( hwSwitch ), pressed );
+  }
+
+  /**
+   * Returns the image showing all mouse actions in the given bitmask. Mouse
+   * actions without a layer are ignored.
+   *
+   * @param mask Bitmask of {@link HardwareSwitch} ordinals that are held.
+   * @return The composite image for the given combination.
+   */
+  public Image get( final int mask ) {
+    return mComposites.computeIfAbsent( mask, this::composite );
+  }
+
+  private Image composite( final int mask ) {
+    final var pixels = mReleased.clone();
+
+    for( final var entry : mLayers.entrySet() ) {
+      if( (mask & DisplayState.mask( entry.getKey() )) != 0 ) {
+        entry.getValue().applyTo( pixels );
+      }
+    }
+
+    final var cm = mColorModel;
+    final var raster = cm.createCompatibleWritableRaster( mWidth, mHeight );
+    final var image = new BufferedImage(
+      cm, raster, cm.isAlphaPremultiplied(), null );
+
+    if( cm instanceof IndexColorModel ) {
+      raster.setSamples( 0, 0, mWidth, mHeight, 0, pixels );
+    }
+    else {
+      image.setRGB( 0, 0, mWidth, mHeight, pixels, 0, mWidth );
+    }
+
+    return image;
+  }
+
+  /**
+   * Returns palette indexes for indexed images, otherwise ARGB values.
+   *
+   * @param image The image to convert to an array of pixel values.
+   * @return The pixel values, one element per pixel.
+   */
+  private static int[] pixels( final BufferedImage image ) {
+    final var w = image.getWidth();
+    final var h = image.getHeight();
+
+    return image.getColorModel() instanceof IndexColorModel
+      ? image.getRaster().getSamples( 0, 0, w, h, 0, (int[]) null )
+      : image.getRGB( 0, 0, w, h, null, 0, w );
+  }
+}
@@ -27,20 +27,29 @@
  */
 package com.whitemagicsoftware.kmcaster;
 
+import com.whitemagicsoftware.kmcaster.analytics.AnalyzeCommand;
+import com.whitemagicsoftware.kmcaster.analytics.CaptionsCommand;
+import com.whitemagicsoftware.kmcaster.analytics.HeatmapCommand;
+import com.whitemagicsoftware.kmcaster.analytics.NgramsCommand;
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
 import picocli.CommandLine;
 
 import java.awt.*;
+import java.nio.file.Path;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.Callable;
 
 import static java.awt.Font.*;
 import static java.util.Map.entry;
-import static javax.swing.SwingUtilities.invokeLater;
 
 @CommandLine.Command(
   name = "KmCaster",
   mixinStandardHelpOptions = true,
-  description = "Displays key presses and mouse clicks on the screen."
+  description = "Displays key presses and mouse clicks on the screen.",
+  subcommands = {
+    HeatmapCommand.class, NgramsCommand.class, AnalyzeCommand.class,
+    CaptionsCommand.class}
 )
 @SuppressWarnings( {"FieldMayBeFinal", "CanBeFinal"} )
 public final class Settings implements Callable<Integer> {
@@ -198,12 +207,210 @@ public final class Settings implements Callable<Integer> {
   )
   private int mGapVertical = 5;
 
+  /**
+   * Whether mouse buttons are shown, which requires the native mouse hook.
+   */
+  @CommandLine.Option(
+    names = {"--mouse"},
+    negatable = true,
+    description = "Show mouse buttons (${DEFAULT-VALUE})",
+    defaultValue = "true"
+  )
+  private boolean mMouse = true;
+
+  /**
+   * Whether mouse scrolling is shown, which requires the native wheel hook.
+   */
+  @CommandLine.Option(
+    names = {"--scroll"},
+    negatable = true,
+    description = "Show mouse scrolling (${DEFAULT-VALUE})",
+    defaultValue = "true"
+  )
+  private boolean mScroll = true;
+
+  /**
+   * Colour for keys and the mouse, which stores images as tintable masks.
+   */
+  @CommandLine.Option(
+    names = {"-t", "--tint"},
+    description =
+      "Key and mouse colour; a tint file in " +
+        "--theme-dir changes it while running (RGB)",
+    paramLabel = "hex"
+  )
+  private String mTint;
+
+  /**
+   * Whether to composite frames on a render thread.
+   */
+  @CommandLine.Option(
+    names = {"--active-rendering"},
+    description =
+      "Render frames using a dedicated thread (${DEFAULT-VALUE})",
+    defaultValue = "false"
+  )
+  private boolean mActiveRendering;
+
+  /**
+   * Maximum frames per second when active rendering is enabled.
+   */
+  @CommandLine.Option(
+    names = {"--fps"},
+    description =
+      "Maximum active rendering frame rate (${DEFAULT-VALUE} frames/second)",
+    paramLabel = "number",
+    defaultValue = "60"
+  )
+  private int mFrameRate = 60;
+
+  /**
+   * Most milliseconds to spend exercising the render path before showing.
+   */
+  @CommandLine.Option(
+    names = {"--warmup"},
+    description =
+      "Render path warm-up time limit (${DEFAULT-VALUE} ms, 0 disables)",
+    paramLabel = "ms",
+    defaultValue = "250"
+  )
+  private int mWarmUp = 250;
+
+  /**
+   * Number of recent keystrokes to show below the keys.
+   */
+  @CommandLine.Option(
+    names = {"--history"},
+    description =
+      "Number of recent keystrokes to show (${DEFAULT-VALUE}, 0 hides)",
+    paramLabel = "number",
+    defaultValue = "0"
+  )
+  private int mHistory;
+
+  /**
+   * Whether to show the typing speed beside the keys.
+   */
+  @CommandLine.Option(
+    names = {"--typing-speed"},
+    description = "Show typing speed in words/minute and keys/second",
+    defaultValue = "false"
+  )
+  private boolean mTypingSpeed;
+
+  /**
+   * File of key bindings whose chords are recognised.
+   */
+  @CommandLine.Option(
+    names = {"--keymap"},
+    description = "Key bindings file (.txt, IntelliJ .xml, or VS Code .json)",
+    paramLabel = "path"
+  )
+  private Path mKeymap;
+
+  /**
+   * Milliseconds allowed between the keystrokes of a chord.
+   */
+  @CommandLine.Option(
+    names = {"--chord-timeout"},
+    description =
+      "Maximum time between chord keystrokes (${DEFAULT-VALUE} ms)",
+    paramLabel = "ms",
+    defaultValue = "1000"
+  )
+  private int mChordTimeout = 1000;
+
+  /**
+   * File of key press counts that accumulate across sessions.
+   */
+  @CommandLine.Option(
+    names = {"--key-counts"},
+    description = "File that accumulates key press counts, see heatmap",
+    paramLabel = "path"
+  )
+  private Path mKeyCounts;
+
+  /**
+   * File of key sequence frequencies that accumulate across sessions.
+   */
+  @CommandLine.Option(
+    names = {"--ngrams"},
+    description = "File that accumulates key sequence statistics, see ngrams",
+    paramLabel = "path"
+  )
+  private Path mNgrams;
+
+  /**
+   * Directory that receives a journal of key events for each session.
+   */
+  @CommandLine.Option(
+    names = {"--journal"},
+    description =
+      "Directory that receives key event journals, see analyze and captions",
+    paramLabel = "path"
+  )
+  private Path mJournal;
+
+  /**
+   * Directory of SVG files that override the bundled images.
+   */
+  @CommandLine.Option(
+    names = {"--theme-dir"},
+    description =
+      "Directory of SVG files that replace the images, reloaded when changed",
+    paramLabel = "path"
+  )
+  private Path mThemeDir;
+
+  /**
+   * Whether to write diagnostic measurements to standard error.
+   */
+  @CommandLine.Option(
+    names = {"-v", "--verbose"},
+    description = "Write diagnostic measurements to standard error",
+    defaultValue = "false"
+  )
+  private boolean mVerbose;
+
+  /**
+   * Creates settings that launch the given application once parsed.
+   *
+   * @param kmCaster The application to start.
+   */
   public Settings( final KmCaster kmCaster ) {
     assert kmCaster != null;
 
     mKmCaster = kmCaster;
   }
 
+  /**
+   * Creates settings for running a subcommand, which analyses recorded data
+   * without a display and never launches the application.
+   */
+  public Settings() {
+    mKmCaster = null;
+  }
+
+  /**
+   * Answers whether the given arguments run a subcommand, which analyses
+   * recorded data instead of launching the application. The arguments are
+   * parsed because a subcommand's name may also be an option's value, such
+   * as the file in {@code --keymap heatmap}.
+   *
+   * @param args The command-line arguments.
+   * @return {@code true} if the arguments, valid or not, are for a
+   * subcommand.
+   */
+  public static boolean isSubcommand( final String[] args ) {
+    final var parser = new CommandLine( new Settings() );
+
+    try {
+      return parser.parseArgs( args ).subcommand() != null;
+    } catch( final CommandLine.ParameterException ex ) {
+      return ex.getCommandLine() != parser;
+    }
+  }
+
   /**
    * Invoked after the command-line arguments are parsed to launch the
    * application.
@@ -212,7 +419,10 @@ public final class Settings implements Callable<Integer> {
    */
   @Override
   public Integer call() {
-    invokeLater( mKmCaster::init );
+    assert mKmCaster != null;
+
+    Diagnostics.setEnabled( mVerbose );
+    mKmCaster.start();
     return 0;
   }
 
@@ -246,7 +456,19 @@ public final class Settings implements Callable<Integer> {
   }
 
   public Dimension createAppDimensions() {
-    return new Dimension( 1024 + getHeight(), getHeight() );
+    return createAppDimensions( getHeight() );
+  }
+
+  /**
+   * Creates application dimensions for the given height, such as when
+   * zooming, limited to the minimum height.
+   *
+   * @param height The application height, in pixels.
+   * @return The dimensions that images are rasterized to fit.
+   */
+  public Dimension createAppDimensions( final int height ) {
+    final var h = Math.max( height, MIN_HEIGHT_PX );
+    return new Dimension( 1024 + h, h );
   }
 
   /**
@@ -254,7 +476,7 @@ public final class Settings implements Callable<Integer> {
    *
    * @return The application height, in pixels.
    */
-  private int getHeight() {
+  public int getHeight() {
     return mHeight < MIN_HEIGHT_PX ? MIN_HEIGHT_PX : mHeight;
   }
 
@@ -269,4 +491,99 @@ public final class Settings implements Callable<Integer> {
   public String getBackgroundColour() {
     return mBackgroundColour;
   }
+
+  /**
+   * Returns the colour for tinting key and mouse images.
+   *
+   * @return The user-specified tint, or empty to use the images' colours.
+   * @throws NumberFormatException The tint is not a hexadecimal colour.
+   */
+  public Optional<Color> getTint() {
+    final var tint = mTint;
+
+    if( tint == null || tint.isBlank() ) {
+      return Optional.empty();
+    }
+
+    return Optional.of( toColour( tint ) );
+  }
+
+  /**
+   * Converts a hexadecimal colour, with or without a leading hash.
+   *
+   * @param hex The colour, such as "#3366ff" or "3366ff".
+   * @return The colour.
+   * @throws NumberFormatException The text is not a hexadecimal colour.
+   */
+  public static Color toColour( final String hex ) {
+    return Color.decode( hex.startsWith( "#" ) ? hex : "#" + hex );
+  }
+
+  public boolean isActiveRendering() {
+    return mActiveRendering;
+  }
+
+  public int getFrameRate() {
+    return mFrameRate < 1 ? 1 : mFrameRate;
+  }
+
+  public int getWarmUp() {
+    return Math.max( 0, mWarmUp );
+  }
+
+  /**
+   * Returns the directory of user-supplied images, which mirrors the
+   * bundled {@code images} directory.
+   *
+   * @return The theme directory, or empty to use only the bundled images.
+   */
+  public Optional<Path> getThemeDir() {
+    return Optional.ofNullable( mThemeDir );
+  }
+
+  public Optional<Path> getKeymap() {
+    return Optional.ofNullable( mKeymap );
+  }
+
+  public Optional<Path> getKeyCounts() {
+    return Optional.ofNullable( mKeyCounts );
+  }
+
+  public Optional<Path> getNgrams() {
+    return Optional.ofNullable( mNgrams );
+  }
+
+  public Optional<Path> getJournal() {
+    return Optional.ofNullable( mJournal );
+  }
+
+  public int getChordTimeout() {
+    return Math.max( 1, mChordTimeout );
+  }
+
+  public int getHistory() {
+    return Math.max( 0, mHistory );
+  }
+
+  public boolean isTypingSpeedEnabled() {
+    return mTypingSpeed;
+  }
+
+  public boolean isVerbose() {
+    return mVerbose;
+  }
+
+  public boolean isMouseEnabled() {
+    return mMouse;
+  }
+
+  /**
+   * Scrolling is drawn on the mouse, so it is only shown while the mouse is
+   * enabled.
+   *
+   * @return {@code true} when scroll events should be displayed.
+   */
+  public boolean isScrollEnabled() {
+    return mScroll;
+  }
 }
@@ -32,14 +32,29 @@ import com.kitfox.svg.SVGException;
 import com.kitfox.svg.SVGUniverse;
 import com.whitemagicsoftware.kmcaster.ui.DimensionTuple;
 import com.whitemagicsoftware.kmcaster.ui.ScalableDimension;
+import com.whitemagicsoftware.kmcaster.util.CacheDir;
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import static com.whitemagicsoftware.kmcaster.exceptions.Rethrowable.rethrow;
+import static java.awt.GraphicsEnvironment.getLocalGraphicsEnvironment;
+import static java.awt.GraphicsEnvironment.isHeadless;
 import static java.awt.RenderingHints.*;
+import static java.awt.Transparency.TRANSLUCENT;
 import static java.awt.image.BufferedImage.TYPE_4BYTE_ABGR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Map.entry;
 
 /**
@@ -58,8 +73,30 @@ public final class SvgRasterizer {
     entry( KEY_TEXT_ANTIALIASING, VALUE_TEXT_ANTIALIAS_ON )
   );
 
+  /**
+   * Hints for copying rasterized images to the screen at their natural size,
+   * which avoids the slower quality loops that {@link #RENDERING_HINTS}
+   * would select for each paint.
+   */
+  public final static Map<Object, Object> BLIT_HINTS = Map.ofEntries(
+    entry( KEY_ANTIALIASING, VALUE_ANTIALIAS_OFF ),
+    entry( KEY_ALPHA_INTERPOLATION, VALUE_ALPHA_INTERPOLATION_SPEED ),
+    entry( KEY_COLOR_RENDERING, VALUE_COLOR_RENDER_SPEED ),
+    entry( KEY_DITHERING, VALUE_DITHER_DISABLE ),
+    entry( KEY_INTERPOLATION, VALUE_INTERPOLATION_NEAREST_NEIGHBOR ),
+    entry( KEY_RENDERING, VALUE_RENDER_SPEED )
+  );
+
   private final static SVGUniverse sRenderer = new SVGUniverse();
 
+  private final static String COMPILED_EXTENSION = ".kmdl";
+
+  /**
+   * Diagrams compiled into replayable operations, keyed by resource path.
+   */
+  private final static Map<String, CompiledDiagram> sCompiled =
+    new ConcurrentHashMap<>();
+
   /**
    * Loads the resource specified by the given path into an instance of
    * {@link SVGDiagram} that can be rasterized into a bitmap format. The
@@ -71,10 +108,25 @@ public final class SvgRasterizer {
    * {@link BufferedImage}.
    */
   public SVGDiagram loadDiagram( final String path ) {
-    final var url = getResourceUrl( path );
-    final var uri = sRenderer.loadSVG( url );
-    final var diagram = sRenderer.getDiagram( uri );
-    return applySettings( diagram );
+    return loadDiagram( getResourceUrl( path ) );
+  }
+
+  /**
+   * Loads the SVG document at the given location, such as a file in a
+   * user's theme directory.
+   *
+   * @param url The location of the SVG document.
+   * @return An {@link SVGDiagram} that can be rasterized onto a
+   * {@link BufferedImage}.
+   */
+  public SVGDiagram loadDiagram( final URL url ) {
+    // The universe's document cache is not thread-safe; rendering distinct
+    // diagrams concurrently is.
+    synchronized( sRenderer ) {
+      final var uri = sRenderer.loadSVG( url );
+      final var diagram = sRenderer.getDiagram( uri );
+      return applySettings( diagram );
+    }
   }
 
   /**
@@ -88,14 +140,160 @@ public final class SvgRasterizer {
    */
   public DimensionTuple calculateScale(
     final SVGDiagram diagram, final Dimension dstDim ) {
-    final var srcDim = new ScalableDimension(
-      (int) diagram.getWidth(), (int) diagram.getHeight()
-    );
+    return calculateScale( diagram.getWidth(), diagram.getHeight(), dstDim );
+  }
+
+  /**
+   * Computes the scaling factor between the given compiled diagram and the
+   * target {@link Dimension}s.
+   *
+   * @param diagram A compiled vector graphic having a width and height.
+   * @param dstDim  The image's target dimensions.
+   * @return A key-value pair of the source image dimensions (key) and the
+   * scaled image dimensions (value).
+   */
+  public DimensionTuple calculateScale(
+    final CompiledDiagram diagram, final Dimension dstDim ) {
+    return calculateScale( diagram.getWidth(), diagram.getHeight(), dstDim );
+  }
+
+  private DimensionTuple calculateScale(
+    final float width, final float height, final Dimension dstDim ) {
+    final var srcDim = new ScalableDimension( (int) width, (int) height );
     final var scaled = srcDim.scale( dstDim );
 
     return new DimensionTuple( srcDim, scaled );
   }
 
+  /**
+   * Loads the resource specified by the given path and compiles it into
+   * operations that can be replayed to rasterize it at any size. Each
+   * resource is compiled once.
+   *
+   * @param path The full path (starting at the root), relative to the
+   *             application or JAR file's resources directory.
+   * @return The compiled diagram.
+   */
+  public CompiledDiagram compile( final String path ) {
+    return compile( getResourceUrl( path ) );
+  }
+
+  /**
+   * Loads the SVG document at the given location and compiles it. Each
+   * location is compiled once until it is invalidated. Compiled diagrams
+   * are also cached on disk, keyed by a digest of the document, so that
+   * later runs read them instead of parsing the document.
+   *
+   * @param url The location of the SVG document.
+   * @return The compiled diagram.
+   * @see #invalidate(URL)
+   */
+  public CompiledDiagram compile( final URL url ) {
+    return sCompiled.computeIfAbsent( url.toString(), key -> {
+      try {
+        return load( url );
+      } catch( final Exception ex ) {
+        rethrow( ex );
+      }
+
+      return null;
+    } );
+  }
+
+  /**
+   * Reads the compiled form of the SVG document from the disk cache, or
+   * compiles the document and caches it. Edited documents have a different
+   * digest, so they are compiled again. Documents that cannot be compiled
+   * are wrapped, so that they are rendered directly.
+   *
+   * @param url The location of the SVG document.
+   * @return The compiled diagram.
+   * @throws Exception Could not read or compile the document.
+   */
+  private CompiledDiagram load( final URL url ) throws Exception {
+    final byte[] svg;
+
+    try( final var in = url.openStream() ) {
+      svg = in.readAllBytes();
+    }
+
+    final var digest = MessageDigest.getInstance( "SHA-256" ).digest( svg );
+    final var path = CacheDir.resolve( "diagrams" )
+      .resolve( CacheDir.toHex( digest ) + COMPILED_EXTENSION );
+
+    if( Files.isRegularFile( path ) ) {
+      try( final var in = Files.newInputStream( path ) ) {
+        return CompiledDiagram.read( in );
+      } catch( final IOException ex ) {
+        Diagnostics.log( "Recompiling %s: %s", url, ex.getMessage() );
+      }
+    }
+
+    final var document = loadDiagram( url );
+    final CompiledDiagram diagram;
+
+    try {
+      diagram = CompiledDiagram.compile( document );
+    } catch( final UnsupportedOperationException ex ) {
+      // The recorder cannot represent every operation; such diagrams are
+      // rendered each time they are rasterized, and are not cached.
+      Diagnostics.log( "Cannot compile %s: %s", url, ex.getMessage() );
+      return CompiledDiagram.wrap( document );
+    }
+
+    try {
+      store( diagram, path );
+    } catch( final IOException ex ) {
+      // The diagram is still usable; it will be compiled next time.
+      Diagnostics.log( "Cannot cache compiled diagram: %s", ex.getMessage() );
+    }
+
+    return diagram;
+  }
+
+  /**
+   * Writes the compiled diagram to a temporary file first, so that readers
+   * never see a partial file.
+   */
+  private static void store( final CompiledDiagram diagram, final Path path )
+    throws IOException {
+    Files.createDirectories( path.getParent() );
+
+    final var temp = Files.createTempFile(
+      path.getParent(), path.getFileName().toString(), ".tmp" );
+
+    try {
+      try( final var out = new BufferedOutputStream(
+        Files.newOutputStream( temp ) ) ) {
+        diagram.write( out );
+      }
+
+      Files.move( temp, path, REPLACE_EXISTING, ATOMIC_MOVE );
+    } finally {
+      Files.deleteIfExists( temp );
+    }
+  }
+
+  /**
+   * Discards the loaded and compiled forms of the SVG document at the given
+   * location, so that the next load reads the document again.
+   *
+   * @param url The location of an SVG document that has changed.
+   */
+  public void invalidate( final URL url ) {
+    sCompiled.remove( url.toString() );
+
+    try {
+      final var uri = url.toURI();
+
+      synchronized( sRenderer ) {
+        sRenderer.removeDocument( uri );
+      }
+    } catch( final Exception ex ) {
+      rethrow( ex );
+    }
+  }
+
   /**
    * Rasterizes a vector graphic to a given size using a {@link BufferedImage}.
    * The rendering hints are set to produce high quality output.
@@ -139,6 +337,40 @@ public final class SvgRasterizer {
     return rasterize( diagram, calculateScale( diagram, dstDim ) );
   }
 
+  /**
+   * Converts the given image into the translucent format preferred by the
+   * default screen, which is usually premultiplied integer ARGB. Images in
+   * that format can be copied to the screen without per-pixel conversion
+   * and are eligible for acceleration by the Java2D pipeline.
+   *
+   * @param image The image to convert.
+   * @return The given image if already compatible, otherwise a copy.
+   */
+  public static BufferedImage toCompatibleImage( final BufferedImage image ) {
+    final var w = image.getWidth();
+    final var h = image.getHeight();
+    final var compatible = isHeadless()
+      ? new BufferedImage( w, h, TYPE_INT_ARGB_PRE )
+      : getScreenConfiguration().createCompatibleImage( w, h, TRANSLUCENT );
+
+    if( compatible.getColorModel().equals( image.getColorModel() ) ) {
+      return image;
+    }
+
+    final var graphics = compatible.createGraphics();
+    graphics.setComposite( AlphaComposite.Src );
+    graphics.drawImage( image, 0, 0, null );
+    graphics.dispose();
+
+    return compatible;
+  }
+
+  private static GraphicsConfiguration getScreenConfiguration() {
+    return getLocalGraphicsEnvironment()
+      .getDefaultScreenDevice()
+      .getDefaultConfiguration();
+  }
+
   /**
    * Gets an instance of {@link URL} that references a file in the
    * application's resources.
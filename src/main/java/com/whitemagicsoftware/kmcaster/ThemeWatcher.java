@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Responsible for noticing when SVG files in the user's theme directory
+ * change. Editors often write a file in several steps, so changes are
+ * collected until the directory has been quiet briefly, then reported
+ * together on Swing's event dispatch thread as resource paths. A file named
+ * {@code tint} at the top of the directory holds a hexadecimal colour for
+ * the key and mouse images, which is reported whenever it changes.
+ */
+public final class ThemeWatcher implements Runnable {
+  /**
+   * Milliseconds without changes before the collected changes are reported.
+   */
+  private static final long QUIET_MS = 100;
+
+  private static final String SVG_EXTENSION = ".svg";
+  private static final String TINT_FILE = "tint";
+
+  private final Path mTheme;
+  private final Path mTint;
+  private final Consumer<Set<String>> mListener;
+  private final Consumer<Color> mTintListener;
+  private final WatchService mWatcher;
+
+  /**
+   * Creates a watcher for the given directory and its subdirectories.
+   *
+   * @param theme        The directory that mirrors the bundled images.
+   * @param listener     Receives resource paths, without extensions, of
+   *                     the images that changed.
+   * @param tintListener Receives the colour from the tint file when it
+   *                     changes.
+   * @throws IOException Could not watch the directory.
+   */
+  public ThemeWatcher(
+    final Path theme,
+    final Consumer<Set<String>> listener,
+    final Consumer<Color> tintListener )
+    throws IOException {
+    assert theme != null;
+    assert listener != null;
+    assert tintListener != null;
+
+    mTheme = theme;
+    mTint = theme.resolve( TINT_FILE );
+    mListener = listener;
+    mTintListener = tintListener;
+    mWatcher = theme.getFileSystem().newWatchService();
+
+    register( theme );
+  }
+
+  /**
+   * Watches the theme directory on a daemon thread.
+   */
+  public void start() {
+    final var thread = new Thread( this, "kmcaster-theme" );
+    thread.setDaemon( true );
+    thread.start();
+  }
+
+  @Override
+  public void run() {
+    final var changed = new LinkedHashSet<String>();
+    var tinted = false;
+
+    try {
+      while( true ) {
+        final var key = changed.isEmpty() && !tinted
+          ? mWatcher.take()
+          : mWatcher.poll( QUIET_MS, MILLISECONDS );
+
+        if( key == null ) {
+          if( tinted ) {
+            reportTint();
+            tinted = false;
+          }
+
+          if( !changed.isEmpty() ) {
+            report( changed );
+            changed.clear();
+          }
+
+          continue;
+        }
+
+        final var dir = (Path) key.watchable();
+
+        for( final var event : key.pollEvents() ) {
+          if( event.kind() == OVERFLOW ) {
+            continue;
+          }
+
+          final var file = dir.resolve( (Path) event.context() );
+
+          if( event.kind() == ENTRY_CREATE && Files.isDirectory( file ) ) {
+            register( file );
+          }
+          else if( file.equals( mTint ) ) {
+            tinted = event.kind() != ENTRY_DELETE;
+          }
+          else if( file.toString().endsWith( SVG_EXTENSION ) ) {
+            changed.add( toResourcePath( file ) );
+          }
+        }
+
+        key.reset();
+      }
+    } catch( final InterruptedException ex ) {
+      Thread.currentThread().interrupt();
+    } catch( final IOException | ClosedWatchServiceException ex ) {
+      ex.printStackTrace();
+    }
+  }
+
+  private void report( final Set<String> changed ) {
+    final var paths = Set.copyOf( changed );
+
+    Diagnostics.log( "Theme changed: %s", paths );
+    SwingUtilities.invokeLater( () -> mListener.accept( paths ) );
+  }
+
+  private void reportTint() {
+    try {
+      final var tint = Settings.toColour( Files.readString( mTint ).strip() );
+
+      Diagnostics.log( "Tint changed: %s", tint );
+      SwingUtilities.invokeLater( () -> mTintListener.accept( tint ) );
+    } catch( final IOException | NumberFormatException ex ) {
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+   * Converts a file in the theme directory to the resource path of the
+   * bundled image that it overrides.
+   *
+   * @param file An SVG file within the theme directory.
+   * @return The resource path without the file name extension.
+   */
+  private String toResourcePath( final Path file ) {
+    final var relative = mTheme.relativize( file ).toString()
+      .replace( file.getFileSystem().getSeparator(), "/" );
+
+    return "/images/" + relative.substring(
+      0, relative.length() - SVG_EXTENSION.length() );
+  }
+
+  /**
+   * Watches the given directory and all its subdirectories.
+   *
+   * @param dir The directory to watch.
+   * @throws IOException Could not list or watch a directory.
+   */
+  private void register( final Path dir ) throws IOException {
+    try( final var dirs = Files.walk( dir ) ) {
+      for( final var d : (Iterable<Path>) dirs::iterator ) {
+        if( Files.isDirectory( d ) ) {
+          d.register( mWatcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE );
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster;
+
+import com.whitemagicsoftware.kmcaster.ui.BatchingRepaintManager;
+import com.whitemagicsoftware.kmcaster.ui.DimensionTuple;
+import com.whitemagicsoftware.kmcaster.util.Pair;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Responsible for changing the overlay's height while it is shown. The
+ * components are resized immediately and their current images are drawn
+ * scaled; images rasterized at the new height are produced in the
+ * background and swapped in when ready. Recently used heights are kept so
+ * that zooming back to them is immediate. Images are also reloaded this way
+ * when the user's theme files change.
+ */
+public final class ZoomController {
+  /**
+   * Number of heights whose images are kept.
+   */
+  private static final int CACHE_SIZE = 4;
+
+  /**
+   * Amount that each zoom step changes the height.
+   */
+  private static final double ZOOM_STEP = 1.1;
+
+  private final Settings mUserSettings;
+  private final HardwareImages mHardwareImages;
+  private final BatchingRepaintManager mRepaints;
+  private final Runnable mRelayout;
+  private final Executor mExecutor;
+
+  /**
+   * Images for recently used heights, least recently used first.
+   */
+  private final Map<Integer, Map<String, Pair<BufferedImage, DimensionTuple>>>
+    mCache = new LinkedHashMap<>( CACHE_SIZE + 1, 1, true ) {
+    @Override
+    protected boolean removeEldestEntry(
+      final Map.Entry<Integer, Map<String, Pair<BufferedImage,
+        DimensionTuple>>> eldest ) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Height of the overlay, which may be ahead of the rasterized images.
+   */
+  private int mHeight;
+
+  /**
+   * Height at which the shown images were rasterized.
+   */
+  private int mRasterHeight;
+
+  /**
+   * Incremented for every zoom so that images for a superseded height are
+   * cached but not shown.
+   */
+  private int mGeneration;
+
+  /**
+   * Incremented for every theme reload so that images rasterized from
+   * outdated theme files are not cached.
+   */
+  private int mEpoch;
+
+  /**
+   * Creates a controller for the given images.
+   *
+   * @param userSettings   Provides the initial height and app dimensions.
+   * @param hardwareImages The images to resize.
+   * @param repaints       Paints each resize in a single transaction.
+   * @param relayout       Lays out the frame and labels after a resize.
+   * @param executor       Runs the rasterization tasks.
+   */
+  public ZoomController(
+    final Settings userSettings,
+    final HardwareImages hardwareImages,
+    final BatchingRepaintManager repaints,
+    final Runnable relayout,
+    final Executor executor ) {
+    mUserSettings = userSettings;
+    mHardwareImages = hardwareImages;
+    mRepaints = repaints;
+    mRelayout = relayout;
+    mExecutor = executor;
+    mHeight = userSettings.getHeight();
+    mRasterHeight = mHeight;
+
+    final var rasters = hardwareImages.getRasters();
+
+    if( !rasters.isEmpty() ) {
+      mCache.put( mHeight, rasters );
+    }
+  }
+
+  /**
+   * Grows or shrinks the overlay by the given number of steps. This must be
+   * called from Swing's event dispatch thread.
+   *
+   * @param steps Positive to grow, negative to shrink.
+   */
+  public void zoomBy( final int steps ) {
+    zoom( (int) Math.round( mHeight * Math.pow( ZOOM_STEP, steps ) ) );
+  }
+
+  /**
+   * Changes the overlay's height. This must be called from Swing's event
+   * dispatch thread.
+   *
+   * @param height The new height in pixels, clamped to the minimum height.
+   */
+  public void zoom( final int height ) {
+    final var dimensions = mUserSettings.createAppDimensions( height );
+    final var clamped = dimensions.height;
+
+    if( clamped == mHeight ) {
+      return;
+    }
+
+    final var generation = ++mGeneration;
+    final var images = mHardwareImages;
+    final var cached = mCache.get( clamped );
+
+    mHeight = clamped;
+
+    if( cached != null ) {
+      mRasterHeight = clamped;
+      relayout( () -> images.resize( dimensions, cached ) );
+      return;
+    }
+
+    relayout( () -> images.scale( dimensions ) );
+    show( generation, dimensions, images.rasterize( dimensions, mExecutor ) );
+  }
+
+  /**
+   * Re-rasterizes the images whose theme files have changed, then swaps
+   * them in. Only the changed images are rasterized when the shown images
+   * match the overlay's height; otherwise, such as while a zoom is pending,
+   * all images are rasterized. Images cached for other heights are
+   * discarded. This must be called from Swing's event dispatch thread.
+   *
+   * @param paths Resource paths, without extensions, of the changed images.
+   */
+  public void reload( final Set<String> paths ) {
+    final var generation = ++mGeneration;
+    final var dimensions = mUserSettings.createAppDimensions( mHeight );
+    final var images = mHardwareImages;
+
+    mEpoch++;
+    mCache.clear();
+
+    if( mRasterHeight == mHeight ) {
+      show( generation, dimensions, images.reload( paths, mExecutor ) );
+    }
+    else {
+      images.invalidate( paths );
+      show( generation, dimensions, images.rasterize( dimensions, mExecutor ) );
+    }
+  }
+
+  /**
+   * Caches images once they have been rasterized in the background, then
+   * swaps them in unless they were superseded by a later zoom or reload.
+   *
+   * @param generation The zoom or reload that requested the images.
+   * @param dimensions The app dimensions that the images fit.
+   * @param future     Completes with the rasterized images.
+   */
+  private void show(
+    final int generation,
+    final Dimension dimensions,
+    final CompletableFuture<Map<String, Pair<BufferedImage,
+      DimensionTuple>>> future ) {
+    final var epoch = mEpoch;
+    final var images = mHardwareImages;
+    final var height = dimensions.height;
+
+    future.thenAcceptAsync(
+      rasters -> {
+        if( epoch == mEpoch ) {
+          mCache.put( height, rasters );
+        }
+
+        if( generation == mGeneration ) {
+          mRasterHeight = height;
+          relayout( () -> images.resize( dimensions, rasters ) );
+        }
+      },
+      SwingUtilities::invokeLater
+    ).exceptionally( ex -> {
+      ex.printStackTrace();
+      return null;
+    } );
+  }
+
+  private void relayout( final Runnable resize ) {
+    mRepaints.batch( () -> {
+      resize.run();
+      mRelayout.run();
+    } );
+  }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import com.whitemagicsoftware.kmcaster.Settings;
+import com.whitemagicsoftware.kmcaster.keymap.KeyNames;
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+import static com.whitemagicsoftware.kmcaster.analytics.Journal.EXTENSION;
+import static com.whitemagicsoftware.kmcaster.analytics.Journal.RECORD_BYTES;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Responsible for reporting typing statistics from journals that were
+ * recorded using the {@code --journal} option. Journals are divided into
+ * ranges of records that are memory-mapped and scanned in parallel.
+ */
+@CommandLine.Command(
+  name = "analyze",
+  mixinStandardHelpOptions = true,
+  description = "Reports typing statistics from recorded journals."
+)
+@SuppressWarnings( {"FieldMayBeFinal", "CanBeFinal"} )
+public final class AnalyzeCommand implements Callable<Integer> {
+  /**
+   * Records per range: 16 MiB, large enough to amortize mapping and small
+   * enough to balance the work between cores.
+   */
+  private static final int RANGE_RECORDS = 1 << 20;
+
+  /**
+   * Fewest holds for a key's mean hold time to be reported.
+   */
+  private static final long MIN_HOLDS = 100;
+
+  private static final double CHARS_PER_WORD = 5;
+  private static final int BAR_WIDTH = 40;
+
+  /**
+   * A range of one journal's records.
+   */
+  private static final class Range {
+    private final Journal mJournal;
+    private final long mFirst;
+    private final int mCount;
+    private final int[] mRemap;
+
+    private Range(
+      final Journal journal,
+      final long first,
+      final int count,
+      final int[] remap ) {
+      mJournal = journal;
+      mFirst = first;
+      mCount = count;
+      mRemap = remap;
+    }
+  }
+
+  /**
+   * Provides the verbosity option.
+   */
+  @CommandLine.ParentCommand
+  private Settings mSettings;
+
+  @CommandLine.Parameters(
+    arity = "1..*",
+    description = "Journal files, or directories of them, from --journal",
+    paramLabel = "journal"
+  )
+  private List<Path> mPaths = List.of();
+
+  @CommandLine.Option(
+    names = {"-t", "--top"},
+    description = "Number of keys and chords to list (${DEFAULT-VALUE})",
+    paramLabel = "count",
+    defaultValue = "10"
+  )
+  private int mTop = 10;
+
+  /**
+   * Invoked after the command-line arguments are parsed to print the
+   * statistics.
+   *
+   * @return Exit level zero.
+   * @throws Exception Could not read the journals.
+   */
+  @Override
+  public Integer call() throws Exception {
+    Diagnostics.setEnabled( mSettings.isVerbose() );
+
+    final var journals = open( mPaths );
+    final var labels = new LinkedHashMap<String, Integer>();
+    final var ranges = new ArrayList<Range>();
+    var records = 0L;
+
+    for( final var journal : journals ) {
+      final var own = journal.getLabels();
+      final var remap = new int[ own.length ];
+
+      // Journals from other versions may number their keys differently.
+      for( int i = 0; i < own.length; i++ ) {
+        remap[ i ] = labels.computeIfAbsent( own[ i ], k -> labels.size() );
+      }
+
+      for( long first = 0; first < journal.getRecords();
+           first += RANGE_RECORDS ) {
+        final var count = (int) Math.min(
+          RANGE_RECORDS, journal.getRecords() - first );
+        ranges.add( new Range( journal, first, count, remap ) );
+      }
+
+      records += journal.getRecords();
+    }
+
+    final var keys = Math.max( 1, labels.size() );
+    final var offset = ZoneId.systemDefault().getRules()
+      .getOffset( Instant.now() ).getTotalSeconds();
+    final var started = System.nanoTime();
+
+    final var stats = ranges
+      .parallelStream()
+      .map( r -> JournalStats.scan(
+        r.mJournal, r.mFirst, r.mCount, r.mRemap, keys, offset ) )
+      .reduce( JournalStats::merge )
+      .orElseGet( () -> new JournalStats( keys ) );
+
+    final var elapsed = System.nanoTime() - started;
+    final var seconds = Math.max( elapsed, 1 ) / 1e9;
+    final var bytes = records * RECORD_BYTES;
+
+    System.out.printf(
+      "Scanned %d journals, %,d events (%,.1f MiB) in %.3f s: " +
+        "%,.0f MiB/s, %,.1f million events/s, %d ranges on %d cores%n",
+      journals.size(), stats.getEvents(), bytes / 1048576.0, seconds,
+      bytes / 1048576.0 / seconds, stats.getEvents() / seconds / 1e6,
+      ranges.size(), Runtime.getRuntime().availableProcessors() );
+
+    final var names = labels.keySet().toArray( new String[ 0 ] );
+
+    printHolds( stats, names );
+    printIntervals( stats );
+    printSpeed( stats );
+    printChords( stats, names );
+
+    Diagnostics.log( "Analysed journals in %d ms",
+                     NANOSECONDS.toMillis( System.nanoTime() - started ) );
+    return 0;
+  }
+
+  private void printHolds( final JournalStats stats, final String[] names ) {
+    final var holds = stats.getHolds();
+
+    System.out.printf(
+      "%nKey hold time: median %d ms, 90th percentile %d ms, 99th %d ms%n",
+      percentile( holds, .5 ), percentile( holds, .9 ),
+      percentile( holds, .99 ) );
+
+    final var held = new ArrayList<Integer>();
+
+    for( int key = 0; key < names.length; key++ ) {
+      if( stats.getHoldCount( key ) >= MIN_HOLDS ) {
+        held.add( key );
+      }
+    }
+
+    held.sort( Comparator.comparingLong( stats::getMeanHold ).reversed() );
+
+    for( final var key : held.subList( 0, Math.min( mTop, held.size() ) ) ) {
+      System.out.printf(
+        "  %-12s %5d ms mean over %,d presses%n",
+        KeyNames.toChord( 0, names[ key ] ),
+        MICROSECONDS.toMillis( stats.getMeanHold( key ) ),
+        stats.getHoldCount( key ) );
+    }
+  }
+
+  private void printIntervals( final JournalStats stats ) {
+    final var intervals = stats.getIntervals();
+    final var pauses = intervals[ intervals.length - 1 ];
+
+    System.out.printf(
+      "%nInter-key interval: median %d ms, 90th percentile %d ms, " +
+        "99th %d ms; %,d pauses over 2 s%n",
+      percentile( intervals, .5 ), percentile( intervals, .9 ),
+      percentile( intervals, .99 ), pauses );
+
+    final var step = 50;
+    final var buckets = new long[ 12 ];
+
+    for( int ms = 0; ms < intervals.length - 1; ms++ ) {
+      buckets[ Math.min( ms / step, buckets.length - 1 ) ] += intervals[ ms ];
+    }
+
+    var max = 1L;
+
+    for( final var count : buckets ) {
+      max = Math.max( max, count );
+    }
+
+    for( int i = 0; i < buckets.length; i++ ) {
+      final var range = i < buckets.length - 1
+        ? String.format( "%4d-%d ms", i * step, (i + 1) * step )
+        : String.format( "%4d+ ms", i * step );
+
+      System.out.printf( "  %-12s %s %,d%n", range,
+                         "█".repeat( (int) (buckets[ i ] * BAR_WIDTH / max) ),
+                         buckets[ i ] );
+    }
+  }
+
+  private void printSpeed( final JournalStats stats ) {
+    System.out.printf( "%nTyping speed by day:%n" );
+
+    for( final var day : new TreeMap<>( stats.getDays() ).entrySet() ) {
+      final var presses = day.getValue()[ 0 ];
+      final var minutes = day.getValue()[ 1 ] / 60e6;
+      final var wpm = minutes > 0 ? presses / CHARS_PER_WORD / minutes : 0;
+
+      System.out.printf(
+        "  %s %,10d keys %7.1f minutes typing %6.1f wpm%n",
+        LocalDate.ofEpochDay( day.getKey() ), presses, minutes, wpm );
+    }
+  }
+
+  private void printChords( final JournalStats stats, final String[] names ) {
+    final var chords = new ArrayList<long[]>();
+
+    for( int key = 0; key < names.length; key++ ) {
+      for( int mask = 0; mask < KeyNames.MASKS; mask++ ) {
+        final var count = stats.getChord( key, mask );
+
+        // Shift alone is typing rather than a shortcut.
+        if( count > 0 && (mask & (KeyNames.CTRL | KeyNames.ALT)) != 0 ) {
+          chords.add( new long[]{count, key, mask} );
+        }
+      }
+    }
+
+    chords.sort( ( a, b ) -> Long.compare( b[ 0 ], a[ 0 ] ) );
+
+    System.out.printf( "%nMost used chords:%n" );
+
+    final var top = chords.subList( 0, Math.min( mTop, chords.size() ) );
+
+    for( final var chord : top ) {
+      System.out.printf( "  %-20s %,d%n",
+                         KeyNames.toChord(
+                           (int) chord[ 2 ], names[ (int) chord[ 1 ] ] ),
+                         chord[ 0 ] );
+    }
+  }
+
+  /**
+   * Returns the bin below which the given fraction of samples lie.
+   */
+  private static long percentile( final long[] histogram, final double p ) {
+    var total = 0L;
+
+    for( final var count : histogram ) {
+      total += count;
+    }
+
+    final var target = (long) Math.ceil( total * p );
+    var seen = 0L;
+
+    for( int bin = 0; bin < histogram.length; bin++ ) {
+      seen += histogram[ bin ];
+
+      if( seen >= target && seen > 0 ) {
+        return bin;
+      }
+    }
+
+    return 0;
+  }
+
+  private static List<Journal> open( final List<Path> paths )
+    throws IOException {
+    final var journals = new ArrayList<Journal>();
+
+    for( final var path : paths ) {
+      if( Files.isDirectory( path ) ) {
+        try( final var files = Files.walk( path ) ) {
+          for( final var file : files
+            .filter( f -> f.toString().endsWith( EXTENSION ) )
+            .sorted()
+            .collect( Collectors.toList() ) ) {
+            journals.add( Journal.open( file ) );
+          }
+        }
+      }
+      else {
+        journals.add( Journal.open( path ) );
+      }
+    }
+
+    return journals;
+  }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import com.whitemagicsoftware.kmcaster.keymap.KeyNames;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import static com.whitemagicsoftware.kmcaster.keymap.KeyNames.*;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Responsible for grouping key presses into timed captions. Presses arrive
+ * in time order and are written as soon as the following cue starts, so
+ * that only one cue is held in memory regardless of the session's length.
+ * Typed characters are joined into words, other keys and chords are shown
+ * by name, and repeated keys are counted rather than listed.
+ */
+final class CaptionWriter implements Closeable {
+  /**
+   * Caption file formats, which differ in their header, timestamps, and
+   * text escaping.
+   */
+  enum Format {
+    SRT( ',' ),
+    VTT( '.' );
+
+    private final char mSeparator;
+
+    Format( final char separator ) {
+      mSeparator = separator;
+    }
+
+    /**
+     * Returns the format given by a file name's extension.
+     *
+     * @param path The caption file.
+     * @return {@link #VTT} for ".vtt" files, otherwise {@link #SRT}.
+     */
+    static Format of( final Path path ) {
+      return path.toString().toLowerCase( Locale.ROOT ).endsWith( ".vtt" )
+        ? VTT
+        : SRT;
+    }
+  }
+
+  private static final String SPACE = "Space";
+  private static final String ENTER = "Enter ⏎";
+  private static final String REPEAT = " ×";
+
+  private final Writer mOut;
+  private final Format mFormat;
+  private final long mGap;
+  private final long mLinger;
+  private final int mWidth;
+
+  /**
+   * Text of the cue being built.
+   */
+  private final StringBuilder mText = new StringBuilder( 128 );
+  private long mFirst = -1;
+  private long mLast;
+
+  /**
+   * Most recent key name, which is counted while it repeats.
+   */
+  private String mKey;
+  private int mKeyIndex;
+  private int mRepeats;
+  private boolean mTyping;
+  private boolean mBreak;
+
+  /**
+   * Completed cue, written once the next cue's start caps its end.
+   */
+  private String mPendingText;
+  private long mPendingStart;
+  private long mPendingEnd;
+  private int mCues;
+
+  /**
+   * Creates a caption writer; the caller closes the given writer.
+   *
+   * @param out    Receives the captions.
+   * @param format The caption file format.
+   * @param gap    Pause that starts a new cue, in microseconds.
+   * @param linger Time that a cue remains after its last key, in
+   *               microseconds.
+   * @param width  Characters after which a new cue is started.
+   * @throws IOException Could not write the header.
+   */
+  CaptionWriter(
+    final Writer out,
+    final Format format,
+    final long gap,
+    final long linger,
+    final int width ) throws IOException {
+    assert out != null;
+    assert format != null;
+
+    mOut = out;
+    mFormat = format;
+    mGap = gap;
+    mLinger = linger;
+    mWidth = Math.max( 1, width );
+
+    if( format == Format.VTT ) {
+      mOut.write( "WEBVTT\n\n" );
+    }
+  }
+
+  /**
+   * Adds a key press to the captions.
+   *
+   * @param time  Microseconds since the video started, which may be
+   *              negative for keys pressed before recording began.
+   * @param label The key's label, as recorded by the keyboard listener.
+   * @param mask  The modifiers that were held.
+   * @throws IOException Could not write a completed cue.
+   */
+  void press( final long time, final String label, final int mask )
+    throws IOException {
+    final var typed = (mask & (CTRL | ALT)) == 0 && isTyped( label );
+    final var text = typed ? toTyped( label, mask ) : null;
+    final var length = mText.length();
+
+    // Long runs of typing are split between words where possible.
+    final var full = length >= mWidth &&
+      (!typed || " ".equals( text ) || length >= mWidth * 2);
+
+    if( mFirst >= 0 && (mBreak || full || time - mLast > mGap) ) {
+      flush();
+    }
+
+    if( typed ) {
+      appendTyped( text );
+    }
+    else {
+      appendKey( KeyNames.toChord( mask, label ) );
+    }
+
+    if( mFirst < 0 ) {
+      mFirst = time;
+    }
+
+    mLast = time;
+    mBreak = ENTER.equals( label );
+  }
+
+  /**
+   * Writes the remaining cues, after which {@link #getCues()} is complete.
+   * Calling this again writes nothing more.
+   *
+   * @throws IOException Could not write the captions.
+   */
+  void finish() throws IOException {
+    if( mFirst >= 0 ) {
+      flush();
+    }
+
+    writePending( Long.MAX_VALUE );
+    mOut.flush();
+  }
+
+  /**
+   * Writes the remaining cues, unless {@link #finish()} already has.
+   *
+   * @throws IOException Could not write the captions.
+   */
+  @Override
+  public void close() throws IOException {
+    finish();
+  }
+
+  /**
+   * Returns the number of cues written.
+   *
+   * @return The cue count.
+   */
+  int getCues() {
+    return mCues;
+  }
+
+  private void appendTyped( final String text ) {
+    if( mText.length() == 0 && " ".equals( text ) ) {
+      return;
+    }
+
+    if( !mTyping && mText.length() > 0 && !" ".equals( text ) ) {
+      mText.append( ' ' );
+    }
+
+    mText.append( text );
+    mTyping = true;
+    mKey = null;
+  }
+
+  private void appendKey( final String key ) {
+    if( key.equals( mKey ) ) {
+      mText.setLength( mKeyIndex );
+      mText.append( key ).append( REPEAT ).append( ++mRepeats );
+    }
+    else {
+      if( mText.length() > 0 && mText.charAt( mText.length() - 1 ) != ' ' ) {
+        mText.append( ' ' );
+      }
+
+      mKeyIndex = mText.length();
+      mText.append( key );
+      mKey = key;
+      mRepeats = 1;
+    }
+
+    mTyping = false;
+  }
+
+  /**
+   * Completes the cue being built, which caps the end of the previous one.
+   */
+  private void flush() throws IOException {
+    writePending( mFirst );
+
+    mPendingText = mText.toString().strip();
+    mPendingStart = mFirst;
+    mPendingEnd = mLast + mLinger;
+
+    mText.setLength( 0 );
+    mFirst = -1;
+    mKey = null;
+    mTyping = false;
+  }
+
+  private void writePending( final long next ) throws IOException {
+    final var text = mPendingText;
+    final var end = Math.min( mPendingEnd, next );
+
+    mPendingText = null;
+
+    // Cues that end before the video starts are not shown.
+    if( text == null || text.isEmpty() || end <= 0 ) {
+      return;
+    }
+
+    final var out = mOut;
+
+    if( mFormat == Format.SRT ) {
+      out.write( Integer.toString( ++mCues ) );
+      out.write( '\n' );
+    }
+    else {
+      mCues++;
+    }
+
+    writeTime( Math.max( 0, mPendingStart ) );
+    out.write( " --> " );
+    writeTime( end );
+    out.write( '\n' );
+    out.write( mFormat == Format.VTT ? escape( text ) : text );
+    out.write( "\n\n" );
+  }
+
+  private void writeTime( final long micros ) throws IOException {
+    final var ms = MICROSECONDS.toMillis( micros );
+
+    // Written without formatting, which dominates the export time.
+    writeDigits( ms / 3_600_000, 2 );
+    mOut.write( ':' );
+    writeDigits( ms / 60_000 % 60, 2 );
+    mOut.write( ':' );
+    writeDigits( ms / 1000 % 60, 2 );
+    mOut.write( mFormat.mSeparator );
+    writeDigits( ms % 1000, 3 );
+  }
+
+  private void writeDigits( final long value, final int width )
+    throws IOException {
+    final var digits = Long.toString( value );
+
+    for( int i = digits.length(); i < width; i++ ) {
+      mOut.write( '0' );
+    }
+
+    mOut.write( digits );
+  }
+
+  /**
+   * Answers whether a key types text; arrows have single-character labels
+   * but are shown by name.
+   */
+  private static boolean isTyped( final String label ) {
+    if( label.length() == 1 ) {
+      final var c = label.charAt( 0 );
+      return c > ' ' && c < 0x7F;
+    }
+
+    return SPACE.equals( label );
+  }
+
+  /**
+   * Returns the text typed by a key, using capitals when Shift is held.
+   */
+  private static String toTyped( final String label, final int mask ) {
+    return SPACE.equals( label )
+      ? " "
+      : (mask & SHIFT) != 0 ? label.toUpperCase( Locale.ROOT ) : label;
+  }
+
+  /**
+   * Escapes characters that WebVTT reserves for markup.
+   */
+  private static String escape( final String text ) {
+    return text
+      .replace( "&", "&amp;" )
+      .replace( "<", "&lt;" )
+      .replace( ">", "&gt;" );
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import com.whitemagicsoftware.kmcaster.Settings;
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+import picocli.CommandLine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+import static com.whitemagicsoftware.kmcaster.analytics.Journal.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Responsible for writing SRT or WebVTT captions from a journal that was
+ * recorded using the {@code --journal} option, so that keystrokes can be
+ * added to a video after it was recorded. The journal is read in mapped
+ * windows, so its length does not affect the memory used.
+ */
+@CommandLine.Command(
+  name = "captions",
+  mixinStandardHelpOptions = true,
+  description = "Writes recorded key presses as SRT or WebVTT captions."
+)
+@SuppressWarnings( {"FieldMayBeFinal", "CanBeFinal"} )
+public final class CaptionsCommand implements Callable<Integer> {
+  /**
+   * Records mapped at a time.
+   */
+  private static final int WINDOW_RECORDS = 1 << 16;
+
+  /**
+   * Provides the verbosity option.
+   */
+  @CommandLine.ParentCommand
+  private Settings mSettings;
+
+  @CommandLine.Parameters(
+    index = "0",
+    description = "Journal file recorded using --journal",
+    paramLabel = "journal"
+  )
+  private Path mJournal;
+
+  @CommandLine.Option(
+    names = {"-o", "--output"},
+    description = "Caption file to write, WebVTT if it ends in .vtt " +
+      "(journal name with .srt)",
+    paramLabel = "path"
+  )
+  private Path mOutput;
+
+  @CommandLine.Option(
+    names = {"-g", "--gap"},
+    description = "Pause that starts a new caption (${DEFAULT-VALUE} ms)",
+    paramLabel = "ms",
+    defaultValue = "1000"
+  )
+  private int mGap = 1000;
+
+  @CommandLine.Option(
+    names = {"-l", "--linger"},
+    description = "Caption time after the last key (${DEFAULT-VALUE} ms)",
+    paramLabel = "ms",
+    defaultValue = "2000"
+  )
+  private int mLinger = 2000;
+
+  @CommandLine.Option(
+    names = {"-w", "--width"},
+    description = "Characters before starting a new caption " +
+      "(${DEFAULT-VALUE})",
+    paramLabel = "chars",
+    defaultValue = "40"
+  )
+  private int mWidth = 40;
+
+  @CommandLine.Option(
+    names = {"--offset"},
+    description = "Time the video started after the journal " +
+      "(${DEFAULT-VALUE} ms)",
+    paramLabel = "ms",
+    defaultValue = "0"
+  )
+  private long mOffset;
+
+  /**
+   * Invoked after the command-line arguments are parsed to write the
+   * captions.
+   *
+   * @return Exit level zero.
+   * @throws Exception Could not read the journal or write the captions.
+   */
+  @Override
+  public Integer call() throws Exception {
+    Diagnostics.setEnabled( mSettings.isVerbose() );
+
+    final var started = System.nanoTime();
+    final var journal = Journal.open( mJournal );
+    final var labels = journal.getLabels();
+    final var output = mOutput == null ? toSrt( mJournal ) : mOutput;
+    final var origin = journal.getStart() + MILLISECONDS.toMicros( mOffset );
+    final var records = journal.getRecords();
+
+    try( final var out = Files.newBufferedWriter( output, UTF_8 );
+         final var captions = new CaptionWriter(
+           out, CaptionWriter.Format.of( output ),
+           MILLISECONDS.toMicros( Math.max( 0, mGap ) ),
+           MILLISECONDS.toMicros( Math.max( 0, mLinger ) ),
+           mWidth ) ) {
+      for( long first = 0; first < records; first += WINDOW_RECORDS ) {
+        final var count = (int) Math.min( WINDOW_RECORDS, records - first );
+        final var buffer = journal.map( first, count );
+
+        for( int r = 0; r < count; r++ ) {
+          final var at = r * RECORD_BYTES;
+          final var id = buffer.getShort( at + OFFSET_ID ) & 0xFFFF;
+
+          // Characters missing from the label tables cannot be shown.
+          if( buffer.get( at + OFFSET_TYPE ) != PRESS ||
+            id == KeyIds.OTHER || id >= labels.length ) {
+            continue;
+          }
+
+          captions.press(
+            buffer.getLong( at + OFFSET_TIME ) - origin,
+            labels[ id ],
+            buffer.get( at + OFFSET_MASK ) );
+        }
+      }
+
+      // Writes the last cue so that the count is complete.
+      captions.finish();
+
+      Diagnostics.log( "Wrote %d captions from %d events in %d ms",
+                       captions.getCues(), records,
+                       NANOSECONDS.toMillis( System.nanoTime() - started ) );
+    }
+
+    return 0;
+  }
+
+  /**
+   * Returns the journal's path with an SRT extension.
+   */
+  private static Path toSrt( final Path journal ) {
+    final var name = journal.getFileName().toString();
+    final var dot = name.lastIndexOf( '.' );
+
+    return journal.resolveSibling(
+      (dot > 0 ? name.substring( 0, dot ) : name) + ".srt" );
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Responsible for estimating how often each key occurs in a stream using
+ * a fixed amount of memory. Every key increments one counter in each row;
+ * its estimate is the smallest of those counters, which never undercounts
+ * and overcounts by at most {@code e / width} of the total, with
+ * probability {@code 1 - exp( -depth )}. Counters are only raised as far as
+ * needed (conservative update), which reduces the overcount further.
+ * <p>
+ * This is not thread-safe; updates must come from a single thread.
+ * </p>
+ */
+final class CountMinSketch {
+  /**
+   * Odd constants that give each row an independent hash function.
+   */
+  private static final long[] SEEDS = {
+    0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+    0xD6E8FEB86659FD93L, 0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L,
+  };
+
+  private final int mDepth;
+  private final int mMask;
+  private final long[] mCounters;
+  private final int[] mCells;
+  private long mTotal;
+
+  /**
+   * Creates an empty sketch.
+   *
+   * @param depth Number of rows, at most six.
+   * @param width Counters per row, a power of two.
+   */
+  CountMinSketch( final int depth, final int width ) {
+    assert depth > 0 && depth <= SEEDS.length;
+    assert Integer.bitCount( width ) == 1;
+
+    mDepth = depth;
+    mMask = width - 1;
+    mCounters = new long[ depth * width ];
+    mCells = new int[ depth ];
+  }
+
+  /**
+   * Counts one occurrence of the given key.
+   *
+   * @param key The key to count.
+   */
+  void add( final long key ) {
+    var min = Long.MAX_VALUE;
+
+    for( int row = 0; row < mDepth; row++ ) {
+      final var cell = cell( row, key );
+      mCells[ row ] = cell;
+      min = Math.min( min, mCounters[ cell ] );
+    }
+
+    for( final var cell : mCells ) {
+      if( mCounters[ cell ] == min ) {
+        mCounters[ cell ] = min + 1;
+      }
+    }
+
+    mTotal++;
+  }
+
+  /**
+   * Returns the estimated number of occurrences of the given key.
+   *
+   * @param key The key to look up.
+   * @return A count that is never less than the true count.
+   */
+  long estimate( final long key ) {
+    var min = Long.MAX_VALUE;
+
+    for( int row = 0; row < mDepth; row++ ) {
+      min = Math.min( min, mCounters[ cell( row, key ) ] );
+    }
+
+    return min;
+  }
+
+  /**
+   * Returns the number of occurrences counted.
+   *
+   * @return The number of calls to {@link #add(long)}.
+   */
+  long getTotal() {
+    return mTotal;
+  }
+
+  int getDepth() {
+    return mDepth;
+  }
+
+  int getWidth() {
+    return mMask + 1;
+  }
+
+  void write( final DataOutput out ) throws IOException {
+    out.writeLong( mTotal );
+
+    for( final var counter : mCounters ) {
+      out.writeLong( counter );
+    }
+  }
+
+  void read( final DataInput in ) throws IOException {
+    mTotal = in.readLong();
+
+    for( int i = 0; i < mCounters.length; i++ ) {
+      mCounters[ i ] = in.readLong();
+    }
+  }
+
+  private int cell( final int row, final long key ) {
+    var h = (key + 1) * SEEDS[ row ];
+    h ^= h >>> 31;
+    h *= 0x94D049BB133111EBL;
+    h ^= h >>> 29;
+
+    return row * (mMask + 1) + ((int) h & mMask);
+  }
+}
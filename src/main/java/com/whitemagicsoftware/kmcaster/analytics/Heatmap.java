@@ -0,0 +1,340 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import com.whitemagicsoftware.kmcaster.CompiledDiagram;
+import com.whitemagicsoftware.kmcaster.SvgRasterizer;
+import com.whitemagicsoftware.kmcaster.ui.DimensionTuple;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.whitemagicsoftware.kmcaster.SvgRasterizer.RENDERING_HINTS;
+import static com.whitemagicsoftware.kmcaster.keymap.KeyNames.*;
+import static com.whitemagicsoftware.kmcaster.ui.ImageTinter.*;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.lang.String.format;
+import static java.util.Map.entry;
+
+/**
+ * Responsible for drawing key press counts as a keyboard whose keys are
+ * tinted from blue (rarely pressed) to red (most pressed). Keys are drawn
+ * using the same artwork as the on-screen display. Modifier keys are
+ * tinted by the number of keys pressed while they were held.
+ */
+public final class Heatmap {
+  private static final String SHIFT_KEY = "Shift";
+  private static final String CTRL_KEY = "Ctrl";
+  private static final String ALT_KEY = "Alt";
+  private static final String SPACE_KEY = "Space";
+
+  /**
+   * Keyboard listener labels, row by row, for a US layout.
+   */
+  private static final String[][] ROWS = {
+    {"Esc", "F1", "F2", "F3", "F4", "F5", "F6", "F7", "F8", "F9", "F10",
+      "F11", "F12"},
+    {"`", "1", "2", "3", "4", "5", "6", "7", "8", "9", "0", "-", "=",
+      "Back ⌫"},
+    {"Tab ↔", "q", "w", "e", "r", "t", "y", "u", "i", "o", "p", "[", "]",
+      "\\"},
+    {"Caps", "a", "s", "d", "f", "g", "h", "j", "k", "l", ";", "'",
+      "Enter ⏎"},
+    {SHIFT_KEY, "z", "x", "c", "v", "b", "n", "m", ",", ".", "/", SHIFT_KEY},
+    {CTRL_KEY, ALT_KEY, SPACE_KEY, ALT_KEY, CTRL_KEY, "←", "↓", "↑", "→"}
+  };
+
+  /**
+   * Maps keys that are wider than a letter key to their artwork. The long
+   * artwork shows an arrow, so it is only used for the Shift keys.
+   */
+  private static final Map<String, String> SHAPES = Map.ofEntries(
+    entry( "Back ⌫", "medium" ),
+    entry( "Tab ↔", "medium" ),
+    entry( "Caps", "medium" ),
+    entry( "Enter ⏎", "medium" ),
+    entry( SHIFT_KEY, "long" ),
+    entry( CTRL_KEY, "medium" ),
+    entry( ALT_KEY, "medium" ),
+    entry( SPACE_KEY, "medium" )
+  );
+
+  /**
+   * Number of letter keys that the space bar spans.
+   */
+  private static final int SPACE_KEYS = 5;
+
+  private static final String SHORT = "short";
+  private static final String ARTWORK = "/images/key/up/%s.svg";
+
+  private static final Color COLOUR_BACKGROUND = new Color( 0x303030 );
+  private static final Color COLOUR_UNUSED = new Color( 0x505050 );
+  private static final Color COLOUR_TEXT = Color.WHITE;
+
+  private static final FontRenderContext RENDER_CONTEXT =
+    new FontRenderContext( null, true, true );
+
+  private static final DateTimeFormatter DATE_FORMAT =
+    DateTimeFormatter.ISO_LOCAL_DATE.withZone( ZoneId.systemDefault() );
+
+  private final SvgRasterizer mRasterizer = new SvgRasterizer();
+  private final KeyCounters mCounters;
+  private final int mHeight;
+  private final int mGap;
+  private final Font mFont;
+
+  /**
+   * Masks of the key artwork, keyed by shape and width.
+   */
+  private final Map<String, BufferedImage> mMasks = new HashMap<>();
+
+  /**
+   * Creates a heatmap of the given counters.
+   *
+   * @param counters The key press counts to draw.
+   * @param height   Height of each key, in pixels.
+   * @param font     Font for the key labels, at any size.
+   */
+  public Heatmap(
+    final KeyCounters counters, final int height, final Font font ) {
+    assert counters != null;
+    assert height > 0;
+    assert font != null;
+
+    mCounters = counters;
+    mHeight = height;
+    mGap = Math.max( 1, height / 10 );
+    mFont = font;
+  }
+
+  /**
+   * Draws the keyboard, with a line beneath it that states the total number
+   * of presses and when counting began.
+   *
+   * @return An image of the keyboard.
+   */
+  public BufferedImage render() {
+    final var widths = new int[ ROWS.length ][];
+    var width = 0;
+
+    for( int r = 0; r < ROWS.length; r++ ) {
+      widths[ r ] = new int[ ROWS[ r ].length ];
+      var x = mGap;
+
+      for( int k = 0; k < ROWS[ r ].length; k++ ) {
+        widths[ r ][ k ] = getWidth( ROWS[ r ][ k ] );
+        x += widths[ r ][ k ] + mGap;
+      }
+
+      width = Math.max( width, x );
+    }
+
+    final var footer = mHeight / 2;
+    final var height = mGap + ROWS.length * (mHeight + mGap) + footer;
+    final var image = new BufferedImage( width, height, TYPE_INT_ARGB );
+    final var g = image.createGraphics();
+
+    try {
+      g.setRenderingHints( RENDERING_HINTS );
+      g.setColor( COLOUR_BACKGROUND );
+      g.fillRect( 0, 0, width, height );
+
+      final var max = getMaximum();
+
+      for( int r = 0; r < ROWS.length; r++ ) {
+        final var y = mGap + r * (mHeight + mGap);
+        var x = mGap;
+
+        for( int k = 0; k < ROWS[ r ].length; k++ ) {
+          final var label = ROWS[ r ][ k ];
+          drawKey( g, label, getCount( label ), max, x, y, widths[ r ][ k ] );
+          x += widths[ r ][ k ] + mGap;
+        }
+      }
+
+      drawFooter( g, height - footer, width, footer );
+    } finally {
+      g.dispose();
+    }
+
+    return image;
+  }
+
+  private void drawKey(
+    final Graphics2D g,
+    final String label,
+    final long count,
+    final long max,
+    final int x,
+    final int y,
+    final int width ) {
+    final var colour = count == 0 ? COLOUR_UNUSED : toColour( count, max );
+    final var mask = getMask( getShape( label ), width );
+
+    g.drawImage( tint( mask, palette( colour ) ), x, y, null );
+    g.setColor( COLOUR_TEXT );
+
+    final var caption = label.length() == 1
+      ? label.toUpperCase( Locale.ROOT )
+      : label;
+
+    drawCentred( g, caption, fit( caption, width, mHeight * .3f ),
+                 x, width, y + mHeight * 9 / 20 );
+    drawCentred( g, format( "%,d", count ),
+                 fit( "0", width, mHeight * .18f ),
+                 x, width, y + mHeight * 3 / 4 );
+  }
+
+  private void drawFooter(
+    final Graphics2D g, final int y, final int width, final int height ) {
+    var total = 0L;
+
+    for( int id = 0; id < mCounters.size(); id++ ) {
+      for( int mask = 0; mask < MASKS; mask++ ) {
+        total += mCounters.get( id, mask );
+      }
+    }
+
+    final var since = DATE_FORMAT.format(
+      Instant.ofEpochMilli( mCounters.getCreated() ) );
+    final var text = format( "%,d key presses since %s", total, since );
+
+    g.setColor( COLOUR_TEXT );
+    drawCentred( g, text, mFont.deriveFont( height * .5f ),
+                 0, width, y + height / 2 );
+  }
+
+  /**
+   * Draws text centred horizontally and vertically about the given line.
+   */
+  private static void drawCentred(
+    final Graphics2D g,
+    final String text,
+    final Font font,
+    final int x,
+    final int width,
+    final int middle ) {
+    final var metrics = g.getFontMetrics( font );
+    final var tx = x + (width - metrics.stringWidth( text )) / 2;
+    final var ty = middle + (metrics.getAscent() - metrics.getDescent()) / 2;
+
+    g.setFont( font );
+    g.drawString( text, tx, ty );
+  }
+
+  /**
+   * Shrinks the font until the text fits within most of the key's width.
+   */
+  private Font fit( final String text, final int width, final float size ) {
+    var font = mFont.deriveFont( size );
+
+    while( font.getSize2D() > 4 &&
+      font.getStringBounds( text, RENDER_CONTEXT ).getWidth() > width * .8 ) {
+      font = font.deriveFont( font.getSize2D() * .9f );
+    }
+
+    return font;
+  }
+
+  /**
+   * Maps a count to a hue on a logarithmic scale, so that rarely pressed
+   * keys are distinguishable from keys that are never pressed.
+   */
+  private static Color toColour( final long count, final long max ) {
+    final var t = (float) (Math.log1p( count ) / Math.log1p( max ));
+
+    return Color.getHSBColor( (1 - t) * .66f, .8f, .95f );
+  }
+
+  private long getCount( final String label ) {
+    return switch( label ) {
+      case SHIFT_KEY -> mCounters.getModified( SHIFT );
+      case CTRL_KEY -> mCounters.getModified( CTRL );
+      case ALT_KEY -> mCounters.getModified( ALT );
+      default -> mCounters.get( label );
+    };
+  }
+
+  private long getMaximum() {
+    var max = 1L;
+
+    for( final var row : ROWS ) {
+      for( final var label : row ) {
+        max = Math.max( max, getCount( label ) );
+      }
+    }
+
+    return max;
+  }
+
+  private int getWidth( final String label ) {
+    if( SPACE_KEY.equals( label ) ) {
+      return SPACE_KEYS * getShapeWidth( SHORT ) + (SPACE_KEYS - 1) * mGap;
+    }
+
+    return getShapeWidth( getShape( label ) );
+  }
+
+  private int getShapeWidth( final String shape ) {
+    final var diagram = compile( shape );
+
+    return Math.round(
+      diagram.getWidth() * mHeight / diagram.getHeight() );
+  }
+
+  private static String getShape( final String label ) {
+    return SHAPES.getOrDefault( label, SHORT );
+  }
+
+  /**
+   * Rasterizes the given artwork at the given width, stretching it
+   * horizontally for the space bar.
+   */
+  private BufferedImage getMask( final String shape, final int width ) {
+    return mMasks.computeIfAbsent( shape + width, k -> {
+      final var diagram = compile( shape );
+      final var src = new Dimension(
+        (int) diagram.getWidth(), (int) diagram.getHeight() );
+      final var dst = new Dimension( width, mHeight );
+      final var image = diagram.rasterize( new DimensionTuple( src, dst ) );
+
+      return toMask( image, palette( COLOUR_UNUSED ) );
+    } );
+  }
+
+  private CompiledDiagram compile( final String shape ) {
+    return mRasterizer.compile( format( ARTWORK, shape ) );
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import com.whitemagicsoftware.kmcaster.Settings;
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+import picocli.CommandLine;
+
+import javax.imageio.ImageIO;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+import static com.whitemagicsoftware.kmcaster.ui.FontLoader.initFonts;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Responsible for writing a keyboard heatmap image from a key counter file
+ * that was recorded using the {@code --key-counts} option.
+ */
+@CommandLine.Command(
+  name = "heatmap",
+  mixinStandardHelpOptions = true,
+  description = "Draws recorded key press counts as a keyboard heatmap."
+)
+@SuppressWarnings( {"FieldMayBeFinal", "CanBeFinal"} )
+public final class HeatmapCommand implements Callable<Integer> {
+  /**
+   * Provides the font and verbosity options.
+   */
+  @CommandLine.ParentCommand
+  private Settings mSettings;
+
+  @CommandLine.Parameters(
+    index = "0",
+    description = "Key counter file recorded using --key-counts",
+    paramLabel = "counts"
+  )
+  private Path mCounts;
+
+  @CommandLine.Option(
+    names = {"-o", "--output"},
+    description = "PNG image file to write (${DEFAULT-VALUE})",
+    paramLabel = "path",
+    defaultValue = "heatmap.png"
+  )
+  private Path mOutput;
+
+  @CommandLine.Option(
+    names = {"-d", "--dimension"},
+    description = "Key height (${DEFAULT-VALUE} pixels)",
+    paramLabel = "pixels",
+    defaultValue = "60"
+  )
+  private int mHeight = 60;
+
+  /**
+   * Invoked after the command-line arguments are parsed to write the image.
+   *
+   * @return Exit level zero.
+   * @throws Exception Could not read the counters or write the image.
+   */
+  @Override
+  public Integer call() throws Exception {
+    Diagnostics.setEnabled( mSettings.isVerbose() );
+    initFonts();
+
+    final var started = System.nanoTime();
+    final var counters = KeyCounters.read( mCounts );
+    final var image =
+      new Heatmap( counters, Math.max( mHeight, 10 ), mSettings.createFont() )
+        .render();
+
+    ImageIO.write( image, "png", mOutput.toFile() );
+
+    Diagnostics.log( "Drew heatmap of %d keys in %d ms",
+                     counters.size(),
+                     NANOSECONDS.toMillis( System.nanoTime() - started ) );
+    return 0;
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Responsible for the layout of a recorded input journal. A journal is a
+ * header followed by fixed-size records, so that any record can be found
+ * by its index and a journal can be split into ranges that are scanned
+ * independently. All values are little-endian:
+ * <pre>
+ * header:
+ *   int    magic, "KMKJ"
+ *   int    version
+ *   int    offset of the first record, a multiple of the record size
+ *   int    number of key labels
+ *   long   start time, microseconds since the epoch
+ *   label table: (short length, UTF-8 bytes) for each key, then padding
+ * record, 16 bytes:
+ *   long   time, microseconds since the epoch
+ *   int    raw key code
+ *   short  key identifier, an index into the label table
+ *   byte   held modifiers, a bitmask of keymap values
+ *   byte   type, press or release
+ * </pre>
+ * <p>
+ * A journal that was being written when the application stopped may end
+ * with a partial record, which is ignored.
+ * </p>
+ */
+final class Journal {
+  static final int MAGIC = 0x4A4B4D4B;
+  static final int VERSION = 1;
+
+  static final int RECORD_BYTES = 16;
+
+  static final int OFFSET_TIME = 0;
+  static final int OFFSET_CODE = 8;
+  static final int OFFSET_ID = 12;
+  static final int OFFSET_MASK = 14;
+  static final int OFFSET_TYPE = 15;
+
+  static final byte PRESS = 1;
+  static final byte RELEASE = 2;
+
+  static final String EXTENSION = ".kmj";
+
+  private static final int HEADER_BYTES = 24;
+
+  private final Path mPath;
+  private final long mOffset;
+  private final long mRecords;
+  private final long mStart;
+  private final String[] mLabels;
+
+  private Journal(
+    final Path path,
+    final long offset,
+    final long records,
+    final long start,
+    final String[] labels ) {
+    mPath = path;
+    mOffset = offset;
+    mRecords = records;
+    mStart = start;
+    mLabels = labels;
+  }
+
+  /**
+   * Reads the header of the given journal.
+   *
+   * @param path The journal file.
+   * @return The journal's layout and labels.
+   * @throws IOException Could not read the file, or it is not a journal.
+   */
+  static Journal open( final Path path ) throws IOException {
+    try( final var channel = FileChannel.open( path, READ ) ) {
+      final var size = channel.size();
+      final var head = channel
+        .map( FileChannel.MapMode.READ_ONLY, 0, Math.min( size, 1 << 16 ) )
+        .order( LITTLE_ENDIAN );
+
+      if( head.getInt() != MAGIC || head.getInt() != VERSION ) {
+        throw new IOException( "Not a journal: " + path );
+      }
+
+      final var offset = head.getInt();
+      final var labels = new String[ head.getInt() ];
+      final var start = head.getLong();
+
+      for( int i = 0; i < labels.length; i++ ) {
+        final var bytes = new byte[ Short.toUnsignedInt( head.getShort() ) ];
+        head.get( bytes );
+        labels[ i ] = new String( bytes, UTF_8 );
+      }
+
+      final var records = Math.max( 0, (size - offset) / RECORD_BYTES );
+
+      return new Journal( path, offset, records, start, labels );
+    } catch( final RuntimeException ex ) {
+      throw new IOException( "Invalid journal: " + path, ex );
+    }
+  }
+
+  /**
+   * Creates the header for a new journal.
+   *
+   * @param labels The key labels, indexed by identifier.
+   * @param start  Start time, microseconds since the epoch.
+   * @return The header, padded to a multiple of the record size.
+   */
+  static ByteBuffer createHeader( final String[] labels, final long start ) {
+    final var encoded = new byte[ labels.length ][];
+    var length = HEADER_BYTES;
+
+    for( int i = 0; i < labels.length; i++ ) {
+      encoded[ i ] = labels[ i ].getBytes( UTF_8 );
+      length += Short.BYTES + encoded[ i ].length;
+    }
+
+    final var padded =
+      (length + RECORD_BYTES - 1) / RECORD_BYTES * RECORD_BYTES;
+    final var header = ByteBuffer.allocate( padded ).order( LITTLE_ENDIAN );
+
+    header.putInt( MAGIC );
+    header.putInt( VERSION );
+    header.putInt( padded );
+    header.putInt( labels.length );
+    header.putLong( start );
+
+    for( final var bytes : encoded ) {
+      header.putShort( (short) bytes.length );
+      header.put( bytes );
+    }
+
+    return header.position( 0 );
+  }
+
+  /**
+   * Maps a range of records, such as a slice to be scanned in parallel.
+   *
+   * @param first Index of the first record to map.
+   * @param count Number of records to map.
+   * @return A read-only buffer whose position zero is the first record.
+   * @throws IOException Could not map the file.
+   */
+  MappedByteBuffer map( final long first, final int count )
+    throws IOException {
+    try( final var channel = FileChannel.open( mPath, READ ) ) {
+      final var buffer = channel.map(
+        FileChannel.MapMode.READ_ONLY,
+        mOffset + first * RECORD_BYTES,
+        (long) count * RECORD_BYTES );
+      buffer.order( LITTLE_ENDIAN );
+
+      return buffer;
+    }
+  }
+
+  Path getPath() {
+    return mPath;
+  }
+
+  long getRecords() {
+    return mRecords;
+  }
+
+  long getStart() {
+    return mStart;
+  }
+
+  String[] getLabels() {
+    return mLabels;
+  }
+}
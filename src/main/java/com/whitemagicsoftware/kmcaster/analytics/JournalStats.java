@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import com.whitemagicsoftware.kmcaster.keymap.KeyNames;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.whitemagicsoftware.kmcaster.analytics.Journal.*;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Responsible for statistics gathered from a range of journal records.
+ * Ranges are scanned independently, on separate threads, and their
+ * statistics are merged. Keys are identified by an index into a label
+ * table shared by every journal being analysed.
+ * <p>
+ * A range pairs the presses within it with releases up to
+ * {@link #LOOKAHEAD} records past its end; a release whose press is in an
+ * earlier range is ignored, having been paired by that range. Likewise,
+ * the interval before a range's first press is measured by looking up to
+ * {@link #LOOKAHEAD} records before the range.
+ * </p>
+ */
+final class JournalStats {
+  /**
+   * Records examined beyond either end of a range.
+   */
+  static final int LOOKAHEAD = 4096;
+
+  /**
+   * Histogram bins, one per millisecond; the last bin counts longer times.
+   */
+  static final int HOLD_BINS = 1001;
+  static final int INTERVAL_BINS = 2001;
+
+  /**
+   * Intervals longer than this are pauses, which do not count as typing.
+   */
+  static final long PAUSE_MICROS = SECONDS.toMicros( 2 );
+
+  private static final long DAY_MICROS = SECONDS.toMicros( 86_400 );
+
+  /**
+   * Maximum number of keys held at once that are tracked.
+   */
+  private static final int HELD = 16;
+
+  private final int mKeys;
+  private final long[] mHoldSums;
+  private final long[] mHoldCounts;
+  private final long[] mHolds = new long[ HOLD_BINS ];
+  private final long[] mIntervals = new long[ INTERVAL_BINS ];
+  private final long[] mChords;
+
+  /**
+   * Presses and microseconds spent typing, keyed by day since the epoch.
+   */
+  private final Map<Long, long[]> mDays = new HashMap<>();
+
+  private long mEvents;
+
+  /**
+   * Creates empty statistics.
+   *
+   * @param keys Number of keys in the shared label table.
+   */
+  JournalStats( final int keys ) {
+    mKeys = keys;
+    mHoldSums = new long[ keys ];
+    mHoldCounts = new long[ keys ];
+    mChords = new long[ keys * KeyNames.MASKS ];
+  }
+
+  /**
+   * Scans a range of a journal's records.
+   *
+   * @param journal The journal to scan.
+   * @param first   Index of the range's first record.
+   * @param count   Number of records in the range.
+   * @param remap   Converts the journal's key identifiers to the shared
+   *                label table's.
+   * @param keys    Number of keys in the shared label table.
+   * @param offset  Seconds to add to times to convert them to local time.
+   * @return The range's statistics.
+   */
+  static JournalStats scan(
+    final Journal journal,
+    final long first,
+    final int count,
+    final int[] remap,
+    final int keys,
+    final int offset ) {
+    final var stats = new JournalStats( keys );
+    final var before = (int) Math.min( first, LOOKAHEAD );
+    final var after =
+      (int) Math.min( journal.getRecords() - first - count, LOOKAHEAD );
+
+    try {
+      final var buffer = journal.map( first - before, before + count + after );
+      stats.scan( buffer, before, count, after, remap, offset );
+    } catch( final IOException ex ) {
+      throw new UncheckedIOException( ex );
+    }
+
+    return stats;
+  }
+
+  private void scan(
+    final ByteBuffer buffer,
+    final int before,
+    final int count,
+    final int after,
+    final int[] remap,
+    final int offset ) {
+    final var heldCodes = new int[ HELD ];
+    final var heldTimes = new long[ HELD ];
+    final var heldKeys = new int[ HELD ];
+    final var zone = SECONDS.toMicros( offset );
+    var held = 0;
+    var previous = Long.MIN_VALUE;
+
+    // Find the last press before the range, for the first interval.
+    for( int r = before - 1; r >= 0; r-- ) {
+      if( buffer.get( r * RECORD_BYTES + OFFSET_TYPE ) == PRESS ) {
+        previous = buffer.getLong( r * RECORD_BYTES + OFFSET_TIME );
+        break;
+      }
+    }
+
+    var day = Long.MIN_VALUE;
+    long[] today = null;
+    final var end = before + count;
+
+    for( int r = before; r < end; r++ ) {
+      final var at = r * RECORD_BYTES;
+      final var time = buffer.getLong( at + OFFSET_TIME );
+      final var code = buffer.getInt( at + OFFSET_CODE );
+
+      if( buffer.get( at + OFFSET_TYPE ) == PRESS ) {
+        final var id = toKey( buffer.getShort( at + OFFSET_ID ), remap );
+        final var mask = buffer.get( at + OFFSET_MASK ) & (KeyNames.MASKS - 1);
+        final var d = Math.floorDiv( time + zone, DAY_MICROS );
+
+        if( d != day ) {
+          day = d;
+          today = mDays.computeIfAbsent( d, k -> new long[ 2 ] );
+        }
+
+        today[ 0 ]++;
+
+        if( previous != Long.MIN_VALUE ) {
+          final var interval = time - previous;
+
+          if( interval >= 0 && interval < PAUSE_MICROS ) {
+            today[ 1 ] += interval;
+          }
+
+          mIntervals[ bin( interval, INTERVAL_BINS ) ]++;
+        }
+
+        previous = time;
+        mChords[ id * KeyNames.MASKS + mask ]++;
+
+        // Forget the oldest held key if too many are held, such as when a
+        // release was not recorded.
+        if( held == HELD ) {
+          held = remove( heldCodes, heldTimes, heldKeys, held, 0 );
+        }
+
+        heldCodes[ held ] = code;
+        heldTimes[ held ] = time;
+        heldKeys[ held ] = id;
+        held++;
+      }
+      else {
+        held = release( heldCodes, heldTimes, heldKeys, held, code, time );
+      }
+    }
+
+    // Pair keys still held with releases after the range.
+    for( int r = end; r < end + after && held > 0; r++ ) {
+      final var at = r * RECORD_BYTES;
+
+      if( buffer.get( at + OFFSET_TYPE ) == RELEASE ) {
+        held = release(
+          heldCodes, heldTimes, heldKeys, held,
+          buffer.getInt( at + OFFSET_CODE ),
+          buffer.getLong( at + OFFSET_TIME ) );
+      }
+    }
+
+    mEvents += count;
+  }
+
+  private int release(
+    final int[] codes,
+    final long[] times,
+    final int[] keys,
+    final int held,
+    final int code,
+    final long time ) {
+    for( int i = 0; i < held; i++ ) {
+      if( codes[ i ] == code ) {
+        final var hold = time - times[ i ];
+
+        if( hold >= 0 ) {
+          mHoldSums[ keys[ i ] ] += hold;
+          mHoldCounts[ keys[ i ] ]++;
+          mHolds[ bin( hold, HOLD_BINS ) ]++;
+        }
+
+        return remove( codes, times, keys, held, i );
+      }
+    }
+
+    return held;
+  }
+
+  private static int remove(
+    final int[] codes,
+    final long[] times,
+    final int[] keys,
+    final int held,
+    final int i ) {
+    final var tail = held - i - 1;
+
+    System.arraycopy( codes, i + 1, codes, i, tail );
+    System.arraycopy( times, i + 1, times, i, tail );
+    System.arraycopy( keys, i + 1, keys, i, tail );
+
+    return held - 1;
+  }
+
+  private int toKey( final short id, final int[] remap ) {
+    final var i = Short.toUnsignedInt( id );
+    return i < remap.length ? remap[ i ] : KeyIds.OTHER;
+  }
+
+  /**
+   * Returns the millisecond histogram bin for the given duration.
+   */
+  private static int bin( final long micros, final int bins ) {
+    return (int) Math.min( MICROSECONDS.toMillis( Math.max( 0, micros ) ),
+                           bins - 1 );
+  }
+
+  /**
+   * Adds the given statistics to these statistics.
+   *
+   * @param other Statistics for the same label table.
+   * @return These statistics.
+   */
+  JournalStats merge( final JournalStats other ) {
+    assert other.mKeys == mKeys;
+
+    add( mHoldSums, other.mHoldSums );
+    add( mHoldCounts, other.mHoldCounts );
+    add( mHolds, other.mHolds );
+    add( mIntervals, other.mIntervals );
+    add( mChords, other.mChords );
+
+    other.mDays.forEach( ( day, counts ) -> {
+      final var mine = mDays.computeIfAbsent( day, k -> new long[ 2 ] );
+      mine[ 0 ] += counts[ 0 ];
+      mine[ 1 ] += counts[ 1 ];
+    } );
+
+    mEvents += other.mEvents;
+    return this;
+  }
+
+  private static void add( final long[] to, final long[] from ) {
+    for( int i = 0; i < to.length; i++ ) {
+      to[ i ] += from[ i ];
+    }
+  }
+
+  long getEvents() {
+    return mEvents;
+  }
+
+  long[] getHolds() {
+    return mHolds;
+  }
+
+  long[] getIntervals() {
+    return mIntervals;
+  }
+
+  /**
+   * Returns the mean time that the given key was held.
+   *
+   * @param key Index into the shared label table.
+   * @return Microseconds, or zero if the key's releases were not recorded.
+   */
+  long getMeanHold( final int key ) {
+    final var n = mHoldCounts[ key ];
+    return n == 0 ? 0 : mHoldSums[ key ] / n;
+  }
+
+  long getHoldCount( final int key ) {
+    return mHoldCounts[ key ];
+  }
+
+  long getChord( final int key, final int mask ) {
+    return mChords[ key * KeyNames.MASKS + mask ];
+  }
+
+  /**
+   * Returns the presses and time spent typing for each day.
+   *
+   * @return Two values, presses and microseconds, keyed by local day since
+   * the epoch.
+   */
+  Map<Long, long[]> getDays() {
+    return mDays;
+  }
+}
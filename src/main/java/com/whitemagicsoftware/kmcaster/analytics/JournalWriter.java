@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import com.whitemagicsoftware.kmcaster.listeners.KeyJournal;
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.whitemagicsoftware.kmcaster.analytics.Journal.*;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * Responsible for recording key presses and releases into a new
+ * {@link Journal} in a directory, one journal per session. Events are
+ * timestamped on the native hook thread and passed through a fixed-size
+ * ring buffer to a background thread, which appends all the queued events
+ * to the journal in one write. The background thread sleeps until the hook
+ * thread queues an event into an empty buffer.
+ */
+public final class JournalWriter implements KeyJournal {
+  private static final int CAPACITY = 8192;
+
+  private static final DateTimeFormatter FILE_NAME =
+    DateTimeFormatter.ofPattern( "'kmcaster-'yyyyMMdd-HHmmss'" +
+                                   EXTENSION + "'" );
+
+  private final Path mPath;
+  private final String[] mLabels = KeyIds.createLabels();
+  private final Map<String, Integer> mIds = KeyIds.createIndex( mLabels );
+
+  /**
+   * Converts {@link System#nanoTime()} values to microseconds since the
+   * epoch, so that intervals are measured with the monotonic clock.
+   */
+  private final long mEpochNanos =
+    MILLISECONDS.toNanos( System.currentTimeMillis() ) - System.nanoTime();
+
+  private final long[] mTimes = new long[ CAPACITY ];
+  private final int[] mCodes = new int[ CAPACITY ];
+  private final short[] mKeys = new short[ CAPACITY ];
+  private final byte[] mMasks = new byte[ CAPACITY ];
+  private final byte[] mTypes = new byte[ CAPACITY ];
+
+  /**
+   * Number of events queued, written by the hook thread only.
+   */
+  private volatile long mHead;
+
+  /**
+   * Number of events consumed, written by the journal thread only.
+   */
+  private volatile long mTail;
+
+  private volatile boolean mStopped;
+  private long mDropped;
+
+  private final Thread mThread;
+
+  /**
+   * Starts a new journal in the given directory.
+   *
+   * @param directory Where the session's journal is created.
+   */
+  public JournalWriter( final Path directory ) {
+    assert directory != null;
+
+    mPath = directory.resolve( FILE_NAME.format( LocalDateTime.now() ) );
+    mThread = new Thread( this::run, "kmcaster-journal" );
+    mThread.setDaemon( true );
+    mThread.start();
+
+    Runtime.getRuntime().addShutdownHook( new Thread( this::stop ) );
+  }
+
+  @Override
+  public void pressed( final int code, final String label, final int mask ) {
+    enqueue( PRESS, code, mIds.getOrDefault( label, KeyIds.OTHER ), mask );
+  }
+
+  @Override
+  public void released( final int code ) {
+    enqueue( RELEASE, code, KeyIds.OTHER, 0 );
+  }
+
+  private void enqueue(
+    final byte type, final int code, final int id, final int mask ) {
+    final var head = mHead;
+
+    if( head - mTail >= CAPACITY ) {
+      mDropped++;
+      return;
+    }
+
+    final var i = (int) (head & (CAPACITY - 1));
+    mTimes[ i ] = System.nanoTime();
+    mCodes[ i ] = code;
+    mKeys[ i ] = (short) id;
+    mMasks[ i ] = (byte) mask;
+    mTypes[ i ] = type;
+    mHead = head + 1;
+
+    // The journal thread parks once it finds the ring empty.
+    if( head == mTail ) {
+      LockSupport.unpark( mThread );
+    }
+  }
+
+  private void run() {
+    final var buffer = ByteBuffer
+      .allocateDirect( RECORD_BYTES * CAPACITY )
+      .order( LITTLE_ENDIAN );
+
+    // Releases are recorded with the identifier of the key that was
+    // pressed using the same code, so that they can be read on their own.
+    final var held = new HashMap<Integer, Short>();
+    final var start = NANOSECONDS.toMicros( mEpochNanos + System.nanoTime() );
+
+    try( final var channel = open( start ) ) {
+      while( true ) {
+        final var stopped = mStopped;
+        final var head = mHead;
+        var tail = mTail;
+
+        for( ; tail < head; tail++ ) {
+          final var i = (int) (tail & (CAPACITY - 1));
+          final var code = mCodes[ i ];
+          final var type = mTypes[ i ];
+          var id = mKeys[ i ];
+
+          if( type == PRESS ) {
+            held.put( code, id );
+          }
+          else {
+            final var pressed = held.remove( code );
+            id = pressed == null ? KeyIds.OTHER : pressed;
+          }
+
+          buffer.putLong( NANOSECONDS.toMicros( mEpochNanos + mTimes[ i ] ) );
+          buffer.putInt( code );
+          buffer.putShort( id );
+          buffer.put( mMasks[ i ] );
+          buffer.put( type );
+
+          if( !buffer.hasRemaining() ) {
+            write( channel, buffer );
+          }
+        }
+
+        mTail = tail;
+        write( channel, buffer );
+
+        if( stopped ) {
+          break;
+        }
+
+        // Events queued since the ring was read are written without
+        // parking, as enqueue may have seen the old tail and not unparked.
+        if( mHead == tail ) {
+          LockSupport.park( this );
+        }
+      }
+
+      Diagnostics.log( "Journal %s ended, %d events dropped", mPath, mDropped );
+    } catch( final IOException ex ) {
+      ex.printStackTrace();
+    }
+  }
+
+  private FileChannel open( final long start ) throws IOException {
+    Files.createDirectories( mPath.toAbsolutePath().getParent() );
+
+    final var channel = FileChannel.open( mPath, CREATE_NEW, WRITE );
+    final var header = Journal.createHeader( mLabels, start );
+
+    while( header.hasRemaining() ) {
+      channel.write( header );
+    }
+
+    return channel;
+  }
+
+  private static void write(
+    final FileChannel channel, final ByteBuffer buffer ) throws IOException {
+    buffer.flip();
+
+    while( buffer.hasRemaining() ) {
+      channel.write( buffer );
+    }
+
+    buffer.clear();
+  }
+
+  /**
+   * Writes the queued events, waiting briefly for the journal thread.
+   */
+  private void stop() {
+    mStopped = true;
+    LockSupport.unpark( mThread );
+
+    try {
+      mThread.join( SECONDS.toMillis( 2 ) );
+    } catch( final InterruptedException ex ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import com.whitemagicsoftware.kmcaster.keymap.KeyNames;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Responsible for counting key presses in a memory-mapped file, so that
+ * counts accumulate across sessions over weeks of use. Each key has a
+ * dense identifier from {@link KeyIds} and one counter for every
+ * combination of held modifiers:
+ * <pre>
+ * int    magic, "KMKC"
+ * int    version
+ * int    number of keys
+ * int    number of modifier bitmasks
+ * long   creation time, milliseconds since the epoch
+ * int    offset of the label table
+ * ...    zero padding to 64 bytes
+ * long   counters[ keys ][ masks ]
+ * label table: (short length, UTF-8 bytes) for each key
+ * </pre>
+ * <p>
+ * Values are little-endian. Counters are incremented atomically in the
+ * mapped pages without locks or allocation; the operating system writes
+ * the pages back to disk. A file written with different label tables is
+ * migrated, by label, when it is opened.
+ * </p>
+ */
+public final class KeyCounters {
+  private static final int MAGIC = 0x434B4D4B;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 64;
+  private static final int OFFSET_KEYS = 8;
+  private static final int OFFSET_MASKS = 12;
+  private static final int OFFSET_CREATED = 16;
+  private static final int OFFSET_LABELS = 24;
+
+  /**
+   * Most keys a valid file can have, far more than the keyboard listener's
+   * tables define, so that a damaged header cannot overflow the offsets.
+   */
+  private static final int MAX_KEYS = 1 << 16;
+
+  private static final VarHandle COUNTER =
+    MethodHandles.byteBufferViewVarHandle( long[].class, LITTLE_ENDIAN );
+
+  private final MappedByteBuffer mBuffer;
+  private final String[] mLabels;
+  private final Map<String, Integer> mIds;
+
+  private KeyCounters( final MappedByteBuffer buffer, final String[] labels ) {
+    mBuffer = buffer;
+    mLabels = labels;
+    mIds = KeyIds.createIndex( labels );
+  }
+
+  /**
+   * Maps the given counter file for reading and writing, creating it if it
+   * does not exist.
+   *
+   * @param path The counter file.
+   * @return The counters, ready to increment.
+   * @throws IOException Could not create, read, or map the file.
+   */
+  public static KeyCounters open( final Path path ) throws IOException {
+    final var labels = KeyIds.createLabels();
+
+    if( Files.exists( path ) ) {
+      final var existing = map( path, FileChannel.MapMode.READ_WRITE );
+
+      if( Arrays.equals( existing.mLabels, labels ) ) {
+        return existing;
+      }
+
+      migrate( existing, labels, path );
+    }
+    else {
+      create( path, labels, System.currentTimeMillis(), null );
+    }
+
+    return map( path, FileChannel.MapMode.READ_WRITE );
+  }
+
+  /**
+   * Maps the given counter file for reading only, such as while another
+   * process is incrementing its counters.
+   *
+   * @param path The counter file.
+   * @return The counters as they were written, identified by label.
+   * @throws IOException Could not read or map the file.
+   */
+  public static KeyCounters read( final Path path ) throws IOException {
+    return map( path, FileChannel.MapMode.READ_ONLY );
+  }
+
+  /**
+   * Counts a press of the given key while the given modifiers are held.
+   * This is safe to call from any thread.
+   *
+   * @param mask  The held modifiers from {@link KeyNames}.
+   * @param label The keyboard listener's label for the key.
+   */
+  public void increment( final int mask, final String label ) {
+    final int id = mIds.getOrDefault( label, KeyIds.OTHER );
+
+    COUNTER.getAndAdd( mBuffer, offset( id, mask ), 1L );
+  }
+
+  /**
+   * Returns the number of presses of the given key with the given modifiers.
+   *
+   * @param id   The key's identifier, less than {@link #size()}.
+   * @param mask The held modifiers from {@link KeyNames}.
+   * @return The number of presses counted.
+   */
+  public long get( final int id, final int mask ) {
+    return (long) COUNTER.getOpaque( mBuffer, offset( id, mask ) );
+  }
+
+  /**
+   * Returns the number of presses of the given key, regardless of the
+   * modifiers that were held.
+   *
+   * @param label The keyboard listener's label for the key.
+   * @return The number of presses counted, zero for unknown keys.
+   */
+  public long get( final String label ) {
+    final var id = mIds.get( KeyNames.fold( label ) );
+    var total = 0L;
+
+    if( id != null ) {
+      for( int mask = 0; mask < KeyNames.MASKS; mask++ ) {
+        total += get( id, mask );
+      }
+    }
+
+    return total;
+  }
+
+  /**
+   * Returns the number of presses of any key while the given modifier was
+   * held, whether or not other modifiers were also held.
+   *
+   * @param modifier A single modifier bit from {@link KeyNames}.
+   * @return The number of presses counted.
+   */
+  public long getModified( final int modifier ) {
+    var total = 0L;
+
+    for( int id = 0; id < mLabels.length; id++ ) {
+      for( int mask = 0; mask < KeyNames.MASKS; mask++ ) {
+        if( (mask & modifier) != 0 ) {
+          total += get( id, mask );
+        }
+      }
+    }
+
+    return total;
+  }
+
+  /**
+   * Returns the label of the key having the given identifier.
+   *
+   * @param id The key's identifier, less than {@link #size()}.
+   * @return The keyboard listener's label for the key.
+   */
+  public String getLabel( final int id ) {
+    return mLabels[ id ];
+  }
+
+  /**
+   * Returns the time that counting began.
+   *
+   * @return Milliseconds since the epoch.
+   */
+  public long getCreated() {
+    return mBuffer.getLong( OFFSET_CREATED );
+  }
+
+  /**
+   * Returns the number of keys that have counters.
+   *
+   * @return The number of key identifiers.
+   */
+  public int size() {
+    return mLabels.length;
+  }
+
+  private static int offset( final int id, final int mask ) {
+    return HEADER_BYTES + (id * KeyNames.MASKS + mask) * Long.BYTES;
+  }
+
+  private static KeyCounters map(
+    final Path path, final FileChannel.MapMode mode ) throws IOException {
+    final MappedByteBuffer buffer;
+    final var writable = mode == FileChannel.MapMode.READ_WRITE;
+
+    try( final var channel = writable
+      ? FileChannel.open( path, READ, WRITE )
+      : FileChannel.open( path, READ ) ) {
+      final var size = channel.size();
+
+      if( size < HEADER_BYTES || size > Integer.MAX_VALUE ) {
+        throw new IOException( "Invalid key counter file: " + path );
+      }
+
+      buffer = channel.map( mode, 0, size );
+    }
+
+    buffer.order( LITTLE_ENDIAN );
+
+    try {
+      if( buffer.getInt( 0 ) != MAGIC || buffer.getInt( 4 ) != VERSION ) {
+        throw new IOException( "Not a key counter file: " + path );
+      }
+
+      final var keys = buffer.getInt( OFFSET_KEYS );
+
+      // The counters must lie within the file, ending where the labels begin.
+      if( buffer.getInt( OFFSET_MASKS ) != KeyNames.MASKS ||
+        keys < 0 || keys > MAX_KEYS ||
+        buffer.getInt( OFFSET_LABELS ) != offset( keys, 0 ) ||
+        buffer.capacity() < offset( keys, 0 ) ) {
+        throw new IOException( "Invalid key counter file: " + path );
+      }
+
+      final var labels = new String[ keys ];
+      final var table = buffer.duplicate().order( LITTLE_ENDIAN );
+      table.position( offset( keys, 0 ) );
+
+      for( int i = 0; i < labels.length; i++ ) {
+        final var bytes = new byte[ Short.toUnsignedInt( table.getShort() ) ];
+        table.get( bytes );
+        labels[ i ] = new String( bytes, UTF_8 );
+      }
+
+      return new KeyCounters( buffer, labels );
+    } catch( final RuntimeException ex ) {
+      throw new IOException( "Invalid key counter file: " + path, ex );
+    }
+  }
+
+  /**
+   * Rewrites the file for the current label tables, carrying the counts of
+   * every key whose label is still known.
+   */
+  private static void migrate(
+    final KeyCounters existing, final String[] labels, final Path path )
+    throws IOException {
+    create( path, labels, existing.getCreated(), existing );
+  }
+
+  /**
+   * Writes a new counter file to a temporary file and moves it into place.
+   */
+  private static void create(
+    final Path path,
+    final String[] labels,
+    final long created,
+    final KeyCounters previous ) throws IOException {
+    final var counters = labels.length * KeyNames.MASKS * Long.BYTES;
+    var tableBytes = 0;
+
+    final var encoded = new byte[ labels.length ][];
+
+    for( int i = 0; i < labels.length; i++ ) {
+      encoded[ i ] = labels[ i ].getBytes( UTF_8 );
+      tableBytes += Short.BYTES + encoded[ i ].length;
+    }
+
+    final var buffer = ByteBuffer
+      .allocate( HEADER_BYTES + counters + tableBytes )
+      .order( LITTLE_ENDIAN );
+
+    buffer.putInt( MAGIC );
+    buffer.putInt( VERSION );
+    buffer.putInt( labels.length );
+    buffer.putInt( KeyNames.MASKS );
+    buffer.putLong( created );
+    buffer.putInt( HEADER_BYTES + counters );
+    buffer.position( HEADER_BYTES );
+
+    for( final var label : labels ) {
+      for( int mask = 0; mask < KeyNames.MASKS; mask++ ) {
+        buffer.putLong( previous == null ? 0 : previous.get( label, mask ) );
+      }
+    }
+
+    for( final var bytes : encoded ) {
+      buffer.putShort( (short) bytes.length );
+      buffer.put( bytes );
+    }
+
+    buffer.flip();
+
+    final var parent = path.toAbsolutePath().getParent();
+    Files.createDirectories( parent );
+
+    final var temp = parent.resolve( path.getFileName() + ".tmp" );
+    Files.deleteIfExists( temp );
+
+    try( final var channel = FileChannel.open( temp, CREATE_NEW, WRITE ) ) {
+      while( buffer.hasRemaining() ) {
+        channel.write( buffer );
+      }
+    }
+
+    Files.move( temp, path, REPLACE_EXISTING, ATOMIC_MOVE );
+  }
+
+  private long get( final String label, final int mask ) {
+    final var id = mIds.get( label );
+    return id == null ? 0 : get( id, mask );
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import com.whitemagicsoftware.kmcaster.keymap.KeyNames;
+import com.whitemagicsoftware.kmcaster.listeners.KeyboardListener;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Responsible for assigning dense identifiers to the keyboard listener's
+ * key labels, so that keys can index arrays and be packed into numbers.
+ * Identifiers are assigned in sorted label order, which does not depend on
+ * the iteration order of the listener's tables; files that store them also
+ * store the labels, so that they can be decoded by later versions.
+ */
+final class KeyIds {
+  /**
+   * Identifier for typed characters that are not in the label tables.
+   */
+  static final int OTHER = 0;
+  static final String OTHER_LABEL = "Other";
+
+  /**
+   * Returns the folded label of every key, indexed by identifier.
+   *
+   * @return A new array of labels.
+   */
+  static String[] createLabels() {
+    final var sorted = new TreeSet<String>();
+
+    for( final var label : KeyboardListener.regularLabels() ) {
+      sorted.add( KeyNames.fold( label ) );
+    }
+
+    // Digits are shown as typed, so they are absent from the tables.
+    for( char digit = '0'; digit <= '9'; digit++ ) {
+      sorted.add( String.valueOf( digit ) );
+    }
+
+    sorted.remove( OTHER_LABEL );
+
+    final var labels = new String[ sorted.size() + 1 ];
+    labels[ OTHER ] = OTHER_LABEL;
+
+    var i = OTHER + 1;
+
+    for( final var label : sorted ) {
+      labels[ i++ ] = label;
+    }
+
+    return labels;
+  }
+
+  /**
+   * Maps labels to their identifiers. Shifted letters are mapped to their
+   * key's identifier, so that labels need not be folded as they arrive.
+   *
+   * @param labels The labels indexed by identifier.
+   * @return The identifier of each label.
+   */
+  static Map<String, Integer> createIndex( final String[] labels ) {
+    final var ids = new HashMap<String, Integer>( labels.length * 2 );
+
+    for( int i = 0; i < labels.length; i++ ) {
+      ids.put( labels[ i ], i );
+    }
+
+    for( int i = 0; i < labels.length; i++ ) {
+      if( labels[ i ].length() == 1 ) {
+        ids.putIfAbsent( labels[ i ].toUpperCase( Locale.ROOT ), i );
+      }
+    }
+
+    return ids;
+  }
+
+  /**
+   * Private, empty constructor.
+   */
+  private KeyIds() {
+  }
+}
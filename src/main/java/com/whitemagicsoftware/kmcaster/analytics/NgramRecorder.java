@@ -0,0 +1,293 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.whitemagicsoftware.kmcaster.HardwareSwitch.KEY_ALT;
+import static com.whitemagicsoftware.kmcaster.HardwareSwitch.KEY_CTRL;
+import static com.whitemagicsoftware.kmcaster.HardwareSwitch.KEY_REGULAR;
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * Responsible for recording bigram and trigram statistics of typed keys
+ * into a file. Key presses arrive on the native hook thread and are passed
+ * through a fixed-size ring buffer to a background thread, which updates
+ * the {@link NgramStats} and saves them periodically and on exit. The hook
+ * thread only stores two primitives per press, waking the background thread
+ * when the buffer was empty; otherwise the background thread sleeps.
+ * <p>
+ * Keys pressed while Ctrl or Alt is held are shortcuts rather than typing,
+ * so they end the current sequence, as do pauses in typing. Auto-repeats
+ * are not counted.
+ * </p>
+ * <p>
+ * Statistics recorded with different key labels, such as by an older
+ * version, cannot be added to. That file is moved aside to a backup and
+ * recording starts afresh, so the old statistics are never overwritten.
+ * </p>
+ */
+public final class NgramRecorder implements PropertyChangeListener {
+  private static final int CAPACITY = 4096;
+
+  /**
+   * Marks the end of a sequence of consecutive keystrokes.
+   */
+  private static final int BREAK = -1;
+
+  /**
+   * Keys pressed after a longer pause do not continue the sequence.
+   */
+  private static final long PAUSE_NANOS = SECONDS.toNanos( 2 );
+  private static final long SAVE_NANOS = MINUTES.toNanos( 5 );
+
+  private static final String REGULAR = KEY_REGULAR.toString();
+  private static final String CTRL = KEY_CTRL.toString();
+  private static final String ALT = KEY_ALT.toString();
+
+  private final Path mPath;
+  private final Map<String, Integer> mIds =
+    KeyIds.createIndex( KeyIds.createLabels() );
+
+  private final int[] mKeys = new int[ CAPACITY ];
+  private final long[] mTimes = new long[ CAPACITY ];
+
+  /**
+   * Number of presses queued, written by the hook thread only.
+   */
+  private volatile long mHead;
+
+  /**
+   * Number of presses consumed, written by the recording thread only.
+   */
+  private volatile long mTail;
+
+  private volatile boolean mStopped;
+
+  /**
+   * Modifier states, accessed by the hook thread only.
+   */
+  private boolean mCtrl;
+  private boolean mAlt;
+  private long mDropped;
+
+  private final Thread mThread;
+
+  /**
+   * Starts recording into the given file, adding to any statistics that it
+   * already holds. The file is read in the background.
+   *
+   * @param path The statistics file.
+   */
+  public NgramRecorder( final Path path ) {
+    assert path != null;
+
+    mPath = path;
+    mThread = new Thread( this::run, "kmcaster-ngrams" );
+    mThread.setDaemon( true );
+    mThread.start();
+
+    Runtime.getRuntime().addShutdownHook( new Thread( this::stop ) );
+  }
+
+  /**
+   * Queues regular key presses. This is called on the native hook thread.
+   *
+   * @param e A keyboard state change.
+   */
+  @Override
+  public void propertyChange( final PropertyChangeEvent e ) {
+    final var name = e.getPropertyName();
+    final var n = e.getNewValue().toString();
+
+    if( REGULAR.equals( name ) ) {
+      if( !n.isEmpty() && !n.equals( e.getOldValue() ) ) {
+        enqueue( mCtrl || mAlt ? BREAK : mIds.getOrDefault( n, KeyIds.OTHER ) );
+      }
+    }
+    else if( CTRL.equals( name ) ) {
+      mCtrl = Boolean.parseBoolean( n );
+    }
+    else if( ALT.equals( name ) ) {
+      mAlt = Boolean.parseBoolean( n );
+    }
+  }
+
+  private void enqueue( final int id ) {
+    final var head = mHead;
+
+    // Presses are dropped, rather than blocking the hook, if the recording
+    // thread falls behind.
+    if( head - mTail >= CAPACITY ) {
+      mDropped++;
+      return;
+    }
+
+    final var i = (int) (head & (CAPACITY - 1));
+    mKeys[ i ] = id;
+    mTimes[ i ] = System.nanoTime();
+    mHead = head + 1;
+
+    // The recording thread parks once it finds the ring empty.
+    if( head == mTail ) {
+      LockSupport.unpark( mThread );
+    }
+  }
+
+  private void run() {
+    final NgramStats stats;
+
+    try {
+      final var existing = Files.exists( mPath )
+        ? NgramStats.read( mPath, true )
+        : new NgramStats();
+
+      stats = existing == null ? backUp() : existing;
+    } catch( final IOException ex ) {
+      // Do not overwrite statistics that could not be read.
+      ex.printStackTrace();
+      mStopped = true;
+      return;
+    }
+
+    final var window = new int[ NgramStats.MAX_LENGTH ];
+    var length = 0;
+    var previous = 0L;
+    var saved = System.nanoTime();
+    var dirty = false;
+
+    while( true ) {
+      final var stopped = mStopped;
+      final var head = mHead;
+      var tail = mTail;
+
+      for( ; tail < head; tail++ ) {
+        final var i = (int) (tail & (CAPACITY - 1));
+        final var id = mKeys[ i ];
+        final var time = mTimes[ i ];
+
+        if( id == BREAK || time - previous > PAUSE_NANOS ) {
+          length = 0;
+        }
+
+        previous = time;
+
+        if( id != BREAK ) {
+          System.arraycopy( window, 1, window, 0, window.length - 1 );
+          window[ window.length - 1 ] = id;
+          length = Math.min( length + 1, window.length );
+          stats.add( window, length );
+          dirty = true;
+        }
+      }
+
+      mTail = tail;
+
+      final var now = System.nanoTime();
+
+      if( dirty && (stopped || now - saved > SAVE_NANOS) ) {
+        save( stats );
+        saved = now;
+        dirty = false;
+      }
+
+      if( stopped ) {
+        break;
+      }
+
+      // Presses queued since the ring was read are consumed without
+      // parking, as enqueue may have seen the old tail and not unparked.
+      if( mHead == tail ) {
+        if( dirty ) {
+          LockSupport.parkNanos( this, saved + SAVE_NANOS - now );
+        }
+        else {
+          LockSupport.park( this );
+        }
+      }
+    }
+  }
+
+  /**
+   * Moves statistics recorded with different key labels to an unused
+   * backup file, so that recording afresh does not overwrite them.
+   *
+   * @return Empty statistics to record into.
+   * @throws IOException Could not move the file aside.
+   */
+  private NgramStats backUp() throws IOException {
+    final var name = mPath.getFileName() + ".bak";
+    var backup = mPath.resolveSibling( name );
+
+    for( int i = 1; Files.exists( backup ); i++ ) {
+      backup = mPath.resolveSibling( name + i );
+    }
+
+    Files.move( mPath, backup );
+    System.err.printf(
+      "N-gram statistics recorded with other keys moved to %s%n", backup );
+
+    return new NgramStats();
+  }
+
+  private void save( final NgramStats stats ) {
+    try {
+      final var started = System.nanoTime();
+
+      stats.write( mPath );
+
+      Diagnostics.log(
+        "Saved %d n-grams in %d ms, %d presses dropped", stats.getTotal(),
+        NANOSECONDS.toMillis( System.nanoTime() - started ), mDropped );
+    } catch( final IOException ex ) {
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+   * Saves the statistics, waiting briefly for the recording thread.
+   */
+  private void stop() {
+    mStopped = true;
+    LockSupport.unpark( mThread );
+
+    try {
+      mThread.join( SECONDS.toMillis( 2 ) );
+    } catch( final InterruptedException ex ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Responsible for bigram and trigram frequencies of typed keys, held in a
+ * fixed amount of memory however long keys are recorded. A count-min
+ * sketch estimates the frequency of any n-gram; a Space-Saving summary per
+ * n-gram length tracks the most frequent ones. An n-gram is packed into a
+ * number as 16 bits per {@link KeyIds} identifier, plus its length.
+ * <p>
+ * This is not thread-safe; updates must come from a single thread.
+ * </p>
+ */
+final class NgramStats {
+  private static final int MAGIC = 0x474E4D4B;
+  private static final int VERSION = 1;
+
+  static final int MIN_LENGTH = 2;
+  static final int MAX_LENGTH = 3;
+
+  private static final int ID_BITS = 16;
+  private static final int ID_MASK = (1 << ID_BITS) - 1;
+  private static final int LENGTH_SHIFT = ID_BITS * MAX_LENGTH;
+
+  /**
+   * Sketch dimensions: 4 rows of 16,384 counters take 512 KiB and bound the
+   * overcount of any n-gram to 0.017% of all n-grams, with 98% confidence.
+   */
+  private static final int DEPTH = 4;
+  private static final int WIDTH = 1 << 14;
+
+  /**
+   * Number of n-grams tracked per length.
+   */
+  private static final int CAPACITY = 1024;
+
+  /**
+   * An n-gram's label and its counts, for reporting.
+   */
+  static final class Entry {
+    private final String mText;
+    private final long mCount;
+    private final long mError;
+
+    private Entry( final String text, final long count, final long error ) {
+      mText = text;
+      mCount = count;
+      mError = error;
+    }
+
+    String getText() {
+      return mText;
+    }
+
+    long getCount() {
+      return mCount;
+    }
+
+    long getError() {
+      return mError;
+    }
+  }
+
+  private final String[] mLabels;
+  private final CountMinSketch mSketch = new CountMinSketch( DEPTH, WIDTH );
+  private final SpaceSaving[] mTop = new SpaceSaving[ MAX_LENGTH + 1 ];
+
+  NgramStats() {
+    this( KeyIds.createLabels() );
+  }
+
+  NgramStats( final String[] labels ) {
+    mLabels = labels;
+
+    for( int n = MIN_LENGTH; n <= MAX_LENGTH; n++ ) {
+      mTop[ n ] = new SpaceSaving( CAPACITY );
+    }
+  }
+
+  /**
+   * Counts the n-grams that end with the newest key.
+   *
+   * @param ids    Key identifiers, oldest first, ending with the newest.
+   * @param length Number of identifiers at the end of the array that are
+   *               consecutive keystrokes.
+   */
+  void add( final int[] ids, final int length ) {
+    for( int n = MIN_LENGTH; n <= Math.min( length, MAX_LENGTH ); n++ ) {
+      final var key = encode( ids, ids.length - n, n );
+
+      mSketch.add( key );
+      mTop[ n ].add( key );
+    }
+  }
+
+  /**
+   * Returns the estimated number of occurrences of the given keys in order.
+   *
+   * @param ids Key identifiers, between two and three of them.
+   * @return A count that is never less than the true count.
+   */
+  long estimate( final int[] ids ) {
+    final var key = encode( ids, 0, ids.length );
+    final var top = mTop[ ids.length ];
+    final var slot = top.find( key );
+    final var sketched = mSketch.estimate( key );
+
+    // Both estimates are upper bounds, so the smaller is closer.
+    return slot < 0 ? sketched : Math.min( sketched, top.getCount( slot ) );
+  }
+
+  /**
+   * Returns the most frequent n-grams of the given length.
+   *
+   * @param length The n-gram length, two or three.
+   * @param limit  Maximum number of n-grams to return.
+   * @return The n-grams, most frequent first.
+   */
+  List<Entry> top( final int length, final int limit ) {
+    final var top = mTop[ length ];
+    final var ranked = top.ranked();
+    final var entries =
+      new ArrayList<Entry>( Math.min( limit, ranked.length ) );
+
+    for( int i = 0; i < ranked.length && i < limit; i++ ) {
+      final var slot = ranked[ i ];
+
+      entries.add( new Entry(
+        toText( top.getKey( slot ) ), top.getCount( slot ),
+        top.getError( slot ) ) );
+    }
+
+    return entries;
+  }
+
+  /**
+   * Returns the number of n-grams of every length counted.
+   *
+   * @return The total count.
+   */
+  long getTotal() {
+    return mSketch.getTotal();
+  }
+
+  /**
+   * Returns the number of n-grams of the given length counted.
+   *
+   * @param length The n-gram length, two or three.
+   * @return The total count.
+   */
+  long getTotal( final int length ) {
+    return mTop[ length ].getTotal();
+  }
+
+  /**
+   * Returns the identifier of each label known to these statistics.
+   *
+   * @return A new map of labels to identifiers.
+   */
+  Map<String, Integer> createIndex() {
+    return KeyIds.createIndex( mLabels );
+  }
+
+  /**
+   * Writes the statistics to a temporary file and moves it into place, so
+   * that readers never see a partial file.
+   *
+   * @param path The file to create or replace.
+   * @throws IOException Could not write the file.
+   */
+  void write( final Path path ) throws IOException {
+    final var parent = path.toAbsolutePath().getParent();
+    Files.createDirectories( parent );
+
+    final var temp = Files.createTempFile(
+      parent, path.getFileName().toString(), ".tmp" );
+
+    try {
+      try( final var out = new DataOutputStream( new BufferedOutputStream(
+        Files.newOutputStream( temp ) ) ) ) {
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        out.writeInt( mSketch.getDepth() );
+        out.writeInt( mSketch.getWidth() );
+        out.writeInt( mLabels.length );
+
+        for( final var label : mLabels ) {
+          out.writeUTF( label );
+        }
+
+        mSketch.write( out );
+
+        for( int n = MIN_LENGTH; n <= MAX_LENGTH; n++ ) {
+          mTop[ n ].write( out );
+        }
+      }
+
+      Files.move( temp, path, REPLACE_EXISTING, ATOMIC_MOVE );
+    } finally {
+      Files.deleteIfExists( temp );
+    }
+  }
+
+  /**
+   * Reads statistics that were written by {@link #write(Path)}. Statistics
+   * written with different key labels cannot be converted, because the
+   * sketch's counters cannot be converted and the most frequent n-grams
+   * alone would undercount every other n-gram.
+   *
+   * @param path    The file to read.
+   * @param convert Whether to use the current key labels, otherwise the
+   *                file's labels are kept, such as for queries.
+   * @return The statistics, or {@code null} if converting and the labels
+   * differ.
+   * @throws IOException Could not read the file.
+   */
+  static NgramStats read( final Path path, final boolean convert )
+    throws IOException {
+    try( final var in = new DataInputStream( new BufferedInputStream(
+      Files.newInputStream( path ) ) ) ) {
+      if( in.readInt() != MAGIC || in.readInt() != VERSION ) {
+        throw new IOException( "Not an n-gram statistics file: " + path );
+      }
+
+      if( in.readInt() != DEPTH || in.readInt() != WIDTH ) {
+        throw new IOException( "Unsupported sketch dimensions: " + path );
+      }
+
+      final var stored = new String[ in.readInt() ];
+
+      for( int i = 0; i < stored.length; i++ ) {
+        stored[ i ] = in.readUTF();
+      }
+
+      final var current = convert ? KeyIds.createLabels() : stored;
+
+      if( !Arrays.equals( stored, current ) ) {
+        return null;
+      }
+
+      final var stats = new NgramStats( current );
+      stats.mSketch.read( in );
+
+      for( int n = MIN_LENGTH; n <= MAX_LENGTH; n++ ) {
+        stats.mTop[ n ].read( in );
+      }
+
+      return stats;
+    }
+  }
+
+  /**
+   * Packs identifiers into a key.
+   *
+   * @param ids    The identifiers.
+   * @param offset Index of the first identifier.
+   * @param length Number of identifiers, the n-gram length.
+   * @return The n-gram's key.
+   */
+  static long encode( final int[] ids, final int offset, final int length ) {
+    var key = (long) length << LENGTH_SHIFT;
+
+    for( int i = 0; i < length; i++ ) {
+      key |= (long) (ids[ offset + i ] & ID_MASK) << (ID_BITS * i);
+    }
+
+    return key;
+  }
+
+  /**
+   * Joins the labels of a key's identifiers, separated by spaces.
+   */
+  private String toText( final long key ) {
+    final var length = (int) (key >>> LENGTH_SHIFT);
+    final var text = new StringBuilder();
+
+    for( int i = 0; i < length; i++ ) {
+      final var id = (int) (key >>> (ID_BITS * i)) & ID_MASK;
+
+      if( i > 0 ) {
+        text.append( ' ' );
+      }
+
+      text.append( id < mLabels.length ? mLabels[ id ] : KeyIds.OTHER_LABEL );
+    }
+
+    return text.toString();
+  }
+}
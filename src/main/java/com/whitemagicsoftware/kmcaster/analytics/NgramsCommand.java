@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import com.whitemagicsoftware.kmcaster.Settings;
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Responsible for reporting bigram and trigram frequencies from a
+ * statistics file that was recorded using the {@code --ngrams} option.
+ */
+@CommandLine.Command(
+  name = "ngrams",
+  mixinStandardHelpOptions = true,
+  description = "Lists the most frequent recorded key sequences."
+)
+@SuppressWarnings( {"FieldMayBeFinal", "CanBeFinal"} )
+public final class NgramsCommand implements Callable<Integer> {
+  private static final String SPACE = "Space";
+
+  /**
+   * Provides the verbosity option.
+   */
+  @CommandLine.ParentCommand
+  private Settings mSettings;
+
+  @CommandLine.Parameters(
+    index = "0",
+    description = "Statistics file recorded using --ngrams",
+    paramLabel = "stats"
+  )
+  private Path mStats;
+
+  @CommandLine.Parameters(
+    index = "1..*",
+    description = "Sequences to estimate, one key per character",
+    paramLabel = "keys"
+  )
+  private List<String> mQueries = List.of();
+
+  @CommandLine.Option(
+    names = {"-n", "--length"},
+    description = "Sequence length, 2 or 3 (${DEFAULT-VALUE} keys)",
+    paramLabel = "keys",
+    defaultValue = "2"
+  )
+  private int mLength = 2;
+
+  @CommandLine.Option(
+    names = {"-t", "--top"},
+    description = "Number of sequences to list (${DEFAULT-VALUE})",
+    paramLabel = "count",
+    defaultValue = "20"
+  )
+  private int mTop = 20;
+
+  /**
+   * Invoked after the command-line arguments are parsed to print the
+   * frequencies.
+   *
+   * @return Exit level zero, or one if a query is not a valid sequence.
+   * @throws Exception Could not read the statistics.
+   */
+  @Override
+  public Integer call() throws Exception {
+    Diagnostics.setEnabled( mSettings.isVerbose() );
+
+    final var started = System.nanoTime();
+    final var stats = NgramStats.read( mStats, false );
+    final var length = Math.max(
+      NgramStats.MIN_LENGTH, Math.min( NgramStats.MAX_LENGTH, mLength ) );
+    final var total = stats.getTotal( length );
+
+    Diagnostics.log( "Read n-gram statistics in %d ms",
+                     NANOSECONDS.toMillis( System.nanoTime() - started ) );
+
+    if( mQueries.isEmpty() ) {
+      System.out.printf( "Most frequent %d-key sequences of %,d counted%n",
+                         length, total );
+
+      var rank = 0;
+
+      for( final var entry : stats.top( length, Math.max( 1, mTop ) ) ) {
+        System.out.printf(
+          "%4d  %-24s %,12d  %6.3f%%%s%n", ++rank, entry.getText(),
+          entry.getCount(), percent( entry.getCount(), total ),
+          entry.getError() > 0 ? format( "  (±%,d)", entry.getError() ) : ""
+        );
+      }
+
+      return 0;
+    }
+
+    final var ids = stats.createIndex();
+    var status = 0;
+
+    for( final var query : mQueries ) {
+      final var keys = query.codePoints().toArray();
+
+      if( keys.length < NgramStats.MIN_LENGTH ||
+        keys.length > NgramStats.MAX_LENGTH ) {
+        System.err.printf( "%s: expected 2 or 3 keys%n", query );
+        status = 1;
+        continue;
+      }
+
+      final var sequence = new int[ keys.length ];
+
+      for( int i = 0; i < keys.length; i++ ) {
+        final var label = keys[ i ] == ' ' ? SPACE : Character.toString(
+          keys[ i ] );
+        sequence[ i ] = ids.getOrDefault( label, KeyIds.OTHER );
+      }
+
+      final var count = stats.estimate( sequence );
+      final var share = percent( count, stats.getTotal( sequence.length ) );
+
+      System.out.printf( "%-24s %,12d  %6.3f%%%n",
+                         '"' + query + '"', count, share );
+    }
+
+    return status;
+  }
+
+  private static double percent( final long count, final long total ) {
+    return total == 0 ? 0 : count * 100.0 / total;
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.analytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Responsible for finding the most frequent keys in a stream using a fixed
+ * number of counters (the Space-Saving algorithm). When an untracked key
+ * arrives and every counter is in use, the key replaces the least frequent
+ * one and inherits its count, which is remembered as that key's maximum
+ * overcount. Any key occurring more than {@code total / capacity} times is
+ * guaranteed to be tracked.
+ * <p>
+ * Counters are kept in a min-heap, indexed by an open-addressing hash
+ * table, so each update takes logarithmic time and allocates nothing. This
+ * is not thread-safe; updates must come from a single thread.
+ * </p>
+ */
+final class SpaceSaving {
+  private static final int EMPTY = -1;
+
+  private final long[] mKeys;
+  private final long[] mCounts;
+  private final long[] mErrors;
+
+  /**
+   * Slot numbers ordered as a min-heap by count.
+   */
+  private final int[] mHeap;
+
+  /**
+   * Heap position of each slot.
+   */
+  private final int[] mPositions;
+
+  /**
+   * Hash table of slot numbers, keyed by the slot's key.
+   */
+  private final int[] mTable;
+  private int mSize;
+
+  /**
+   * Creates an empty summary.
+   *
+   * @param capacity Maximum number of keys tracked.
+   */
+  SpaceSaving( final int capacity ) {
+    assert capacity > 0;
+
+    mKeys = new long[ capacity ];
+    mCounts = new long[ capacity ];
+    mErrors = new long[ capacity ];
+    mHeap = new int[ capacity ];
+    mPositions = new int[ capacity ];
+    mTable = new int[ Integer.highestOneBit( capacity ) << 2 ];
+    Arrays.fill( mTable, EMPTY );
+  }
+
+  /**
+   * Counts one occurrence of the given key.
+   *
+   * @param key The key to count.
+   */
+  void add( final long key ) {
+    var slot = find( key );
+
+    if( slot == EMPTY ) {
+      if( mSize < mKeys.length ) {
+        slot = mSize;
+        mHeap[ slot ] = slot;
+        mPositions[ slot ] = slot;
+        mSize++;
+        mCounts[ slot ] = 0;
+        mErrors[ slot ] = 0;
+      }
+      else {
+        // Replace the least frequent key, inheriting its count.
+        slot = mHeap[ 0 ];
+        remove( mKeys[ slot ] );
+        mErrors[ slot ] = mCounts[ slot ];
+      }
+
+      mKeys[ slot ] = key;
+      insert( key, slot );
+      siftUp( mPositions[ slot ] );
+    }
+
+    mCounts[ slot ]++;
+    siftDown( mPositions[ slot ] );
+  }
+
+  /**
+   * Returns the number of keys tracked.
+   *
+   * @return At most the capacity.
+   */
+  int size() {
+    return mSize;
+  }
+
+  /**
+   * Returns the number of occurrences counted, which equals the sum of the
+   * tracked counts because a replaced key's count is inherited.
+   *
+   * @return The number of calls to {@link #add(long)}.
+   */
+  long getTotal() {
+    var total = 0L;
+
+    for( int slot = 0; slot < mSize; slot++ ) {
+      total += mCounts[ slot ];
+    }
+
+    return total;
+  }
+
+  /**
+   * Returns the tracked keys, most frequent first.
+   *
+   * @return The slot numbers, in descending order of count.
+   */
+  int[] ranked() {
+    final var slots = new Integer[ mSize ];
+
+    for( int i = 0; i < mSize; i++ ) {
+      slots[ i ] = i;
+    }
+
+    Arrays.sort(
+      slots, ( a, b ) -> Long.compare( mCounts[ b ], mCounts[ a ] ) );
+
+    return Arrays.stream( slots ).mapToInt( Integer::intValue ).toArray();
+  }
+
+  long getKey( final int slot ) {
+    return mKeys[ slot ];
+  }
+
+  long getCount( final int slot ) {
+    return mCounts[ slot ];
+  }
+
+  /**
+   * Returns the most that the given slot's count may exceed the true count.
+   *
+   * @param slot The slot number.
+   * @return The count inherited when the key replaced another.
+   */
+  long getError( final int slot ) {
+    return mErrors[ slot ];
+  }
+
+  /**
+   * Returns the slot of the given key.
+   *
+   * @param key The key to find.
+   * @return The slot number, or {@code -1} if the key is not tracked.
+   */
+  int find( final long key ) {
+    final var mask = mTable.length - 1;
+
+    for( int i = hash( key ) & mask; ; i = (i + 1) & mask ) {
+      final var slot = mTable[ i ];
+
+      if( slot == EMPTY || mKeys[ slot ] == key ) {
+        return slot;
+      }
+    }
+  }
+
+  void write( final DataOutput out ) throws IOException {
+    out.writeInt( mSize );
+
+    for( int slot = 0; slot < mSize; slot++ ) {
+      out.writeLong( mKeys[ slot ] );
+      out.writeLong( mCounts[ slot ] );
+      out.writeLong( mErrors[ slot ] );
+    }
+  }
+
+  /**
+   * Replaces the contents with entries written by {@link #write(DataOutput)}.
+   */
+  void read( final DataInput in ) throws IOException {
+    final var size = in.readInt();
+
+    Arrays.fill( mTable, EMPTY );
+    mSize = 0;
+
+    for( int i = 0; i < size; i++ ) {
+      final var key = in.readLong();
+      final var count = in.readLong();
+      final var error = in.readLong();
+
+      if( mSize < mKeys.length ) {
+        final var slot = mSize++;
+
+        mKeys[ slot ] = key;
+        mCounts[ slot ] = count;
+        mErrors[ slot ] = error;
+        mHeap[ slot ] = slot;
+        mPositions[ slot ] = slot;
+        insert( key, slot );
+        siftUp( slot );
+      }
+    }
+  }
+
+  private void insert( final long key, final int slot ) {
+    final var mask = mTable.length - 1;
+    var i = hash( key ) & mask;
+
+    while( mTable[ i ] != EMPTY ) {
+      i = (i + 1) & mask;
+    }
+
+    mTable[ i ] = slot;
+  }
+
+  /**
+   * Removes a key from the hash table, shifting later entries of its probe
+   * sequence back so that lookups need no tombstones.
+   */
+  private void remove( final long key ) {
+    final var mask = mTable.length - 1;
+    var i = hash( key ) & mask;
+
+    while( mKeys[ mTable[ i ] ] != key ) {
+      i = (i + 1) & mask;
+    }
+
+    var j = i;
+
+    while( true ) {
+      j = (j + 1) & mask;
+
+      final var slot = mTable[ j ];
+
+      if( slot == EMPTY ) {
+        break;
+      }
+
+      final var home = hash( mKeys[ slot ] ) & mask;
+
+      // Move the entry into the gap unless its home lies between the gap
+      // and its current position, cyclically.
+      if( ((j - home) & mask) >= ((j - i) & mask) ) {
+        mTable[ i ] = slot;
+        i = j;
+      }
+    }
+
+    mTable[ i ] = EMPTY;
+  }
+
+  private void siftUp( int pos ) {
+    final var slot = mHeap[ pos ];
+
+    while( pos > 0 ) {
+      final var parent = (pos - 1) >>> 1;
+
+      if( mCounts[ mHeap[ parent ] ] <= mCounts[ slot ] ) {
+        break;
+      }
+
+      place( pos, mHeap[ parent ] );
+      pos = parent;
+    }
+
+    place( pos, slot );
+  }
+
+  private void siftDown( int pos ) {
+    final var slot = mHeap[ pos ];
+
+    while( true ) {
+      var child = (pos << 1) + 1;
+
+      if( child >= mSize ) {
+        break;
+      }
+
+      if( child + 1 < mSize &&
+        mCounts[ mHeap[ child + 1 ] ] < mCounts[ mHeap[ child ] ] ) {
+        child++;
+      }
+
+      if( mCounts[ mHeap[ child ] ] >= mCounts[ slot ] ) {
+        break;
+      }
+
+      place( pos, mHeap[ child ] );
+      pos = child;
+    }
+
+    place( pos, slot );
+  }
+
+  private void place( final int pos, final int slot ) {
+    mHeap[ pos ] = slot;
+    mPositions[ slot ] = pos;
+  }
+
+  private static int hash( final long key ) {
+    final var h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
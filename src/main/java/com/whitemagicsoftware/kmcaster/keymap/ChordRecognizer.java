@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.keymap;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Responsible for following keystrokes through a {@link ChordTrie} to
+ * recognise bound chords. Each keystroke advances the match by one trie
+ * node, so recognition takes constant time per keystroke. A partially
+ * typed chord is abandoned if the next keystroke is too late or does not
+ * continue it, in which case the keystroke may begin a new chord.
+ * <p>
+ * The bindings can be replaced from any thread, such as once a keymap has
+ * been loaded in the background; keystrokes must be applied from a single
+ * thread.
+ * </p>
+ */
+public final class ChordRecognizer {
+  private final long mTimeout;
+
+  /**
+   * Bindings to recognise, replaced when a keymap is loaded.
+   */
+  private volatile ChordTrie mTrie = new ChordTrie();
+
+  /**
+   * Bindings that the current match is following.
+   */
+  private ChordTrie mMatching;
+
+  /**
+   * Node reached by the keystrokes typed so far, or {@code null}.
+   */
+  private ChordTrie.Node mNode;
+
+  /**
+   * Time of the previous keystroke.
+   */
+  private long mPrevious;
+
+  /**
+   * Creates a recognizer that abandons partial chords after the given
+   * number of milliseconds between keystrokes.
+   *
+   * @param timeout Milliseconds allowed between a chord's keystrokes.
+   */
+  public ChordRecognizer( final long timeout ) {
+    mTimeout = MILLISECONDS.toNanos( timeout );
+  }
+
+  /**
+   * Replaces the bindings to recognise.
+   *
+   * @param trie The bindings loaded from a keymap.
+   */
+  public void setBindings( final ChordTrie trie ) {
+    assert trie != null;
+
+    mTrie = trie;
+  }
+
+  /**
+   * Advances the match by one keystroke.
+   *
+   * @param mask  The held modifiers from {@link KeyNames}.
+   * @param label The key label from the keyboard listener.
+   * @param now   The keystroke time from {@link System#nanoTime()}.
+   * @return The action bound to the chord that this keystroke completes,
+   * or {@code null} if no chord was completed.
+   */
+  public String apply( final int mask, final String label, final long now ) {
+    final var trie = mTrie;
+    final var root = trie.getRoot();
+    final var folded = KeyNames.fold( label );
+
+    if( mMatching != trie || mNode == null || now - mPrevious > mTimeout ) {
+      mMatching = trie;
+      mNode = root;
+    }
+
+    mPrevious = now;
+
+    var next = mNode.next( mask, folded );
+
+    // A keystroke that breaks a partial chord may begin another chord.
+    if( next == null && mNode != root ) {
+      next = root.next( mask, folded );
+    }
+
+    if( next == null ) {
+      mNode = root;
+      return null;
+    }
+
+    mNode = next.isLeaf() ? root : next;
+
+    return next.getAction();
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.keymap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.whitemagicsoftware.kmcaster.keymap.KeyNames.MASKS;
+
+/**
+ * Responsible for storing key bindings as a trie of keystrokes. Each
+ * keystroke is a modifier bitmask and a key label; a path from the root
+ * spells a chord, such as "Ctrl+K Ctrl+C", and the node at its end holds
+ * the bound action's name. Following one keystroke is a single hash lookup
+ * followed by an array index, regardless of the number of bindings.
+ */
+public final class ChordTrie {
+  /**
+   * Receives each binding while the trie is traversed.
+   */
+  @FunctionalInterface
+  interface BindingVisitor {
+    /**
+     * Called for each bound chord. The arrays are only valid during the
+     * call.
+     *
+     * @param length Number of keystrokes in the chord.
+     * @param masks  Modifier bitmask of each keystroke.
+     * @param labels Folded key label of each keystroke.
+     * @param action The action's name.
+     */
+    void visit( int length, int[] masks, String[] labels, String action );
+  }
+
+  /**
+   * A keystroke prefix of one or more bindings.
+   */
+  public static final class Node {
+    /**
+     * Child nodes keyed by folded key label, indexed by modifier bitmask.
+     */
+    private Map<String, Node[]> mChildren;
+
+    /**
+     * Name of the action bound to the chord ending here, if any.
+     */
+    private String mAction;
+
+    /**
+     * Returns the node reached by the given keystroke.
+     *
+     * @param mask  The held modifiers from {@link KeyNames}.
+     * @param label The folded key label.
+     * @return The next node, or {@code null} if no binding continues so.
+     */
+    public Node next( final int mask, final String label ) {
+      final var children = mChildren;
+
+      if( children == null ) {
+        return null;
+      }
+
+      final var nodes = children.get( label );
+      return nodes == null ? null : nodes[ mask ];
+    }
+
+    /**
+     * Returns the action bound to the chord ending at this node.
+     *
+     * @return The action's name, or {@code null} if this is only a prefix.
+     */
+    public String getAction() {
+      return mAction;
+    }
+
+    /**
+     * Answers whether any longer chords begin with this node's chord.
+     *
+     * @return {@code true} if no binding continues from this node.
+     */
+    public boolean isLeaf() {
+      return mChildren == null;
+    }
+
+    private Node add( final int mask, final String label ) {
+      if( mChildren == null ) {
+        mChildren = new HashMap<>();
+      }
+
+      final var nodes =
+        mChildren.computeIfAbsent( label, k -> new Node[ MASKS ] );
+      final var node = nodes[ mask ];
+
+      return node == null ? nodes[ mask ] = new Node() : node;
+    }
+  }
+
+  private final Node mRoot = new Node();
+  private int mSize;
+
+  /**
+   * Binds the given chord to the given action, replacing any previous
+   * binding for the same chord.
+   *
+   * @param masks  Modifier bitmask of each keystroke.
+   * @param labels Folded key label of each keystroke.
+   * @param action The action's name.
+   */
+  public void put(
+    final int[] masks, final String[] labels, final String action ) {
+    assert masks.length == labels.length;
+    assert masks.length > 0;
+
+    var node = mRoot;
+
+    for( int i = 0; i < masks.length; i++ ) {
+      node = node.add( masks[ i ], labels[ i ] );
+    }
+
+    if( node.mAction == null ) {
+      mSize++;
+    }
+
+    node.mAction = action;
+  }
+
+  /**
+   * Visits every binding, depth first.
+   *
+   * @param visitor Receives each bound chord and its action.
+   */
+  void forEach( final BindingVisitor visitor ) {
+    visit( mRoot, 0, new int[ 4 ], new String[ 4 ], visitor );
+  }
+
+  private static void visit(
+    final Node node,
+    final int depth,
+    final int[] masks,
+    final String[] labels,
+    final BindingVisitor visitor ) {
+    if( node.mAction != null ) {
+      visitor.visit( depth, masks, labels, node.mAction );
+    }
+
+    if( node.mChildren == null ) {
+      return;
+    }
+
+    // Chords longer than the buffers are rare; grow them on demand.
+    final var grow = depth >= masks.length;
+    final var m = grow ? Arrays.copyOf( masks, depth * 2 ) : masks;
+    final var l = grow ? Arrays.copyOf( labels, depth * 2 ) : labels;
+
+    for( final var entry : node.mChildren.entrySet() ) {
+      final var nodes = entry.getValue();
+
+      for( int mask = 0; mask < nodes.length; mask++ ) {
+        if( nodes[ mask ] != null ) {
+          m[ depth ] = mask;
+          l[ depth ] = entry.getKey();
+          visit( nodes[ mask ], depth + 1, m, l, visitor );
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the node that every chord begins from.
+   *
+   * @return The root node.
+   */
+  public Node getRoot() {
+    return mRoot;
+  }
+
+  /**
+   * Returns the number of bound chords.
+   *
+   * @return The number of bindings.
+   */
+  public int size() {
+    return mSize;
+  }
+}
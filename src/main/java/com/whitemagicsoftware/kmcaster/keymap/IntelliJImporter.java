@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.keymap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * Responsible for streaming key bindings out of an IntelliJ keymap file,
+ * such as:
+ * <pre>
+ * &lt;keymap name="Custom"&gt;
+ *   &lt;action id="CommentByLineComment"&gt;
+ *     &lt;keyboard-shortcut first-keystroke="control K"
+ *                        second-keystroke="control C" /&gt;
+ *   &lt;/action&gt;
+ * &lt;/keymap&gt;
+ * </pre>
+ * <p>
+ * Elements are pulled one at a time, so large keymaps are read without
+ * building a document tree.
+ * </p>
+ */
+final class IntelliJImporter {
+  private static final String ACTION = "action";
+  private static final String SHORTCUT = "keyboard-shortcut";
+  private static final String ID = "id";
+  private static final String FIRST = "first-keystroke";
+  private static final String SECOND = "second-keystroke";
+
+  private static final XMLInputFactory sFactory = createFactory();
+
+  /**
+   * Reads every keyboard shortcut from the given stream into the trie.
+   *
+   * @param in   The keymap XML document.
+   * @param trie The bindings to add to.
+   * @throws IOException Could not read or parse the document.
+   */
+  static void read( final InputStream in, final ChordTrie trie )
+    throws IOException {
+    try {
+      final var reader = sFactory.createXMLStreamReader( in );
+
+      try {
+        read( reader, trie );
+      } finally {
+        reader.close();
+      }
+    } catch( final XMLStreamException ex ) {
+      throw new IOException( ex );
+    }
+  }
+
+  private static void read(
+    final XMLStreamReader reader, final ChordTrie trie )
+    throws XMLStreamException {
+    String action = null;
+
+    while( reader.hasNext() ) {
+      if( reader.next() != START_ELEMENT ) {
+        continue;
+      }
+
+      final var name = reader.getLocalName();
+
+      if( ACTION.equals( name ) ) {
+        final var id = reader.getAttributeValue( null, ID );
+        action = id == null ? null : Keymap.humanize( id );
+      }
+      else if( SHORTCUT.equals( name ) && action != null ) {
+        final var first = reader.getAttributeValue( null, FIRST );
+        final var second = reader.getAttributeValue( null, SECOND );
+
+        if( first != null ) {
+          final var chord = second == null
+            ? toStroke( first )
+            : toStroke( first ) + ' ' + toStroke( second );
+
+          Keymap.put( trie, chord, action );
+        }
+      }
+    }
+  }
+
+  /**
+   * Converts a Swing keystroke, such as "control shift pressed K", into
+   * the keymap notation, such as "control+shift+K".
+   */
+  private static String toStroke( final String keystroke ) {
+    final var stroke = new StringBuilder( keystroke.length() );
+
+    for( final var token : keystroke.strip().split( "\\s+" ) ) {
+      switch( token.toLowerCase( Locale.ROOT ) ) {
+        case "pressed", "released", "typed" -> {
+        }
+        default -> {
+          if( stroke.length() > 0 ) {
+            stroke.append( '+' );
+          }
+
+          stroke.append( token );
+        }
+      }
+    }
+
+    return stroke.toString();
+  }
+
+  private static XMLInputFactory createFactory() {
+    final var factory = XMLInputFactory.newFactory();
+
+    // Keymaps have no need for external entities or document types.
+    factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+    factory.setProperty(
+      XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+
+    return factory;
+  }
+
+  /**
+   * Private, empty constructor.
+   */
+  private IntelliJImporter() {
+  }
+}
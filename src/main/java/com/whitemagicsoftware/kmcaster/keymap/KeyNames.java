@@ -0,0 +1,217 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.keymap;
+
+import java.util.Locale;
+import java.util.Map;
+
+import static java.util.Map.entry;
+
+/**
+ * Responsible for converting key names used by editor keymaps into the
+ * labels that the keyboard listener produces, and for encoding held
+ * modifiers as a bitmask. Keymaps and keyboard events are both reduced to
+ * the same modifier bitmask and key label, so that they can be compared
+ * without further translation.
+ */
+public final class KeyNames {
+  public static final int CTRL = 1;
+  public static final int ALT = 1 << 1;
+  public static final int SHIFT = 1 << 2;
+
+  /**
+   * Number of distinct modifier bitmasks.
+   */
+  public static final int MASKS = 1 << 3;
+
+  /**
+   * Indicates a modifier, such as Meta, that the overlay does not show.
+   */
+  public static final int UNSUPPORTED = -1;
+
+  /**
+   * Maps lowercase key names, with spaces and underscores removed, to the
+   * keyboard listener's labels.
+   */
+  private static final Map<String, String> LABELS = Map.ofEntries(
+    entry( "enter", "Enter ⏎" ),
+    entry( "return", "Enter ⏎" ),
+    entry( "tab", "Tab ↔" ),
+    entry( "escape", "Esc" ),
+    entry( "esc", "Esc" ),
+    entry( "backspace", "Back ⌫" ),
+    entry( "space", "Space" ),
+    entry( "up", "↑" ),
+    entry( "down", "↓" ),
+    entry( "left", "←" ),
+    entry( "right", "→" ),
+    entry( "uparrow", "↑" ),
+    entry( "downarrow", "↓" ),
+    entry( "leftarrow", "←" ),
+    entry( "rightarrow", "→" ),
+    entry( "delete", "Del" ),
+    entry( "del", "Del" ),
+    entry( "insert", "Ins" ),
+    entry( "ins", "Ins" ),
+    entry( "home", "Home" ),
+    entry( "end", "End" ),
+    entry( "pageup", "PgUp" ),
+    entry( "pagedown", "PgDn" ),
+    entry( "pause", "Pause" ),
+    entry( "capslock", "Caps" ),
+    entry( "printscreen", "Print" ),
+    entry( "scrolllock", "Scrl" ),
+    entry( "numlock", "Num" ),
+    entry( "comma", "," ),
+    entry( "period", "." ),
+    entry( "slash", "/" ),
+    entry( "backslash", "\\" ),
+    entry( "semicolon", ";" ),
+    entry( "quote", "'" ),
+    entry( "backquote", "`" ),
+    entry( "minus", "-" ),
+    entry( "equals", "=" ),
+    entry( "openbracket", "[" ),
+    entry( "closebracket", "]" ),
+    entry( "plus", "+" ),
+    entry( "divide", "Num /" ),
+    entry( "multiply", "Num *" ),
+    entry( "add", "Num +" ),
+    entry( "subtract", "Num -" ),
+    entry( "decimal", "Num ." ),
+    entry( "numpaddivide", "Num /" ),
+    entry( "numpadmultiply", "Num *" ),
+    entry( "numpadadd", "Num +" ),
+    entry( "numpadsubtract", "Num -" ),
+    entry( "numpaddecimal", "Num ." )
+  );
+
+  /**
+   * Prefix for number pad digits, such as "NUMPAD5" or "numpad5".
+   */
+  private static final String NUMPAD = "numpad";
+
+  /**
+   * Returns the modifier bit for the given modifier name.
+   *
+   * @param name A modifier name, such as "Ctrl" or "control".
+   * @return The modifier's bit, or {@link #UNSUPPORTED} if the name is not
+   * a modifier that the overlay shows.
+   */
+  public static int toModifier( final String name ) {
+    return switch( name.toLowerCase( Locale.ROOT ) ) {
+      case "ctrl", "control" -> CTRL;
+      case "alt", "option" -> ALT;
+      case "shift" -> SHIFT;
+      default -> UNSUPPORTED;
+    };
+  }
+
+  /**
+   * Converts a key name from a keymap into the keyboard listener's label.
+   *
+   * @param name A key name, such as "K", "BACK_SPACE", or "pagedown".
+   * @return The equivalent label, folded by {@link #fold(String)}.
+   */
+  public static String toLabel( final String name ) {
+    final var key = name.toLowerCase( Locale.ROOT )
+      .replace( "_", "" )
+      .replace( " ", "" );
+    final var label = LABELS.get( key );
+
+    if( label != null ) {
+      return label;
+    }
+
+    if( key.startsWith( NUMPAD ) && isDigits( key, NUMPAD.length() ) ) {
+      return "Num " + key.substring( NUMPAD.length() );
+    }
+
+    // Function keys, such as F1 through F12.
+    if( key.charAt( 0 ) == 'f' && isDigits( key, 1 ) ) {
+      return key.toUpperCase( Locale.ROOT );
+    }
+
+    return fold( name );
+  }
+
+  /**
+   * Formats held modifiers and a key label as a chord, such as
+   * "Ctrl+Shift+T", in the order that the overlay shows modifiers.
+   *
+   * @param mask  The held modifiers.
+   * @param label A key label, which may be folded.
+   * @return The chord's name, or the label in capitals if no modifiers
+   * are held.
+   */
+  public static String toChord( final int mask, final String label ) {
+    final var chord = new StringBuilder( label.length() + 16 );
+
+    if( (mask & CTRL) != 0 ) {
+      chord.append( "Ctrl+" );
+    }
+
+    if( (mask & ALT) != 0 ) {
+      chord.append( "Alt+" );
+    }
+
+    if( (mask & SHIFT) != 0 ) {
+      chord.append( "Shift+" );
+    }
+
+    return chord.append(
+      label.length() == 1 ? label.toUpperCase( Locale.ROOT ) : label )
+      .toString();
+  }
+
+  /**
+   * Folds single-character labels to lowercase so that letters match
+   * regardless of whether Shift or Caps Lock changed their case.
+   *
+   * @param label A key label.
+   * @return The folded label, which may be the same instance.
+   */
+  public static String fold( final String label ) {
+    return label.length() == 1 ? label.toLowerCase( Locale.ROOT ) : label;
+  }
+
+  /**
+   * Answers whether the given text has one or more digits from the given
+   * index to its end.
+   */
+  private static boolean isDigits( final String text, final int index ) {
+    return text.length() > index &&
+      text.chars().skip( index ).allMatch( Character::isDigit );
+  }
+
+  /**
+   * Private, empty constructor.
+   */
+  private KeyNames() {
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.keymap;
+
+import com.whitemagicsoftware.kmcaster.util.CacheDir;
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Responsible for reading key bindings into a {@link ChordTrie}. Each line
+ * of a keymap file binds one chord to an action name, for example:
+ * <pre>
+ * # Comments and blank lines are ignored.
+ * Ctrl+K Ctrl+C = Comment line
+ * Ctrl+Shift+Up = Move line up
+ * </pre>
+ * <p>
+ * A chord is one or more keystrokes separated by spaces; each keystroke is
+ * zero or more modifiers followed by a key name, joined by plus signs.
+ * </p>
+ * <p>
+ * IntelliJ keymaps (.xml) and VS Code keybindings (.json) are imported
+ * too. Imported bindings are cached as a {@link KeymapIndex} named after
+ * the source file's digest, so later launches map the index instead of
+ * parsing the source again.
+ * </p>
+ */
+public final class Keymap {
+  private static final char ASSIGN = '=';
+  private static final char COMMENT = '#';
+
+  private static final String INDEX_EXTENSION = ".idx";
+
+  /**
+   * Loads the bindings from the given keymap file, using a cached index
+   * when one was built from a file with identical contents.
+   *
+   * @param path An IntelliJ keymap, VS Code keybindings, or keymap file.
+   * @return The bindings, keyed by chord.
+   * @throws IOException Could not read the file.
+   */
+  public static ChordTrie load( final Path path ) throws IOException {
+    final var digest = KeymapIndex.hash( path );
+    final var index = CacheDir.resolve( "keymaps" )
+      .resolve( CacheDir.toHex( digest ) + INDEX_EXTENSION );
+
+    if( Files.isRegularFile( index ) ) {
+      try {
+        final var trie = KeymapIndex.read( index, digest );
+
+        if( trie != null ) {
+          Diagnostics.log( "Mapped keymap index %s", index );
+          return trie;
+        }
+      } catch( final IOException ex ) {
+        Diagnostics.log( "Rebuilding keymap index: %s", ex.getMessage() );
+      }
+    }
+
+    final var trie = importFrom( path );
+
+    try {
+      KeymapIndex.write( trie, digest, index );
+    } catch( final IOException ex ) {
+      // The bindings are still usable; they will be imported next time.
+      Diagnostics.log( "Cannot cache keymap index: %s", ex.getMessage() );
+    }
+
+    return trie;
+  }
+
+  /**
+   * Reads the bindings from the given keymap file.
+   *
+   * @param path The keymap file to read.
+   * @return The bindings, keyed by chord.
+   * @throws IOException Could not read the file.
+   */
+  public static ChordTrie read( final Path path ) throws IOException {
+    final var trie = new ChordTrie();
+
+    try( final var reader = Files.newBufferedReader( path, UTF_8 ) ) {
+      read( reader, trie );
+    }
+
+    return trie;
+  }
+
+  private static ChordTrie importFrom( final Path path ) throws IOException {
+    final var name = path.getFileName().toString().toLowerCase( Locale.ROOT );
+
+    if( name.endsWith( ".xml" ) ) {
+      final var trie = new ChordTrie();
+
+      try( final var in = new BufferedInputStream(
+        Files.newInputStream( path ) ) ) {
+        IntelliJImporter.read( in, trie );
+      }
+
+      return trie;
+    }
+
+    if( name.endsWith( ".json" ) ) {
+      final var trie = new ChordTrie();
+
+      try( final var reader = Files.newBufferedReader( path, UTF_8 ) ) {
+        VsCodeImporter.read( reader, trie );
+      }
+
+      return trie;
+    }
+
+    return read( path );
+  }
+
+  private static void read(
+    final BufferedReader reader, final ChordTrie trie ) throws IOException {
+    String line;
+
+    while( (line = reader.readLine()) != null ) {
+      final var assign = line.lastIndexOf( ASSIGN );
+
+      if( line.isBlank() || line.strip().charAt( 0 ) == COMMENT ||
+        assign <= 0 ) {
+        continue;
+      }
+
+      final var action = line.substring( assign + 1 ).strip();
+
+      if( !action.isEmpty() ) {
+        put( trie, line.substring( 0, assign ), action );
+      }
+    }
+  }
+
+  /**
+   * Binds a chord written as text, such as "Ctrl+K Ctrl+C", to an action.
+   * Modifiers and key names are case-insensitive. Chords whose keystrokes
+   * lack a key name or use modifiers that the overlay does not show, such
+   * as Meta, are ignored.
+   *
+   * @param trie   The bindings to add to.
+   * @param chord  Keystrokes separated by spaces.
+   * @param action The action's name.
+   */
+  public static void put(
+    final ChordTrie trie, final String chord, final String action ) {
+    final var strokes = chord.strip().split( "\\s+" );
+    final var masks = new int[ strokes.length ];
+    final var labels = new String[ strokes.length ];
+
+    for( int i = 0; i < strokes.length; i++ ) {
+      final var stroke = strokes[ i ];
+
+      // A plus sign may be the key itself, as in "Ctrl++".
+      final int end;
+
+      if( stroke.endsWith( "++" ) ) {
+        end = stroke.length() - 2;
+      }
+      else if( stroke.length() == 1 ) {
+        end = -1;
+      }
+      else {
+        end = stroke.lastIndexOf( '+' );
+      }
+
+      final var key = end < 0 ? stroke : stroke.substring( end + 1 );
+
+      if( key.isEmpty() ) {
+        return;
+      }
+
+      var mask = 0;
+
+      if( end > 0 ) {
+        for( final var name : stroke.substring( 0, end ).split( "\\+" ) ) {
+          final var modifier = KeyNames.toModifier( name );
+
+          if( modifier == KeyNames.UNSUPPORTED ) {
+            return;
+          }
+
+          mask |= modifier;
+        }
+      }
+
+      masks[ i ] = mask;
+      labels[ i ] = KeyNames.toLabel( key );
+    }
+
+    trie.put( masks, labels, action );
+  }
+
+  /**
+   * Converts an editor's action identifier into a readable name, such as
+   * "editor.action.commentLine" or "$CommentByLineComment" into
+   * "Comment line" or "Comment by line comment". Runs of capitals, such
+   * as "HTML", are kept as written.
+   *
+   * @param id The action identifier.
+   * @return The action's name, or the identifier if it has no words.
+   */
+  static String humanize( final String id ) {
+    final var name = id.substring( id.lastIndexOf( '.' ) + 1 );
+    final var words = new StringBuilder( name.length() + 8 );
+    final var length = name.length();
+    var start = -1;
+
+    for( int i = 0; i <= length; i++ ) {
+      final var c = i < length ? name.charAt( i ) : ' ';
+      final var separator = !Character.isLetterOrDigit( c );
+
+      // A capital starts a word after a lowercase letter, as in "byLine",
+      // or before one when it ends an acronym, as in "HTMLFile".
+      final var boundary = separator || start >= 0 && i > start &&
+        Character.isUpperCase( c ) &&
+        (!Character.isUpperCase( name.charAt( i - 1 ) ) ||
+          i + 1 < length && Character.isLowerCase( name.charAt( i + 1 ) ));
+
+      if( boundary && start >= 0 ) {
+        appendWord( words, name.substring( start, i ) );
+        start = -1;
+      }
+
+      if( !separator && start < 0 ) {
+        start = i;
+      }
+    }
+
+    return words.length() == 0 ? id : words.toString();
+  }
+
+  private static void appendWord(
+    final StringBuilder words, final String word ) {
+    final var acronym = word.length() > 1 &&
+      word.equals( word.toUpperCase( Locale.ROOT ) );
+    final var text = acronym ? word : word.toLowerCase( Locale.ROOT );
+
+    if( words.length() == 0 ) {
+      words.append( Character.toUpperCase( text.charAt( 0 ) ) );
+      words.append( text, 1, text.length() );
+    }
+    else {
+      words.append( ' ' ).append( text );
+    }
+  }
+
+  /**
+   * Private, empty constructor.
+   */
+  private Keymap() {
+  }
+}
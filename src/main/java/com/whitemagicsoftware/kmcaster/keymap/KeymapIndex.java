@@ -0,0 +1,241 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.keymap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Responsible for storing a {@link ChordTrie} as a compact binary index
+ * that can be memory-mapped instead of importing the source keymap again.
+ * All values are big-endian:
+ * <pre>
+ * int    magic, "KMKI"
+ * int    version
+ * byte[] SHA-256 digest of the source keymap
+ * int    number of strings
+ * int    number of bindings
+ * string table: (short length, UTF-8 bytes) for each key label and action
+ * bindings:     byte keystrokes, (byte mask, int label)..., int action
+ * </pre>
+ * <p>
+ * Labels and actions are stored once in the string table and referenced
+ * by index, so an index is typically a fraction of its source's size.
+ * </p>
+ */
+final class KeymapIndex {
+  private static final int MAGIC = 0x4B4D4B49;
+  private static final int VERSION = 1;
+
+  private static final String DIGEST = "SHA-256";
+  private static final int DIGEST_LENGTH = 32;
+
+  /**
+   * Computes the digest that identifies a keymap's contents.
+   *
+   * @param source The keymap file.
+   * @return The SHA-256 digest of the file's bytes.
+   * @throws IOException Could not read the file.
+   */
+  static byte[] hash( final Path source ) throws IOException {
+    try( final var channel = FileChannel.open( source, READ ) ) {
+      final var digest = MessageDigest.getInstance( DIGEST );
+      final var buffer = ByteBuffer.allocate( 1 << 16 );
+
+      while( channel.read( buffer ) >= 0 ) {
+        buffer.flip();
+        digest.update( buffer );
+        buffer.clear();
+      }
+
+      return digest.digest();
+    } catch( final NoSuchAlgorithmException ex ) {
+      throw new IOException( ex );
+    }
+  }
+
+  /**
+   * Writes the given bindings to an index file. The index is written to a
+   * temporary file first so that readers never map a partial index.
+   *
+   * @param trie   The bindings to store.
+   * @param digest The source keymap's digest, from {@link #hash(Path)}.
+   * @param path   The index file to create or replace.
+   * @throws IOException Could not write the index.
+   */
+  static void write(
+    final ChordTrie trie, final byte[] digest, final Path path )
+    throws IOException {
+    assert digest.length == DIGEST_LENGTH;
+
+    final var strings = new ArrayList<String>();
+    final var indexes = new HashMap<String, Integer>();
+    final var bindings = new ArrayList<int[]>( trie.size() );
+
+    trie.forEach( ( length, masks, labels, action ) -> {
+      final var binding = new int[ length * 2 + 1 ];
+
+      for( int i = 0; i < length; i++ ) {
+        binding[ i * 2 ] = masks[ i ];
+        binding[ i * 2 + 1 ] = intern( labels[ i ], strings, indexes );
+      }
+
+      binding[ length * 2 ] = intern( action, strings, indexes );
+      bindings.add( binding );
+    } );
+
+    Files.createDirectories( path.getParent() );
+
+    final var temp = Files.createTempFile(
+      path.getParent(), path.getFileName().toString(), ".tmp" );
+
+    try {
+      try( final var out = new DataOutputStream( new BufferedOutputStream(
+        Files.newOutputStream( temp ) ) ) ) {
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        out.write( digest );
+        out.writeInt( strings.size() );
+        out.writeInt( bindings.size() );
+
+        for( final var s : strings ) {
+          final var bytes = s.getBytes( UTF_8 );
+          out.writeShort( bytes.length );
+          out.write( bytes );
+        }
+
+        for( final var binding : bindings ) {
+          out.writeByte( binding.length / 2 );
+
+          for( int i = 0; i < binding.length - 1; i += 2 ) {
+            out.writeByte( binding[ i ] );
+            out.writeInt( binding[ i + 1 ] );
+          }
+
+          out.writeInt( binding[ binding.length - 1 ] );
+        }
+      }
+
+      Files.move( temp, path, REPLACE_EXISTING, ATOMIC_MOVE );
+    } finally {
+      Files.deleteIfExists( temp );
+    }
+  }
+
+  /**
+   * Maps the given index file into memory and rebuilds its bindings.
+   *
+   * @param path   The index file to read.
+   * @param digest The digest that the index must have been built from.
+   * @return The bindings, or {@code null} if the index is for a different
+   * version or source.
+   * @throws IOException Could not read the index.
+   */
+  static ChordTrie read( final Path path, final byte[] digest )
+    throws IOException {
+    final ByteBuffer buffer;
+
+    try( final var channel = FileChannel.open( path, READ ) ) {
+      buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+    }
+
+    try {
+      if( buffer.getInt() != MAGIC || buffer.getInt() != VERSION ) {
+        return null;
+      }
+
+      final var stored = new byte[ DIGEST_LENGTH ];
+      buffer.get( stored );
+
+      if( !Arrays.equals( stored, digest ) ) {
+        return null;
+      }
+
+      final var strings = new String[ buffer.getInt() ];
+      final var count = buffer.getInt();
+
+      for( int i = 0; i < strings.length; i++ ) {
+        final var bytes = new byte[ Short.toUnsignedInt( buffer.getShort() ) ];
+        buffer.get( bytes );
+        strings[ i ] = new String( bytes, UTF_8 );
+      }
+
+      final var trie = new ChordTrie();
+
+      for( int i = 0; i < count; i++ ) {
+        final var length = buffer.get();
+        final var masks = new int[ length ];
+        final var labels = new String[ length ];
+
+        for( int j = 0; j < length; j++ ) {
+          masks[ j ] = buffer.get();
+          labels[ j ] = strings[ buffer.getInt() ];
+        }
+
+        trie.put( masks, labels, strings[ buffer.getInt() ] );
+      }
+
+      return trie;
+    } catch( final RuntimeException ex ) {
+      // Truncated or corrupted index; the caller will rebuild it.
+      throw new IOException( "Invalid keymap index: " + path, ex );
+    }
+  }
+
+  private static int intern(
+    final String s, final List<String> strings,
+    final Map<String, Integer> indexes ) {
+    return indexes.computeIfAbsent( s, k -> {
+      strings.add( k );
+      return strings.size() - 1;
+    } );
+  }
+
+  /**
+   * Private, empty constructor.
+   */
+  private KeymapIndex() {
+  }
+}
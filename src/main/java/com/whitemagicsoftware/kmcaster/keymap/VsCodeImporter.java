@@ -0,0 +1,293 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.keymap;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Responsible for streaming key bindings out of a VS Code keybindings
+ * file, such as:
+ * <pre>
+ * // Comments and trailing commas are permitted.
+ * [
+ *   { "key": "ctrl+k ctrl+c", "command": "editor.action.addCommentLine" },
+ * ]
+ * </pre>
+ * <p>
+ * The file is tokenized one character at a time; only the "key" and
+ * "command" members are kept, every other value is skipped without being
+ * stored. Commands prefixed with a minus sign remove a default binding and
+ * are ignored.
+ * </p>
+ */
+final class VsCodeImporter {
+  private static final String KEY = "key";
+  private static final String COMMAND = "command";
+
+  private static final int EOF = -1;
+
+  private final Reader mReader;
+  private final StringBuilder mText = new StringBuilder( 64 );
+
+  /**
+   * Character read ahead of the current position, or {@link #EOF}.
+   */
+  private int mPeek;
+  private int mLine = 1;
+
+  private VsCodeImporter( final Reader reader ) throws IOException {
+    mReader = reader;
+    mPeek = reader.read();
+  }
+
+  /**
+   * Reads every binding from the given keybindings file into the trie.
+   *
+   * @param reader The keybindings JSON document, ideally buffered.
+   * @param trie   The bindings to add to.
+   * @throws IOException Could not read or parse the document.
+   */
+  static void read( final Reader reader, final ChordTrie trie )
+    throws IOException {
+    new VsCodeImporter( reader ).read( trie );
+  }
+
+  private void read( final ChordTrie trie ) throws IOException {
+    expect( '[' );
+
+    while( true ) {
+      switch( skipBlanks() ) {
+        case ']' -> {
+          return;
+        }
+        case ',' -> advance();
+        case '{' -> readBinding( trie );
+        default -> skipValue();
+      }
+    }
+  }
+
+  private void readBinding( final ChordTrie trie ) throws IOException {
+    String key = null;
+    String command = null;
+
+    expect( '{' );
+
+    while( true ) {
+      final var c = skipBlanks();
+
+      if( c == '}' ) {
+        advance();
+        break;
+      }
+
+      if( c == ',' ) {
+        advance();
+        continue;
+      }
+
+      final var name = readString();
+      expect( ':' );
+
+      if( skipBlanks() == '"' && KEY.equals( name ) ) {
+        key = readString();
+      }
+      else if( skipBlanks() == '"' && COMMAND.equals( name ) ) {
+        command = readString();
+      }
+      else {
+        skipValue();
+      }
+    }
+
+    if( key != null && command != null && !command.startsWith( "-" ) ) {
+      Keymap.put( trie, key, Keymap.humanize( command ) );
+    }
+  }
+
+  /**
+   * Skips a string, number, literal, object, or array.
+   */
+  private void skipValue() throws IOException {
+    final var c = skipBlanks();
+
+    switch( c ) {
+      case '"' -> readString();
+      case '{', '[' -> {
+        final var close = c == '{' ? '}' : ']';
+        advance();
+
+        while( skipBlanks() != close ) {
+          switch( mPeek ) {
+            case ',', ':' -> advance();
+            case EOF -> throw error( "Unterminated " + (char) c );
+            default -> skipValue();
+          }
+        }
+
+        advance();
+      }
+      case EOF -> throw error( "Unexpected end of file" );
+      default -> {
+        if( isDelimiter( c ) ) {
+          throw error( "Unexpected '" + (char) c + "'" );
+        }
+
+        // Numbers and the literals true, false, and null.
+        while( mPeek != EOF && !isDelimiter( mPeek ) &&
+          !Character.isWhitespace( mPeek ) ) {
+          advance();
+        }
+      }
+    }
+  }
+
+  private String readString() throws IOException {
+    expect( '"' );
+    mText.setLength( 0 );
+
+    int c;
+
+    while( (c = advance()) != '"' ) {
+      if( c == EOF || c == '\n' ) {
+        throw error( "Unterminated string" );
+      }
+
+      if( c == '\\' ) {
+        c = advance();
+
+        switch( c ) {
+          case 'n' -> c = '\n';
+          case 't' -> c = '\t';
+          case 'r' -> c = '\r';
+          case 'b' -> c = '\b';
+          case 'f' -> c = '\f';
+          case 'u' -> {
+            var code = 0;
+
+            for( int i = 0; i < 4; i++ ) {
+              final var digit = Character.digit( advance(), 16 );
+
+              if( digit < 0 ) {
+                throw error( "Invalid escape" );
+              }
+
+              code = (code << 4) | digit;
+            }
+
+            c = code;
+          }
+          case EOF -> throw error( "Unterminated string" );
+          default -> {
+          }
+        }
+      }
+
+      mText.append( (char) c );
+    }
+
+    return mText.toString();
+  }
+
+  /**
+   * Skips whitespace and comments.
+   *
+   * @return The next significant character, which is not consumed.
+   */
+  private int skipBlanks() throws IOException {
+    while( true ) {
+      if( Character.isWhitespace( mPeek ) ) {
+        advance();
+      }
+      else if( mPeek == '/' ) {
+        advance();
+
+        if( mPeek == '/' ) {
+          while( mPeek != '\n' && mPeek != EOF ) {
+            advance();
+          }
+        }
+        else if( mPeek == '*' ) {
+          advance();
+
+          int prev = 0;
+
+          while( !(prev == '*' && mPeek == '/') ) {
+            if( mPeek == EOF ) {
+              throw error( "Unterminated comment" );
+            }
+
+            prev = advance();
+          }
+
+          advance();
+        }
+        else {
+          throw error( "Unexpected '/'" );
+        }
+      }
+      else {
+        return mPeek;
+      }
+    }
+  }
+
+  private void expect( final char expected ) throws IOException {
+    if( skipBlanks() != expected ) {
+      throw error( "Expected '" + expected + "'" );
+    }
+
+    advance();
+  }
+
+  /**
+   * Consumes the next character.
+   *
+   * @return The character that was consumed.
+   */
+  private int advance() throws IOException {
+    final var c = mPeek;
+
+    if( c == '\n' ) {
+      mLine++;
+    }
+
+    mPeek = mReader.read();
+    return c;
+  }
+
+  private static boolean isDelimiter( final int c ) {
+    return c == ',' || c == ':' || c == '{' || c == '}' || c == '[' ||
+      c == ']' || c == '"';
+  }
+
+  private IOException error( final String message ) {
+    return new IOException( message + " on line " + mLine );
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.listeners;
+
+import com.github.kwhat.jnativehook.keyboard.NativeKeyListener;
+import com.github.kwhat.jnativehook.mouse.NativeMouseListener;
+import com.github.kwhat.jnativehook.mouse.NativeMouseWheelListener;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.EventListener;
+import java.util.Map;
+import java.util.Set;
+
+import static com.github.kwhat.jnativehook.GlobalScreen.*;
+
+/**
+ * Responsible for registering native listeners with the global screen only
+ * while the features that need them are enabled, so that a hidden mouse
+ * does not receive or display button and wheel events. The native library
+ * delivers every event to the JVM regardless and each still costs a task on
+ * the dispatch thread; detaching a listener saves only its own processing,
+ * which is small next to that cost.
+ */
+public final class HookSubscriptions {
+  /**
+   * Enumerates the kinds of native events that can be subscribed.
+   */
+  public enum Hook {
+    KEYBOARD( NativeKeyListener.class ) {
+      @Override
+      void attach( final EventListener listener ) {
+        addNativeKeyListener( (NativeKeyListener) listener );
+      }
+
+      @Override
+      void detach( final EventListener listener ) {
+        removeNativeKeyListener( (NativeKeyListener) listener );
+      }
+    },
+    MOUSE_BUTTON( NativeMouseListener.class ) {
+      @Override
+      void attach( final EventListener listener ) {
+        addNativeMouseListener( (NativeMouseListener) listener );
+      }
+
+      @Override
+      void detach( final EventListener listener ) {
+        removeNativeMouseListener( (NativeMouseListener) listener );
+      }
+    },
+    MOUSE_WHEEL( NativeMouseWheelListener.class ) {
+      @Override
+      void attach( final EventListener listener ) {
+        addNativeMouseWheelListener( (NativeMouseWheelListener) listener );
+      }
+
+      @Override
+      void detach( final EventListener listener ) {
+        removeNativeMouseWheelListener( (NativeMouseWheelListener) listener );
+      }
+    };
+
+    private final Class<? extends EventListener> mType;
+
+    Hook( final Class<? extends EventListener> type ) {
+      mType = type;
+    }
+
+    abstract void attach( EventListener listener );
+
+    abstract void detach( EventListener listener );
+
+    private boolean accepts( final EventListener listener ) {
+      return mType.isInstance( listener );
+    }
+  }
+
+  /**
+   * Listeners that will receive events once their hook is subscribed.
+   */
+  private final Map<Hook, EventListener> mListeners =
+    new EnumMap<>( Hook.class );
+
+  /**
+   * Hooks whose listeners are currently attached to the global screen.
+   */
+  private final Set<Hook> mSubscribed = EnumSet.noneOf( Hook.class );
+
+  /**
+   * Associates a listener with a hook without attaching it. If the hook is
+   * already subscribed, the previous listener is replaced by the given one.
+   *
+   * @param hook     The type of native event to listen for.
+   * @param listener The listener to notify when the hook is subscribed.
+   * @throws IllegalArgumentException The listener cannot receive events
+   *                                  for the given hook.
+   */
+  public synchronized void register(
+    final Hook hook, final EventListener listener ) {
+    assert hook != null;
+    assert listener != null;
+
+    if( !hook.accepts( listener ) ) {
+      throw new IllegalArgumentException( hook.name() );
+    }
+
+    final var subscribed = isSubscribed( hook );
+
+    unsubscribe( hook );
+    mListeners.put( hook, listener );
+
+    if( subscribed ) {
+      subscribe( hook );
+    }
+  }
+
+  /**
+   * Attaches the listener for the given hook to the global screen. This has
+   * no effect if the hook is already subscribed or has no listener.
+   *
+   * @param hook The type of native event to start receiving.
+   */
+  public synchronized void subscribe( final Hook hook ) {
+    final var listener = mListeners.get( hook );
+
+    if( listener != null && mSubscribed.add( hook ) ) {
+      hook.attach( listener );
+    }
+  }
+
+  /**
+   * Detaches the listener for the given hook from the global screen. This has
+   * no effect if the hook is not subscribed.
+   *
+   * @param hook The type of native event to stop receiving.
+   */
+  public synchronized void unsubscribe( final Hook hook ) {
+    if( mSubscribed.remove( hook ) ) {
+      hook.detach( mListeners.get( hook ) );
+    }
+  }
+
+  /**
+   * Convenience method to subscribe or unsubscribe according to whether the
+   * feature that depends on the given hook is enabled.
+   *
+   * @param hook    The type of native event to start or stop receiving.
+   * @param enabled {@code true} to subscribe, {@code false} to unsubscribe.
+   */
+  public void setSubscribed( final Hook hook, final boolean enabled ) {
+    if( enabled ) {
+      subscribe( hook );
+    }
+    else {
+      unsubscribe( hook );
+    }
+  }
+
+  /**
+   * Answers whether the listener for the given hook is attached.
+   *
+   * @param hook The type of native event to check.
+   * @return {@code true} when the hook's events are being delivered.
+   */
+  public synchronized boolean isSubscribed( final Hook hook ) {
+    return mSubscribed.contains( hook );
+  }
+}
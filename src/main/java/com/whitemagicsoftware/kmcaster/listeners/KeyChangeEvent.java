@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.listeners;
+
+import com.whitemagicsoftware.kmcaster.keymap.KeyNames;
+
+import java.beans.PropertyChangeEvent;
+
+/**
+ * Responsible for reporting a regular key's change along with the modifiers
+ * that were physically held at the time. The overlay keeps showing released
+ * modifiers for a moment, so its display cannot tell which modifiers belong
+ * to a key press.
+ */
+public final class KeyChangeEvent extends PropertyChangeEvent {
+  private static final long serialVersionUID = 1L;
+
+  private final int mModifiers;
+
+  /**
+   * Constructs an event for a regular key.
+   *
+   * @param source    The object that fired the event.
+   * @param name      Name of the switch that changed.
+   * @param o         Previous key value.
+   * @param n         Current key value.
+   * @param modifiers The held modifiers as a bitmask of {@link KeyNames}
+   *                  values.
+   */
+  public KeyChangeEvent(
+    final Object source,
+    final String name,
+    final String o,
+    final String n,
+    final int modifiers ) {
+    super( source, name, o, n );
+    mModifiers = modifiers;
+  }
+
+  /**
+   * Returns the modifiers held when the key changed.
+   *
+   * @return A bitmask of {@link KeyNames} values.
+   */
+  public int getModifiers() {
+    return mModifiers;
+  }
+}
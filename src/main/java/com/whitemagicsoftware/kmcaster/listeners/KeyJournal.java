@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.listeners;
+
+/**
+ * Receives physical regular key presses and releases for recording. Both
+ * methods are called on the native hook thread, so they must return
+ * quickly and should not allocate.
+ */
+public interface KeyJournal {
+  /**
+   * Records nothing.
+   */
+  KeyJournal NONE = new KeyJournal() {
+    @Override
+    public void pressed( final int code, final String label, final int mask ) {
+    }
+
+    @Override
+    public void released( final int code ) {
+    }
+  };
+
+  /**
+   * Called when a regular key is pressed, excluding auto-repeats.
+   *
+   * @param code  The key's raw code, which identifies its release.
+   * @param label The keyboard listener's label for the key.
+   * @param mask  The held modifiers, using the keymap bitmask values.
+   */
+  void pressed( int code, String label, int mask );
+
+  /**
+   * Called when a regular key is released.
+   *
+   * @param code The key's raw code.
+   */
+  void released( int code );
+}
@@ -30,9 +30,11 @@ package com.whitemagicsoftware.kmcaster.listeners;
 import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
 import com.github.kwhat.jnativehook.keyboard.NativeKeyListener;
 import com.whitemagicsoftware.kmcaster.HardwareSwitch;
+import com.whitemagicsoftware.kmcaster.keymap.KeyNames;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -46,6 +48,12 @@ import static org.apache.commons.lang3.SystemUtils.IS_OS_WINDOWS;
 
 /**
  * Responsible for sending property change events for keyboard state changes.
+ * <p>
+ * A held key is auto-repeated by the operating system, which sends further
+ * presses without any intervening release. Those repeats are sent as a
+ * single change whose old and new values are both the key's value, rather
+ * than as a press and release for every repeat.
+ * </p>
  */
 public final class KeyboardListener
   extends PropertyDispatcher<HardwareSwitch>
@@ -56,6 +64,18 @@ public final class KeyboardListener
   private final static String KEY_ENTER = "Enter ⏎";
   private static final String KEY_ESCAPE = "Esc";
 
+  /**
+   * A second press of the same key without a release is an auto-repeat only
+   * if it arrives within this many milliseconds, which exceeds the longest
+   * typical repeat delay and guards against a missed release event.
+   */
+  private static final long REPEAT_INTERVAL_MS = 1000;
+
+  /**
+   * Raw code indicating that no regular key is held.
+   */
+  private static final int NO_KEY = -1;
+
   private final static Map<Character, String> CHAR_CODES =
     Map.ofEntries(
       entry( '\b', KEY_BACKSPACE ),
@@ -279,6 +299,37 @@ public final class KeyboardListener
    */
   private String mRegularHeld = "";
 
+  /**
+   * Raw code of the regular key that is physically held down.
+   */
+  private int mPressedCode = NO_KEY;
+
+  /**
+   * Time of the held key's most recent press or auto-repeat.
+   */
+  private long mPressedWhen;
+
+  /**
+   * Number of auto-repeats since the held key was pressed.
+   */
+  private int mRepeats;
+
+  /**
+   * Value sent for the held key's most recent auto-repeat.
+   */
+  private String mRepeatValue = "";
+
+  /**
+   * Notified on the hook thread when a regular key is pressed, excluding
+   * auto-repeats.
+   */
+  private Runnable mPressListener = () -> {};
+
+  /**
+   * Notified on the hook thread of regular key presses and releases.
+   */
+  private KeyJournal mJournal = KeyJournal.NONE;
+
   /**
    * Stores the state of modifier keys. The contents of the map reflect the
    * state of each switch, so the reference can be final but not its contents.
@@ -315,8 +366,13 @@ public final class KeyboardListener
         key = RAW_CODES.getOrDefault( e.getRawCode(), key );
       }
 
-      dispatchRegular( mRegularHeld, key );
-      dispatchRegular( key, "" );
+      if( mRepeats > 0 ) {
+        dispatchRepeat( key );
+      }
+      else {
+        dispatchRegular( mRegularHeld, key );
+        dispatchRegular( key, "" );
+      }
     }
   }
 
@@ -324,8 +380,19 @@ public final class KeyboardListener
   public void nativeKeyPressed( final NativeKeyEvent e ) {
     dispatchModifiers( e, TRUE );
 
-    if( e.isActionKey() && isRegular( e ) && IS_OS_WINDOWS ) {
-      dispatchRegular( mRegularHeld, translate( e ) );
+    if( isRegular( e ) ) {
+      trackRepeat( e );
+
+      if( e.isActionKey() && IS_OS_WINDOWS ) {
+        final var key = translate( e );
+
+        if( mRepeats > 0 ) {
+          dispatchRepeat( key );
+        }
+        else {
+          dispatchRegular( mRegularHeld, key );
+        }
+      }
     }
   }
 
@@ -333,11 +400,101 @@ public final class KeyboardListener
   public void nativeKeyReleased( final NativeKeyEvent e ) {
     dispatchModifiers( e, FALSE );
 
-    if( e.isActionKey() && isRegular( e ) && IS_OS_WINDOWS ) {
-      dispatchRegular( translate( e ), "" );
+    if( isRegular( e ) ) {
+      final var repeated = releaseRepeat( e );
+
+      mJournal.released( e.getRawCode() );
+
+      if( e.isActionKey() && IS_OS_WINDOWS ) {
+        dispatchRegular( translate( e ), "" );
+      }
+      else if( repeated ) {
+        // Typed keys were released after their first press, so the release
+        // of an auto-repeated key must be sent again to end its held state.
+        dispatchRegular( mRepeatValue, "" );
+      }
     }
   }
 
+  /**
+   * Recognises an auto-repeat as a press of the held key that arrives
+   * without a release, soon after the previous press.
+   *
+   * @param e The regular key press event.
+   */
+  private void trackRepeat( final NativeKeyEvent e ) {
+    final var code = e.getRawCode();
+    final var when = e.getWhen();
+
+    if( code == mPressedCode && when - mPressedWhen < REPEAT_INTERVAL_MS ) {
+      mRepeats++;
+    }
+    else {
+      mPressedCode = code;
+      mRepeats = 0;
+    }
+
+    mPressedWhen = when;
+  }
+
+  /**
+   * Stops tracking auto-repeats when the held key is released.
+   *
+   * @param e The regular key release event.
+   * @return {@code true} if the released key had auto-repeated.
+   */
+  private boolean releaseRepeat( final NativeKeyEvent e ) {
+    if( e.getRawCode() != mPressedCode ) {
+      return false;
+    }
+
+    final var repeated = mRepeats > 0;
+
+    mPressedCode = NO_KEY;
+    mRepeats = 0;
+
+    return repeated;
+  }
+
+  /**
+   * Sets the listener to notify when a regular key is pressed. The listener
+   * is called from the native hook thread, so it must return quickly.
+   *
+   * @param listener Notified of regular key presses, except auto-repeats.
+   */
+  public void setPressListener( final Runnable listener ) {
+    assert listener != null;
+
+    mPressListener = listener;
+  }
+
+  /**
+   * Sets the journal to notify when a regular key is pressed or released.
+   * The journal is called from the native hook thread.
+   *
+   * @param journal Records regular key presses, except auto-repeats, and
+   *                releases.
+   */
+  public void setJournal( final KeyJournal journal ) {
+    assert journal != null;
+
+    mJournal = journal;
+  }
+
+  /**
+   * Returns the labels for regular keys that are known in advance, which
+   * excludes typed characters that are not in the lookup tables.
+   *
+   * @return The text for regular key labels, without duplicates.
+   */
+  public static Set<String> regularLabels() {
+    final var labels = new LinkedHashSet<>( CHAR_CODES.values() );
+    labels.addAll( TRANSLATE.values() );
+    labels.addAll( RAW_CODES.values() );
+
+    return labels;
+  }
+
   private String translate( final NativeKeyEvent e ) {
     final var keyCode = e.getKeyCode();
     final var text = NativeKeyEvent.getKeyText( keyCode );
@@ -442,9 +599,39 @@ public final class KeyboardListener
     assert o != null;
     assert n != null;
 
-    // Always fire the event, which permits double-key taps.
-    fire( KEY_REGULAR, o, n );
+    // Always fire the event, which permits double-key taps. The held
+    // modifiers travel with it because the display may still show
+    // modifiers that have been released.
+    fire( new KeyChangeEvent(
+      getEventSource(), KEY_REGULAR.toString(), o, n, getModifierMask() ) );
     mRegularHeld = n;
+
+    if( !n.isEmpty() ) {
+      mPressListener.run();
+      mJournal.pressed( mPressedCode, n, getModifierMask() );
+    }
+  }
+
+  /**
+   * The held regular key has auto-repeated. The old and new values are the
+   * same, which distinguishes a repeat from a press.
+   *
+   * @param n Current key value.
+   */
+  private void dispatchRepeat( final String n ) {
+    assert n != null;
+
+    fire( KEY_REGULAR, n, n );
+    mRepeatValue = n;
+  }
+
+  /**
+   * Returns the held modifiers as a bitmask of {@link KeyNames} values.
+   */
+  private int getModifierMask() {
+    return (mModifiers.get( KEY_CTRL ) ? KeyNames.CTRL : 0) |
+      (mModifiers.get( KEY_ALT ) ? KeyNames.ALT : 0) |
+      (mModifiers.get( KEY_SHIFT ) ? KeyNames.SHIFT : 0);
   }
 
   private String getDisplayText( final char keyChar ) {
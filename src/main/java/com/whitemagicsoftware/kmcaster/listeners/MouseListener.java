@@ -28,7 +28,7 @@
 package com.whitemagicsoftware.kmcaster.listeners;
 
 import com.github.kwhat.jnativehook.mouse.NativeMouseEvent;
-import com.github.kwhat.jnativehook.mouse.NativeMouseInputListener;
+import com.github.kwhat.jnativehook.mouse.NativeMouseListener;
 import com.github.kwhat.jnativehook.mouse.NativeMouseWheelEvent;
 import com.github.kwhat.jnativehook.mouse.NativeMouseWheelListener;
 import com.whitemagicsoftware.kmcaster.HardwareSwitch;
@@ -43,11 +43,13 @@ import static com.whitemagicsoftware.kmcaster.HardwareSwitch.*;
 import static java.util.Map.entry;
 
 /**
- * Listens for all mouse events: clicks and mouse wheel scrolls.
+ * Listens for all mouse events: clicks and mouse wheel scrolls. Pointer
+ * motion is deliberately not handled, so no motion events are dispatched
+ * to or processed by this listener.
  */
 public final class MouseListener
   extends PropertyDispatcher<HardwareSwitch>
-  implements NativeMouseInputListener, NativeMouseWheelListener {
+  implements NativeMouseListener, NativeMouseWheelListener {
 
   private final static Map<Pair<Integer, Integer>, HardwareSwitch>
     SCROLL_CODES = Map.ofEntries(
@@ -147,22 +149,4 @@ public final class MouseListener
   @Override
   public void nativeMouseClicked( final NativeMouseEvent e ) {
   }
-
-  /**
-   * Unused.
-   *
-   * @param e Ignored.
-   */
-  @Override
-  public void nativeMouseMoved( final NativeMouseEvent e ) {
-  }
-
-  /**
-   * Unused.
-   *
-   * @param e Ignored.
-   */
-  @Override
-  public void nativeMouseDragged( final NativeMouseEvent e ) {
-  }
 }
@@ -77,14 +77,31 @@ public abstract class PropertyDispatcher<P> {
    * @param n New property value.
    */
   protected void fire( final P p, final String o, final String n ) {
-    final var pName = p.toString();
-    final var event = new PropertyChangeEvent( mDispatcher, pName, o, n );
+    fire( new PropertyChangeEvent( getEventSource(), p.toString(), o, n ) );
+  }
 
+  /**
+   * Sends the given event to every listener, regardless of its values.
+   *
+   * @param event The event to send, which may carry extra details. Its
+   *              source must be {@link #getEventSource()}.
+   */
+  protected void fire( final PropertyChangeEvent event ) {
     for( final var listener : mListeners ) {
       listener.propertyChange( event );
     }
   }
 
+  /**
+   * Returns the source of every event that this dispatcher fires, so that
+   * listeners see a single source for all its events.
+   *
+   * @return The source to use when creating events.
+   */
+  protected Object getEventSource() {
+    return mDispatcher;
+  }
+
   /**
    * Delegates to {@link #fire(P, String, String)} with {@link Boolean} values
    * as strings. If the old and new values are the same, this will not send
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.ui;
+
+import javax.swing.*;
+import java.awt.*;
+
+import static com.whitemagicsoftware.kmcaster.ui.Constants.COLOUR_KEY_UP;
+
+/**
+ * Responsible for briefly showing the name of the action bound to the most
+ * recently typed chord, such as "Comment line". The caption is as wide as
+ * the overlay and half the height of the reference component, so that it
+ * follows the overlay's zoom.
+ */
+public final class ActionCaption extends JPanel {
+  /**
+   * Milliseconds that an action name remains visible.
+   */
+  private static final int DISPLAY_MS = 2000;
+
+  private final Component mReference;
+  private final AutofitLabel mLabel;
+  private final Timer mTimer;
+
+  /**
+   * Creates a caption that is half the height of the given component.
+   *
+   * @param font      The font for the action name.
+   * @param reference The component whose preferred height is used.
+   */
+  public ActionCaption( final Font font, final Component reference ) {
+    super( null );
+    assert reference != null;
+
+    mReference = reference;
+    mLabel = new AutofitLabel( " ", font );
+    mLabel.setForeground( COLOUR_KEY_UP );
+    mLabel.setHorizontalAlignment( SwingConstants.CENTER );
+    mLabel.setVerticalAlignment( SwingConstants.CENTER );
+    mLabel.setVisible( false );
+
+    mTimer = new Timer( DISPLAY_MS, e -> mLabel.setVisible( false ) );
+    mTimer.setRepeats( false );
+
+    setOpaque( false );
+    add( mLabel );
+  }
+
+  /**
+   * Shows the given action name, replacing any name already shown. This
+   * must be called from Swing's event dispatch thread.
+   *
+   * @param action The name of the action bound to a typed chord.
+   */
+  public void setAction( final String action ) {
+    assert action != null;
+
+    mLabel.setText( action );
+    fit();
+    mLabel.setVisible( true );
+    mTimer.restart();
+  }
+
+  @Override
+  public Dimension getPreferredSize() {
+    return new Dimension( 0, mReference.getPreferredSize().height / 2 );
+  }
+
+  @Override
+  public void doLayout() {
+    mLabel.invalidateBounds();
+    fit();
+  }
+
+  private void fit() {
+    if( getWidth() > 0 && getHeight() > 0 ) {
+      mLabel.transform();
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.ui;
+
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+import com.whitemagicsoftware.kmcaster.util.Parkable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.lang.reflect.InvocationTargetException;
+
+import static java.awt.Toolkit.getDefaultToolkit;
+
+/**
+ * Responsible for compositing the entire frame into a back buffer and
+ * presenting it through a {@link BufferStrategy}, rather than relying on
+ * Swing's repaint machinery. A {@link FramePacer} thread requests at most
+ * one frame per frame period and ends while the application is parked.
+ * <p>
+ * The component tree is painted into the back buffer on Swing's event
+ * dispatch thread, where every component change is made, so a frame is
+ * never composited from a partially updated component tree. Only
+ * presenting the buffer happens on the render thread.
+ * </p>
+ */
+public final class ActiveRenderer implements Parkable {
+  private final JFrame mFrame;
+
+  /**
+   * Paces the frames, rendering them on its own thread.
+   */
+  private final FramePacer mPacer;
+
+  private BufferStrategy mStrategy;
+
+  /**
+   * Creates a renderer for the given frame, capped at the given rate.
+   *
+   * @param frame     The frame to render, which must be displayable.
+   * @param frameRate Maximum number of frames per second, at least one.
+   */
+  public ActiveRenderer( final JFrame frame, final int frameRate ) {
+    assert frame != null;
+
+    mFrame = frame;
+    mPacer = new FramePacer( this::render, frameRate );
+  }
+
+  /**
+   * Creates the back buffer and starts the render thread. This must be
+   * called from Swing's event dispatch thread after the frame is shown.
+   *
+   * @return {@code false} if the frame does not support a buffer strategy,
+   * in which case Swing continues to paint the frame.
+   */
+  public boolean start() {
+    try {
+      mFrame.createBufferStrategy( 2 );
+      mStrategy = mFrame.getBufferStrategy();
+    } catch( final Exception e ) {
+      Diagnostics.log( "Active rendering unavailable: %s", e.getMessage() );
+      return false;
+    }
+
+    // The back buffer replaces Swing's double buffering and OS repaints.
+    RepaintManager.currentManager( mFrame ).setDoubleBufferingEnabled( false );
+    mFrame.setIgnoreRepaint( true );
+
+    requestFrame();
+    return true;
+  }
+
+  /**
+   * Schedules a frame to be rendered. Multiple requests made before the
+   * next frame is rendered result in a single frame.
+   */
+  public void requestFrame() {
+    mPacer.requestFrame();
+  }
+
+  /**
+   * Ends the render thread once the requested frames are rendered.
+   */
+  @Override
+  public void park() {
+    mPacer.park();
+  }
+
+  /**
+   * Starts the render thread ahead of the frames that input will request.
+   */
+  @Override
+  public void wake() {
+    mPacer.wake();
+  }
+
+  /**
+   * Composites the frame into the back buffer on the event dispatch thread,
+   * then presents it. If the buffer's contents were lost, another frame is
+   * requested.
+   */
+  private void render() throws InterruptedException {
+    try {
+      SwingUtilities.invokeAndWait( this::paint );
+    } catch( final InvocationTargetException e ) {
+      e.getCause().printStackTrace();
+      return;
+    }
+
+    final var strategy = mStrategy;
+
+    strategy.show();
+    getDefaultToolkit().sync();
+
+    if( strategy.contentsLost() ) {
+      requestFrame();
+    }
+  }
+
+  /**
+   * Paints the component tree into the back buffer, repeating if the
+   * buffer's contents were restored while painting. This must be called
+   * from Swing's event dispatch thread.
+   */
+  private void paint() {
+    final var strategy = mStrategy;
+    final var frame = mFrame;
+    final var insets = frame.getInsets();
+
+    // Lay out components whose revalidation is still queued.
+    RepaintManager.currentManager( frame ).validateInvalidComponents();
+
+    do {
+      final var g = (Graphics2D) strategy.getDrawGraphics();
+
+      try {
+        g.setComposite( AlphaComposite.Src );
+        g.setColor( frame.getBackground() );
+        g.fillRect( 0, 0, frame.getWidth(), frame.getHeight() );
+        g.setComposite( AlphaComposite.SrcOver );
+        g.translate( insets.left, insets.top );
+        frame.getRootPane().paint( g );
+      } finally {
+        g.dispose();
+      }
+    }
+    while( strategy.contentsRestored() );
+  }
+}
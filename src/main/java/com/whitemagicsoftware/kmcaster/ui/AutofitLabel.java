@@ -37,12 +37,22 @@ import java.awt.geom.Rectangle2D;
  * Responsible for changing a {@link JLabel}'s font size, dynamically.
  */
 public final class AutofitLabel extends JLabel {
+  /**
+   * Measures text without any device transform, shared by all labels.
+   */
+  private static final FontRenderContext RENDER_CONTEXT =
+    new FontRenderContext( new AffineTransform(), true, true );
 
   /**
    * Lazily initialized to the parent's container's safe drawing area.
    */
   private Rectangle mParentBounds;
 
+  /**
+   * Draws the text from pre-rendered images, {@code null} to draw as usual.
+   */
+  private GlyphAtlas mGlyphAtlas;
+
   /**
    * Constructs an instance of {@link AutofitLabel} that can rescale itself
    * relative to either the parent {@link Container} or a given dimension.
@@ -55,6 +65,70 @@ public final class AutofitLabel extends JLabel {
     setFont( font );
   }
 
+  /**
+   * Draws this label's text using images from the given atlas instead of
+   * laying out and rendering the glyphs for every paint.
+   *
+   * @param atlas The atlas shared by all labels, or {@code null}.
+   */
+  public void setGlyphAtlas( final GlyphAtlas atlas ) {
+    mGlyphAtlas = atlas;
+  }
+
+  /**
+   * Adds this label's current text, font, and colour to its atlas, if any.
+   */
+  public void preshape() {
+    final var atlas = mGlyphAtlas;
+
+    if( atlas != null ) {
+      final var config = getGraphicsConfiguration();
+      final var scale = config == null
+        ? 1
+        : config.getDefaultTransform().getScaleX();
+
+      atlas.preshape( getText(), getFont(), getForeground(), scale );
+    }
+  }
+
+  /**
+   * Positions the text in the same way as the default label painter, then
+   * copies it from the atlas. Text that would be truncated, or that the
+   * atlas cannot draw with the context's transform, is painted as usual.
+   *
+   * @param g The graphics context to draw on.
+   */
+  @Override
+  protected void paintComponent( final Graphics g ) {
+    final var atlas = mGlyphAtlas;
+    final var text = getText();
+
+    if( atlas == null || text == null || text.isEmpty() ) {
+      super.paintComponent( g );
+      return;
+    }
+
+    final var metrics = getFontMetrics( getFont() );
+    final var insets = getInsets();
+    final var view = new Rectangle(
+      insets.left, insets.top,
+      getWidth() - (insets.left + insets.right),
+      getHeight() - (insets.top + insets.bottom) );
+    final var icon = new Rectangle();
+    final var bounds = new Rectangle();
+    final var clipped = SwingUtilities.layoutCompoundLabel(
+      this, metrics, text, null,
+      getVerticalAlignment(), getHorizontalAlignment(),
+      getVerticalTextPosition(), getHorizontalTextPosition(),
+      view, icon, bounds, 0 );
+
+    if( !text.equals( clipped ) || !atlas.draw(
+      g, text, getFont(), getForeground(),
+      bounds.x, bounds.y + metrics.getAscent() ) ) {
+      super.paintComponent( g );
+    }
+  }
+
   /**
    * Scales the dimensions of the label to fit within the given width and
    * height, while maintaining the aspect ratio; relocates the label relative
@@ -120,6 +194,14 @@ public final class AutofitLabel extends JLabel {
     transform( bounds.width, bounds.height );
   }
 
+  /**
+   * Discards the cached parent bounds so that the next transformation fits
+   * the label to its parent's current size, such as after zooming.
+   */
+  public void invalidateBounds() {
+    mParentBounds = null;
+  }
+
   private Font computeScaledFontNew() {
     final var font = getFont();
     final var text = getText();
@@ -127,6 +209,15 @@ public final class AutofitLabel extends JLabel {
     // Without the - 1 the word Esc fails to appear.
     final var dstWidthPx = getWidth() - 1;
     final var dstHeightPx = getHeight();
+    final var fonts = FontCache.getShared();
+
+    // The current font's extents do not change while shrinking.
+    final var oldExtents = getTextExtents( text, font );
+    final var widthText = oldExtents.getWidth();
+    final var widthRatio = dstWidthPx / widthText;
+    final var widthFontSizeNew = (int) (font.getSize() * widthRatio);
+    final var widthFontSizeNorm =
+      (float) Math.min( widthFontSizeNew, dstHeightPx );
 
     float shrink = 0;
 
@@ -134,26 +225,18 @@ public final class AutofitLabel extends JLabel {
     Font newFont;
 
     do {
-      final var oldExtents = getTextExtents( text, font );
-      final var widthText = oldExtents.getWidth();
-      final var widthRatio = dstWidthPx / widthText;
-      final var widthFontSizeNew = (int) (font.getSize() * widthRatio);
-      final var widthFontSizeNorm =
-        (float) Math.min( widthFontSizeNew, dstHeightPx );
-
-      newFont = font.deriveFont( widthFontSizeNorm - shrink );
+      newFont = fonts.derive( font, widthFontSizeNorm - shrink );
       newExtents = getTextExtents( text, newFont );
       shrink++;
     }
-    while( newExtents.getHeight() > dstHeightPx );
+    while( newExtents.getHeight() > dstHeightPx &&
+      widthFontSizeNorm - shrink >= 1 );
 
     return newFont;
   }
 
   private Rectangle2D getTextExtents( final String text, final Font font ) {
-    final var transform = new AffineTransform();
-    final var context = new FontRenderContext( transform, true, true );
-    return font.getStringBounds( text, context );
+    return font.getStringBounds( text, RENDER_CONTEXT );
   }
 
   /**
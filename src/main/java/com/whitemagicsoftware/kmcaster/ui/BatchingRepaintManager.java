@@ -0,0 +1,256 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.ui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static java.awt.Toolkit.getDefaultToolkit;
+import static javax.swing.SwingUtilities.convertRectangle;
+import static javax.swing.SwingUtilities.getRootPane;
+
+/**
+ * Responsible for collecting the dirty regions of all component changes
+ * made during an update transaction, then issuing a single repaint request
+ * for the union of those regions per window. Outside a transaction, repaint
+ * requests are passed through unchanged.
+ * <p>
+ * Counts of requested and issued repaints are kept so that the effect of
+ * batching can be reported.
+ * </p>
+ * <p>
+ * When an {@link ActiveRenderer} is set, dirty regions are not painted by
+ * Swing; instead, a frame is requested from the renderer, which paints it on
+ * the event dispatch thread after the transaction ends.
+ * </p>
+ */
+public final class BatchingRepaintManager extends RepaintManager {
+  /**
+   * Union of dirty regions, in root pane coordinates, for each window.
+   */
+  private final Map<JRootPane, Rectangle> mPending = new IdentityHashMap<>();
+
+  /**
+   * Greater than zero while a transaction is open, supports nesting.
+   */
+  private int mDepth;
+
+  /**
+   * Paints the frame when set, otherwise Swing paints dirty regions.
+   */
+  private volatile ActiveRenderer mActiveRenderer;
+
+  /**
+   * Set when a component changed during a transaction in active mode.
+   */
+  private boolean mFrameDirty;
+
+  /**
+   * Number of dirty regions requested by components.
+   */
+  private long mRequested;
+
+  /**
+   * Number of dirty regions submitted to Swing for painting.
+   */
+  private long mIssued;
+
+  /**
+   * Number of times that the dirty regions have been painted.
+   */
+  private long mPaints;
+
+  /**
+   * Creates a new manager and makes it the current manager for all
+   * components. This must be called from Swing's event dispatch thread.
+   *
+   * @return The manager that was installed.
+   */
+  public static BatchingRepaintManager install() {
+    final var manager = new BatchingRepaintManager();
+    setCurrentManager( manager );
+    return manager;
+  }
+
+  /**
+   * Runs the given update in a transaction: component changes made by the
+   * update are collected and repainted together afterwards. This must be
+   * called from Swing's event dispatch thread.
+   *
+   * @param update The code that changes components.
+   */
+  public void batch( final Runnable update ) {
+    mDepth++;
+
+    try {
+      update.run();
+    } finally {
+      if( --mDepth == 0 ) {
+        commit();
+      }
+    }
+  }
+
+  /**
+   * Delegates painting to the given renderer, or back to Swing.
+   *
+   * @param renderer The renderer that composites frames, or {@code null}.
+   */
+  public void setActiveRenderer( final ActiveRenderer renderer ) {
+    mActiveRenderer = renderer;
+  }
+
+  @Override
+  public void addDirtyRegion(
+    final JComponent c, final int x, final int y, final int w, final int h ) {
+    mRequested++;
+
+    if( requestFrame() ) {
+      return;
+    }
+
+    final var root = mDepth > 0 ? getRootPane( c ) : null;
+
+    if( root == null || w <= 0 || h <= 0 ) {
+      issue( c, x, y, w, h );
+    }
+    else {
+      final var r = convertRectangle( c, new Rectangle( x, y, w, h ), root );
+
+      mPending.merge( root, r, Rectangle::union );
+    }
+  }
+
+  /**
+   * Routes repaints of a whole window, such as {@link JFrame#repaint()}, to
+   * the active renderer, which would otherwise be painted by Swing onto the
+   * window instead of into the renderer's back buffer.
+   */
+  @Override
+  public void addDirtyRegion(
+    final Window window, final int x, final int y, final int w, final int h ) {
+    mRequested++;
+
+    if( !requestFrame() ) {
+      mIssued++;
+      super.addDirtyRegion( window, x, y, w, h );
+    }
+  }
+
+  /**
+   * Paints all dirty regions then flushes the graphics pipeline once, rather
+   * than once per event.
+   */
+  @Override
+  public void paintDirtyRegions() {
+    mPaints++;
+    super.paintDirtyRegions();
+    getDefaultToolkit().sync();
+  }
+
+  /**
+   * Returns the number of dirty regions that components have requested.
+   *
+   * @return The number of repaint requests before batching.
+   */
+  public long getRequested() {
+    return mRequested;
+  }
+
+  /**
+   * Returns the number of dirty regions submitted for painting.
+   *
+   * @return The number of repaint requests after batching.
+   */
+  public long getIssued() {
+    return mIssued;
+  }
+
+  /**
+   * Returns the number of times that dirty regions were painted.
+   *
+   * @return The number of paint passes.
+   */
+  public long getPaints() {
+    return mPaints;
+  }
+
+  /**
+   * Issues one repaint request per window for the union of all dirty regions
+   * collected during the transaction.
+   */
+  private void commit() {
+    final var renderer = mActiveRenderer;
+
+    if( renderer != null && mFrameDirty ) {
+      mIssued++;
+      renderer.requestFrame();
+    }
+
+    mFrameDirty = false;
+
+    for( final var entry : mPending.entrySet() ) {
+      final var r = entry.getValue();
+      issue( entry.getKey(), r.x, r.y, r.width, r.height );
+    }
+
+    mPending.clear();
+  }
+
+  /**
+   * Requests a frame from the active renderer, if set, deferring the request
+   * until the end of an open transaction.
+   *
+   * @return {@code false} if Swing must paint the dirty region.
+   */
+  private boolean requestFrame() {
+    final var renderer = mActiveRenderer;
+
+    if( renderer == null ) {
+      return false;
+    }
+
+    if( mDepth > 0 ) {
+      mFrameDirty = true;
+    }
+    else {
+      mIssued++;
+      renderer.requestFrame();
+    }
+
+    return true;
+  }
+
+  private void issue(
+    final JComponent c, final int x, final int y, final int w, final int h ) {
+    mIssued++;
+    super.addDirtyRegion( c, x, y, w, h );
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.ui;
+
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Responsible for sharing derived fonts between labels. Every derived
+ * {@link Font} instance may build its own glyph cache, so deriving the
+ * same font size repeatedly, once per label and key press, rasterizes the
+ * same glyphs repeatedly. Sizes are rounded to whole points so that nearly
+ * identical fractional sizes share one font; the least recently used fonts
+ * are evicted once the cache is full.
+ */
+public final class FontCache {
+  /**
+   * Fonts kept by the shared instance, which comfortably covers every label
+   * at a few zoom levels.
+   */
+  private static final int CAPACITY = 64;
+
+  /**
+   * Number of lookups between hit rate reports.
+   */
+  private static final int REPORT_INTERVAL = 1000;
+
+  private static final FontCache sShared = new FontCache( CAPACITY );
+
+  private final Map<Key, Font> mFonts;
+
+  private long mHits;
+  private long mMisses;
+  private long mEvictions;
+
+  /**
+   * Creates a cache that holds up to the given number of fonts.
+   *
+   * @param capacity The maximum number of fonts to keep.
+   */
+  public FontCache( final int capacity ) {
+    assert capacity > 0;
+
+    mFonts = new LinkedHashMap<>( capacity + 1, 1, true ) {
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<Key, Font> e ) {
+        final var evict = size() > capacity;
+
+        if( evict ) {
+          mEvictions++;
+        }
+
+        return evict;
+      }
+    };
+  }
+
+  /**
+   * Returns the cache shared by all labels.
+   *
+   * @return The application's font cache.
+   */
+  public static FontCache getShared() {
+    return sShared;
+  }
+
+  /**
+   * Returns the given font at the given size, rounded to a whole point.
+   *
+   * @param font The font whose name and style are retained.
+   * @param size The requested point size.
+   * @return A font equal to deriving the given font at the rounded size.
+   */
+  public synchronized Font derive( final Font font, final float size ) {
+    final var key = new Key( font, quantize( size ) );
+    var derived = mFonts.get( key );
+
+    if( derived == null ) {
+      mMisses++;
+      derived = font.deriveFont( (float) key.mSize );
+      mFonts.put( key, derived );
+    }
+    else {
+      mHits++;
+    }
+
+    if( (mHits + mMisses) % REPORT_INTERVAL == 0 ) {
+      report();
+    }
+
+    return derived;
+  }
+
+  /**
+   * Returns the fraction of lookups that found a previously derived font.
+   *
+   * @return A value between 0 and 1, or 0 before any lookups.
+   */
+  public synchronized double getHitRate() {
+    final var lookups = mHits + mMisses;
+    return lookups == 0 ? 0 : (double) mHits / lookups;
+  }
+
+  private void report() {
+    Diagnostics.log(
+      "Font cache: %d fonts, %.1f%% hits over %d lookups, %d evictions",
+      mFonts.size(), getHitRate() * 100, mHits + mMisses, mEvictions
+    );
+  }
+
+  private static int quantize( final float size ) {
+    return Math.max( 1, Math.round( size ) );
+  }
+
+  /**
+   * Identifies a derived font by the attributes that {@link Font#deriveFont}
+   * retains from its source font.
+   */
+  private static final class Key {
+    private final String mName;
+    private final int mStyle;
+    private final int mSize;
+
+    private Key( final Font font, final int size ) {
+      mName = font.getName();
+      mStyle = font.getStyle();
+      mSize = size;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if( this == o ) {
+        return true;
+      }
+
+      if( !(o instanceof Key) ) {
+        return false;
+      }
+
+      final var key = (Key) o;
+      return mStyle == key.mStyle && mSize == key.mSize &&
+        mName.equals( key.mName );
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash( mName, mStyle, mSize );
+    }
+  }
+}
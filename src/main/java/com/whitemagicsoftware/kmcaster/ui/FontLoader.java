@@ -75,8 +75,8 @@ public final class FontLoader {
 
   private static InputStream openFont( final URI uri, final String filename )
       throws IOException {
-    return uri.getScheme().equals( "jar" )
-        ? FontLoader.class.getResourceAsStream( filename )
-        : new FileInputStream( filename );
+    return uri.getScheme().equals( "file" )
+        ? new FileInputStream( filename )
+        : FontLoader.class.getResourceAsStream( filename );
   }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.ui;
+
+import com.whitemagicsoftware.kmcaster.util.Parkable;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Responsible for running a single thread that renders frames as they are
+ * requested, at most one per frame period, and sleeps while no frames are
+ * requested. While parked, the thread ends once every requested frame is
+ * rendered; it is started again on waking or when another frame is
+ * requested.
+ */
+public final class FramePacer implements Runnable, Parkable {
+  /**
+   * Renders a single frame on the pacing thread.
+   */
+  @FunctionalInterface
+  public interface Renderer {
+    /**
+     * Renders one frame.
+     *
+     * @throws InterruptedException The pacing thread was interrupted.
+     */
+    void render() throws InterruptedException;
+  }
+
+  /**
+   * Name of the thread that renders frames.
+   */
+  public static final String THREAD_NAME = "kmcaster-render";
+
+  /**
+   * Guards the frame request flag and the thread's lifecycle.
+   */
+  private final Object mLock = new Object();
+
+  private final Renderer mRenderer;
+
+  /**
+   * Minimum nanoseconds between the start of successive frames.
+   */
+  private final long mFramePeriod;
+
+  /**
+   * Set when the display has changed since the last frame was rendered.
+   */
+  private boolean mRequested;
+
+  /**
+   * Set while the application waits for input.
+   */
+  private boolean mParked;
+
+  /**
+   * Renders the requested frames, {@code null} after it has ended.
+   */
+  private Thread mThread;
+
+  /**
+   * Creates a pacer that calls the given renderer, capped at the given rate.
+   *
+   * @param renderer  Renders each requested frame.
+   * @param frameRate Maximum number of frames per second, at least one.
+   */
+  public FramePacer( final Renderer renderer, final int frameRate ) {
+    assert renderer != null;
+
+    mRenderer = renderer;
+    mFramePeriod = SECONDS.toNanos( 1 ) / Math.max( 1, frameRate );
+  }
+
+  /**
+   * Schedules a frame to be rendered. Multiple requests made before the
+   * next frame is rendered result in a single frame.
+   */
+  public void requestFrame() {
+    synchronized( mLock ) {
+      mRequested = true;
+      mLock.notifyAll();
+      startThread();
+    }
+  }
+
+  /**
+   * Ends the thread once the requested frames are rendered.
+   */
+  @Override
+  public void park() {
+    synchronized( mLock ) {
+      mParked = true;
+      mLock.notifyAll();
+    }
+  }
+
+  /**
+   * Starts the thread ahead of the frames that input will request.
+   */
+  @Override
+  public void wake() {
+    synchronized( mLock ) {
+      mParked = false;
+      startThread();
+    }
+  }
+
+  /**
+   * Answers whether the thread is running or about to run.
+   *
+   * @return {@code false} after the thread has ended while parked.
+   */
+  public boolean isRunning() {
+    synchronized( mLock ) {
+      return mThread != null;
+    }
+  }
+
+  /**
+   * Starts the thread unless it is running. The caller must hold the lock.
+   */
+  private void startThread() {
+    if( mThread == null ) {
+      mThread = new Thread( this, THREAD_NAME );
+      mThread.setDaemon( true );
+      mThread.start();
+    }
+  }
+
+  /**
+   * Renders frames as they are requested, no faster than the frame rate,
+   * until parked with no frames requested.
+   */
+  @Override
+  public void run() {
+    try {
+      while( !Thread.currentThread().isInterrupted() ) {
+        final long started;
+
+        synchronized( mLock ) {
+          while( !mRequested ) {
+            if( mParked ) {
+              mThread = null;
+              return;
+            }
+
+            mLock.wait();
+          }
+
+          mRequested = false;
+        }
+
+        started = System.nanoTime();
+        mRenderer.render();
+
+        final var remaining = mFramePeriod - (System.nanoTime() - started);
+
+        if( remaining > 0 ) {
+          NANOSECONDS.sleep( remaining );
+        }
+      }
+    } catch( final InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.ui;
+
+import com.whitemagicsoftware.kmcaster.util.Diagnostics;
+import com.whitemagicsoftware.kmcaster.util.Pair;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+
+import static java.awt.RenderingHints.*;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * Responsible for drawing label text as pre-rendered images. Key labels
+ * come from a small, closed set, so each one is shaped and rasterized once
+ * per font size and colour, then packed into a texture atlas; drawing a
+ * label becomes a sub-image copy instead of text layout and glyph
+ * rendering. Text outside the set, such as typed Unicode characters, is
+ * shaped on demand and kept in a small least recently used cache.
+ * <p>
+ * Atlas entries are only valid for the fonts they were rendered with, so
+ * the atlas is cleared and refilled whenever the labels are refitted. Text
+ * is rasterized in device pixels at the display's scale, such as 2 on a
+ * HiDPI screen, and copied without resampling. Graphics contexts that
+ * rotate, shear, or stretch text cannot use the atlas.
+ * </p>
+ */
+public final class GlyphAtlas {
+  /**
+   * Width and height of each atlas page, in pixels.
+   */
+  private static final int PAGE_SIZE = 1024;
+
+  /**
+   * Transparent pixels around each region, which avoids sampling neighbours
+   * when the atlas is drawn with a scaling transform.
+   */
+  private static final int PADDING = 1;
+
+  /**
+   * Most atlas pages, each using 4 MB; text that does not fit is shaped on
+   * demand instead.
+   */
+  private static final int MAX_PAGES = 4;
+
+  /**
+   * Number of on-demand entries kept for text outside the atlas.
+   */
+  private static final int FALLBACK_SIZE = 64;
+
+  /**
+   * Shapes text the same way that labels measure it: anti-aliased, with
+   * integer glyph advances.
+   */
+  private static final FontRenderContext RENDER_CONTEXT =
+    new FontRenderContext( new AffineTransform(), true, false );
+
+  private final List<BufferedImage> mPages = new ArrayList<>();
+  private final Map<Key, Region> mRegions = new HashMap<>();
+  private final Map<Key, Region> mFallback =
+    new LinkedHashMap<>( FALLBACK_SIZE + 1, 1, true ) {
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<Key, Region> e ) {
+        return size() > FALLBACK_SIZE;
+      }
+    };
+
+  /**
+   * Fonts sized in device pixels, keyed by font and display scale, so that
+   * every label rendered at the same size shares one font and its glyph
+   * cache.
+   */
+  private final Map<Pair<Font, Double>, Font> mDeviceFonts = new HashMap<>();
+
+  /**
+   * Position of the next region on the current page's shelf.
+   */
+  private int mShelfX;
+  private int mShelfY;
+
+  /**
+   * Height of the tallest region on the current shelf.
+   */
+  private int mShelfHeight;
+
+  /**
+   * Shapes and rasterizes the given text into the atlas, unless it is
+   * already present.
+   *
+   * @param text   The text to render.
+   * @param font   The font to render the text with.
+   * @param colour The text colour.
+   * @param scale  The display's scale, from user space to device pixels.
+   */
+  public synchronized void preshape(
+    final String text,
+    final Font font,
+    final Color colour,
+    final double scale ) {
+    if( text == null || text.isEmpty() ) {
+      return;
+    }
+
+    final var key = new Key( text, font, colour, scale );
+
+    if( !mRegions.containsKey( key ) ) {
+      final var region = pack( key );
+
+      if( region != null ) {
+        mRegions.put( key, region );
+        mFallback.remove( key );
+      }
+    }
+  }
+
+  /**
+   * Draws the given text with its baseline origin at the given location.
+   * Text that was not pre-shaped is shaped and cached on demand. Nothing
+   * is drawn when the graphics context's transform does more than translate
+   * and uniformly scale.
+   *
+   * @param g      The graphics context to draw on.
+   * @param text   The text to draw.
+   * @param font   The font to draw the text with.
+   * @param colour The text colour.
+   * @param x      The left side of the text's origin.
+   * @param y      The baseline of the text's origin.
+   * @return {@code false} if the text must be drawn some other way.
+   */
+  public synchronized boolean draw(
+    final Graphics g,
+    final String text,
+    final Font font,
+    final Color colour,
+    final int x,
+    final int y ) {
+    final var g2 = (Graphics2D) g;
+    final var transform = g2.getTransform();
+    final var scale = toScale( transform );
+
+    if( scale <= 0 ) {
+      return false;
+    }
+
+    final var key = new Key( text, font, colour, scale );
+    var region = mRegions.get( key );
+
+    if( region == null ) {
+      region = mFallback.computeIfAbsent( key, this::render );
+    }
+
+    if( region.mImage != null ) {
+      // Copy the pixels one-to-one onto the device.
+      final var dx = (int) Math.round(
+        transform.getTranslateX() + x * scale ) + region.mOriginX;
+      final var dy = (int) Math.round(
+        transform.getTranslateY() + y * scale ) + region.mOriginY;
+      final var w = region.mWidth;
+      final var h = region.mHeight;
+
+      g2.setTransform( new AffineTransform() );
+      g2.drawImage(
+        region.mImage,
+        dx, dy, dx + w, dy + h,
+        region.mX, region.mY, region.mX + w, region.mY + h,
+        null );
+      g2.setTransform( transform );
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the scale of the given transform, provided that it only
+   * translates and scales uniformly.
+   *
+   * @param transform The graphics context's transform.
+   * @return The scale, or {@code 0} if the atlas cannot be used.
+   */
+  private static double toScale( final AffineTransform transform ) {
+    final var type = transform.getType();
+    final var allowed =
+      AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_UNIFORM_SCALE;
+
+    return (type & ~allowed) == 0 && transform.getScaleX() > 0
+      ? transform.getScaleX()
+      : 0;
+  }
+
+  /**
+   * Discards all pre-shaped entries, such as after the label fonts change.
+   */
+  public synchronized void clear() {
+    mPages.clear();
+    mRegions.clear();
+    mFallback.clear();
+    mDeviceFonts.clear();
+    mShelfX = 0;
+    mShelfY = 0;
+    mShelfHeight = 0;
+  }
+
+  /**
+   * Writes the number of pre-shaped entries and pages as a diagnostic.
+   */
+  public synchronized void report() {
+    Diagnostics.log(
+      "Glyph atlas: %d labels on %d page(s)", mRegions.size(), mPages.size()
+    );
+  }
+
+  /**
+   * Rasterizes the given text into the next free space in the atlas.
+   *
+   * @param key The text, font, and colour to render.
+   * @return The region's location, or {@code null} if the text is too large
+   * for an atlas page or the atlas is full.
+   */
+  private Region pack( final Key key ) {
+    final var layout = new TextLayout( key.mText, toDeviceFont( key ),
+                                       RENDER_CONTEXT );
+    final var bounds = layout.getPixelBounds( RENDER_CONTEXT, 0, 0 );
+    final var w = bounds.width + PADDING * 2;
+    final var h = bounds.height + PADDING * 2;
+
+    if( w > PAGE_SIZE || h > PAGE_SIZE ) {
+      return null;
+    }
+
+    if( mShelfX + w > PAGE_SIZE ) {
+      mShelfX = 0;
+      mShelfY += mShelfHeight;
+      mShelfHeight = 0;
+    }
+
+    if( mPages.isEmpty() || mShelfY + h > PAGE_SIZE ) {
+      if( mPages.size() >= MAX_PAGES ) {
+        return null;
+      }
+
+      mPages.add(
+        new BufferedImage( PAGE_SIZE, PAGE_SIZE, TYPE_INT_ARGB_PRE ) );
+      mShelfX = 0;
+      mShelfY = 0;
+      mShelfHeight = 0;
+    }
+
+    final var page = mPages.get( mPages.size() - 1 );
+    final var region = new Region(
+      page, mShelfX, mShelfY, w, h,
+      bounds.x - PADDING, bounds.y - PADDING );
+
+    draw( page, layout, key.mColour, region );
+
+    mShelfX += w;
+    mShelfHeight = Math.max( mShelfHeight, h );
+
+    return region;
+  }
+
+  /**
+   * Rasterizes the given text into its own image.
+   *
+   * @param key The text, font, and colour to render.
+   * @return The region for the text, which has no image for blank text.
+   */
+  private Region render( final Key key ) {
+    final var text = key.mText;
+
+    if( text.isEmpty() ) {
+      return new Region( null, 0, 0, 0, 0, 0, 0 );
+    }
+
+    final var layout = new TextLayout( text, toDeviceFont( key ),
+                                       RENDER_CONTEXT );
+    final var bounds = layout.getPixelBounds( RENDER_CONTEXT, 0, 0 );
+    final var w = bounds.width + PADDING * 2;
+    final var h = bounds.height + PADDING * 2;
+    final var image = new BufferedImage( w, h, TYPE_INT_ARGB_PRE );
+    final var region = new Region(
+      image, 0, 0, w, h, bounds.x - PADDING, bounds.y - PADDING );
+
+    draw( image, layout, key.mColour, region );
+
+    return region;
+  }
+
+  /**
+   * Returns the key's font sized in device pixels, deriving it only the
+   * first time that the font is used at the key's scale.
+   *
+   * @param key The font and scale to render at.
+   * @return The font to shape the key's text with.
+   */
+  private Font toDeviceFont( final Key key ) {
+    final var font = key.mFont;
+    final var scale = key.mScale;
+
+    if( scale == 1 ) {
+      return font;
+    }
+
+    return mDeviceFonts.computeIfAbsent(
+      new Pair<>( font, scale ),
+      k -> font.deriveFont( (float) (font.getSize2D() * scale) ) );
+  }
+
+  private static void draw(
+    final BufferedImage image,
+    final TextLayout layout,
+    final Color colour,
+    final Region region ) {
+    final var graphics = image.createGraphics();
+
+    try {
+      graphics.setRenderingHint( KEY_TEXT_ANTIALIASING,
+                                 VALUE_TEXT_ANTIALIAS_ON );
+      graphics.setRenderingHint( KEY_FRACTIONALMETRICS,
+                                 VALUE_FRACTIONALMETRICS_OFF );
+      graphics.setColor( colour );
+      layout.draw(
+        graphics, region.mX - region.mOriginX, region.mY - region.mOriginY );
+    } finally {
+      graphics.dispose();
+    }
+  }
+
+  /**
+   * Location of rendered text within an image, relative to the text's
+   * baseline origin.
+   */
+  private static final class Region {
+    private final BufferedImage mImage;
+    private final int mX;
+    private final int mY;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mOriginX;
+    private final int mOriginY;
+
+    private Region(
+      final BufferedImage image,
+      final int x, final int y, final int width, final int height,
+      final int originX, final int originY ) {
+      mImage = image;
+      mX = x;
+      mY = y;
+      mWidth = width;
+      mHeight = height;
+      mOriginX = originX;
+      mOriginY = originY;
+    }
+  }
+
+  /**
+   * Identifies rendered text by its content, font, colour, and scale.
+   */
+  private static final class Key {
+    private final String mText;
+    private final Font mFont;
+    private final Color mColour;
+    private final double mScale;
+
+    private Key(
+      final String text,
+      final Font font,
+      final Color colour,
+      final double scale ) {
+      mText = text;
+      mFont = font;
+      mColour = colour;
+      mScale = scale;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if( this == o ) {
+        return true;
+      }
+
+      if( !(o instanceof Key) ) {
+        return false;
+      }
+
+      final var key = (Key) o;
+      return mText.equals( key.mText ) && mFont.equals( key.mFont ) &&
+        mColour.equals( key.mColour ) && mScale == key.mScale;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash( mText, mFont, mColour, mScale );
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.ui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static com.whitemagicsoftware.kmcaster.ui.Constants.COLOUR_KEY_UP;
+import static java.awt.RenderingHints.*;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * Responsible for showing the most recent keystrokes and chords as a strip
+ * of chips, newest on the right. The entries are kept in a fixed-capacity
+ * ring buffer. The strip is drawn incrementally into an offscreen image:
+ * adding an entry shifts the existing chips left with a single area copy
+ * and draws only the new chip. The whole strip is redrawn from the ring
+ * buffer only when its size changes, such as after zooming.
+ */
+public final class HistoryStrip extends JComponent {
+  /**
+   * Chip width relative to the strip's height.
+   */
+  private static final float CHIP_ASPECT = 2.5f;
+
+  /**
+   * Space around each chip relative to the strip's height.
+   */
+  private static final float CHIP_MARGIN = .08f;
+
+  /**
+   * Largest font size relative to the chip's height.
+   */
+  private static final float FONT_SCALE = .6f;
+
+  /**
+   * Matches the colour of an unpressed key.
+   */
+  private static final Color CHIP_COLOUR = new Color( 0x38, 0x45, 0x4F );
+
+  private final String[] mEntries;
+  private final Font mFont;
+  private final Component mReference;
+
+  /**
+   * Index of the next entry to write in the ring buffer.
+   */
+  private int mHead;
+
+  /**
+   * Number of entries in the ring buffer, up to its capacity.
+   */
+  private int mSize;
+
+  /**
+   * Offscreen copy of the strip, {@code null} until first painted.
+   */
+  private BufferedImage mStrip;
+
+  /**
+   * Creates a strip for the given number of entries.
+   *
+   * @param capacity  The number of entries to show.
+   * @param font      The font for the chip labels.
+   * @param reference The component whose height the strip is half of.
+   */
+  public HistoryStrip(
+    final int capacity, final Font font, final Component reference ) {
+    assert capacity > 0;
+    assert font != null;
+    assert reference != null;
+
+    mEntries = new String[ capacity ];
+    mFont = font;
+    mReference = reference;
+
+    setOpaque( false );
+  }
+
+  /**
+   * Adds an entry to the right of the strip, dropping the oldest entry if
+   * the strip is full. This must be called from Swing's event dispatch
+   * thread.
+   *
+   * @param entry The keystroke or chord to show.
+   */
+  public void push( final String entry ) {
+    assert entry != null;
+
+    final var capacity = mEntries.length;
+
+    mEntries[ mHead ] = entry;
+    mHead = (mHead + 1) % capacity;
+    mSize = Math.min( mSize + 1, capacity );
+
+    final var strip = mStrip;
+
+    if( strip != null && isCurrent( strip ) ) {
+      final var slot = getSlotWidth();
+      final var x = slot * (capacity - 1);
+      final var g = strip.createGraphics();
+
+      try {
+        // Replace, rather than blend, the shifted chips' pixels.
+        g.setComposite( AlphaComposite.Src );
+        g.copyArea( slot, 0, x, strip.getHeight(), -slot, 0 );
+        drawChip( g, entry, x, slot, strip.getHeight() );
+      } finally {
+        g.dispose();
+      }
+    }
+
+    repaint();
+  }
+
+  @Override
+  public Dimension getPreferredSize() {
+    final var height = mReference.getPreferredSize().height / 2;
+    final var width = Math.round( height * CHIP_ASPECT ) * mEntries.length;
+
+    return new Dimension( width, height );
+  }
+
+  @Override
+  protected void paintComponent( final Graphics g ) {
+    var strip = mStrip;
+
+    if( strip == null || !isCurrent( strip ) ) {
+      strip = mStrip = redraw();
+    }
+
+    if( strip != null ) {
+      g.drawImage( strip, 0, 0, null );
+    }
+  }
+
+  /**
+   * Draws every entry in the ring buffer onto a new image that matches the
+   * component's size.
+   *
+   * @return The strip image, or {@code null} if the component has no area.
+   */
+  private BufferedImage redraw() {
+    final var w = getWidth();
+    final var h = getHeight();
+
+    if( w <= 0 || h <= 0 ) {
+      return null;
+    }
+
+    final var strip = new BufferedImage( w, h, TYPE_INT_ARGB_PRE );
+    final var g = strip.createGraphics();
+    final var capacity = mEntries.length;
+    final var slot = getSlotWidth();
+
+    try {
+      // The oldest entry is leftmost; empty slots are at the start.
+      for( int i = 0; i < mSize; i++ ) {
+        final var index = (mHead - mSize + i + capacity) % capacity;
+        final var slotIndex = capacity - mSize + i;
+
+        drawChip( g, mEntries[ index ], slotIndex * slot, slot, h );
+      }
+    } finally {
+      g.dispose();
+    }
+
+    return strip;
+  }
+
+  private void drawChip(
+    final Graphics2D g,
+    final String text,
+    final int x,
+    final int width,
+    final int height ) {
+    g.setComposite( AlphaComposite.Clear );
+    g.fillRect( x, 0, width, height );
+    g.setComposite( AlphaComposite.SrcOver );
+    g.setRenderingHint( KEY_ANTIALIASING, VALUE_ANTIALIAS_ON );
+    g.setRenderingHint( KEY_TEXT_ANTIALIASING, VALUE_TEXT_ANTIALIAS_ON );
+
+    final var margin = Math.round( height * CHIP_MARGIN );
+    final var chipW = width - margin * 2;
+    final var chipH = height - margin * 2;
+    final var arc = chipH / 2;
+
+    g.setColor( CHIP_COLOUR );
+    g.fillRoundRect( x + margin, margin, chipW, chipH, arc, arc );
+
+    final var font = fitFont( g, text, chipW - arc, chipH );
+    final var metrics = g.getFontMetrics( font );
+    final var textW = metrics.stringWidth( text );
+    final var baseline =
+      margin + (chipH - metrics.getHeight()) / 2 + metrics.getAscent();
+
+    g.setFont( font );
+    g.setColor( COLOUR_KEY_UP );
+    g.drawString( text, x + margin + (chipW - textW) / 2, baseline );
+  }
+
+  /**
+   * Returns the largest font, up to a fraction of the chip's height, that
+   * fits the given text within the given width.
+   */
+  private Font fitFont(
+    final Graphics2D g, final String text, final int width, final int height ) {
+    final var fonts = FontCache.getShared();
+    final var size = height * FONT_SCALE;
+    final var font = fonts.derive( mFont, size );
+    final var textW = g.getFontMetrics( font ).stringWidth( text );
+
+    return textW <= width || textW == 0
+      ? font
+      : fonts.derive( mFont, size * width / textW );
+  }
+
+  private int getSlotWidth() {
+    return getWidth() / mEntries.length;
+  }
+
+  private boolean isCurrent( final BufferedImage strip ) {
+    return strip.getWidth() == getWidth() && strip.getHeight() == getHeight();
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.ui;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+/**
+ * Responsible for storing images as a 16-bit palette index per pixel that
+ * combines an alpha mask with a shade, then colouring them using a palette.
+ * Changing the palette re-colours an image without re-rasterizing it
+ * because the pixel data are shared between all tints.
+ * <p>
+ * Each index holds the full 8-bit opacity (high byte), so anti-aliased
+ * edges keep every level, and an 8-bit shade (low byte). The palette maps
+ * the darkest shades to black, the middle shade to the tint colour, and the
+ * lightest shades to white, which retains the highlights and shadows of
+ * the original artwork.
+ * </p>
+ */
+public final class ImageTinter {
+  private static final int LEVELS = 256;
+
+  /**
+   * Converts a full-colour image into a mask image that can be tinted.
+   *
+   * @param image The image to convert, which is not modified.
+   * @param cm    The initial palette from {@link #palette(Color)}.
+   * @return An indexed image using two bytes per pixel.
+   */
+  public static BufferedImage toMask(
+    final BufferedImage image, final IndexColorModel cm ) {
+    final var w = image.getWidth();
+    final var h = image.getHeight();
+    final var argb = image.getRGB( 0, 0, w, h, null, 0, w );
+    final var indexes = new int[ argb.length ];
+
+    for( int i = 0; i < argb.length; i++ ) {
+      final var p = argb[ i ];
+      final var a = p >>> 24;
+      final var r = (p >> 16) & 0xFF;
+      final var g = (p >> 8) & 0xFF;
+      final var b = p & 0xFF;
+      final var luma = (r * 54 + g * 183 + b * 19) >> 8;
+
+      indexes[ i ] = (a << 8) | luma;
+    }
+
+    final var raster = cm.createCompatibleWritableRaster( w, h );
+    raster.setSamples( 0, 0, w, h, 0, indexes );
+
+    return new BufferedImage( cm, raster, false, null );
+  }
+
+  /**
+   * Re-colours a mask image created by {@link #toMask}.
+   * The returned image shares its pixel data with the given image. Indexed
+   * images are slow to draw, so use
+   * {@link #tint(BufferedImage, int[], BufferedImage)} to colour images
+   * that are painted repeatedly.
+   *
+   * @param mask The mask image to re-colour.
+   * @param cm   The palette from {@link #palette(Color)}.
+   * @return A new image that shares the given mask image's pixels.
+   */
+  public static BufferedImage tint(
+    final BufferedImage mask, final IndexColorModel cm ) {
+    return new BufferedImage( cm, mask.getRaster(), false, null );
+  }
+
+  /**
+   * Returns the premultiplied ARGB colour of every palette index, for use
+   * with {@link #tint(BufferedImage, int[], BufferedImage)}.
+   *
+   * @param cm The palette from {@link #palette(Color)}.
+   * @return One premultiplied ARGB value per palette index.
+   */
+  public static int[] colours( final IndexColorModel cm ) {
+    final var colours = new int[ cm.getMapSize() ];
+    cm.getRGBs( colours );
+
+    for( int i = 0; i < colours.length; i++ ) {
+      final var p = colours[ i ];
+      final var a = p >>> 24;
+      final var r = premultiply( (p >> 16) & 0xFF, a );
+      final var g = premultiply( (p >> 8) & 0xFF, a );
+      final var b = premultiply( p & 0xFF, a );
+
+      colours[ i ] = (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    return colours;
+  }
+
+  /**
+   * Colours a mask image created by {@link #toMask} into an existing image,
+   * which is much faster than drawing the indexed image into it. The target
+   * can be reused to re-colour any mask of the same size.
+   *
+   * @param mask    The mask image to colour.
+   * @param colours The colours from {@link #colours(IndexColorModel)}.
+   * @param target  An image of type {@link BufferedImage#TYPE_INT_ARGB_PRE}
+   *                having the same dimensions as the mask.
+   */
+  public static void tint(
+    final BufferedImage mask, final int[] colours, final BufferedImage target ) {
+    assert target.getType() == BufferedImage.TYPE_INT_ARGB_PRE;
+    assert target.getWidth() == mask.getWidth();
+    assert target.getHeight() == mask.getHeight();
+
+    final var w = mask.getWidth();
+    final var h = mask.getHeight();
+    final var source = mask.getRaster();
+    final var destination = target.getRaster();
+    final var row = new int[ w ];
+
+    // Rows are written through the raster so that Java2D can still keep
+    // an accelerated copy of the target.
+    for( int y = 0; y < h; y++ ) {
+      source.getSamples( 0, y, w, 1, 0, row );
+
+      for( int x = 0; x < w; x++ ) {
+        row[ x ] = colours[ row[ x ] ];
+      }
+
+      destination.setDataElements( 0, y, w, 1, row );
+    }
+  }
+
+  /**
+   * Answers whether the given image can be re-coloured.
+   *
+   * @param image The image to check.
+   * @return {@code true} if the image was created by this class.
+   */
+  public static boolean isMask( final Image image ) {
+    return image instanceof BufferedImage &&
+      ((BufferedImage) image).getColorModel() instanceof IndexColorModel;
+  }
+
+  /**
+   * Creates the palette that maps every opacity and shade level to a colour
+   * derived from the given tint.
+   *
+   * @param tint The colour for the middle shade.
+   * @return A palette having 65,536 entries.
+   */
+  public static IndexColorModel palette( final Color tint ) {
+    final var size = LEVELS * LEVELS;
+    final var r = new byte[ size ];
+    final var g = new byte[ size ];
+    final var b = new byte[ size ];
+    final var a = new byte[ size ];
+
+    // Every opacity level repeats the same ramp of shades.
+    for( int shade = 0; shade < LEVELS; shade++ ) {
+      final var light = shade / (float) (LEVELS - 1);
+
+      r[ shade ] = (byte) ramp( tint.getRed(), light );
+      g[ shade ] = (byte) ramp( tint.getGreen(), light );
+      b[ shade ] = (byte) ramp( tint.getBlue(), light );
+    }
+
+    for( int alpha = 1; alpha < LEVELS; alpha++ ) {
+      final var offset = alpha * LEVELS;
+
+      System.arraycopy( r, 0, r, offset, LEVELS );
+      System.arraycopy( g, 0, g, offset, LEVELS );
+      System.arraycopy( b, 0, b, offset, LEVELS );
+      Arrays.fill( a, offset, offset + LEVELS, (byte) alpha );
+    }
+
+    return new IndexColorModel( 16, size, r, g, b, a );
+  }
+
+  private static int premultiply( final int channel, final int alpha ) {
+    return (channel * alpha + 127) / 255;
+  }
+
+  /**
+   * Blends from black to the given channel value to white.
+   *
+   * @param channel The tint's colour channel value.
+   * @param shade   Amount of light, between 0 and 1.
+   * @return The shaded channel value.
+   */
+  private static int ramp( final int channel, final float shade ) {
+    return shade < .5f
+      ? Math.round( channel * shade * 2 )
+      : Math.round( channel + (255 - channel) * (shade - .5f) * 2 );
+  }
+
+  /**
+   * Private, empty constructor.
+   */
+  private ImageTinter() {
+  }
+}
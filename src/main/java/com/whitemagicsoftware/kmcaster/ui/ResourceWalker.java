@@ -57,9 +57,11 @@ public final class ResourceWalker {
 
     if( resource != null ) {
       final var uri = resource.toURI();
-      final var path = uri.getScheme().equals( "jar" )
-          ? newFileSystem( uri, emptyMap() ).getPath( dirName )
-          : Paths.get( uri );
+      // Resources are files during development, entries within a JAR file
+      // when packaged, and "resource:" entries in a native image.
+      final var path = uri.getScheme().equals( "file" )
+          ? Paths.get( uri )
+          : newFileSystem( uri, emptyMap() ).getPath( dirName );
       final var walk = Files.walk( path, 10 );
 
       for( final var it = walk.iterator(); it.hasNext(); ) {
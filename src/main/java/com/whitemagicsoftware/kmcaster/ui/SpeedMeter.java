@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.ui;
+
+import com.whitemagicsoftware.kmcaster.util.TypingSpeed;
+
+import javax.swing.*;
+import java.awt.*;
+
+import static com.whitemagicsoftware.kmcaster.ui.Constants.COLOUR_KEY_UP;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.swing.SwingConstants.BOTTOM;
+import static javax.swing.SwingConstants.TOP;
+
+/**
+ * Responsible for showing the live typing speed in words per minute and
+ * key presses per second. The display is refreshed a few times per second
+ * while keys have recently been pressed, and not at all otherwise. The
+ * meter is sized to match a reference component, so that it follows the
+ * overlay's zoom.
+ */
+public final class SpeedMeter extends JPanel {
+  /**
+   * Milliseconds between display refreshes while typing.
+   */
+  private static final int REFRESH_MS = 250;
+
+  /**
+   * Duration of the rolling window that the speed is averaged over.
+   */
+  private static final long WINDOW = SECONDS.toNanos( 5 );
+
+  /**
+   * Exceeds the number of key presses possible within the window.
+   */
+  private static final int CAPACITY = 512;
+
+  private final TypingSpeed mSpeed = new TypingSpeed( CAPACITY, WINDOW );
+  private final Component mReference;
+  private final AutofitLabel mWords;
+  private final AutofitLabel mKeys;
+  private final Timer mTimer = new Timer( REFRESH_MS, e -> refresh() );
+
+  /**
+   * Creates a meter that is the same size as the given component.
+   *
+   * @param font      The font for the speed labels.
+   * @param reference The component whose preferred size is used.
+   */
+  public SpeedMeter( final Font font, final Component reference ) {
+    super( null );
+    assert reference != null;
+
+    mReference = reference;
+    mWords = createLabel( font, TOP );
+    mKeys = createLabel( font, BOTTOM );
+
+    setOpaque( false );
+    add( mWords );
+    add( mKeys );
+    display( 0 );
+  }
+
+  /**
+   * Records a key press. This is called from the native hook thread; the
+   * speed is calculated on Swing's event dispatch thread.
+   */
+  public void keyPressed() {
+    if( mSpeed.record( System.nanoTime() ) ) {
+      SwingUtilities.invokeLater( this::start );
+    }
+  }
+
+  @Override
+  public Dimension getPreferredSize() {
+    return mReference.getPreferredSize();
+  }
+
+  @Override
+  public void doLayout() {
+    mWords.invalidateBounds();
+    mKeys.invalidateBounds();
+    transform( mWords );
+    transform( mKeys );
+  }
+
+  private void start() {
+    refresh();
+    mTimer.start();
+  }
+
+  private void refresh() {
+    final var now = System.nanoTime();
+    final var kps = mSpeed.getKeysPerSecond( now );
+
+    display( kps );
+
+    if( kps == 0 ) {
+      mTimer.stop();
+
+      if( mSpeed.park( now ) ) {
+        mTimer.start();
+      }
+    }
+  }
+
+  private void display( final double kps ) {
+    final var wpm = TypingSpeed.toWordsPerMinute( kps );
+
+    fit( mWords, String.format( "%d wpm", Math.round( wpm ) ) );
+    fit( mKeys, String.format( "%.1f keys/s", kps ) );
+  }
+
+  private void fit( final AutofitLabel label, final String text ) {
+    if( !text.equals( label.getText() ) ) {
+      label.setText( text );
+      transform( label );
+    }
+  }
+
+  /**
+   * Scales the given label to fit half of this meter's height.
+   *
+   * @param label The label to scale and position.
+   */
+  private void transform( final AutofitLabel label ) {
+    final var bounds = AutofitLabel.calculateBounds( this );
+
+    if( bounds.width > 0 && bounds.height > 1 ) {
+      label.transform( bounds.width, bounds.height / 2 );
+    }
+  }
+
+  private static AutofitLabel createLabel( final Font font, final int align ) {
+    final var label = new AutofitLabel( " ", font );
+
+    label.setVerticalAlignment( align );
+    label.setHorizontalAlignment( SwingConstants.CENTER );
+    label.setForeground( COLOUR_KEY_UP );
+
+    return label;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.util;
+
+import java.nio.file.Path;
+
+/**
+ * Responsible for locating the directories where derived files, such as
+ * keymap indexes and compiled diagrams, are cached between runs. The
+ * directories follow the XDG base directory convention.
+ */
+public final class CacheDir {
+  /**
+   * Returns the cache directory for the given kind of file, which may not
+   * exist yet.
+   *
+   * @param name The subdirectory name, such as "keymaps".
+   * @return The directory, below {@code $XDG_CACHE_HOME/kmcaster} or
+   * {@code ~/.cache/kmcaster}.
+   */
+  public static Path resolve( final String name ) {
+    final var xdg = System.getenv( "XDG_CACHE_HOME" );
+    final var base = xdg == null || xdg.isBlank()
+      ? Path.of( System.getProperty( "user.home" ), ".cache" )
+      : Path.of( xdg );
+
+    return base.resolve( "kmcaster" ).resolve( name );
+  }
+
+  /**
+   * Converts a digest into a file name.
+   *
+   * @param bytes The digest.
+   * @return The digest in lowercase hexadecimal.
+   */
+  public static String toHex( final byte[] bytes ) {
+    final var hex = new StringBuilder( bytes.length * 2 );
+
+    for( final var b : bytes ) {
+      hex.append( Character.forDigit( (b >> 4) & 0xF, 16 ) );
+      hex.append( Character.forDigit( b & 0xF, 16 ) );
+    }
+
+    return hex.toString();
+  }
+
+  /**
+   * Private, empty constructor.
+   */
+  private CacheDir() {
+  }
+}
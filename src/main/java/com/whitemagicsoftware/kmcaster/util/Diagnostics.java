@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.util;
+
+import static java.lang.String.format;
+
+/**
+ * Responsible for writing diagnostic measurements to standard error when
+ * the user has requested verbose output.
+ */
+public final class Diagnostics {
+  private static volatile boolean sEnabled;
+
+  /**
+   * Enables or disables writing diagnostic messages.
+   *
+   * @param enabled {@code true} to write messages to standard error.
+   */
+  public static void setEnabled( final boolean enabled ) {
+    sEnabled = enabled;
+  }
+
+  /**
+   * Answers whether diagnostic messages are written. Callers can use this to
+   * avoid taking measurements that would otherwise be discarded.
+   *
+   * @return {@code true} when verbose output was requested.
+   */
+  public static boolean isEnabled() {
+    return sEnabled;
+  }
+
+  /**
+   * Writes a formatted diagnostic message, if enabled.
+   *
+   * @param message The message format string.
+   * @param args    The values to substitute into the format string.
+   */
+  public static void log( final String message, final Object... args ) {
+    if( sEnabled ) {
+      System.err.println( "[kmcaster] " + format( message, args ) );
+    }
+  }
+
+  /**
+   * Private, empty constructor.
+   */
+  private Diagnostics() {
+  }
+}
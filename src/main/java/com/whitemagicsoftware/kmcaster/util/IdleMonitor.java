@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Responsible for stopping background work when the application has nothing
+ * left to do until the next input event, and resuming it on input. While
+ * parked, no timers are pending and every {@link Parkable} has stopped, so
+ * the process should consume no CPU time. When diagnostics are enabled, the
+ * CPU time spent while parked is reported on waking, which makes any stray
+ * periodic work visible.
+ */
+public final class IdleMonitor {
+  /**
+   * Provides process CPU time, if the platform supports measuring it.
+   */
+  private static final OperatingSystemMXBean OS_BEAN =
+    ManagementFactory.getOperatingSystemMXBean();
+
+  private final List<Parkable> mParkables = new ArrayList<>();
+
+  private boolean mParked;
+
+  /**
+   * Wall-clock nanoseconds when the application was parked.
+   */
+  private long mParkedTime;
+
+  /**
+   * Process CPU nanoseconds when the application was parked.
+   */
+  private long mParkedCpuTime;
+
+  /**
+   * Stops the given work whenever the application is parked.
+   *
+   * @param parkable The work to stop and resume.
+   */
+  public void add( final Parkable parkable ) {
+    assert parkable != null;
+
+    mParkables.add( parkable );
+
+    if( mParked ) {
+      parkable.park();
+    }
+  }
+
+  /**
+   * Stops the background work. Callers must have stopped their own timers
+   * before calling this method.
+   */
+  public void park() {
+    if( !mParked ) {
+      mParked = true;
+
+      for( final var parkable : mParkables ) {
+        parkable.park();
+      }
+
+      mParkedTime = System.nanoTime();
+      mParkedCpuTime = getProcessCpuTime();
+    }
+  }
+
+  /**
+   * Resumes the background work, called for every input event.
+   */
+  public void wake() {
+    if( mParked ) {
+      mParked = false;
+
+      for( final var parkable : mParkables ) {
+        parkable.wake();
+      }
+
+      if( Diagnostics.isEnabled() ) {
+        final var cpu = getProcessCpuTime();
+        final var idle = System.nanoTime() - mParkedTime;
+
+        Diagnostics.log(
+          "Idle for %d ms using %d µs CPU",
+          NANOSECONDS.toMillis( idle ),
+          cpu < 0 ? -1 : NANOSECONDS.toMicros( cpu - mParkedCpuTime )
+        );
+      }
+    }
+  }
+
+  /**
+   * Returns the CPU time used by the entire process.
+   *
+   * @return The process CPU time in nanoseconds, or -1 if unavailable.
+   */
+  private static long getProcessCpuTime() {
+    return OS_BEAN instanceof com.sun.management.OperatingSystemMXBean
+      ? ((com.sun.management.OperatingSystemMXBean) OS_BEAN)
+      .getProcessCpuTime()
+      : -1;
+  }
+}
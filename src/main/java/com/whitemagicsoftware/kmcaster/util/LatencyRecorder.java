@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.util;
+
+import java.util.Arrays;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Responsible for recording the latency of a fixed number of events, then
+ * reporting the first event's latency and the distribution over all of
+ * them. Only the events after launch are recorded because those are the
+ * ones affected by cold code paths.
+ */
+public final class LatencyRecorder {
+  private final long[] mSamples;
+
+  /**
+   * Number of samples recorded, written by one thread, read by others.
+   */
+  private volatile int mCount;
+
+  /**
+   * Creates a recorder for the given number of events.
+   *
+   * @param capacity The number of events to measure before reporting.
+   */
+  public LatencyRecorder( final int capacity ) {
+    assert capacity > 0;
+
+    mSamples = new long[ capacity ];
+  }
+
+  /**
+   * Records the latency of one event. The first sample is reported
+   * immediately; a summary is reported once all samples are recorded.
+   *
+   * @param nanos Nanoseconds from receiving the event to displaying it.
+   */
+  public void record( final long nanos ) {
+    final var count = mCount;
+
+    if( count < mSamples.length ) {
+      mSamples[ count ] = nanos;
+      mCount = count + 1;
+
+      if( count == 0 ) {
+        Diagnostics.log( "First event latency %d µs", toMicros( nanos ) );
+      }
+      else if( count + 1 == mSamples.length ) {
+        report();
+      }
+    }
+  }
+
+  /**
+   * Answers whether all samples have been recorded, so that callers can
+   * avoid taking further measurements.
+   *
+   * @return {@code true} once no more samples will be recorded.
+   */
+  public boolean isFull() {
+    return mCount >= mSamples.length;
+  }
+
+  private void report() {
+    final var sorted = mSamples.clone();
+    Arrays.sort( sorted );
+
+    Diagnostics.log(
+      "Latency over first %d events: p50 %d µs, p99 %d µs, max %d µs",
+      sorted.length,
+      toMicros( percentile( sorted, 50 ) ),
+      toMicros( percentile( sorted, 99 ) ),
+      toMicros( sorted[ sorted.length - 1 ] )
+    );
+  }
+
+  /**
+   * Uses the nearest-rank method.
+   */
+  private static long percentile( final long[] sorted, final int p ) {
+    final var rank = (int) Math.ceil( p / 100.0 * sorted.length );
+    return sorted[ Math.max( 0, rank - 1 ) ];
+  }
+
+  private static long toMicros( final long nanos ) {
+    return NANOSECONDS.toMicros( nanos );
+  }
+}
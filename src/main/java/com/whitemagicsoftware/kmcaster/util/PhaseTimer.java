@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Responsible for recording when named phases of a concurrent process
+ * complete, relative to when the timer was created. The phases are kept
+ * until they are logged because they may complete before diagnostics are
+ * enabled.
+ */
+public final class PhaseTimer {
+  private final long mStarted = System.nanoTime();
+
+  /**
+   * Milliseconds from creation until each phase completed, in order of
+   * completion.
+   */
+  private final Map<String, Long> mPhases = new LinkedHashMap<>();
+
+  /**
+   * Records the time at which the given phase completed.
+   *
+   * @param phase The name of the phase to record.
+   */
+  public synchronized void mark( final String phase ) {
+    mPhases.put(
+      phase, NANOSECONDS.toMillis( System.nanoTime() - mStarted ) );
+  }
+
+  /**
+   * Records the time at which the given future completes, whether normally
+   * or exceptionally.
+   *
+   * @param phase  The name of the phase to record.
+   * @param future The computation that completes the phase.
+   * @param <T>    The type of result computed by the phase.
+   * @return A future that completes after the phase is recorded.
+   */
+  public <T> CompletableFuture<T> track(
+    final String phase, final CompletableFuture<T> future ) {
+    return future.whenComplete( ( result, ex ) -> mark( phase ) );
+  }
+
+  /**
+   * Writes every recorded phase as a diagnostic message.
+   *
+   * @param title Describes the process that was timed.
+   */
+  public synchronized void log( final String title ) {
+    final var joiner = new StringJoiner( ", " );
+
+    mPhases.forEach(
+      ( phase, millis ) -> joiner.add( phase + " " + millis + " ms" ) );
+
+    Diagnostics.log( "%s: %s", title, joiner );
+  }
+}
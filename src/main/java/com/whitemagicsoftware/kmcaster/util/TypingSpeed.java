@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 White Magic Software, Ltd.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.whitemagicsoftware.kmcaster.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Responsible for measuring typing speed over a rolling time window. Key
+ * press times are written into a fixed-size ring buffer of primitives, so
+ * recording a key press takes constant time and allocates nothing, which
+ * keeps the native hook thread responsive. The speed is calculated by a
+ * reader on another thread, which scans only the presses within the window.
+ * <p>
+ * There must be a single writer thread. Presses that are overwritten
+ * before they leave the window are not counted, so the capacity must
+ * exceed the number of key presses possible within the window.
+ * </p>
+ */
+public final class TypingSpeed {
+  /**
+   * Conventional number of characters in a word, including the space.
+   */
+  private static final double CHARS_PER_WORD = 5;
+
+  private final long[] mTimes;
+  private final long mWindow;
+
+  /**
+   * Total number of presses recorded, written by the hook thread only.
+   */
+  private volatile long mCount;
+
+  /**
+   * Whether a reader is periodically calculating the speed.
+   */
+  private final AtomicBoolean mActive = new AtomicBoolean();
+
+  /**
+   * Creates a meter for the given number of presses and window duration.
+   *
+   * @param capacity    Maximum number of key presses within the window.
+   * @param windowNanos Duration of the rolling window, in nanoseconds.
+   */
+  public TypingSpeed( final int capacity, final long windowNanos ) {
+    assert capacity > 0;
+    assert windowNanos > 0;
+
+    mTimes = new long[ capacity ];
+    mWindow = windowNanos;
+  }
+
+  /**
+   * Records a key press. This must only be called from one thread.
+   *
+   * @param nanos The press time from {@link System#nanoTime()}.
+   * @return {@code true} if the meter was idle, in which case the caller
+   * should start calculating the speed periodically.
+   */
+  public boolean record( final long nanos ) {
+    final var count = mCount;
+
+    mTimes[ (int) (count % mTimes.length) ] = nanos;
+    mCount = count + 1;
+
+    return !mActive.get() && mActive.compareAndSet( false, true );
+  }
+
+  /**
+   * Marks the meter as idle, called after the last press leaves the window.
+   *
+   * @param now The current time from {@link System#nanoTime()}.
+   * @return {@code true} if a press arrived while becoming idle, in which
+   * case the caller should continue calculating the speed.
+   */
+  public boolean park( final long now ) {
+    mActive.set( false );
+
+    return count( now ) > 0 && mActive.compareAndSet( false, true );
+  }
+
+  /**
+   * Returns the number of key presses within the window ending now.
+   *
+   * @param now The current time from {@link System#nanoTime()}.
+   * @return The number of recent key presses.
+   */
+  public int count( final long now ) {
+    final var total = mCount;
+    final var oldest = Math.max( 0, total - mTimes.length );
+    final var start = now - mWindow;
+    var i = total;
+
+    while( i > oldest && mTimes[ (int) ((i - 1) % mTimes.length) ] >= start ) {
+      i--;
+    }
+
+    return (int) (total - i);
+  }
+
+  /**
+   * Returns the average rate of key presses within the window ending now.
+   *
+   * @param now The current time from {@link System#nanoTime()}.
+   * @return Key presses per second.
+   */
+  public double getKeysPerSecond( final long now ) {
+    return count( now ) * 1e9 / mWindow;
+  }
+
+  /**
+   * Converts a key press rate to words per minute.
+   *
+   * @param keysPerSecond The key press rate.
+   * @return The typing speed in words per minute.
+   */
+  public static double toWordsPerMinute( final double keysPerSecond ) {
+    return keysPerSecond * 60 / CHARS_PER_WORD;
+  }
+}